@@ -99,6 +99,8 @@ CREATE TABLE `xiaozhi`.`sys_role` (
   `roleDesc` TEXT DEFAULT NULL COMMENT '角色描述',
   `ttsId` int DEFAULT NULL COMMENT 'TTS服务ID',
   `voiceName` varchar(100) NOT NULL COMMENT '角色语音名称',
+  `firstChunkLength` int DEFAULT NULL COMMENT '首句最大等待字符数，为空使用系统默认',
+  `firstChunkTimeout` int DEFAULT NULL COMMENT '首句最长等待时间(毫秒)，为空使用系统默认',
   `state` enum('1','0') DEFAULT '1' COMMENT '状态：1-启用，0-禁用',
   `isDefault` enum('1','0') DEFAULT '0' COMMENT '是否默认角色：1-是，0-否',
   `userId` int NOT NULL COMMENT '创建人',
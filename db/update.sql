@@ -33,3 +33,5 @@ INSERT INTO `sys_template` (`userId`, `templateName`, `templateDesc`, `templateC
 
 ALTER TABLE xiaozhi.sys_device ADD COLUMN function_names varchar(250) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '可用全局function的名称列表(逗号分割)，为空则使用所有全局function';
 ALTER TABLE xiaozhi.sys_message ADD COLUMN messageType varchar(20) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '消息类型';
+ALTER TABLE xiaozhi.sys_role ADD COLUMN firstChunkLength int DEFAULT NULL COMMENT '首句最大等待字符数，为空使用系统默认' AFTER voiceName;
+ALTER TABLE xiaozhi.sys_role ADD COLUMN firstChunkTimeout int DEFAULT NULL COMMENT '首句最长等待时间(毫秒)，为空使用系统默认' AFTER firstChunkLength;
@@ -10,6 +10,7 @@ import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysUser;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.utils.CmsUtils;
+import com.xiaozhi.websocket.llm.LlmManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +38,9 @@ public class ConfigController {
     @Resource
     private SysConfigService configService;
 
+    @Resource
+    private LlmManager llmManager;
+
     /**
      * 配置查询
      * 
@@ -80,6 +84,8 @@ public class ConfigController {
                     config.setUserId(user.getUserId());
                 }
                 configService.update(config);
+                // 使用该配置的LLM服务实例按新配置重建
+                llmManager.invalidateConfig(config.getConfigId());
                 return AjaxResult.success();
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
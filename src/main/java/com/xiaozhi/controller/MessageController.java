@@ -6,10 +6,12 @@ import com.xiaozhi.entity.*;
 import com.xiaozhi.service.SysDeviceService;
 import com.xiaozhi.service.SysMessageService;
 import com.xiaozhi.utils.CmsUtils;
+import com.xiaozhi.websocket.tts.factory.TtsServiceFactory;
 
 import org.bytedeco.librealsense.device;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ServerWebExchange;
 
@@ -18,6 +20,7 @@ import java.util.List;
 import javax.annotation.Resource;
 
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import org.springframework.web.bind.annotation.GetMapping;
 
 
@@ -38,6 +41,9 @@ public class MessageController {
     @Resource
     private SysDeviceService deviceService;
 
+    @Resource
+    private TtsServiceFactory ttsService;
+
     /**
      * 查询对话
      *
@@ -88,5 +94,51 @@ public class MessageController {
             }
         });
     }
-    
+
+    /**
+     * 获取消息语音
+     * 助手消息没有归档语音时（如对话被打断），在管理端请求播放时才合成
+     * 
+     * @param message
+     * @return
+     */
+    @GetMapping("/audio")
+    public Mono<AjaxResult> audio(SysMessage message, ServerWebExchange exchange) {
+        return Mono.fromCallable(() -> {
+            try {
+                if (message.getMessageId() == null) {
+                    return AjaxResult.error("消息ID不能为空");
+                }
+                // 从请求属性中获取用户信息
+                SysUser user = exchange.getAttribute(CmsUtils.USER_ATTRIBUTE_KEY);
+                if (user != null) {
+                    message.setUserId(user.getUserId());
+                }
+
+                List<SysMessage> messageList = messageService.query(message);
+                if (messageList.isEmpty()) {
+                    return AjaxResult.error("消息不存在");
+                }
+                SysMessage record = messageList.get(0);
+                String audioPath = record.getAudioPath();
+                if (!StringUtils.hasText(audioPath)) {
+                    if (!"assistant".equals(record.getSender()) || !StringUtils.hasText(record.getMessage())) {
+                        return AjaxResult.error("该消息没有语音");
+                    }
+                    // 目前按需生成的语音采用默认的语音合成服务
+                    audioPath = ttsService.getDefaultTtsService().textToSpeech(record.getMessage());
+                    messageService.updateAudioPath(new SysMessage()
+                            .setMessageId(record.getMessageId())
+                            .setAudioPath(audioPath));
+                }
+                AjaxResult result = AjaxResult.success();
+                result.put("data", audioPath);
+                return result;
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                return AjaxResult.error();
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
 }
\ No newline at end of file
@@ -16,5 +16,7 @@ public interface MessageMapper {
 
   int delete(SysMessage message);
 
+  int updateAudioPath(SysMessage message);
+
   List<SysMessage> query(SysMessage message);
 }
\ No newline at end of file
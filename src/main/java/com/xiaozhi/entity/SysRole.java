@@ -22,6 +22,16 @@ public class SysRole extends SysConfig {
 
     private Integer ttsId;
 
+    /**
+     * 首句最大等待字符数，超过后在安全位置提前断句
+     */
+    private Integer firstChunkLength;
+
+    /**
+     * 首句最长等待时间（毫秒），从收到第一个token开始计算
+     */
+    private Integer firstChunkTimeout;
+
     public Integer getTtsId() {
         return ttsId;
     }
@@ -30,6 +40,24 @@ public class SysRole extends SysConfig {
         return this;
     }
 
+    public Integer getFirstChunkLength() {
+        return firstChunkLength;
+    }
+
+    public SysRole setFirstChunkLength(Integer firstChunkLength) {
+        this.firstChunkLength = firstChunkLength;
+        return this;
+    }
+
+    public Integer getFirstChunkTimeout() {
+        return firstChunkTimeout;
+    }
+
+    public SysRole setFirstChunkTimeout(Integer firstChunkTimeout) {
+        this.firstChunkTimeout = firstChunkTimeout;
+        return this;
+    }
+
     public Integer getRoleId() {
         return roleId;
     }
@@ -35,4 +35,12 @@ public interface SysMessageService {
    */
   public int delete(SysMessage message);
 
+  /**
+   * 更新消息的语音文件路径
+   * 
+   * @param message
+   * @return
+   */
+  public int updateAudioPath(SysMessage message);
+
 }
\ No newline at end of file
@@ -63,4 +63,16 @@ public class SysMessageServiceImpl implements SysMessageService {
         return messageMapper.delete(message);
     }
 
+    /**
+     * 更新消息的语音文件路径
+     * 
+     * @param message
+     * @return
+     */
+    @Override
+    @Transactional
+    public int updateAudioPath(SysMessage message) {
+        return messageMapper.updateAudioPath(message);
+    }
+
 }
\ No newline at end of file
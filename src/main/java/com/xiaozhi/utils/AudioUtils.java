@@ -1,17 +1,24 @@
 package com.xiaozhi.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FrameRecorder;
 import org.slf4j.Logger;
 
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusException;
+
 public class AudioUtils {
     public static final String AUDIO_PATH = "audio/";
     private static final Logger logger = org.slf4j.LoggerFactory.getLogger(AudioUtils.class);
@@ -20,6 +27,13 @@ public class AudioUtils {
     public static final int BITRATE = 24000; // 24kbps比特率
     public static final int SAMPLE_FORMAT = avutil.AV_SAMPLE_FMT_S16; // 16位PCM
 
+    // WebM(EBML)中需要用到的元素ID
+    private static final int EBML_SEGMENT = 0x18538067;
+    private static final int EBML_CLUSTER = 0x1F43B675;
+    private static final int EBML_BLOCK_GROUP = 0xA0;
+    private static final int EBML_BLOCK = 0xA1;
+    private static final int EBML_SIMPLE_BLOCK = 0xA3;
+
     /**
      * 将原始音频数据保存为MP3文件
      * 
@@ -272,6 +286,132 @@ public class AudioUtils {
         }
     }
 
+    /**
+     * 将WebM封装的Opus音频直接解码为PCM
+     * Opus解码器可以直接按16kHz输出，不需要经过MP3解码和ffmpeg重采样
+     * 
+     * @param webmPath WebM/Opus文件路径
+     * @return PCM数据字节数组（16kHz, 单声道, 16位）
+     */
+    public static byte[] webmOpusToPcm(String webmPath) throws IOException {
+        return webmOpusBytesToPcm(Files.readAllBytes(Paths.get(webmPath)));
+    }
+
+    /**
+     * 将WebM封装的Opus字节数据解码为PCM
+     * 
+     * @param webmData WebM/Opus字节数据
+     * @return PCM数据字节数组（16kHz, 单声道, 16位）
+     */
+    public static byte[] webmOpusBytesToPcm(byte[] webmData) throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        parseWebm(webmData, 0, webmData.length, packets);
+        if (packets.isEmpty()) {
+            throw new IOException("WebM中没有Opus数据包");
+        }
+
+        try {
+            OpusDecoder decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
+            // 单个Opus包最长120ms
+            short[] buf = new short[SAMPLE_RATE * 120 / 1000 * CHANNELS];
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packets.size() * 640);
+            for (byte[] packet : packets) {
+                int samples = decoder.decode(packet, 0, packet.length, buf, 0, buf.length / CHANNELS, false);
+                for (int i = 0; i < samples * CHANNELS; i++) {
+                    out.write(buf[i] & 0xFF);
+                    out.write((buf[i] >> 8) & 0xFF);
+                }
+            }
+            return out.toByteArray();
+        } catch (OpusException e) {
+            throw new IOException("Opus解码失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解析WebM(EBML)结构，提取SimpleBlock/Block中的音频帧
+     * 只有一个音轨，且Edge返回的数据不使用lacing
+     */
+    private static void parseWebm(byte[] data, int start, int end, List<byte[]> packets) {
+        int pos = start;
+        while (pos < end) {
+            // 元素ID（保留长度标记位）
+            int idLength = ebmlVintLength(data[pos]);
+            if (idLength == 0 || idLength > 4 || pos + idLength > end) {
+                return;
+            }
+            int id = 0;
+            for (int i = 0; i < idLength; i++) {
+                id = (id << 8) | (data[pos + i] & 0xFF);
+            }
+            pos += idLength;
+            if (pos >= end) {
+                return;
+            }
+
+            // 元素大小（去掉长度标记位，全1表示未知大小）
+            int sizeLength = ebmlVintLength(data[pos]);
+            if (sizeLength == 0 || pos + sizeLength > end) {
+                return;
+            }
+            long size = data[pos] & (0xFF >> sizeLength);
+            boolean unknownSize = size == (0xFF >> sizeLength);
+            for (int i = 1; i < sizeLength; i++) {
+                size = (size << 8) | (data[pos + i] & 0xFF);
+                unknownSize &= (data[pos + i] & 0xFF) == 0xFF;
+            }
+            pos += sizeLength;
+            int elementEnd = unknownSize || pos + size > end ? end : (int) (pos + size);
+
+            if (id == EBML_SEGMENT || id == EBML_CLUSTER || id == EBML_BLOCK_GROUP) {
+                parseWebm(data, pos, elementEnd, packets);
+            } else if ((id == EBML_SIMPLE_BLOCK || id == EBML_BLOCK) && pos < elementEnd) {
+                // 音轨号(vint) + 时间码(2字节) + 标志(1字节) + 帧数据
+                int frameStart = pos + ebmlVintLength(data[pos]) + 3;
+                boolean laced = frameStart <= elementEnd && (data[frameStart - 1] & 0x06) != 0;
+                if (!laced && frameStart < elementEnd) {
+                    packets.add(Arrays.copyOfRange(data, frameStart, elementEnd));
+                }
+            }
+            pos = elementEnd;
+        }
+    }
+
+    /**
+     * EBML变长整数的字节数，由首字节前导0的个数决定
+     */
+    private static int ebmlVintLength(byte first) {
+        int b = first & 0xFF;
+        for (int length = 1; length <= 8; length++) {
+            if ((b & (0x80 >> (length - 1))) != 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 将多个音频文件按顺序拼接为一个WAV文件
+     * 
+     * @param audioPaths 音频文件路径列表（wav/mp3/pcm）
+     * @return 拼接后的文件路径，失败返回null
+     */
+    public static String mergeAsWav(List<String> audioPaths) {
+        if (audioPaths == null || audioPaths.isEmpty()) {
+            return null;
+        }
+        try (ByteArrayOutputStream pcm = new ByteArrayOutputStream()) {
+            for (String audioPath : audioPaths) {
+                pcm.write(readAsPcm(audioPath));
+            }
+            String fileName = saveAsWav(pcm.toByteArray());
+            return fileName == null ? null : AUDIO_PATH + fileName;
+        } catch (IOException e) {
+            logger.error("拼接音频文件失败", e);
+            return null;
+        }
+    }
+
     /**
      * 检测音频文件格式并返回MIME类型
      * 
@@ -16,8 +16,6 @@ import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import javax.annotation.PreDestroy;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -29,11 +27,6 @@ import java.nio.file.Files;
 public class OpusProcessor {
     private static final Logger logger = LoggerFactory.getLogger(OpusProcessor.class);
 
-    // 缓存
-    private final ConcurrentHashMap<String, OpusDecoder> decoders = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, OpusEncoder> encoders = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, short[]> overlaps = new ConcurrentHashMap<>();
-
     // 常量
     private static final int FRAME_SIZE = 960;
     private static final int SAMPLE_RATE = AudioUtils.SAMPLE_RATE;
@@ -44,16 +37,24 @@ public class OpusProcessor {
     // 预热帧数量 - 添加几个静音帧来预热编解码器
     private static final int PREWARM_FRAMES = 2;
 
+    /**
+     * 单个会话的编解码器，由会话上下文持有，随会话一起释放
+     */
+    public static class Codec {
+        private OpusDecoder decoder;
+        private OpusEncoder encoder;
+    }
+
     /**
      * Opus转PCM字节数组
      */
-    public byte[] opusToPcm(String sid, byte[] data) throws OpusException {
+    public byte[] opusToPcm(Codec codec, byte[] data) throws OpusException {
         if (data == null || data.length == 0) {
             return new byte[0];
         }
 
         try {
-            OpusDecoder decoder = getDecoder(sid);
+            OpusDecoder decoder = getDecoder(codec);
             short[] buf = new short[FRAME_SIZE * 6];
             int samples = decoder.decode(data, 0, data.length, buf, 0, buf.length, false);
 
@@ -66,7 +67,7 @@ public class OpusProcessor {
             return pcm;
         } catch (OpusException e) {
             logger.warn("解码失败: {}", e.getMessage());
-            resetDecoder(sid);
+            resetDecoder(codec);
             throw e;
         }
     }
@@ -74,13 +75,13 @@ public class OpusProcessor {
     /**
      * Opus转short数组
      */
-    public short[] opusToShort(String sid, byte[] data) throws OpusException {
+    public short[] opusToShort(Codec codec, byte[] data) throws OpusException {
         if (data == null || data.length == 0) {
             return new short[0];
         }
 
         try {
-            OpusDecoder decoder = getDecoder(sid);
+            OpusDecoder decoder = getDecoder(codec);
             short[] buf = new short[FRAME_SIZE * 6];
             int samples = decoder.decode(data, 0, data.length, buf, 0, buf.length, false);
 
@@ -93,7 +94,7 @@ public class OpusProcessor {
             return buf;
         } catch (OpusException e) {
             logger.warn("解码失败: {}", e.getMessage());
-            resetDecoder(sid);
+            resetDecoder(codec);
             throw e;
         }
     }
@@ -101,7 +102,7 @@ public class OpusProcessor {
     /**
      * OGG转PCM
      */
-    public byte[] oggToPcm(String sid, byte[] data) {
+    public byte[] oggToPcm(Codec codec, byte[] data) {
         if (data == null || data.length == 0) {
             return new byte[0];
         }
@@ -111,7 +112,7 @@ public class OpusProcessor {
             if (data.length < 4 || data[0] != 'O' || data[1] != 'g' || data[2] != 'g' || data[3] != 'S') {
                 try {
                     // 尝试直接解码
-                    return opusToPcm(sid, data);
+                    return opusToPcm(codec, data);
                 } catch (OpusException e) {
                     logger.warn("非OGG格式解码失败: {}", e.getMessage());
                     return new byte[0];
@@ -138,7 +139,7 @@ public class OpusProcessor {
                         continue;
                     }
 
-                    byte[] pcm = opusToPcm(sid, packet);
+                    byte[] pcm = opusToPcm(codec, packet);
                     if (pcm.length > 0) {
                         out.write(pcm);
                         count++;
@@ -485,26 +486,31 @@ public class OpusProcessor {
     /**
      * 获取解码器
      */
-    public OpusDecoder getDecoder(String sid) {
-        return decoders.computeIfAbsent(sid, k -> {
-            try {
-                OpusDecoder decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
-                decoder.setGain(0);
-                return decoder;
-            } catch (OpusException e) {
-                logger.error("创建解码器失败", e);
-                throw new RuntimeException("创建解码器失败", e);
+    public OpusDecoder getDecoder(Codec codec) {
+        synchronized (codec) {
+            if (codec.decoder == null) {
+                try {
+                    OpusDecoder decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
+                    decoder.setGain(0);
+                    codec.decoder = decoder;
+                } catch (OpusException e) {
+                    logger.error("创建解码器失败", e);
+                    throw new RuntimeException("创建解码器失败", e);
+                }
             }
-        });
+            return codec.decoder;
+        }
     }
 
     /**
      * 重置解码器
      */
-    public void resetDecoder(String sid) {
-        decoders.remove(sid);
+    public void resetDecoder(Codec codec) {
+        synchronized (codec) {
+            codec.decoder = null;
+        }
         try {
-            getDecoder(sid);
+            getDecoder(codec);
         } catch (Exception e) {
             logger.error("重置解码器失败", e);
         }
@@ -513,7 +519,7 @@ public class OpusProcessor {
     /**
      * PCM转Opus
      */
-    public List<byte[]> pcmToOpus(String sid, byte[] pcm) throws OpusException {
+    public List<byte[]> pcmToOpus(Codec codec, byte[] pcm) throws OpusException {
         if (pcm == null || pcm.length == 0) {
             return new ArrayList<>();
         }
@@ -533,7 +539,7 @@ public class OpusProcessor {
         }
 
         // 获取编码器
-        OpusEncoder encoder = getEncoder(sid, SAMPLE_RATE, CHANNELS);
+        OpusEncoder encoder = getEncoder(codec);
 
         // 处理PCM
         List<byte[]> frames = new ArrayList<>();
@@ -643,59 +649,31 @@ public class OpusProcessor {
         }
     }
 
-    /**
-     * 清理会话
-     */
-    public void cleanup(String sid) {
-        decoders.remove(sid);
-        overlaps.remove(sid);
-
-        // 清理编码器
-        List<String> toRemove = new ArrayList<>();
-        for (String key : encoders.keySet()) {
-            if (key.startsWith(sid + "_")) {
-                toRemove.add(key);
-            }
-        }
-
-        for (String key : toRemove) {
-            encoders.remove(key);
-        }
-    }
-
     /**
      * 获取编码器
      */
-    private OpusEncoder getEncoder(String sid, int rate, int channels) {
-        String key = sid + "_" + rate + "_" + channels;
-        return encoders.computeIfAbsent(key, k -> {
-            try {
-                OpusEncoder encoder = new OpusEncoder(rate, channels, OpusApplication.OPUS_APPLICATION_VOIP);
-
-                // 优化设置
-                encoder.setBitrate(AudioUtils.BITRATE);
-                encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
-                encoder.setComplexity(5); // 复杂度高音质好，低速度快
-                encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
-                encoder.setForceChannels(channels);
-                encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
-                encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
-                
-                return encoder;
-            } catch (OpusException e) {
-                logger.error("创建编码器失败: 采样率={}, 通道={}", rate, channels, e);
-                throw new RuntimeException("创建编码器失败", e);
+    private OpusEncoder getEncoder(Codec codec) {
+        synchronized (codec) {
+            if (codec.encoder == null) {
+                try {
+                    OpusEncoder encoder = new OpusEncoder(SAMPLE_RATE, CHANNELS, OpusApplication.OPUS_APPLICATION_VOIP);
+
+                    // 优化设置
+                    encoder.setBitrate(AudioUtils.BITRATE);
+                    encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+                    encoder.setComplexity(5); // 复杂度高音质好，低速度快
+                    encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
+                    encoder.setForceChannels(CHANNELS);
+                    encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
+                    encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
+
+                    codec.encoder = encoder;
+                } catch (OpusException e) {
+                    logger.error("创建编码器失败: 采样率={}, 通道={}", SAMPLE_RATE, CHANNELS, e);
+                    throw new RuntimeException("创建编码器失败", e);
+                }
             }
-        });
-    }
-
-    /**
-     * 释放资源
-     */
-    @PreDestroy
-    public void cleanup() {
-        decoders.clear();
-        encoders.clear();
-        overlaps.clear();
+            return codec.encoder;
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,8 +4,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
  * 基于TarsosDSP的噪声抑制处理器
  * 使用简单的信号处理技术进行降噪
@@ -23,15 +21,17 @@ public class TarsosNoiseReducer {
     // 频谱减法因子
     private double spectralSubtractionFactor = 1.5;
 
-    // 存储每个会话的噪声配置文件
-    private final ConcurrentHashMap<String, float[]> sessionNoiseProfiles = new ConcurrentHashMap<>();
-
-    // 存储每个会话的训练状态
-    private final ConcurrentHashMap<String, Integer> sessionTrainingFrames = new ConcurrentHashMap<>();
-
     // 噪声地板
     private float noiseFloor = 0.01f;
 
+    /**
+     * 单个会话的噪声配置文件和训练状态，由会话上下文持有，随会话一起释放
+     */
+    public static class NoiseProfile {
+        private float[] profile;
+        private int trainingFrames = 0;
+    }
+
     public TarsosNoiseReducer() {
         logger.info("噪声抑制处理器已初始化");
     }
@@ -62,33 +62,22 @@ public class TarsosNoiseReducer {
         logger.info("噪声估计窗口已更新为: {} 帧", frames);
     }
 
-    /**
-     * 初始化会话的噪声减少器
-     * 
-     * @param sessionId 会话ID
-     */
-    public void initializeSession(String sessionId) {
-        if (!sessionNoiseProfiles.containsKey(sessionId)) {
-            sessionNoiseProfiles.put(sessionId, new float[bufferSize]);
-            sessionTrainingFrames.put(sessionId, 0);
-        }
-    }
-
     /**
      * 处理PCM音频数据
      * 
-     * @param sessionId 会话ID
-     * @param pcmData   原始PCM音频数据
+     * @param noiseProfile 会话的噪声配置文件
+     * @param pcmData      原始PCM音频数据
      * @return 处理后的PCM音频数据
      */
-    public byte[] processAudio(String sessionId, byte[] pcmData) {
+    public byte[] processAudio(NoiseProfile noiseProfile, byte[] pcmData) {
         if (pcmData == null || pcmData.length < 2) {
             return pcmData;
         }
 
         // 确保会话已初始化
-        if (!sessionNoiseProfiles.containsKey(sessionId)) {
-            initializeSession(sessionId);
+        if (noiseProfile.profile == null) {
+            noiseProfile.profile = new float[bufferSize];
+            noiseProfile.trainingFrames = 0;
         }
 
         // 将PCM字节数据转换为short数组
@@ -98,7 +87,7 @@ public class TarsosNoiseReducer {
         }
 
         // 处理音频数据
-        short[] processedSamples = processShortSamples(sessionId, samples);
+        short[] processedSamples = processShortSamples(noiseProfile, samples);
 
         // 将处理后的short数组转换回字节数组
         byte[] processedPcm = new byte[processedSamples.length * 2];
@@ -113,17 +102,17 @@ public class TarsosNoiseReducer {
     /**
      * 处理short类型的音频样本
      * 
-     * @param sessionId 会话ID
-     * @param samples   原始音频样本
+     * @param state   会话的噪声配置文件
+     * @param samples 原始音频样本
      * @return 处理后的音频样本
      */
-    private short[] processShortSamples(String sessionId, short[] samples) {
+    private short[] processShortSamples(NoiseProfile state, short[] samples) {
         // 创建输出缓冲区
         short[] output = new short[samples.length];
 
         // 获取会话的噪声配置文件和训练状态
-        float[] noiseProfile = sessionNoiseProfiles.get(sessionId);
-        int trainingFrames = sessionTrainingFrames.get(sessionId);
+        float[] noiseProfile = state.profile;
+        int trainingFrames = state.trainingFrames;
 
         // 确定要处理的块数
         int blockCount = (samples.length + bufferSize - 1) / bufferSize;
@@ -150,7 +139,7 @@ public class TarsosNoiseReducer {
                 if (trainingFrames < noiseEstimationFrames) {
                     updateNoiseProfile(noiseProfile, buffer, trainingFrames);
                     trainingFrames++;
-                    sessionTrainingFrames.put(sessionId, trainingFrames);
+                    state.trainingFrames = trainingFrames;
 
                     // 训练阶段直接返回原始数据
                     for (int j = 0; j < length; j++) {
@@ -218,22 +207,10 @@ public class TarsosNoiseReducer {
     /**
      * 重置会话的噪声估计
      * 
-     * @param sessionId 会话ID
-     */
-    public void resetNoiseEstimate(String sessionId) {
-        sessionNoiseProfiles.put(sessionId, new float[bufferSize]);
-        sessionTrainingFrames.put(sessionId, 0);
-        logger.info("会话 {} 的噪声估计已重置", sessionId);
-    }
-
-    /**
-     * 清理会话资源
-     * 
-     * @param sessionId 会话ID
+     * @param noiseProfile 会话的噪声配置文件
      */
-    public void cleanupSession(String sessionId) {
-        sessionNoiseProfiles.remove(sessionId);
-        sessionTrainingFrames.remove(sessionId);
-        logger.info("会话 {} 的噪声减少器资源已清理", sessionId);
+    public void resetNoiseEstimate(NoiseProfile noiseProfile) {
+        noiseProfile.profile = new float[bufferSize];
+        noiseProfile.trainingFrames = 0;
     }
-}
\ No newline at end of file
+}
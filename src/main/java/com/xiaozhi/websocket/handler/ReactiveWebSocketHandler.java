@@ -169,13 +169,9 @@ public class ReactiveWebSocketHandler implements WebSocketHandler {
                         logger.info("WebSocket连接关闭 - SessionId: {}, DeviceId: {}", sessionId, device.getDeviceId());
                     }
 
-                    // 清理会话
+                    // 清理会话，会话上下文中的识别、对话、播放、VAD和编解码状态一并释放，
+                    // 未完成的识别、LLM请求和语音合成随之取消
                     sessionManager.closeSession(sessionId);
-                    // 清理VAD会话
-                    vadService.resetSession(sessionId);
-
-                    // 清理音频处理会话
-                    audioService.cleanupSession(sessionId);
                 });
     }
 
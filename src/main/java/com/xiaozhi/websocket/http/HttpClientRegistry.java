@@ -0,0 +1,195 @@
+package com.xiaozhi.websocket.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP客户端注册中心
+ * 所有调用外部接口的服务共享一个连接池，每个端点（scheme://host:port）使用独立的Dispatcher，
+ * 避免OkHttp默认每个host最多5个并发请求的限制，同时让不同端点之间互不排队。
+ * LLM/TTS/STT的实现类不是Spring Bean，这里的客户端通过静态方法获取，配置在Spring启动时注入。
+ * 各端点执行中和排队的请求数、连接池的连接数注册为Micrometer指标，注册到全局的Metrics.globalRegistry，
+ * Spring Boot启动后会把Actuator的注册表加入其中。
+ */
+@Component
+public class HttpClientRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientRegistry.class);
+
+    private static final String DEFAULT_ENDPOINT = "default";
+
+    // 默认配置，未经Spring启动时（如单元测试）使用
+    private static volatile int maxRequests = 256;
+    private static volatile int maxRequestsPerHost = 64;
+    private static volatile Map<String, Integer> hostLimits = new ConcurrentHashMap<>();
+
+    // 所有客户端共享的连接池
+    private static volatile ConnectionPool connectionPool = new ConnectionPool(32, 5, TimeUnit.MINUTES);
+
+    // 端点 -> 客户端
+    private static final Map<String, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+    static {
+        Gauge.builder("xiaozhi.http.connections", () -> connectionPool.connectionCount())
+                .description("共享连接池中的连接数")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("xiaozhi.http.connections.idle", () -> connectionPool.idleConnectionCount())
+                .description("共享连接池中的空闲连接数")
+                .register(Metrics.globalRegistry);
+    }
+
+    @Value("${app.http.max-requests:256}")
+    private int configMaxRequests;
+
+    @Value("${app.http.max-requests-per-host:64}")
+    private int configMaxRequestsPerHost;
+
+    // 单独指定某些host的并发上限，格式：host:limit,host:limit
+    @Value("${app.http.host-limits:}")
+    private String configHostLimits;
+
+    @Value("${app.http.max-idle-connections:32}")
+    private int maxIdleConnections;
+
+    @Value("${app.http.keep-alive-seconds:300}")
+    private int keepAliveSeconds;
+
+    @Value("${app.http.metrics-interval-seconds:60}")
+    private int metricsIntervalSeconds;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        Map<String, Integer> limits = new ConcurrentHashMap<>();
+        Arrays.stream(configHostLimits.split(","))
+                .map(String::trim)
+                .filter(item -> item.contains(":"))
+                .forEach(item -> {
+                    int index = item.lastIndexOf(':');
+                    try {
+                        limits.put(item.substring(0, index).trim(), Integer.parseInt(item.substring(index + 1).trim()));
+                    } catch (NumberFormatException e) {
+                        logger.warn("忽略无效的host并发配置: {}", item);
+                    }
+                });
+
+        maxRequests = configMaxRequests;
+        maxRequestsPerHost = configMaxRequestsPerHost;
+        hostLimits = limits;
+        connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+        clients.clear();
+
+        logger.info("HTTP客户端配置 - 最大并发: {}, 每host并发: {}, 空闲连接: {}, keep-alive: {}秒",
+                maxRequests, maxRequestsPerHost, maxIdleConnections, keepAliveSeconds);
+
+        if (metricsIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "http-client-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::logMetrics, metricsIntervalSeconds, metricsIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        clients.values().forEach(client -> client.dispatcher().cancelAll());
+        connectionPool.evictAll();
+    }
+
+    /**
+     * 获取指定端点的共享客户端
+     * 需要不同超时的调用方可以在此基础上newBuilder()，仍然共享同一个Dispatcher和连接池
+     *
+     * @param endpoint 接口地址
+     * @return OkHttp客户端
+     */
+    public static OkHttpClient getClient(String endpoint) {
+        return clients.computeIfAbsent(endpointKey(endpoint), HttpClientRegistry::createClient);
+    }
+
+    private void logMetrics() {
+        try {
+            clients.forEach((key, client) -> {
+                int queued = client.dispatcher().queuedCallsCount();
+                int running = client.dispatcher().runningCallsCount();
+                if (queued > 0) {
+                    logger.warn("HTTP请求排队 - 端点: {}, 执行中: {}, 排队: {}, 并发上限: {}",
+                            key, running, queued, client.dispatcher().getMaxRequestsPerHost());
+                } else if (running > 0) {
+                    logger.debug("HTTP请求 - 端点: {}, 执行中: {}", key, running);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("统计HTTP请求时出错: {}", e.getMessage(), e);
+        }
+    }
+
+    private static String endpointKey(String endpoint) {
+        if (endpoint == null || endpoint.isEmpty()) {
+            return DEFAULT_ENDPOINT;
+        }
+        HttpUrl url = HttpUrl.parse(endpoint.replaceFirst("^wss://", "https://").replaceFirst("^ws://", "http://"));
+        if (url == null) {
+            return DEFAULT_ENDPOINT;
+        }
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    /**
+     * 端点的执行中和排队请求数，按端点查找当前的客户端，重新初始化后仍然有效
+     */
+    private static void registerGauges(String key) {
+        Gauge.builder("xiaozhi.http.requests.running", () -> {
+            OkHttpClient client = clients.get(key);
+            return client == null ? 0 : client.dispatcher().runningCallsCount();
+        }).tag("endpoint", key).description("端点正在执行的请求数").register(Metrics.globalRegistry);
+        Gauge.builder("xiaozhi.http.requests.queued", () -> {
+            OkHttpClient client = clients.get(key);
+            return client == null ? 0 : client.dispatcher().queuedCallsCount();
+        }).tag("endpoint", key).description("端点超出并发上限排队等待的请求数").register(Metrics.globalRegistry);
+    }
+
+    private static OkHttpClient createClient(String key) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        String host = DEFAULT_ENDPOINT.equals(key) ? key : HttpUrl.parse(key).host();
+        dispatcher.setMaxRequestsPerHost(hostLimits.getOrDefault(host, maxRequestsPerHost));
+
+        logger.info("创建HTTP客户端 - 端点: {}, 并发上限: {}", key, dispatcher.getMaxRequestsPerHost());
+        registerGauges(key);
+
+        // HTTP/2通过ALPN协商，端点不支持时自动回退到HTTP/1.1
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+}
@@ -2,29 +2,44 @@ package com.xiaozhi.websocket.llm;
 
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.service.SysConfigService;
-import com.xiaozhi.utils.EmojiUtils;
+import com.xiaozhi.websocket.llm.api.CancellationToken;
 import com.xiaozhi.websocket.llm.api.LlmService;
 import com.xiaozhi.websocket.llm.api.StreamResponseListener;
 import com.xiaozhi.websocket.llm.factory.LlmServiceFactory;
 import com.xiaozhi.websocket.llm.memory.ChatMemory;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
+import com.xiaozhi.websocket.llm.tool.ActionType;
+import com.xiaozhi.websocket.llm.tool.ToolResponse;
+import com.xiaozhi.websocket.llm.tool.ToolType;
 import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
+import com.xiaozhi.websocket.llm.tool.function.IntentMatcher;
+import com.xiaozhi.websocket.llm.tool.function.bean.FunctionCallTool;
+import com.xiaozhi.websocket.service.SessionContext;
 import com.xiaozhi.websocket.service.SessionManager;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * LLM管理器
@@ -34,29 +49,17 @@ import java.util.regex.Pattern;
 public class LlmManager {
     private static final Logger logger = LoggerFactory.getLogger(LlmManager.class);
 
-    // 句子结束标点符号模式（中英文句号、感叹号、问号）
-    private static final Pattern SENTENCE_END_PATTERN = Pattern.compile("[。！？!?]");
+    // 首句长度预算（字符数），角色未配置时使用
+    @Value("${app.llm.first-chunk-length:24}")
+    private int firstChunkLength;
 
-    // 逗号、分号等停顿标点
-    private static final Pattern PAUSE_PATTERN = Pattern.compile("[，、；,;]");
+    // 首句时间预算（毫秒），从收到第一个token开始计算，角色未配置时使用
+    @Value("${app.llm.first-chunk-timeout:800}")
+    private int firstChunkTimeout;
 
-    // 冒号和引号等特殊标点
-    private static final Pattern SPECIAL_PATTERN = Pattern.compile("[：:\"'']");
-
-    // 换行符
-    private static final Pattern NEWLINE_PATTERN = Pattern.compile("[\n\r]");
-
-    // 数字模式（用于检测小数点是否在数字中）
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+\\.\\d+");
-
-    // 表情符号模式
-    private static final Pattern EMOJI_PATTERN = Pattern.compile("\\p{So}|\\p{Sk}|\\p{Sm}");
-
-    // 最小句子长度（字符数）
-    private static final int MIN_SENTENCE_LENGTH = 5;
-
-    // 新句子判断的字符阈值
-    private static final int NEW_SENTENCE_TOKEN_THRESHOLD = 8;
+    // 是否启用本地意图匹配，命中时直接执行iot控制、退出等函数，不经过LLM
+    @Value("${app.llm.local-intent:true}")
+    private boolean localIntentEnabled;
 
     @Autowired
     private SysConfigService configService;
@@ -67,12 +70,15 @@ public class LlmManager {
     @Autowired
     private SessionManager sessionManager;
 
-    // 设备LLM服务缓存，每个设备只保留一个服务
-    private Map<String, LlmService> deviceLlmServices = new ConcurrentHashMap<>();
-    // 设备当前使用的configId缓存
-    private Map<String, Integer> deviceConfigIds = new ConcurrentHashMap<>();
-    // 会话完成状态，因为 coze 会返回两次 onComplete 事件，会导致重复保存到数据库中
-    private final Map<String, AtomicBoolean> sessionCompletionFlags = new ConcurrentHashMap<>();
+    @Autowired
+    private LlmRouter llmRouter;
+
+    // LLM服务缓存，键为configId，使用同一配置的设备共享一个服务实例
+    private final Map<Integer, LlmService> configLlmServices = new ConcurrentHashMap<>();
+
+    // 首句输出耗时：距请求发出、距收到首个token
+    private final Timer firstChunkFromRequest = firstChunkTimer("request");
+    private final Timer firstChunkFromToken = firstChunkTimer("token");
 
     /**
      * 处理用户查询（同步方式）
@@ -87,7 +93,7 @@ public class LlmManager {
             Integer configId = device.getModelId();
 
             // 获取LLM服务
-            LlmService llmService = getLlmService(deviceId, configId);
+            LlmService llmService = getLlmService(configId);
 
             // 创建模型上下文
             ModelContext modelContext = new ModelContext(
@@ -113,25 +119,31 @@ public class LlmManager {
      * @param streamListener 流式响应监听器
      */
     public void chatStream(SysDevice device, String message, StreamResponseListener streamListener) {
+        chatStream(device, message, new CancellationToken(), streamListener);
+    }
+
+    /**
+     * 处理用户查询（流式方式，可取消）
+     * 
+     * @param device         设备信息
+     * @param message        用户消息
+     * @param turnToken      本轮对话的取消令牌，取消后中断请求，不再回调监听器
+     * @param streamListener 流式响应监听器
+     */
+    public void chatStream(SysDevice device, String message, CancellationToken turnToken,
+            StreamResponseListener streamListener) {
         try {
-            String deviceId = device.getDeviceId();
             Integer configId = device.getModelId();
 
-            // 获取LLM服务
-            LlmService llmService = getLlmService(deviceId, configId);
+            // 配置属于某个池时，由路由选择成员，必要时发起对冲请求
+            if (llmRouter.isPooled(configId)) {
+                llmRouter.chatStream(configId,
+                        (memberId, token, listener) -> chatStream(device, message, memberId, token, listener),
+                        streamListener, turnToken);
+                return;
+            }
 
-            FunctionSessionHolder functionSessionHolder = sessionManager
-                    .getFunctionSessionHolder(device.getSessionId());
-            // 创建模型上下文
-            ModelContext modelContext = new ModelContext(
-                    deviceId,
-                    device.getSessionId(),
-                    device.getRoleId(),
-                    chatMemory,
-                    functionSessionHolder);
-
-            // 调用LLM流式接口
-            llmService.chatStream(message, modelContext, streamListener);
+            chatStream(device, message, configId, turnToken, streamListener);
 
         } catch (Exception e) {
             logger.error("处理流式查询时出错: {}", e.getMessage(), e);
@@ -139,6 +151,29 @@ public class LlmManager {
         }
     }
 
+    /**
+     * 使用指定的配置发起流式请求
+     */
+    private void chatStream(SysDevice device, String message, Integer configId, CancellationToken token,
+            StreamResponseListener streamListener) throws IOException {
+        // 获取LLM服务
+        LlmService llmService = getLlmService(configId);
+
+        FunctionSessionHolder functionSessionHolder = sessionManager
+                .getFunctionSessionHolder(device.getSessionId());
+        // 创建模型上下文
+        ModelContext modelContext = new ModelContext(
+                device.getDeviceId(),
+                device.getSessionId(),
+                device.getRoleId(),
+                chatMemory,
+                functionSessionHolder)
+                .setCancellationToken(token);
+
+        // 调用LLM流式接口
+        llmService.chatStream(message, modelContext, streamListener);
+    }
+
     /**
      * 处理用户查询（流式方式，使用lambda表达式）
      * 
@@ -190,18 +225,62 @@ public class LlmManager {
 
     public void chatStreamBySentence(SysDevice device, String message,
             TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        chatStreamBySentence(device, message, new CancellationToken(), sentenceHandler);
+    }
+
+    /**
+     * 处理用户查询（按句子输出，可取消）
+     * 
+     * @param device          设备信息
+     * @param message         用户消息
+     * @param turnToken       本轮对话的取消令牌，取消后不再输出句子
+     * @param sentenceHandler 句子处理函数，参数为句子、是否第一句、是否最后一句
+     */
+    public void chatStreamBySentence(SysDevice device, String message, CancellationToken turnToken,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        chatStreamBySentence(device, message, turnToken, sentenceHandler, null);
+    }
+
+    /**
+     * 用稳定的识别中间结果提前发起请求，输出在提交前对设备不可见
+     * 
+     * @param device    设备信息
+     * @param message   识别的中间结果
+     * @param turnToken 本轮对话的取消令牌
+     * @return 推测请求；本地意图能直接处理的文本不推测，返回null
+     */
+    public Speculation speculate(SysDevice device, String message, CancellationToken turnToken) {
+        if (localIntentEnabled) {
+            FunctionSessionHolder functionSessionHolder = sessionManager
+                    .getFunctionSessionHolder(device.getSessionId());
+            if (functionSessionHolder != null && functionSessionHolder.getIntentMatcher().match(message) != null) {
+                return null;
+            }
+        }
+        CancellationToken token = new CancellationToken();
+        turnToken.onCancel(token::cancel);
+        Speculation speculation = new Speculation(message, token);
+        logger.debug("发起推测请求 - SessionId: {}, 文本: {}", device.getSessionId(), message);
+        chatStreamBySentence(device, message, token, speculation::acceptSentence, speculation);
+        return speculation;
+    }
+
+    /**
+     * 按句子输出，speculation不为空时是推测请求：句子和消息入库推迟到提交，出错或需要调用函数时放弃推测
+     */
+    private void chatStreamBySentence(SysDevice device, String message, CancellationToken turnToken,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, Speculation speculation) {
         try {
             final String deviceId = device.getDeviceId();
             final String sessionId = device.getSessionId();
             final Integer roleId = device.getRoleId();
 
-            // 为这个会话创建或重置完成标志
-            AtomicBoolean sessionCompleted = sessionCompletionFlags.computeIfAbsent(sessionId,
-                    k -> new AtomicBoolean(false));
-            sessionCompleted.set(false);
+            // 本次请求的完成标志（coze会返回两次onComplete事件，避免重复保存到数据库中），
+            // 每个请求单独使用一个标志，推测请求与正式请求同时存在时互不影响
+            SessionContext context = sessionManager.getContext(sessionId);
+            AtomicBoolean sessionCompleted = new AtomicBoolean(false);
 
-            FunctionSessionHolder functionSessionHolder = sessionManager
-                    .getFunctionSessionHolder(device.getSessionId());
+            FunctionSessionHolder functionSessionHolder = context != null ? context.getFunctionSessionHolder() : null;
             // 创建模型上下文
             ModelContext modelContext = new ModelContext(
                     deviceId,
@@ -210,11 +289,22 @@ public class LlmManager {
                     chatMemory,
                     functionSessionHolder);
 
-            final StringBuilder currentSentence = new StringBuilder(); // 当前句子的缓冲区
-            final StringBuilder contextBuffer = new StringBuilder(); // 上下文缓冲区，用于检测数字中的小数点
+            // 常见的设备控制和退出指令在本地直接处理
+            if (speculation == null && localIntentEnabled
+                    && handleLocalIntent(message, modelContext, functionSessionHolder, sentenceHandler)) {
+                return;
+            }
+
+            // 增量断句器，首句按角色配置的预算提前输出
+            final SentenceSegmenter segmenter = new SentenceSegmenter(SentenceSegmenter.DEFAULT_MIN_SENTENCE_LENGTH,
+                    device.getFirstChunkLength() != null ? device.getFirstChunkLength() : firstChunkLength,
+                    device.getFirstChunkTimeout() != null ? device.getFirstChunkTimeout() : firstChunkTimeout);
+            final long requestTime = System.currentTimeMillis();
+            final AtomicLong firstTokenTime = new AtomicLong(0); // 收到第一个token的时间
             final AtomicInteger sentenceCount = new AtomicInteger(0); // 已发送句子的计数
             final StringBuilder fullResponse = new StringBuilder(); // 完整响应的缓冲区
             final AtomicBoolean finalSentenceSent = new AtomicBoolean(false); // 跟踪最后一个句子是否已发送
+            final AtomicReference<Disposable> firstChunkTimer = new AtomicReference<>(); // 首句时间预算到期的定时任务
 
             // 创建流式响应监听器
             StreamResponseListener streamListener = new StreamResponseListener() {
@@ -226,84 +316,88 @@ public class LlmManager {
 
                 @Override
                 public void onToken(String token) {
+                    if (turnToken.isCancelled()) {
+                        return;
+                    }
                     // 将token添加到完整响应
                     fullResponse.append(token);
 
-                    // 逐字符处理token
-                    for (int i = 0; i < token.length();) {
-                        int codePoint = token.codePointAt(i);
-                        String charStr = new String(Character.toChars(codePoint));
-
-                        // 将字符添加到上下文缓冲区（保留最近的字符以检测数字模式）
-                        contextBuffer.append(charStr);
-                        if (contextBuffer.length() > 20) { // 保留足够的上下文
-                            contextBuffer.delete(0, contextBuffer.length() - 20);
-                        }
-
-                        // 将字符添加到当前句子缓冲区
-                        currentSentence.append(charStr);
-
-                        // 检查各种断句标记
-                        boolean shouldSendSentence = false;
-                        boolean isEndMark = SENTENCE_END_PATTERN.matcher(charStr).find();
-                        boolean isPauseMark = PAUSE_PATTERN.matcher(charStr).find();
-                        boolean isSpecialMark = SPECIAL_PATTERN.matcher(charStr).find();
-                        boolean isNewline = NEWLINE_PATTERN.matcher(charStr).find();
-                        boolean isEmoji = EmojiUtils.isEmoji(codePoint);
-
-                        // 如果当前字符是句号，检查它是否是数字中的小数点
-                        if (isEndMark && charStr.equals(".")) {
-                            String context = contextBuffer.toString();
-                            Matcher numberMatcher = NUMBER_PATTERN.matcher(context);
-                            // 如果找到数字模式（如"0.271"），则不视为句子结束标点
-                            if (numberMatcher.find() && numberMatcher.end() >= context.length() - 3) {
-                                isEndMark = false;
-                            }
-                        }
+                    long now = System.currentTimeMillis();
+                    if (!token.isEmpty()) {
+                        firstTokenTime.compareAndSet(0, now);
+                    }
 
-                        // 判断是否应该发送当前句子
-                        if (isEndMark) {
-                            // 句子结束标点是强断句信号
-                            shouldSendSentence = true;
-                        } else if (isNewline) {
-                            // 换行符也是强断句信号
-                            shouldSendSentence = true;
-                        } else if ((isPauseMark || isSpecialMark || isEmoji)
-                                && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                            // 停顿标点、特殊标点或表情符号在句子足够长时可以断句
-                            shouldSendSentence = true;
+                    // 断句，每切出一个完整句子就交给处理函数；到期输出首句的定时任务在另一个线程，共用断句器的锁
+                    synchronized (segmenter) {
+                        for (String sentence : segmenter.feed(token, now)) {
+                            emitSentence(sentence, now);
                         }
+                        scheduleFirstChunk();
+                    }
+                }
 
-                        // 如果应该发送句子，且当前句子长度满足要求
-                        if (shouldSendSentence && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                            String sentence = currentSentence.toString().trim();
-                            if (containsSubstantialContent(sentence)) {
-                                boolean isFirst = sentenceCount.get() == 0;
-                                boolean isLast = false; // 只有在onComplete中才会有最后一个句子
+                private void emitSentence(String sentence, long now) {
+                    boolean isFirst = sentenceCount.get() == 0;
+                    boolean isLast = false; // 只有在onComplete中才会有最后一个句子
+                    if (isFirst) {
+                        recordFirstChunk(sessionId, sentence, requestTime, firstTokenTime.get(), now);
+                    }
 
-                                sentenceHandler.accept(sentence, isFirst, isLast);
-                                sentenceCount.incrementAndGet();
+                    sentenceHandler.accept(sentence, isFirst, isLast);
+                    sentenceCount.incrementAndGet();
+                }
 
-                                // 清空当前句子缓冲区
-                                currentSentence.setLength(0);
+                /**
+                 * 模型在首句中间停顿时，时间预算到期后输出已缓冲的内容，不等下一个token
+                 */
+                private void scheduleFirstChunk() {
+                    long deadline = segmenter.getFirstChunkDeadline();
+                    if (deadline == 0 || firstChunkTimer.get() != null) {
+                        return;
+                    }
+                    firstChunkTimer.set(Schedulers.parallel().schedule(() -> {
+                        synchronized (segmenter) {
+                            if (turnToken.isCancelled() || firstChunkTimer.get().isDisposed()) {
+                                return;
+                            }
+                            long now = System.currentTimeMillis();
+                            String sentence = segmenter.pollFirstChunk(now);
+                            if (sentence != null) {
+                                emitSentence(sentence, now);
                             }
                         }
+                    }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                }
 
-                        // 移动到下一个码点
-                        i += Character.charCount(codePoint);
+                /**
+                 * 响应结束后不再提前输出首句，持有断句器的锁时取消，不会打断正在输出的定时任务
+                 */
+                private void cancelFirstChunk() {
+                    synchronized (segmenter) {
+                        Disposable timer = firstChunkTimer.getAndSet(Disposables.disposed());
+                        if (timer != null) {
+                            timer.dispose();
+                        }
                     }
                 }
 
                 @Override
                 public void onComplete(String completeResponse) {
+                    cancelFirstChunk();
                     // 检查该会话是否已完成处理
-                    if (sessionCompleted.compareAndSet(false, true)) {
+                    if (!turnToken.isCancelled() && sessionCompleted.compareAndSet(false, true)) {
                         // 处理当前缓冲区剩余的内容（如果有）
-                        if (currentSentence.length() > 0 && containsSubstantialContent(currentSentence.toString())
-                                && !finalSentenceSent.get()) {
-                            String sentence = currentSentence.toString().trim();
+                        String sentence;
+                        synchronized (segmenter) {
+                            sentence = segmenter.flush();
+                        }
+                        if (sentence != null && !finalSentenceSent.get()) {
                             boolean isFirst = sentenceCount.get() == 0;
                             boolean isLast = true; // 这是最后一个句子
+                            if (isFirst) {
+                                recordFirstChunk(sessionId, sentence, requestTime, firstTokenTime.get(),
+                                        System.currentTimeMillis());
+                            }
 
                             sentenceHandler.accept(sentence, isFirst, isLast);
                             sentenceCount.incrementAndGet();
@@ -321,8 +415,22 @@ public class LlmManager {
                     }
                 }
 
+                @Override
+                public boolean onToolCalls() {
+                    // 函数有副作用，推测请求在提交前不执行
+                    return speculation == null || speculation.proceedOrAbort();
+                }
+
                 @Override
                 public void onFinal(List<Map<String, Object>> allMessages, LlmService llmService) {
+                    if (speculation != null) {
+                        speculation.runWhenCommitted(() -> saveMessages(allMessages, llmService));
+                    } else {
+                        saveMessages(allMessages, llmService);
+                    }
+                }
+
+                private void saveMessages(List<Map<String, Object>> allMessages, LlmService llmService) {
                     if(allMessages.isEmpty()){
                         return;
                     }
@@ -357,65 +465,123 @@ public class LlmManager {
 
                 @Override
                 public void onError(Throwable e) {
+                    cancelFirstChunk();
+                    if (turnToken.isCancelled()) {
+                        return;
+                    }
+                    if (speculation != null) {
+                        // 推测请求出错不输出，由最终结果重新请求
+                        logger.debug("推测请求出错，放弃推测: {}", e.getMessage());
+                        speculation.abort();
+                        return;
+                    }
                     logger.error("流式响应出错: {}", e.getMessage(), e);
                     // 发送错误信号
                     sentenceHandler.accept("抱歉，我在处理您的请求时遇到了问题。", true, true);
-
-                    // 清除会话完成标志
-                    sessionCompletionFlags.remove(sessionId);
                 }
             };
 
             // 调用现有的流式方法
-            chatStream(device, message, streamListener);
+            chatStream(device, message, turnToken, streamListener);
 
         } catch (Exception e) {
+            if (speculation != null) {
+                speculation.abort();
+                return;
+            }
             logger.error("处理流式查询时出错: {}", e.getMessage(), e);
             // 发送错误信号
             sentenceHandler.accept("抱歉，我在处理您的请求时遇到了问题。", true, true);
-
-            // 清除会话完成标志
-            sessionCompletionFlags.remove(device.getSessionId());
         }
     }
 
     /**
-     * 判断文本是否包含实质性内容（不仅仅是空白字符或标点符号）
+     * 本地意图匹配，命中时直接调用函数并用模板回复
      * 
-     * @param text 要检查的文本
-     * @return 是否包含实质性内容
+     * @return 是否已处理，未命中时返回false，由LLM继续处理；函数一旦执行就返回true
      */
-    private boolean containsSubstantialContent(String text) {
-        if (text == null || text.trim().length() < MIN_SENTENCE_LENGTH) {
+    private boolean handleLocalIntent(String message, ModelContext modelContext,
+            FunctionSessionHolder functionSessionHolder, TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        if (functionSessionHolder == null) {
             return false;
         }
+        long startTime = System.currentTimeMillis();
+        IntentMatcher.Match match = functionSessionHolder.getIntentMatcher().match(message);
+        if (match == null) {
+            return false;
+        }
+        FunctionCallTool functionCallTool = functionSessionHolder.getFunction(match.getFunctionName());
+        // 只在本地执行直接返回回复的iot函数和退出函数，其他同名函数交给LLM处理
+        if (functionCallTool == null || !(functionCallTool.getType() == ToolType.IOT_CTL
+                || IntentMatcher.EXIT_FUNCTION.equals(functionCallTool.getName()))) {
+            return false;
+        }
+        ToolResponse toolResponse = functionCallTool.getFunction()
+                .apply(new FunctionCallTool.FunctionParams(modelContext, match.getParams()));
+        // 函数已经执行，无论结果如何都不再交给LLM，避免设备操作被执行两次
+        String response = toolResponse != null ? toolResponse.getResponse() : null;
+        if (toolResponse == null || toolResponse.getActionType() == ActionType.REQLLM || response == null) {
+            logger.warn("本地意图执行结果不能直接回复 - SessionId: {}, 函数: {}, 结果: {}", modelContext.getSessionId(),
+                    match.getFunctionName(), toolResponse != null ? toolResponse.getActionType() : null);
+            if (response == null) {
+                response = "操作失败了，请稍后再试";
+            }
+        }
+        sentenceHandler.accept(response, true, true);
+
+        modelContext.addMessage(message, "user", SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
+        modelContext.addMessage(response, "assistant", SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
+        logger.info("本地意图命中 - SessionId: {}, 函数: {}, 耗时: {}ms", modelContext.getSessionId(),
+                match.getFunctionName(), System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    /**
+     * 记录本轮对话首句的输出时间
+     */
+    private void recordFirstChunk(String sessionId, String sentence, long requestTime, long firstTokenTime,
+            long now) {
+        long fromToken = firstTokenTime > 0 ? now - firstTokenTime : -1;
+        firstChunkFromRequest.record(now - requestTime, TimeUnit.MILLISECONDS);
+        if (fromToken >= 0) {
+            firstChunkFromToken.record(fromToken, TimeUnit.MILLISECONDS);
+        }
+        logger.debug("首句输出 - SessionId: {}, 距请求: {}ms, 距首个token: {}ms, 长度: {}",
+                sessionId, now - requestTime, fromToken, sentence.length());
+    }
 
-        // 移除所有标点符号和空白字符后，检查是否还有内容
-        String stripped = text.replaceAll("[\\p{P}\\s]", "");
-        return stripped.length() >= 2; // 至少有两个非标点非空白字符
+    /**
+     * 首句输出耗时的计时器，from为request时从请求发出开始计算，为token时从收到首个token开始计算
+     */
+    private static Timer firstChunkTimer(String from) {
+        return Timer.builder("xiaozhi.llm.first.chunk")
+                .tag("from", from)
+                .description("本轮对话首句输出的耗时")
+                .publishPercentiles(0.5, 0.95)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
     }
 
     /**
      * 获取或创建LLM服务
+     * 服务实例不保存设备状态，按配置共享，只在首次使用该配置时查询数据库
      * 
-     * @param deviceId 设备ID
      * @param configId 配置ID
      * @return LLM服务
      */
-    public LlmService getLlmService(String deviceId, Integer configId) {
+    public LlmService getLlmService(Integer configId) {
+        return configLlmServices.computeIfAbsent(configId, this::createLlmService);
+    }
 
-        // 检查设备是否已有服务且配置ID不同
-        Integer currentConfigId = deviceConfigIds.get(deviceId);
-        if (currentConfigId != null && !currentConfigId.equals(configId)) {
-            // 配置ID变更，移除旧服务
-            deviceLlmServices.remove(deviceId);
+    /**
+     * 配置变更后移除对应的服务实例，下次使用时按新配置重新创建
+     * 
+     * @param configId 配置ID
+     */
+    public void invalidateConfig(Integer configId) {
+        if (configId != null && configLlmServices.remove(configId) != null) {
+            logger.info("LLM配置已变更，移除缓存的服务实例 - ConfigId: {}", configId);
         }
-
-        // 更新设备当前使用的configId
-        deviceConfigIds.put(deviceId, configId);
-
-        // 获取或创建服务
-        return deviceLlmServices.computeIfAbsent(deviceId, k -> createLlmService(configId));
     }
 
     /**
@@ -447,8 +613,6 @@ public class LlmManager {
      * @param deviceId 设备ID
      */
     public void clearDeviceCache(String deviceId) {
-        deviceLlmServices.remove(deviceId);
-        deviceConfigIds.remove(deviceId);
         chatMemory.clearMessages(deviceId);
     }
 
@@ -0,0 +1,459 @@
+package com.xiaozhi.websocket.llm;
+
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import com.xiaozhi.websocket.llm.api.LlmService;
+import com.xiaozhi.websocket.llm.api.StreamResponseListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * LLM路由
+ * 把多个LLM配置组成一个池，设备绑定池中任意一个配置时都在整个池内路由：
+ * 按首个token耗时（EWMA）和错误率选择最快的健康成员；首个token超过该成员耗时的指定分位数仍未返回时，
+ * 向下一个成员发起对冲请求，先返回内容的一方胜出，另一方的请求被取消。
+ * 请求失败且尚未输出内容时直接切换到下一个成员。
+ */
+@Component
+public class LlmRouter {
+    private static final Logger logger = LoggerFactory.getLogger(LlmRouter.class);
+
+    // 每个成员保留的首个token耗时样本数，用于计算分位数
+    private static final int SAMPLE_SIZE = 64;
+
+    // 样本数不足时不按分位数对冲，使用默认等待时间
+    private static final int MIN_SAMPLES = 8;
+
+    // LLM配置池，格式：configId,configId;configId,configId
+    @Value("${app.llm.pools:}")
+    private String configPools;
+
+    @Value("${app.llm.hedge-enabled:true}")
+    private boolean hedgeEnabled;
+
+    // 首个token超过该分位数的耗时后发起对冲请求
+    @Value("${app.llm.hedge-percentile:90}")
+    private int hedgePercentile;
+
+    @Value("${app.llm.hedge-min-delay-ms:300}")
+    private long hedgeMinDelay;
+
+    @Value("${app.llm.hedge-default-delay-ms:1500}")
+    private long hedgeDefaultDelay;
+
+    // 首个token耗时和错误率的平滑系数
+    @Value("${app.llm.route-ewma-alpha:0.2}")
+    private double alpha;
+
+    // 错误率超过该值的成员视为不健康，只在健康成员都不可用时使用
+    @Value("${app.llm.route-error-threshold:0.5}")
+    private double errorThreshold;
+
+    // configId -> 所在的池
+    private final Map<Integer, List<Integer>> pools = new ConcurrentHashMap<>();
+
+    // configId -> 统计
+    private final Map<Integer, MemberStats> stats = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 向指定配置发起一次流式请求
+     */
+    public interface Attempt {
+        /**
+         * @param configId 配置ID
+         * @param token    本次请求的取消令牌
+         * @param listener 本次请求的监听器
+         */
+        void start(Integer configId, CancellationToken token, StreamResponseListener listener) throws Exception;
+    }
+
+    @PostConstruct
+    public void init() {
+        pools.clear();
+        for (String group : configPools.split(";")) {
+            List<Integer> members = new ArrayList<>();
+            for (String item : group.split(",")) {
+                try {
+                    if (!item.trim().isEmpty()) {
+                        members.add(Integer.parseInt(item.trim()));
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn("忽略无效的LLM配置池成员: {}", item);
+                }
+            }
+            if (members.size() > 1) {
+                List<Integer> pool = Collections.unmodifiableList(members);
+                pool.forEach(configId -> pools.put(configId, pool));
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "llm-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!pools.isEmpty()) {
+            logger.info("LLM配置池 - {}, 对冲: {}, 分位数: P{}", pools.values().stream().distinct()
+                    .collect(Collectors.toList()), hedgeEnabled, hedgePercentile);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 配置是否属于某个池
+     */
+    public boolean isPooled(Integer configId) {
+        return configId != null && pools.containsKey(configId);
+    }
+
+    /**
+     * 按当前统计排序的候选配置，最优的在前
+     *
+     * @param configId 设备绑定的配置ID
+     * @return 候选配置，不在池中时只有它自己
+     */
+    public List<Integer> route(Integer configId) {
+        List<Integer> pool = pools.get(configId);
+        if (pool == null) {
+            return Collections.singletonList(configId);
+        }
+        // 先按健康程度，再按首个token耗时排序；没有样本的成员耗时记为0，优先试探
+        // 统计随时在变，排序前先取快照
+        Map<Integer, Double> scores = new HashMap<>();
+        for (Integer id : pool) {
+            MemberStats memberStats = statsOf(id);
+            double penalty = memberStats.errorRate() > errorThreshold ? 1e12 : 0;
+            scores.put(id, penalty + memberStats.ttft());
+        }
+        List<Integer> candidates = new ArrayList<>(pool);
+        candidates.sort(Comparator.comparingDouble(scores::get));
+        return candidates;
+    }
+
+    /**
+     * 发起对冲请求前的等待时间
+     *
+     * @param configId 首选配置ID
+     * @return 等待时间（毫秒）
+     */
+    public long hedgeDelay(Integer configId) {
+        long percentile = statsOf(configId).percentile(hedgePercentile);
+        return Math.max(hedgeMinDelay, percentile < 0 ? hedgeDefaultDelay : percentile);
+    }
+
+    /**
+     * 在池内路由并发起流式请求
+     *
+     * @param configId 设备绑定的配置ID
+     * @param attempt  向某个配置发起请求的方式
+     * @param listener 下游监听器，只收到胜出请求的回调
+     * @param token    本轮对话的取消令牌，取消时所有成员的请求都被取消
+     */
+    public void chatStream(Integer configId, Attempt attempt, StreamResponseListener listener,
+            CancellationToken token) {
+        HedgedRequest request = new HedgedRequest(route(configId), attempt, listener);
+        request.start();
+        token.onCancel(request.token::cancel);
+    }
+
+    /**
+     * 各配置的统计，用于监控
+     */
+    public Map<Integer, Map<String, Object>> getStats() {
+        Map<Integer, Map<String, Object>> result = new LinkedHashMap<>();
+        stats.forEach((configId, memberStats) -> result.put(configId, memberStats.snapshot()));
+        return result;
+    }
+
+    void recordFirstToken(Integer configId, long millis) {
+        statsOf(configId).recordFirstToken(millis);
+    }
+
+    /**
+     * 被取消的落败请求：首个token至少耗时这么久，但没有真正返回，不作为耗时样本和成功记录
+     */
+    void recordCancelled(Integer configId, long atLeastMillis) {
+        statsOf(configId).recordCancelled(atLeastMillis);
+    }
+
+    void recordError(Integer configId) {
+        statsOf(configId).recordError();
+    }
+
+    private MemberStats statsOf(Integer configId) {
+        return stats.computeIfAbsent(configId, k -> new MemberStats());
+    }
+
+    /**
+     * 单个配置的统计
+     */
+    private class MemberStats {
+        private double ttftEwma = -1;
+        private double errorEwma = 0;
+        private final long[] samples = new long[SAMPLE_SIZE];
+        private int sampleCount = 0;
+        private long requests = 0;
+        private long errors = 0;
+        private long hedges = 0;
+        private long wins = 0;
+        private long cancelled = 0;
+
+        synchronized void recordFirstToken(long millis) {
+            ttftEwma = ttftEwma < 0 ? millis : alpha * millis + (1 - alpha) * ttftEwma;
+            errorEwma = (1 - alpha) * errorEwma;
+            samples[sampleCount % SAMPLE_SIZE] = millis;
+            sampleCount++;
+        }
+
+        /**
+         * 只知道耗时的下限：超过当前估计时把估计往上拉，否则不改变；错误率不变
+         */
+        synchronized void recordCancelled(long atLeastMillis) {
+            if (atLeastMillis > ttftEwma) {
+                ttftEwma = ttftEwma < 0 ? atLeastMillis : alpha * atLeastMillis + (1 - alpha) * ttftEwma;
+            }
+            cancelled++;
+        }
+
+        synchronized void recordRequest() {
+            requests++;
+        }
+
+        synchronized void recordHedge() {
+            hedges++;
+        }
+
+        synchronized void recordWin() {
+            wins++;
+        }
+
+        synchronized void recordError() {
+            errorEwma = alpha + (1 - alpha) * errorEwma;
+            errors++;
+        }
+
+        synchronized double ttft() {
+            return ttftEwma < 0 ? 0 : ttftEwma;
+        }
+
+        synchronized double errorRate() {
+            return errorEwma;
+        }
+
+        synchronized long percentile(int percent) {
+            int count = Math.min(sampleCount, SAMPLE_SIZE);
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percent / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("ttftEwma", Math.round(ttft()));
+            snapshot.put("errorRate", errorEwma);
+            snapshot.put("requests", requests);
+            snapshot.put("errors", errors);
+            snapshot.put("hedges", hedges);
+            snapshot.put("wins", wins);
+            snapshot.put("cancelled", cancelled);
+            return snapshot;
+        }
+    }
+
+    /**
+     * 一次可能对冲的请求
+     */
+    private class HedgedRequest {
+        private final List<Integer> candidates;
+        private final Attempt attempt;
+        private final StreamResponseListener downstream;
+        private final CancellationToken token = new CancellationToken();
+        private final List<Arm> arms = new CopyOnWriteArrayList<>();
+        private final AtomicInteger next = new AtomicInteger(0);
+        private final AtomicInteger failures = new AtomicInteger(0);
+        // 胜出的请求，-1表示还没有请求返回内容
+        private final AtomicInteger winner = new AtomicInteger(-1);
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> hedgeTimer;
+
+        HedgedRequest(List<Integer> candidates, Attempt attempt, StreamResponseListener downstream) {
+            this.candidates = candidates;
+            this.attempt = attempt;
+            this.downstream = downstream;
+        }
+
+        void start() {
+            token.onCancel(() -> {
+                cancelTimer();
+                arms.forEach(arm -> arm.token.cancel());
+            });
+            launchNext();
+            if (hedgeEnabled && candidates.size() > 1) {
+                long delay = hedgeDelay(candidates.get(0));
+                hedgeTimer = scheduler.schedule(() -> {
+                    if (winner.get() < 0 && !token.isCancelled() && launchNext()) {
+                        Arm hedge = arms.get(arms.size() - 1);
+                        statsOf(hedge.configId).recordHedge();
+                        logger.info("首个token超过 {}ms 未返回，发起对冲请求 - 配置: {} -> {}", delay,
+                                candidates.get(0), hedge.configId);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 向下一个候选配置发起请求
+         *
+         * @return 是否还有候选配置
+         */
+        private boolean launchNext() {
+            int index = next.getAndIncrement();
+            if (index >= candidates.size()) {
+                return false;
+            }
+            Arm arm = new Arm(index, candidates.get(index));
+            arms.add(arm);
+            statsOf(arm.configId).recordRequest();
+            if (token.isCancelled()) {
+                arm.token.cancel();
+                return true;
+            }
+            try {
+                attempt.start(arm.configId, arm.token, arm);
+            } catch (Exception e) {
+                arm.onError(e);
+            }
+            return true;
+        }
+
+        private boolean claim(Arm arm) {
+            if (winner.compareAndSet(-1, arm.index)) {
+                cancelTimer();
+                long elapsed = System.currentTimeMillis() - arm.startTime;
+                recordFirstToken(arm.configId, elapsed);
+                statsOf(arm.configId).recordWin();
+                for (Arm other : arms) {
+                    if (other != arm && other.token.cancel()) {
+                        // 被取消的请求只知道至少耗时这么久
+                        recordCancelled(other.configId, System.currentTimeMillis() - other.startTime);
+                    }
+                }
+                if (arms.size() > 1) {
+                    logger.info("LLM请求胜出 - 配置: {}, 首个token: {}ms", arm.configId, elapsed);
+                }
+                return true;
+            }
+            return winner.get() == arm.index;
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> timer = hedgeTimer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+
+        /**
+         * 单个成员的请求，只有胜出的请求会把回调转发给下游
+         */
+        private class Arm implements StreamResponseListener {
+            private final int index;
+            private final Integer configId;
+            private final CancellationToken token = new CancellationToken();
+            private final long startTime = System.currentTimeMillis();
+
+            Arm(int index, Integer configId) {
+                this.index = index;
+                this.configId = configId;
+            }
+
+            @Override
+            public void onStart() {
+                if (winner.get() == index || (winner.get() < 0 && started.compareAndSet(false, true))) {
+                    downstream.onStart();
+                }
+            }
+
+            @Override
+            public void onToken(String token) {
+                if (claim(this)) {
+                    downstream.onToken(token);
+                }
+            }
+
+            @Override
+            public boolean onToolCalls() {
+                return claim(this) && downstream.onToolCalls();
+            }
+
+            @Override
+            public void onComplete(String fullResponse) {
+                if (claim(this)) {
+                    downstream.onComplete(fullResponse);
+                }
+            }
+
+            @Override
+            public void onFinal(List<Map<String, Object>> allMessages, LlmService llmService) {
+                if (winner.get() == index) {
+                    downstream.onFinal(allMessages, llmService);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                if (token.isCancelled()) {
+                    return;
+                }
+                recordError(configId);
+                if (winner.get() == index) {
+                    // 已经开始输出，无法再切换
+                    downstream.onError(e);
+                    return;
+                }
+                if (winner.get() >= 0) {
+                    return;
+                }
+                logger.warn("LLM请求失败，尝试下一个配置 - 配置: {}, 错误: {}", configId, e.getMessage());
+                int failedCount = failures.incrementAndGet();
+                if (!launchNext() && failedCount >= arms.size() && failed.compareAndSet(false, true)) {
+                    cancelTimer();
+                    downstream.onError(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.xiaozhi.websocket.llm;
+
+import com.xiaozhi.utils.EmojiUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 增量断句器
+ * 把LLM逐个返回的token切分为适合TTS的句子：每个码点先查字符类别表，再由状态机决定是否断句，
+ * 不再为每个字符创建String和执行正则匹配。
+ *
+ * 断句规则：
+ * 1. 句末标点（。！？!?）和换行是强断句信号
+ * 2. 停顿标点、冒号引号和表情符号在句子足够长时断句
+ * 3. 英文句点要看下一个字符：后面紧跟字母或数字（小数、网址、文件名）不断句，
+ *    缩写（Dr. e.g.）不断句，后面是空白或其他字符时在句点处断句
+ * 4. 只有包含足够实质内容（非标点非空白）的句子才会输出，否则继续累积
+ *
+ * 自适应模式下（指定了首句预算），首句超过长度预算或距第一个token超过时间预算后，
+ * 在任意非单词内部的位置提前断句，尽快交给TTS；之后每输出一句，停顿标点的断句长度翻倍，
+ * 让后续句子更长、更自然。模型在句子中间停顿时不会有新的token触发时间预算检查，
+ * 调用方按getFirstChunkDeadline()定时调用pollFirstChunk()输出已经缓冲的内容。
+ *
+ * 非线程安全，每个流式会话使用一个实例。
+ */
+public class SentenceSegmenter {
+
+    // 字符类别
+    private static final byte OTHER = 0; // 普通文字（汉字等）
+    private static final byte END = 1; // 句末标点
+    private static final byte PERIOD = 2; // 英文句点
+    private static final byte PAUSE = 3; // 停顿标点
+    private static final byte SPECIAL = 4; // 冒号、引号
+    private static final byte NEWLINE = 5; // 换行
+    private static final byte DIGIT = 6; // 数字
+    private static final byte LETTER = 7; // 英文字母
+    private static final byte SPACE = 8; // 空白
+    private static final byte CLOSE = 9; // 右括号、右引号
+    private static final byte PUNCT = 10; // 其他标点
+    private static final byte EMOJI = 11; // 表情符号
+
+    // 基本多文种平面的字符类别表
+    private static final byte[] BMP_CLASSES = new byte[0x10000];
+
+    // 不作为句末的常见英文缩写（小写）
+    private static final Set<String> ABBREVIATIONS = new HashSet<>(Arrays.asList(
+            "mr", "mrs", "ms", "dr", "prof", "sr", "jr", "st", "vs", "etc", "no", "fig", "inc", "ltd", "co",
+            "jan", "feb", "mar", "apr", "jun", "jul", "aug", "sep", "sept", "oct", "nov", "dec"));
+
+    // 默认最小句子长度（字符数）
+    public static final int DEFAULT_MIN_SENTENCE_LENGTH = 5;
+
+    // 实质内容的最少字符数
+    private static final int MIN_CONTENT_CHARS = 2;
+
+    // 自适应模式下停顿标点断句长度的上限
+    private static final int MAX_PAUSE_LENGTH = 40;
+
+    static {
+        for (int c = 0; c < BMP_CLASSES.length; c++) {
+            BMP_CLASSES[c] = classify(c);
+        }
+    }
+
+    private final int minSentenceLength;
+    // 首句长度预算，0表示不启用
+    private final int firstChunkLength;
+    // 首句时间预算（毫秒），0表示不启用
+    private final long firstChunkTimeout;
+
+    // 当前句子缓冲区
+    private final StringBuilder current = new StringBuilder();
+    // 当前句子中非标点非空白的码点数
+    private int contentChars = 0;
+    // 遇到英文句点，等待下一个字符决定是否断句
+    private boolean pendingPeriod = false;
+    // 已输出的句子数
+    private int sentencesEmitted = 0;
+    // 收到第一个非空token的时间，0表示还没有收到
+    private long firstTokenAt = 0;
+    // 最后一个字符的类别
+    private byte lastType = OTHER;
+
+    public SentenceSegmenter() {
+        this(DEFAULT_MIN_SENTENCE_LENGTH);
+    }
+
+    public SentenceSegmenter(int minSentenceLength) {
+        this(minSentenceLength, 0, 0);
+    }
+
+    /**
+     * 自适应断句
+     *
+     * @param minSentenceLength 最小句子长度
+     * @param firstChunkLength  首句长度预算，超过后提前断句，0表示不启用
+     * @param firstChunkTimeout 首句时间预算（毫秒），从第一个token开始计算，0表示不启用
+     */
+    public SentenceSegmenter(int minSentenceLength, int firstChunkLength, long firstChunkTimeout) {
+        this.minSentenceLength = minSentenceLength;
+        this.firstChunkLength = Math.max(0, firstChunkLength);
+        this.firstChunkTimeout = Math.max(0, firstChunkTimeout);
+    }
+
+    /**
+     * 输入一个token
+     *
+     * @param token LLM返回的文本片段
+     * @return 本次切分出的完整句子，可能为空
+     */
+    public List<String> feed(String token) {
+        return feed(token, System.currentTimeMillis());
+    }
+
+    /**
+     * 输入一个token
+     *
+     * @param token LLM返回的文本片段
+     * @param now   当前时间（毫秒），用于判断首句时间预算
+     * @return 本次切分出的完整句子，可能为空
+     */
+    public List<String> feed(String token, long now) {
+        if (token == null || token.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (firstTokenAt == 0) {
+            firstTokenAt = now;
+        }
+        List<String> sentences = null;
+        byte type = OTHER;
+        for (int i = 0; i < token.length();) {
+            int codePoint = token.codePointAt(i);
+            i += Character.charCount(codePoint);
+            type = classOf(codePoint);
+
+            // 上一个字符是英文句点，根据当前字符决定句点是否为句末
+            if (pendingPeriod) {
+                if (type == PERIOD || type == CLOSE) {
+                    // 省略号或句点后的右引号/括号，继续等待
+                    append(codePoint, type);
+                    continue;
+                }
+                pendingPeriod = false;
+                if (type != LETTER && type != DIGIT) {
+                    sentences = emit(sentences);
+                }
+            }
+
+            append(codePoint, type);
+
+            switch (type) {
+                case END:
+                case NEWLINE:
+                    sentences = emit(sentences);
+                    break;
+                case PERIOD:
+                    pendingPeriod = current.length() >= minSentenceLength && !endsWithAbbreviation();
+                    break;
+                case PAUSE:
+                case SPECIAL:
+                case EMOJI:
+                    if (current.length() >= pauseLength()) {
+                        sentences = emit(sentences);
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            // 首句超出长度预算，在单词、数字和句点之外的位置提前断句
+            if (firstChunkLength > 0 && current.length() >= firstChunkLength && canBreakFirstChunk(type)) {
+                sentences = emit(sentences);
+            }
+        }
+        lastType = type;
+        // 首句超出时间预算，在token边界提前断句
+        String sentence = pollFirstChunk(now);
+        if (sentence != null) {
+            if (sentences == null) {
+                sentences = new ArrayList<>(1);
+            }
+            sentences.add(sentence);
+        }
+        return sentences == null ? Collections.emptyList() : sentences;
+    }
+
+    /**
+     * 首句时间预算到期的时间
+     *
+     * @return 到期时间（毫秒），未启用时间预算、还没有收到token或首句已输出时返回0
+     */
+    public long getFirstChunkDeadline() {
+        if (firstChunkTimeout == 0 || firstTokenAt == 0 || sentencesEmitted > 0) {
+            return 0;
+        }
+        return firstTokenAt + firstChunkTimeout;
+    }
+
+    /**
+     * 首句超出时间预算时，在当前位置提前输出已缓冲的内容
+     *
+     * @param now 当前时间（毫秒）
+     * @return 提前输出的首句，未到期、不能断句或内容不足时返回null
+     */
+    public String pollFirstChunk(long now) {
+        long deadline = getFirstChunkDeadline();
+        if (deadline == 0 || now < deadline || !canBreakFirstChunk(lastType)) {
+            return null;
+        }
+        List<String> sentences = emit(null);
+        return sentences == null ? null : sentences.get(0);
+    }
+
+    /**
+     * 输出剩余内容并重置
+     *
+     * @return 剩余的句子，没有实质内容时返回null
+     */
+    public String flush() {
+        String sentence = hasSubstantialContent() ? current.toString().trim() : null;
+        reset();
+        return sentence;
+    }
+
+    /**
+     * 清空状态
+     */
+    public void reset() {
+        current.setLength(0);
+        contentChars = 0;
+        pendingPeriod = false;
+        sentencesEmitted = 0;
+        firstTokenAt = 0;
+        lastType = OTHER;
+    }
+
+    /**
+     * 停顿标点的断句长度，自适应模式下随已输出句数翻倍
+     */
+    private int pauseLength() {
+        if (!isAdaptive() || sentencesEmitted == 0) {
+            return minSentenceLength;
+        }
+        int shift = Math.min(sentencesEmitted, 3);
+        return Math.max(minSentenceLength, Math.min(minSentenceLength << shift, MAX_PAUSE_LENGTH));
+    }
+
+    private boolean canBreakFirstChunk(byte lastType) {
+        return sentencesEmitted == 0 && !pendingPeriod && current.length() > 0
+                && lastType != LETTER && lastType != DIGIT && lastType != PERIOD;
+    }
+
+    private boolean isAdaptive() {
+        return firstChunkLength > 0 || firstChunkTimeout > 0;
+    }
+
+    private void append(int codePoint, byte type) {
+        current.appendCodePoint(codePoint);
+        if (type == OTHER || type == DIGIT || type == LETTER || type == EMOJI) {
+            contentChars++;
+        }
+    }
+
+    /**
+     * 满足长度和实质内容要求时输出当前句子，否则继续累积
+     */
+    private List<String> emit(List<String> sentences) {
+        pendingPeriod = false;
+        if (current.length() < minSentenceLength || !hasSubstantialContent()) {
+            return sentences;
+        }
+        if (sentences == null) {
+            sentences = new ArrayList<>(2);
+        }
+        sentences.add(current.toString().trim());
+        current.setLength(0);
+        contentChars = 0;
+        sentencesEmitted++;
+        return sentences;
+    }
+
+    private boolean hasSubstantialContent() {
+        return contentChars >= MIN_CONTENT_CHARS && trimmedLength() >= minSentenceLength;
+    }
+
+    private int trimmedLength() {
+        int start = 0;
+        int end = current.length();
+        while (start < end && current.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && current.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start;
+    }
+
+    /**
+     * 句点前的单词是否为缩写：单个字母（U.S.）、带点的缩写（e.g.）或常见缩写
+     */
+    private boolean endsWithAbbreviation() {
+        int end = current.length() - 1; // 句点位置
+        int start = end;
+        boolean dotted = false;
+        while (start > 0) {
+            char c = current.charAt(start - 1);
+            if (c == '.') {
+                dotted = true;
+            } else if (c >= 0x80 || classOf(c) != LETTER) {
+                break;
+            }
+            start--;
+        }
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+        if (length == 1 || dotted) {
+            return true;
+        }
+        return length <= 5 && ABBREVIATIONS.contains(current.substring(start, end).toLowerCase());
+    }
+
+    private static byte classOf(int codePoint) {
+        if (codePoint < BMP_CLASSES.length) {
+            return BMP_CLASSES[codePoint];
+        }
+        return classify(codePoint);
+    }
+
+    private static byte classify(int c) {
+        switch (c) {
+            case '\n':
+            case '\r':
+                return NEWLINE;
+            case '。':
+            case '！':
+            case '？':
+            case '!':
+            case '?':
+                return END;
+            case '.':
+                return PERIOD;
+            case '，':
+            case '、':
+            case '；':
+            case ',':
+            case ';':
+                return PAUSE;
+            case '：':
+            case ':':
+            case '"':
+            case '\'':
+                return SPECIAL;
+            case ')':
+            case ']':
+            case '）':
+            case '”':
+            case '’':
+            case '」':
+            case '』':
+            case '》':
+                return CLOSE;
+            default:
+                break;
+        }
+        if (c >= '0' && c <= '9') {
+            return DIGIT;
+        }
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return LETTER;
+        }
+        if (EmojiUtils.isEmoji(c)) {
+            return EMOJI;
+        }
+        if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+            return SPACE;
+        }
+        switch (Character.getType(c)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return PUNCT;
+            default:
+                return OTHER;
+        }
+    }
+}
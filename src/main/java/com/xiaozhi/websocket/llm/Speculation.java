@@ -0,0 +1,169 @@
+package com.xiaozhi.websocket.llm;
+
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 推测请求
+ * 识别的中间结果稳定后提前用它发起LLM请求，在最终结果确认之前，输出的句子先缓存、消息不入库，
+ * 设备看不到任何输出。最终结果与推测的文本一致时提交，缓存的句子交给真正的处理函数；
+ * 不一致、出错或需要调用函数（函数有副作用，不能提前执行）时放弃，由调用方按最终结果重新请求。
+ */
+public class Speculation {
+
+    private final String message;
+    private final CancellationToken token;
+
+    // 提交前缓存的句子
+    private final List<PendingSentence> pendingSentences = new ArrayList<>();
+    // 提交前推迟执行的动作（消息入库）
+    private final List<Runnable> pendingActions = new ArrayList<>();
+
+    private LlmManager.TriConsumer<String, Boolean, Boolean> sentenceHandler;
+    private boolean committed = false;
+    // 提交后正在补发缓存的句子，期间新到的句子继续缓存，保证按产生的顺序交给处理函数
+    private boolean replaying = false;
+    private boolean aborted = false;
+
+    Speculation(String message, CancellationToken token) {
+        this.message = message;
+        this.token = token;
+    }
+
+    /**
+     * 推测使用的文本
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    CancellationToken getToken() {
+        return token;
+    }
+
+    /**
+     * 最终识别结果是否与推测的文本一致，忽略标点和空白
+     */
+    public boolean matches(String finalText) {
+        return finalText != null && normalize(finalText).equals(normalize(message));
+    }
+
+    /**
+     * 提交推测，输出已缓存的句子，之后的句子直接交给处理函数
+     *
+     * @return 推测已被放弃时返回false，调用方需要重新请求
+     */
+    public boolean commit(LlmManager.TriConsumer<String, Boolean, Boolean> handler) {
+        synchronized (this) {
+            if (aborted || token.isCancelled()) {
+                return false;
+            }
+            committed = true;
+            replaying = true;
+            sentenceHandler = handler;
+        }
+        // 补发时不持有锁，补发期间新到的句子进入缓存，由下一轮补发
+        while (true) {
+            List<PendingSentence> sentences;
+            List<Runnable> actions;
+            synchronized (this) {
+                if (pendingSentences.isEmpty() && pendingActions.isEmpty()) {
+                    replaying = false;
+                    return true;
+                }
+                sentences = new ArrayList<>(pendingSentences);
+                actions = new ArrayList<>(pendingActions);
+                pendingSentences.clear();
+                pendingActions.clear();
+            }
+            for (PendingSentence sentence : sentences) {
+                handler.accept(sentence.text, sentence.isFirst, sentence.isLast);
+            }
+            actions.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * 放弃推测，中断请求并丢弃缓存的输出
+     */
+    public void abort() {
+        synchronized (this) {
+            if (committed) {
+                return;
+            }
+            aborted = true;
+            pendingSentences.clear();
+            pendingActions.clear();
+        }
+        token.cancel();
+    }
+
+    /**
+     * 即将执行函数调用：已提交时返回true；未提交时放弃推测并返回false
+     */
+    boolean proceedOrAbort() {
+        synchronized (this) {
+            if (committed) {
+                return true;
+            }
+            aborted = true;
+            pendingSentences.clear();
+            pendingActions.clear();
+        }
+        token.cancel();
+        return false;
+    }
+
+    /**
+     * 输出句子，提交前和补发完成前缓存
+     */
+    void acceptSentence(String sentence, boolean isFirst, boolean isLast) {
+        LlmManager.TriConsumer<String, Boolean, Boolean> handler;
+        synchronized (this) {
+            if (!committed || replaying) {
+                if (!token.isCancelled()) {
+                    pendingSentences.add(new PendingSentence(sentence, isFirst, isLast));
+                }
+                return;
+            }
+            handler = sentenceHandler;
+        }
+        handler.accept(sentence, isFirst, isLast);
+    }
+
+    /**
+     * 执行有副作用的动作，提交前推迟到提交时执行
+     */
+    void runWhenCommitted(Runnable action) {
+        synchronized (this) {
+            if (!committed || replaying) {
+                if (!token.isCancelled()) {
+                    pendingActions.add(action);
+                }
+                return;
+            }
+        }
+        action.run();
+    }
+
+    private static String normalize(String text) {
+        return text.replaceAll("[\\p{P}\\p{S}\\s]", "");
+    }
+
+    /**
+     * 提交前缓存的句子
+     */
+    private static class PendingSentence {
+        private final String text;
+        private final boolean isFirst;
+        private final boolean isLast;
+
+        PendingSentence(String text, boolean isFirst, boolean isLast) {
+            this.text = text;
+            this.isFirst = isFirst;
+            this.isLast = isLast;
+        }
+    }
+}
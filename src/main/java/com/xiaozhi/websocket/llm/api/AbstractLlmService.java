@@ -2,8 +2,11 @@ package com.xiaozhi.websocket.llm.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xiaozhi.entity.SysMessage;
+import com.xiaozhi.websocket.http.HttpClientRegistry;
+import com.xiaozhi.websocket.llm.memory.ContextBuilder;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
 import com.xiaozhi.websocket.llm.tool.ActionType;
+import com.xiaozhi.websocket.llm.tool.ToolCallExecutor;
 import com.xiaozhi.websocket.llm.tool.ToolResponse;
 import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
 import com.xiaozhi.websocket.llm.tool.function.bean.FunctionCallTool;
@@ -14,11 +17,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * LLM服务抽象类
@@ -27,20 +30,11 @@ import java.util.concurrent.TimeUnit;
 public abstract class AbstractLlmService implements LlmService {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     protected static final ObjectMapper objectMapper = new ObjectMapper();
-    protected static final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+    // 按端点共享的HTTP客户端，并发上限和连接池由HttpClientRegistry统一管理
+    protected final OkHttpClient client;
 
     protected static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
-    // 设备历史记录缓存，键为deviceId，值为该设备的历史消息
-    protected Map<String, List<SysMessage>> deviceHistoryCache = new ConcurrentHashMap<>();
-
-    // 历史记录默认限制数量
-    protected static final int DEFAULT_HISTORY_LIMIT = 10;
-
     protected final String endpoint;
     protected final String apiKey;
     protected final String model;
@@ -60,71 +54,22 @@ public abstract class AbstractLlmService implements LlmService {
         this.apiSecret = apiSecret;
         this.apiKey = apiKey;
         this.model = model;
-
-    }
-
-    /**
-     * 初始化设备的历史记录缓存
-     * 
-     * @param modelContext 模型上下文
-     */
-    protected void initializeHistory(ModelContext modelContext) {
-        String deviceId = modelContext.getDeviceId();
-        if (!deviceHistoryCache.containsKey(deviceId)) {
-            // 从数据库加载历史记录
-            List<SysMessage> history = modelContext.getMessages(SysMessage.MESSAGE_TYPE_NORMAL, DEFAULT_HISTORY_LIMIT); // 这里后期可以设置 limit，来自定义历史记录条数
-            deviceHistoryCache.put(deviceId, history);
-            logger.info("已初始化设备 {} 的历史记录缓存，共 {} 条消息", deviceId, history.size());
-        }
+        this.client = HttpClientRegistry.getClient(endpoint);
     }
 
     /**
      * 获取格式化的消息历史，适合发送给LLM API
+     * 历史消息按模型的token预算从最新往前截取
      * 
      * @param modelContext 模型上下文
      * @param userMessage  当前用户消息
      * @return 格式化的消息历史列表
      */
     protected List<Map<String, Object>> getFormattedHistory(ModelContext modelContext, String userMessage) {
-        String deviceId = modelContext.getDeviceId();
-        String systemMessage = modelContext.getSystemMessage();
-
-        // 初始化历史记录缓存（如果需要）
-        if (!deviceHistoryCache.containsKey(deviceId)) {
-            initializeHistory(modelContext);
-        }
-
-        List<SysMessage> historyMessages = deviceHistoryCache.get(deviceId);
-        List<Map<String, Object>> formattedMessages = new ArrayList<>();
-
-        // 添加系统消息（如果有）
-        if (systemMessage != null && !systemMessage.isEmpty()) {
-            Map<String, Object> systemMsg = new HashMap<>();
-            systemMsg.put("role", "system");
-            systemMsg.put("content", systemMessage);
-            formattedMessages.add(systemMsg);
-        }
-
-        // 添加历史消息
-        for (SysMessage msg : historyMessages) {
-            String role = msg.getSender();
-            role = role.equals("assistant") ? "assistant" : "user";
-            Map<String, Object> formattedMsg = new HashMap<>();
-            formattedMsg.put("messageId", msg.getMessageId());
-            formattedMsg.put("role", role);
-            formattedMsg.put("content", msg.getMessage());
-            formattedMsg.put("messageType", msg.getMessageType());
-            formattedMessages.add(formattedMsg);
-        }
-
-        // 添加当前用户消息
-        Map<String, Object> currentUserMsg = new HashMap<>();
-        currentUserMsg.put("role", "user");
-        currentUserMsg.put("content", userMessage);
-        currentUserMsg.put("messageType", "NORMAL");//默认为普通消息
-        formattedMessages.add(currentUserMsg);
-
-        return formattedMessages;
+        // 共享缓存中的最近对话，未命中时从数据库加载
+        List<SysMessage> historyMessages = modelContext.getHistory();
+        return ContextBuilder.build(model, modelContext.getSystemMessage(), historyMessages, userMessage,
+                modelContext.getMessageJson());
     }
 
     /**
@@ -144,10 +89,6 @@ public abstract class AbstractLlmService implements LlmService {
         String sessionId = modelContext.getSessionId();
         Integer roleId = modelContext.getRoleId();
 
-        // 获取当前缓存，如果没有则从数据库加载
-        List<SysMessage> history = deviceHistoryCache.computeIfAbsent(deviceId,
-                k -> modelContext.getMessages(SysMessage.MESSAGE_TYPE_NORMAL, DEFAULT_HISTORY_LIMIT));
-
         // 创建新的用户消息对象
         SysMessage sysMessage = new SysMessage();
         sysMessage.setMessageId((Integer) message.get("messageId"));
@@ -158,18 +99,8 @@ public abstract class AbstractLlmService implements LlmService {
         sysMessage.setMessage(messageContent);
         sysMessage.setRoleId(roleId);
 
-        // 添加新消息
-        history.add(sysMessage);
-
-        // 如果历史记录过长，移除最旧的消息（保持偶数，确保user/assistant对保持完整）
-        while (history.size() > DEFAULT_HISTORY_LIMIT) {
-            history.remove(0);
-            if (history.size() > DEFAULT_HISTORY_LIMIT) {
-                history.remove(0);
-            }
-        }
-        // 更新缓存
-        deviceHistoryCache.put(deviceId, history);
+        // 追加到共享缓存，超出容量时由缓存淘汰最旧的消息
+        modelContext.appendHistory(sysMessage);
     }
 
     /**
@@ -184,10 +115,6 @@ public abstract class AbstractLlmService implements LlmService {
         String sessionId = modelContext.getSessionId();
         Integer roleId = modelContext.getRoleId();
 
-        // 获取当前缓存，如果没有则从数据库加载
-        List<SysMessage> history = deviceHistoryCache.computeIfAbsent(deviceId,
-                k -> modelContext.getMessages(SysMessage.MESSAGE_TYPE_NORMAL, DEFAULT_HISTORY_LIMIT));
-
         // 创建新的用户消息对象
         SysMessage userMsg = new SysMessage();
         userMsg.setDeviceId(deviceId);
@@ -204,26 +131,13 @@ public abstract class AbstractLlmService implements LlmService {
         assistantMsg.setMessage(assistantMessage);
         assistantMsg.setRoleId(roleId);
 
-        // 添加新消息
-        history.add(userMsg);
-        history.add(assistantMsg);
-
-        // 如果历史记录过长，移除最旧的消息（保持偶数，确保user/assistant对保持完整）
-        while (history.size() > DEFAULT_HISTORY_LIMIT) {
-            history.remove(0);
-            if (history.size() > DEFAULT_HISTORY_LIMIT) {
-                history.remove(0);
-            }
-        }
-
-        // 更新缓存
-        deviceHistoryCache.put(deviceId, history);
+        // 追加到共享缓存，超出容量时由缓存淘汰最旧的消息
+        modelContext.appendHistory(userMsg);
+        modelContext.appendHistory(assistantMsg);
     }
 
     @Override
     public String chat(String userMessage, ModelContext modelContext) throws IOException {
-        // 初始化历史记录缓存
-        initializeHistory(modelContext);
         // 保存用户消息
         modelContext.addUserMessage(userMessage);
 
@@ -246,9 +160,6 @@ public abstract class AbstractLlmService implements LlmService {
     public void chatStream(String userMessage, ModelContext modelContext, StreamResponseListener streamListener)
             throws IOException {
 
-        // 初始化历史记录缓存
-        initializeHistory(modelContext);
-
         // 获取格式化的历史记录（包含当前用户消息）
         List<Map<String, Object>> formattedMessages = getFormattedHistory(modelContext, userMessage);
 
@@ -287,39 +198,104 @@ public abstract class AbstractLlmService implements LlmService {
      * @param toolCallInfo 工具信息
      * @param streamListener 数据流监听器
      * @param messages 历史消息记录
-     * @return
-     * @throws Exception
+     * @return 函数执行结束后完成，未执行时结果为null
      */
-    protected ToolResponse doFunctionCall(ModelContext modelContext, ToolCallInfo toolCallInfo, StreamResponseListener streamListener,
-                                  List<Map<String, Object>> messages) {
+    protected CompletableFuture<ToolResponse> doFunctionCall(ModelContext modelContext, ToolCallInfo toolCallInfo,
+                                                             StreamResponseListener streamListener, List<Map<String, Object>> messages) {
+        return doFunctionCalls(modelContext, Collections.singletonList(toolCallInfo), streamListener, messages)
+                .thenApply(toolResponses -> toolResponses.isEmpty() ? null : toolResponses.get(0));
+    }
+
+    /**
+     * 并发执行同一轮对话中的多个函数调用，不阻塞调用线程
+     * 有任何一个函数需要LLM总结（REQLLM）时，所有函数的结果在一次请求中提交给LLM；
+     * 否则直接输出各函数的回复
+     * @param modelContext 执行上下文
+     * @param toolCallInfos 工具信息，按模型返回的顺序
+     * @param streamListener 数据流监听器
+     * @param messages 历史消息记录
+     * @return 函数执行并处理完结果后完成，结果为已执行函数的响应，按调用顺序，未找到的函数不在其中
+     */
+    protected CompletableFuture<List<ToolResponse>> doFunctionCalls(ModelContext modelContext, List<ToolCallInfo> toolCallInfos,
+                                                                    StreamResponseListener streamListener, List<Map<String, Object>> messages) {
         FunctionSessionHolder functionSessionHolder = modelContext.getFunctionSessionHolder();
-        if(functionSessionHolder != null){
+        if(functionSessionHolder == null){
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        // 请求已取消或结果不再需要时不执行函数，避免重复控制设备
+        if(modelContext.getCancellationToken().isCancelled() || !streamListener.onToolCalls()){
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        List<ToolCallInfo> calledInfos = new ArrayList<>();
+        List<Callable<ToolResponse>> calls = new ArrayList<>();
+        for (ToolCallInfo toolCallInfo : toolCallInfos) {
             FunctionCallTool functionCallTool = functionSessionHolder.getFunction(toolCallInfo.getName());
-            if(functionCallTool!=null){
+            if(functionCallTool == null){
+                logger.error("Function call: Llm: {} 回调未找到函数: 函数名: {} with arguments: {} toolId: {} ", model, toolCallInfo.getName(), toolCallInfo.getArguments(), toolCallInfo.getTool_call_id());
+                continue;
+            }
+            calledInfos.add(toolCallInfo);
+            calls.add(() -> {
                 FunctionCallTool.FunctionParams functionParams = new FunctionCallTool.FunctionParams(modelContext, toolCallInfo.getArguments());
                 ToolResponse toolResponse = functionCallTool.getFunction().apply(functionParams);
                 logger.debug("Function call: Llm: {} deviceId: {} roleId: {} function: {} with arguments: {} result： {}", model,
                         modelContext.getDeviceId(), modelContext.getRoleId(), toolCallInfo.getName(), toolCallInfo.getArguments(), toolResponse);
-                if(ActionType.REQLLM.equals(toolResponse.getActionType())){
-                    try{
-                        submitFunctionResultToLlm(modelContext, toolCallInfo, streamListener, messages, toolResponse);
-                    }catch (UnsupportedOperationException e){
-                        logger.error("Function call: Llm: {} 不支持function总结， 对需总结的function：{} 不进行总结，直接返回", model, toolCallInfo.getName());
+                return toolResponse;
+            });
+        }
+        if(calls.isEmpty()){
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        return ToolCallExecutor.invokeAll(calls).thenApply(results -> {
+            List<ToolCallInfo> executedInfos = new ArrayList<>(results.size());
+            List<ToolResponse> toolResponses = new ArrayList<>(results.size());
+            boolean reqLlm = false;
+            for (int i = 0; i < results.size(); i++) {
+                if(results.get(i) != null){
+                    executedInfos.add(calledInfos.get(i));
+                    toolResponses.add(results.get(i));
+                    reqLlm |= ActionType.REQLLM.equals(results.get(i).getActionType());
+                }
+            }
+
+            if(reqLlm){
+                try{
+                    submitFunctionResultsToLlm(modelContext, executedInfos, streamListener, messages, toolResponses);
+                }catch (UnsupportedOperationException e){
+                    logger.error("Function call: Llm: {} 不支持function总结， 对需总结的function：{} 不进行总结，直接返回", model, executedInfos);
+                    toolResponses.forEach(toolResponse -> streamListener.onToken(toolResponse.getResponse()));
+                }
+            }else{
+                for (ToolResponse toolResponse : toolResponses) {
+                    if(ActionType.RESPONSE.equals(toolResponse.getActionType())
+                            || ActionType.ERROR.equals(toolResponse.getActionType())) {
                         streamListener.onToken(toolResponse.getResponse());
                     }
-                }else if(ActionType.RESPONSE.equals(toolResponse.getActionType())) {
-                    streamListener.onToken(toolResponse.getResponse());
-                }else if(ActionType.ERROR.equals(toolResponse.getActionType())) {
-                    streamListener.onToken(toolResponse.getResponse());
                 }
-                return toolResponse;
-            }else{
-                logger.error("Function call: Llm: {} 回调未找到函数: 函数名: {} with arguments: {} toolId: {} ", model, toolCallInfo.getName(), toolCallInfo.getArguments(), toolCallInfo.getTool_call_id());
             }
-        }
-        return null;
+            return toolResponses;
+        });
     }
 
+    /**
+     * 把同一轮多个函数的结果一次提交到LLM
+     *
+     * @param modelContext 模型上下文
+     * @param toolCallInfos 工具调用信息
+     * @param streamListener 流式响应监听器
+     * @param messages 历史消息列表
+     * @param toolResponses 工具响应，与toolCallInfos一一对应
+     */
+    protected void submitFunctionResultsToLlm(ModelContext modelContext, List<ToolCallInfo> toolCallInfos,
+                                              StreamResponseListener streamListener, List<Map<String, Object>> messages,
+                                              List<ToolResponse> toolResponses) throws UnsupportedOperationException{
+        if(toolCallInfos.size() == 1){
+            submitFunctionResultToLlm(modelContext, toolCallInfos.get(0), streamListener, messages, toolResponses.get(0));
+            return;
+        }
+        throw new UnsupportedOperationException("当前模型不支持多个函数调用结果一起提交到LLM进行总结回复");
+    }
 
     /**
      * 提交函数结果到LLM
@@ -1,22 +1,22 @@
 package com.xiaozhi.websocket.llm.api;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.utils.JsonUtil;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
 import com.xiaozhi.websocket.llm.tool.ActionType;
 import com.xiaozhi.websocket.llm.tool.ToolResponse;
 import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
-import com.xiaozhi.websocket.llm.tool.function.bean.FunctionLlmDescription;
 import okhttp3.*;
 import okio.BufferedSource;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
 
 /**
  * 基于OpenAI标准协议接口的的 LLM服务实现
@@ -38,40 +38,42 @@ public abstract class AbstractOpenAiLlmService extends AbstractLlmService {
 
     @Override
     protected void chatStream(List<Map<String, Object>> messages, StreamResponseListener streamListener, ModelContext modelContext){
-        String jsonBody = buildRequestJson(messages, modelContext);
-
-        Request request = buildRequest(jsonBody);
+        Request request;
+        try {
+            request = buildRequest(new ChatRequestBody(model, messages, modelContext.getMessageJson(),
+                    getToolsJson(modelContext)));
+        } catch (IOException e) {
+            logger.error("构建请求体失败: {}", e.getMessage(), e);
+            streamListener.onError(e);
+            return;
+        }
         // 通知开始
         streamListener.onStart();
-        // 发送请求
-        client.newCall(request).enqueue(new OpenAiResponseCallBack(messages, streamListener, modelContext));
+        // 发送请求，取消时中断连接
+        Call call = client.newCall(request);
+        modelContext.getCancellationToken().onCancel(call::cancel);
+        call.enqueue(new OpenAiResponseCallBack(messages, streamListener, modelContext));
     }
 
-    @NotNull
-    protected String buildRequestJson(List<Map<String, Object>> messages, ModelContext modelContext) {
-        // 构建请求体
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        requestBody.put("stream", true);
-        requestBody.put("messages", messages);
-
+    /**
+     * 本次请求可用的工具定义（已序列化的JSON数组），按会话的函数集合缓存
+     *
+     * @param modelContext 模型上下文
+     * @return 工具定义，没有工具时返回null
+     */
+    protected byte[] getToolsJson(ModelContext modelContext) {
         FunctionSessionHolder functionSessionHolder = modelContext.getFunctionSessionHolder();
-        if(functionSessionHolder != null){
-            List<FunctionLlmDescription> tools = functionSessionHolder.getAllFunctionLlmDescription();
-            if(!tools.isEmpty()){
-                requestBody.put("tools", tools);
-            }
+        if(functionSessionHolder == null){
+            return null;
         }
-
-        // 转换为JSON
-        return JsonUtil.toJson(requestBody);
+        return functionSessionHolder.getAllFunctionLlmDescriptionJson();
     }
 
-    protected Request buildRequest(String jsonBody) {
+    protected Request buildRequest(RequestBody requestBody) {
         // 构建请求
         return new Request.Builder()
                 .url(endpoint + "/chat/completions")
-                .post(RequestBody.create(jsonBody, JSON))
+                .post(requestBody)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
     }
@@ -89,19 +91,36 @@ public abstract class AbstractOpenAiLlmService extends AbstractLlmService {
 
         @Override
         public void onFailure(Call call, IOException e) {
+            if (modelContext.getCancellationToken().isCancelled()) {
+                logger.debug("流式请求已取消 - 模型: {}", model);
+                return;
+            }
             logger.error("流式请求失败: {}", e.getMessage(), e);
             streamListener.onError(e);
         }
 
         @Override
         public void onResponse(Call call, Response response) throws IOException {
+            try {
+                handleResponse(response);
+            } catch (IOException e) {
+                if (!modelContext.getCancellationToken().isCancelled()) {
+                    throw e;
+                }
+                // 取消时连接被中断，读取失败是预期的
+                logger.debug("流式请求已取消 - 模型: {}", model);
+            }
+        }
+
+        private void handleResponse(Response response) throws IOException {
             if (!response.isSuccessful()) {
                 String errorMsg = "流式请求响应失败: " + response;
                 logger.error(errorMsg);
                 streamListener.onError(new IOException(errorMsg));
                 return;
             }
-            ToolCallInfo toolCallInfo = null;
+            // 按index累积的工具调用，模型可能在一轮中并行返回多个
+            Map<Integer, ToolCallInfo> toolCallInfos = new TreeMap<>();
 
             try (ResponseBody responseBody = response.body()) {
                 if (responseBody == null) {
@@ -113,116 +132,93 @@ public abstract class AbstractOpenAiLlmService extends AbstractLlmService {
 
                 BufferedSource source = responseBody.source();
                 StringBuilder fullResponse = new StringBuilder();
+                StreamChunkParser parser = new StreamChunkParser();
 
-                while (!source.exhausted()) {
-                    String line = source.readUtf8Line();
-                    if (line == null) {
-                        break;
-                    }
-                    if (line.isEmpty() || line.equals("data: [DONE]")) {
-                        continue;
-                    }
-                    if (line.startsWith("data: ")) {
-                        String jsonData = line.substring(6);
-                        try {
-                            Map<String, Object> data = objectMapper.readValue(jsonData, new TypeReference<Map<String, Object>>() {});
-                            List<Map<String, Object>> choices = (List<Map<String, Object>>) data.get("choices");
-                            if (choices != null && !choices.isEmpty()) {
-                                Map<String, Object> delta = (Map<String, Object>) choices.get(0).get("delta");
-                                if (delta != null) {
-                                    //处理function_call
-                                    if(delta.containsKey("tool_calls") && delta.get("tool_calls") != null){
-                                        //tool_calls不为空，则说明是一个function调用信息
-                                        Object toolCallsData = delta.get("tool_calls");
-                                        toolCallInfo = getToolCallInfo(toolCallInfo, toolCallsData);
-                                    }
-                                    //处理普通消息内容(有的ai，比如腾讯hunyuan-lite，工具调消息里还给了总结思考文本，这里就丢弃不要了)
-                                    if(toolCallInfo == null && delta.containsKey("content")){
-                                        String content = (String) delta.get("content");
-                                        if (content != null && !content.isEmpty()) {
-                                            streamListener.onToken(content);
-                                            fullResponse.append(content);
-                                        }
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            logger.error("解析流式响应失败: {}", e.getMessage(), e);
-                            streamListener.onError(e);
+                while (parser.readLine(source)) {
+                    try {
+                        if (!parser.parse()) {
+                            continue;
                         }
-                    }
-                }
-
-                boolean isFunctionResultReqLlm = false;//是否存在REQLLM的函数调用
-                // 处理函数调用
-                if(toolCallInfo != null){
-                    try{
-                        ToolResponse toolResponse = doFunctionCall(modelContext, toolCallInfo, streamListener, messages);
-                        if(toolResponse != null){
-                            if(ActionType.REQLLM.equals(toolResponse.getActionType())){
-                                isFunctionResultReqLlm = true;
-                            }else{
-                                //非REQLLM函数，则将消息添加到消息列表，并设置完整内容为工具的response内容
-                                fullResponse.append(toolResponse.getResponse());
-                                Map<String, Object> responseMessage = new HashMap<>();
-                                responseMessage.put("role", "assistant");
-                                responseMessage.put("content", fullResponse);
-                                responseMessage.put("messageType", SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
-                                messages.add(responseMessage);
-                            }
+                        //处理function_call
+                        if(parser.hasToolCalls()){
+                            //tool_calls不为空，则说明是一个function调用信息
+                            accumulateToolCalls(toolCallInfos, parser.getToolCalls());
                         }
-                    }catch (Exception e){
-                        logger.error("函数调用失败: {}", e.getMessage(), e);
+                        //处理普通消息内容(有的ai，比如腾讯hunyuan-lite，工具调消息里还给了总结思考文本，这里就丢弃不要了)
+                        if(toolCallInfos.isEmpty() && parser.hasContent()){
+                            String content = parser.getContent().toString();
+                            streamListener.onToken(content);
+                            fullResponse.append(content);
+                        }
+                    } catch (Exception e) {
+                        logger.error("解析流式响应失败: {}", e.getMessage(), e);
                         streamListener.onError(e);
                     }
+                }
+
+                // 处理函数调用，函数在工具线程池中执行，不占用OkHttp回调线程，执行完后再通知完成
+                if(!toolCallInfos.isEmpty()){
+                    doFunctionCalls(modelContext, new ArrayList<>(toolCallInfos.values()), streamListener, messages)
+                            .thenAccept(toolResponses -> {
+                                if(toolResponses.stream().anyMatch(toolResponse -> ActionType.REQLLM.equals(toolResponse.getActionType()))){
+                                    //REQLLM函数的结果已提交给LLM，由总结请求通知完成
+                                    return;
+                                }
+                                if(!toolResponses.isEmpty()){
+                                    //非REQLLM函数，则将消息添加到消息列表，并设置完整内容为工具的response内容
+                                    toolResponses.forEach(toolResponse -> fullResponse.append(toolResponse.getResponse()));
+                                    Map<String, Object> responseMessage = new HashMap<>();
+                                    responseMessage.put("role", "assistant");
+                                    responseMessage.put("content", fullResponse);
+                                    responseMessage.put("messageType", SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
+                                    messages.add(responseMessage);
+                                }
+                                complete(fullResponse);
+                            })
+                            .exceptionally(e -> {
+                                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                                logger.error("函数调用失败: {}", cause.getMessage(), cause);
+                                streamListener.onError(cause);
+                                return null;
+                            });
                 }else{
                     Map<String, Object> responseMessage = new HashMap<>();
                     responseMessage.put("role", "assistant");
                     responseMessage.put("content", fullResponse);
                     responseMessage.put("messageType", SysMessage.MESSAGE_TYPE_NORMAL);
                     messages.add(responseMessage);
+                    complete(fullResponse);
                 }
+            }
+        }
 
-                if(!isFunctionResultReqLlm){
-                    // 通知完成
-                    streamListener.onComplete(fullResponse.toString());
-                    streamListener.onFinal(messages, AbstractOpenAiLlmService.this);
-                }
+        private void complete(StringBuilder fullResponse) {
+            if(!modelContext.getCancellationToken().isCancelled()){
+                // 通知完成
+                streamListener.onComplete(fullResponse.toString());
+                streamListener.onFinal(messages, AbstractOpenAiLlmService.this);
             }
         }
     }
 
     /**
-     * 从toolCallsData中抽取工具调用信息
-     * @param toolCallInfo
-     * @param toolCallsData
+     * 按index累积流式分片中的工具调用片段，同一index的参数片段依次拼接
+     * @param toolCallInfos 已累积的工具调用
+     * @param toolCalls 当前分片的工具调用片段
      */
-    protected ToolCallInfo getToolCallInfo(ToolCallInfo toolCallInfo, Object toolCallsData) {
-        if(toolCallInfo == null){
-            toolCallInfo = new ToolCallInfo();
-        }
-        Map<String, Object> toolInfo;
-        if(toolCallsData instanceof List && !((List)toolCallsData).isEmpty()){
-            toolInfo = ((List<Map<String, Object>>)toolCallsData).get(0);
-        }else{
-            return null;
-        }
-        if(toolInfo.get("id") != null && !((String)toolInfo.get("id")).isEmpty()){
-            //如果原ToolCallInfo有tool_call_id，则当前流回复里，有多function调用，暂时只处理最后一个调用
-            if(toolCallInfo.getTool_call_id() != null){
-                toolCallInfo.clearArgumentsJson();//重置下参数字符串，避免把多函数的参数都拼一起去了
+    protected void accumulateToolCalls(Map<Integer, ToolCallInfo> toolCallInfos, List<StreamChunkParser.ToolCallDelta> toolCalls) {
+        for (StreamChunkParser.ToolCallDelta toolCall : toolCalls) {
+            ToolCallInfo toolCallInfo = toolCallInfos.computeIfAbsent(toolCall.getIndex(), k -> new ToolCallInfo());
+            if(toolCall.getId() != null && !toolCall.getId().isEmpty()){
+                toolCallInfo.setTool_call_id(toolCall.getId());
+            }
+            if(toolCall.getName() != null && !toolCall.getName().isEmpty()){
+                toolCallInfo.setName(toolCall.getName());
+            }
+            if (toolCall.getArguments().length() > 0) {
+                toolCallInfo.appendArgumentsJson(toolCall.getArguments());
             }
-            toolCallInfo.setTool_call_id((String)toolInfo.get("id"));
-        }
-        Map<String, String> toolCall = (Map<String, String>)toolInfo.get("function");
-        if(toolCall.get("name") != null && !(toolCall.get("name")).isEmpty()){
-            toolCallInfo.setName(toolCall.get("name"));
-        }
-        String arguments = toolCall.get("arguments");
-        if (arguments != null && !arguments.isEmpty()) {
-            toolCallInfo.appendArgumentsJson(arguments);
         }
-        return toolCallInfo;
     }
 
     /**
@@ -238,11 +234,27 @@ public abstract class AbstractOpenAiLlmService extends AbstractLlmService {
     protected void submitFunctionResultToLlm(ModelContext modelContext, ToolCallInfo toolCallInfo,
                                              StreamResponseListener streamListener, List<Map<String, Object>> messages,
                                              ToolResponse toolResponse){
-        Map<String, Object> assistantMessage = createLlAssistantMessage(toolCallInfo.getTool_call_id(), toolCallInfo.getName(),
-                toolCallInfo.getArguments());
-        Map<String, Object> toolMessage = createLlmToolMessage(toolResponse.getResponse(), toolCallInfo.getTool_call_id());
-        messages.add(assistantMessage);
-        messages.add(toolMessage);
+        submitFunctionResultsToLlm(modelContext, Collections.singletonList(toolCallInfo), streamListener, messages,
+                Collections.singletonList(toolResponse));
+    }
+
+    /**
+     * 把同一轮多个函数的结果一次提交到LLM：一条带全部tool_calls的助手消息，加上每个调用对应的工具消息
+     *
+     * @param modelContext 模型上下文
+     * @param toolCallInfos 工具调用信息
+     * @param streamListener 流式响应监听器
+     * @param messages 历史消息列表
+     * @param toolResponses 工具响应，与toolCallInfos一一对应
+     */
+    @Override
+    protected void submitFunctionResultsToLlm(ModelContext modelContext, List<ToolCallInfo> toolCallInfos,
+                                              StreamResponseListener streamListener, List<Map<String, Object>> messages,
+                                              List<ToolResponse> toolResponses){
+        messages.add(createLlAssistantMessage(toolCallInfos));
+        for (int i = 0; i < toolCallInfos.size(); i++) {
+            messages.add(createLlmToolMessage(toolResponses.get(i).getResponse(), toolCallInfos.get(i).getTool_call_id()));
+        }
         //继续把工具消息传给llm，让大模型总结输出
         chatStream(messages, streamListener, modelContext);
     }
@@ -256,18 +268,32 @@ public abstract class AbstractOpenAiLlmService extends AbstractLlmService {
      */
     protected Map<String, Object> createLlAssistantMessage(String tool_call_id, String functionName, Map<String, Object> arguments)
             throws UnsupportedOperationException {
+        return createLlAssistantMessage(Collections.singletonList(new ToolCallInfo(tool_call_id, functionName, arguments)));
+    }
+
+    /**
+     * 当多个function调用后，需要发起llm进行总结，创建带全部tool_calls的助手消息
+     * @param toolCallInfos
+     * @return
+     */
+    protected Map<String, Object> createLlAssistantMessage(List<ToolCallInfo> toolCallInfos)
+            throws UnsupportedOperationException {
         Map<String, Object> message = new HashMap<>();
 
-        Map<String, Object> function = new HashMap<>();
-        function.put("arguments", JsonUtil.toJson(arguments));
-        function.put("name", functionName);
+        List<Map<String, Object>> tool_calls = new ArrayList<>(toolCallInfos.size());
+        for (int i = 0; i < toolCallInfos.size(); i++) {
+            ToolCallInfo toolCallInfo = toolCallInfos.get(i);
+            Map<String, Object> function = new HashMap<>();
+            function.put("arguments", JsonUtil.toJson(toolCallInfo.getArguments()));
+            function.put("name", toolCallInfo.getName());
 
-        Map<String, Object> tool_call = new HashMap<>();
-        tool_call.put("id", tool_call_id);
-        tool_call.put("function", function);
-        tool_call.put("type", "function");
-        tool_call.put("index", 0);
-        List<Map<String, Object>> tool_calls = Collections.singletonList(tool_call);
+            Map<String, Object> tool_call = new HashMap<>();
+            tool_call.put("id", toolCallInfo.getTool_call_id());
+            tool_call.put("function", function);
+            tool_call.put("type", "function");
+            tool_call.put("index", i);
+            tool_calls.add(tool_call);
+        }
 
         message.put("role", "assistant");
         message.put("content", "");
@@ -0,0 +1,69 @@
+package com.xiaozhi.websocket.llm.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 取消令牌
+ * 发起请求的一方注册取消时要执行的动作（如OkHttp的Call.cancel），调用cancel后依次执行，
+ * 取消后再注册的动作立即执行。只能取消一次。
+ */
+public class CancellationToken {
+    private static final Logger logger = LoggerFactory.getLogger(CancellationToken.class);
+
+    private volatile boolean cancelled = false;
+
+    private List<Runnable> callbacks = new ArrayList<>();
+
+    /**
+     * 是否已取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 注册取消时执行的动作，已取消时立即执行
+     *
+     * @param callback 取消动作
+     */
+    public void onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        run(callback);
+    }
+
+    /**
+     * 取消，执行所有已注册的动作
+     *
+     * @return 是否是本次调用取消的，重复取消返回false
+     */
+    public boolean cancel() {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            pending = callbacks;
+            callbacks = new ArrayList<>();
+        }
+        pending.forEach(CancellationToken::run);
+        return true;
+    }
+
+    private static void run(Runnable callback) {
+        try {
+            callback.run();
+        } catch (Exception e) {
+            logger.warn("执行取消动作出错: {}", e.getMessage(), e);
+        }
+    }
+}
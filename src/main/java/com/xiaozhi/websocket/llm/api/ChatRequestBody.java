@@ -0,0 +1,141 @@
+package com.xiaozhi.websocket.llm.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OpenAI协议的流式对话请求体
+ * 直接把JSON写入okio缓冲区，不再先拼一个HashMap再整体序列化成String：
+ * 系统提示词按内容缓存序列化结果，工具定义使用FunctionSessionHolder缓存的JSON，
+ * 历史消息复用ContextBuilder生成的片段，只有本轮新增的消息需要现场序列化。
+ * 平台内部使用的messageId、messageType字段不会写入请求。
+ */
+public class ChatRequestBody extends RequestBody {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = objectMapper.getFactory();
+
+    // 系统提示词缓存的最大条数
+    private static final int MAX_SYSTEM_CACHE_SIZE = 256;
+
+    // 系统提示词 -> 序列化后的系统消息
+    private static final Map<String, byte[]> systemMessages = new ConcurrentHashMap<>();
+
+    // 写好的请求体，OkHttp重试时可以重复写出
+    private final Buffer body = new Buffer();
+
+    /**
+     * 构造请求体
+     *
+     * @param model     模型名称
+     * @param messages    消息列表
+     * @param messageJson ContextBuilder缓存的历史消息JSON片段，按消息对象查找，可以为null
+     * @param toolsJson   序列化后的工具定义数组，没有工具时为null
+     */
+    public ChatRequestBody(String model, List<Map<String, Object>> messages,
+            Map<Map<String, Object>, byte[]> messageJson, byte[] toolsJson) throws IOException {
+        body.writeUtf8("{\"model\":");
+        writeString(model);
+        body.writeUtf8(",\"stream\":true,\"messages\":[");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                body.writeByte(',');
+            }
+            Map<String, Object> message = messages.get(i);
+            byte[] json = messageJson != null ? messageJson.get(message) : null;
+            if (json != null) {
+                body.write(json);
+            } else {
+                writeMessage(message);
+            }
+        }
+        body.writeByte(']');
+        if (toolsJson != null) {
+            body.writeUtf8(",\"tools\":");
+            body.write(toolsJson);
+        }
+        body.writeByte('}');
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return body.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // copyTo共享底层的segment，不复制数据
+        body.copyTo(sink.getBuffer(), 0, body.size());
+        sink.emitCompleteSegments();
+    }
+
+    /**
+     * 请求体内容，用于日志
+     */
+    public String utf8() {
+        return body.snapshot().utf8();
+    }
+
+    private void writeMessage(Map<String, Object> message) throws IOException {
+        Object content = message.get("content");
+        if ("system".equals(message.get("role")) && content instanceof String && message.size() == 2) {
+            body.write(systemMessage((String) content));
+            return;
+        }
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(body.outputStream(), JsonEncoding.UTF8)) {
+            generator.setCodec(objectMapper);
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> entry : message.entrySet()) {
+                // 平台自行标记的字段，不是接口字段
+                if ("messageId".equals(entry.getKey()) || "messageType".equals(entry.getKey())) {
+                    continue;
+                }
+                generator.writeFieldName(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof CharSequence) {
+                    generator.writeString(value.toString());
+                } else {
+                    generator.writeObject(value);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static byte[] systemMessage(String content) throws IOException {
+        byte[] json = systemMessages.get(content);
+        if (json == null) {
+            if (systemMessages.size() >= MAX_SYSTEM_CACHE_SIZE) {
+                systemMessages.clear();
+            }
+            Buffer buffer = new Buffer();
+            buffer.writeUtf8("{\"role\":\"system\",\"content\":");
+            buffer.write(objectMapper.writeValueAsBytes(content));
+            buffer.writeByte('}');
+            json = buffer.readByteArray();
+            systemMessages.put(content, json);
+        }
+        return json;
+    }
+
+    private void writeString(String value) throws IOException {
+        body.write(objectMapper.writeValueAsBytes(value));
+    }
+}
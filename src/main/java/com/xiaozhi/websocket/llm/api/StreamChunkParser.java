@@ -0,0 +1,279 @@
+package com.xiaozhi.websocket.llm.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式响应分片解析器
+ * 逐行读取SSE(data: {...})或NDJSON({...})格式的响应，使用JsonParser只提取
+ * choices[0].delta（Ollama为message）中的content和tool_calls，其余字段直接跳过，
+ * 不再把每个分片反序列化成Map。行缓冲区和结果对象在同一个流内复用。
+ *
+ * 非线程安全，每个流式请求创建一个实例。
+ */
+public class StreamChunkParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final byte[] SSE_DATA_PREFIX = "data:".getBytes(StandardCharsets.US_ASCII);
+
+    // 行缓冲区
+    private byte[] line = new byte[4096];
+    private int lineLength = 0;
+
+    // 当前分片的内容
+    private final StringBuilder content = new StringBuilder();
+
+    // 当前分片的工具调用片段，对象在分片之间复用
+    private final List<ToolCallDelta> toolCalls = new ArrayList<>();
+    private final List<ToolCallDelta> toolCallPool = new ArrayList<>();
+
+    /**
+     * 工具调用片段
+     */
+    public static class ToolCallDelta {
+        private int index;
+        private String id;
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+
+        private void reset(int defaultIndex) {
+            index = defaultIndex;
+            id = null;
+            name = null;
+            arguments.setLength(0);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public CharSequence getArguments() {
+            return arguments;
+        }
+    }
+
+    /**
+     * 读取下一行
+     *
+     * @param source 响应流
+     * @return false表示流已结束
+     */
+    public boolean readLine(BufferedSource source) throws IOException {
+        if (source.exhausted()) {
+            return false;
+        }
+        long newline = source.indexOf((byte) '\n');
+        // 最后一行没有换行符时，indexOf已经把剩余数据全部读入缓冲区
+        long length = newline == -1 ? source.getBuffer().size() : newline;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("响应行过长: " + length);
+        }
+        ensureCapacity((int) length);
+        lineLength = 0;
+        while (lineLength < length) {
+            int read = source.read(line, lineLength, (int) length - lineLength);
+            if (read == -1) {
+                break;
+            }
+            lineLength += read;
+        }
+        if (newline != -1) {
+            source.skip(1);
+        }
+        // 兼容\r\n
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        return true;
+    }
+
+    /**
+     * 解析当前行
+     *
+     * @return 当前行是否为数据分片（空行、注释、[DONE]等返回false）
+     */
+    public boolean parse() throws IOException {
+        content.setLength(0);
+        releaseToolCalls();
+
+        int offset = 0;
+        if (startsWith(SSE_DATA_PREFIX)) {
+            offset = SSE_DATA_PREFIX.length;
+        }
+        while (offset < lineLength && line[offset] == ' ') {
+            offset++;
+        }
+        if (offset >= lineLength || line[offset] != '{') {
+            // 空行、event:/id:/注释行以及data: [DONE]
+            return false;
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(line, offset, lineLength - offset)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("choices".equals(field)) {
+                    parseChoices(parser);
+                } else if ("message".equals(field)) {
+                    // Ollama的分片格式
+                    parseDelta(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前分片的文本内容，下一次parse时会被清空
+     */
+    public StringBuilder getContent() {
+        return content;
+    }
+
+    public boolean hasContent() {
+        return content.length() > 0;
+    }
+
+    /**
+     * 当前分片的工具调用片段，下一次parse时会被复用
+     */
+    public List<ToolCallDelta> getToolCalls() {
+        return toolCalls;
+    }
+
+    public boolean hasToolCalls() {
+        return !toolCalls.isEmpty();
+    }
+
+    private void parseChoices(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("delta".equals(field)) {
+                    parseDelta(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void parseDelta(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("content".equals(field) && token == JsonToken.VALUE_STRING) {
+                content.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } else if ("tool_calls".equals(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        parseToolCall(parser);
+                    }
+                } else {
+                    // 讯飞星火返回的tool_calls不是数组
+                    parseToolCall(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseToolCall(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        ToolCallDelta delta = obtainToolCall();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("index".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                delta.index = parser.getIntValue();
+            } else if ("id".equals(field) && token == JsonToken.VALUE_STRING) {
+                delta.id = parser.getText();
+            } else if ("function".equals(field) && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String functionField = parser.getCurrentName();
+                    JsonToken functionToken = parser.nextToken();
+                    if ("name".equals(functionField) && functionToken == JsonToken.VALUE_STRING) {
+                        delta.name = parser.getText();
+                    } else if ("arguments".equals(functionField) && functionToken == JsonToken.VALUE_STRING) {
+                        delta.arguments.append(parser.getTextCharacters(), parser.getTextOffset(),
+                                parser.getTextLength());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private ToolCallDelta obtainToolCall() {
+        ToolCallDelta delta = toolCallPool.isEmpty() ? new ToolCallDelta()
+                : toolCallPool.remove(toolCallPool.size() - 1);
+        delta.reset(toolCalls.size());
+        toolCalls.add(delta);
+        return delta;
+    }
+
+    private void releaseToolCalls() {
+        toolCallPool.addAll(toolCalls);
+        toolCalls.clear();
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int length) {
+        if (line.length < length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+    }
+}
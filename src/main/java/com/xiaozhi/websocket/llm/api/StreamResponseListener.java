@@ -20,6 +20,15 @@ public interface StreamResponseListener {
      * @param token 接收到的token
      */
     void onToken(String token);
+
+    /**
+     * 模型返回了工具调用，执行函数前调用
+     *
+     * @return 是否继续执行函数，返回false表示本次请求的结果已不再需要
+     */
+    default boolean onToolCalls() {
+        return true;
+    }
     
     /**
      * 当流式响应完成时调用
@@ -82,7 +82,7 @@ public class ToolCallInfo {
         this.arguments = arguments;
     }
 
-    public void appendArgumentsJson(String json) {
+    public void appendArgumentsJson(CharSequence json) {
         argumentsJson.append(json);
     }
 
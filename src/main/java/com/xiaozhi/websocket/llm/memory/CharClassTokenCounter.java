@@ -0,0 +1,47 @@
+package com.xiaozhi.websocket.llm.memory;
+
+/**
+ * 按字符类别近似估算token数，不依赖模型词表
+ * 中日韩文字每字约1个token，连续的英文字母数字每4个字符约1个token，
+ * 标点每个1个token，表情等补充平面字符每个2个token，空白不计。
+ */
+public class CharClassTokenCounter implements TokenCounter {
+
+    // 连续英文字母数字平均每个token的字符数
+    private static final int ASCII_CHARS_PER_TOKEN = 4;
+
+    @Override
+    public int count(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                asciiRun++;
+                continue;
+            }
+            if (asciiRun > 0) {
+                tokens += (asciiRun + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN;
+                asciiRun = 0;
+            }
+            if (c <= ' ' || Character.isWhitespace(c)) {
+                continue;
+            }
+            if (Character.isHighSurrogate(c)) {
+                // 补充平面字符（表情等）通常被切成多个token
+                tokens += 2;
+                i++;
+                continue;
+            }
+            tokens++;
+        }
+        if (asciiRun > 0) {
+            tokens += (asciiRun + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN;
+        }
+        return tokens;
+    }
+}
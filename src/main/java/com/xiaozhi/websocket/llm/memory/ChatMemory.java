@@ -2,6 +2,7 @@ package com.xiaozhi.websocket.llm.memory;
 
 import com.xiaozhi.entity.SysMessage;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 聊天记忆接口
@@ -20,6 +21,15 @@ public interface ChatMemory {
      * @param messageType 消息类型
      */
     void addMessage(String deviceId, String sessionId, String sender, String content, Integer roleId, String messageType);
+
+    /**
+     * 绑定会话当前轮次助手回复的语音
+     * 下一条入库的助手消息会在语音归档完成后回填语音路径，传null表示解除绑定
+     * 
+     * @param sessionId 会话ID
+     * @param audioFuture 归档语音文件路径
+     */
+    void bindAssistantAudio(String sessionId, CompletableFuture<String> audioFuture);
     
     /**
      * 获取历史消息
@@ -31,6 +41,22 @@ public interface ChatMemory {
      */
     List<SysMessage> getMessages(String deviceId, String messageType, Integer limit);
 
+    /**
+     * 获取用于构造上下文的最近对话，优先从共享缓存读取，未命中时从数据库加载
+     *
+     * @param deviceId 设备ID
+     * @param roleId 角色ID
+     * @return 最近的对话消息，按时间正序
+     */
+    List<SysMessage> getHistory(String deviceId, Integer roleId);
+
+    /**
+     * 把一条已入库的对话消息追加到共享缓存（不入库），对话不在缓存中时忽略，下次读取时从数据库加载
+     *
+     * @param message 消息
+     */
+    void appendHistory(SysMessage message);
+
     /**
      * 清除设备的历史记录
      * 
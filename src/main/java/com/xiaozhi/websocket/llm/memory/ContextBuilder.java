@@ -0,0 +1,223 @@
+package com.xiaozhi.websocket.llm.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaozhi.entity.SysMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上下文构造器
+ * 按模型的token预算组装发送给LLM的消息：系统提示词和当前用户消息必选，历史消息从最新往前取，
+ * 超出预算的更早消息不再发送。每条历史消息的token估算和序列化后的JSON片段只计算一次，
+ * 缓存到消息被对话历史缓存淘汰为止。
+ * 片段缓存按消息对象共享，与具体使用哪个LLM服务实例无关，所以组装方法是静态的；
+ * token预算和计数器在启动时从配置读取，配置变更需要重启。
+ */
+@Component
+public class ContextBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(ContextBuilder.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 每条消息在角色、分隔符上的固定开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // 系统提示词token数缓存的最大条数
+    private static final int MAX_SYSTEM_CACHE_SIZE = 256;
+
+    // 未配置的模型使用的预算，以及按字符类别估算的计数器，启动时被配置覆盖
+    private static volatile int defaultTokenBudget = 4096;
+    private static volatile Map<String, Integer> modelTokenBudgets = new ConcurrentHashMap<>();
+    private static volatile TokenCounter tokenCounter = new CharClassTokenCounter();
+
+    // 历史消息 -> token估算和JSON片段，消息对象被回收后自动移除
+    private static final Map<SysMessage, Fragment> fragments = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // 系统提示词 -> token数
+    private static final Map<String, Integer> systemTokens = new ConcurrentHashMap<>();
+
+    @Value("${app.llm.context-token-budget:4096}")
+    private int configTokenBudget;
+
+    // 单独指定某些模型的token预算，格式：model:tokens,model:tokens
+    @Value("${app.llm.model-token-budgets:}")
+    private String configModelTokenBudgets;
+
+    @Autowired(required = false)
+    private TokenCounter configTokenCounter;
+
+    @PostConstruct
+    public void init() {
+        Map<String, Integer> budgets = new ConcurrentHashMap<>();
+        Arrays.stream(configModelTokenBudgets.split(","))
+                .map(String::trim)
+                .filter(item -> item.contains(":"))
+                .forEach(item -> {
+                    int index = item.lastIndexOf(':');
+                    try {
+                        budgets.put(item.substring(0, index).trim(), Integer.parseInt(item.substring(index + 1).trim()));
+                    } catch (NumberFormatException e) {
+                        logger.warn("忽略无效的模型token预算配置: {}", item);
+                    }
+                });
+
+        defaultTokenBudget = configTokenBudget;
+        modelTokenBudgets = budgets;
+        if (configTokenCounter != null) {
+            tokenCounter = configTokenCounter;
+        }
+        fragments.clear();
+        systemTokens.clear();
+
+        logger.info("上下文token预算 - 默认: {}, 单独配置: {}, 计数器: {}", defaultTokenBudget, modelTokenBudgets,
+                tokenCounter.getClass().getSimpleName());
+    }
+
+    /**
+     * 组装消息列表：系统提示词、预算内的历史消息和当前用户消息
+     *
+     * @param model         模型名称，用于查找token预算
+     * @param systemMessage 系统提示词
+     * @param history       历史消息，按时间正序
+     * @param userMessage   当前用户消息
+     * @param messageJson   写入历史消息对应的JSON片段（只含role和content），写请求体时直接复用，可以为null
+     * @return 消息列表
+     */
+    public static List<Map<String, Object>> build(String model, String systemMessage, List<SysMessage> history,
+            String userMessage, Map<Map<String, Object>, byte[]> messageJson) {
+        List<Map<String, Object>> messages = new ArrayList<>(history.size() + 2);
+        int budget = getTokenBudget(model);
+        int used = 0;
+
+        // 添加系统消息（如果有）
+        if (systemMessage != null && !systemMessage.isEmpty()) {
+            Map<String, Object> systemMsg = new LinkedHashMap<>();
+            systemMsg.put("role", "system");
+            systemMsg.put("content", systemMessage);
+            messages.add(systemMsg);
+            used += countSystem(systemMessage);
+        }
+        used += tokenCounter.count(userMessage) + MESSAGE_OVERHEAD_TOKENS;
+
+        // 从最新的消息往前取，直到超出预算
+        int from = history.size();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            int tokens = fragmentOf(history.get(i)).tokens;
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            from = i;
+        }
+        // 不以孤立的助手回复开头
+        while (from < history.size() && "assistant".equals(history.get(from).getSender())) {
+            from++;
+        }
+        if (from > 0) {
+            logger.debug("上下文超出token预算，丢弃最早的 {} 条历史消息 - 模型: {}, 预算: {}", from, model, budget);
+        }
+
+        // 添加历史消息
+        for (int i = from; i < history.size(); i++) {
+            SysMessage msg = history.get(i);
+            Map<String, Object> formattedMsg = new LinkedHashMap<>();
+            formattedMsg.put("messageId", msg.getMessageId());
+            formattedMsg.put("role", roleOf(msg));
+            formattedMsg.put("content", msg.getMessage());
+            formattedMsg.put("messageType", msg.getMessageType());
+            messages.add(formattedMsg);
+            byte[] json = fragmentOf(msg).json;
+            if (messageJson != null && json != null) {
+                messageJson.put(formattedMsg, json);
+            }
+        }
+
+        // 添加当前用户消息
+        Map<String, Object> currentUserMsg = new LinkedHashMap<>();
+        currentUserMsg.put("role", "user");
+        currentUserMsg.put("content", userMessage);
+        currentUserMsg.put("messageType", SysMessage.MESSAGE_TYPE_NORMAL);//默认为普通消息
+        messages.add(currentUserMsg);
+
+        return messages;
+    }
+
+    /**
+     * 模型的token预算
+     *
+     * @param model 模型名称
+     * @return token预算
+     */
+    public static int getTokenBudget(String model) {
+        if (model == null) {
+            return defaultTokenBudget;
+        }
+        return modelTokenBudgets.getOrDefault(model, defaultTokenBudget);
+    }
+
+    /**
+     * 当前使用的token计数器
+     */
+    public static TokenCounter getTokenCounter() {
+        return tokenCounter;
+    }
+
+    private static int countSystem(String systemMessage) {
+        Integer tokens = systemTokens.get(systemMessage);
+        if (tokens == null) {
+            if (systemTokens.size() >= MAX_SYSTEM_CACHE_SIZE) {
+                systemTokens.clear();
+            }
+            tokens = tokenCounter.count(systemMessage) + MESSAGE_OVERHEAD_TOKENS;
+            systemTokens.put(systemMessage, tokens);
+        }
+        return tokens;
+    }
+
+    private static Fragment fragmentOf(SysMessage message) {
+        Fragment fragment = fragments.get(message);
+        if (fragment == null) {
+            String content = message.getMessage() == null ? "" : message.getMessage();
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("role", roleOf(message));
+            body.put("content", content);
+            byte[] json;
+            try {
+                json = objectMapper.writeValueAsBytes(body);
+            } catch (JsonProcessingException e) {
+                json = null;
+            }
+            fragment = new Fragment(tokenCounter.count(content) + MESSAGE_OVERHEAD_TOKENS, json);
+            fragments.put(message, fragment);
+        }
+        return fragment;
+    }
+
+    private static String roleOf(SysMessage message) {
+        return "assistant".equals(message.getSender()) ? "assistant" : "user";
+    }
+
+    private static class Fragment {
+        private final int tokens;
+        private final byte[] json;
+
+        Fragment(int tokens, byte[] json) {
+            this.tokens = tokens;
+            this.json = json;
+        }
+    }
+}
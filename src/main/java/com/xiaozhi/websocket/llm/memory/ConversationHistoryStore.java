@@ -0,0 +1,318 @@
+package com.xiaozhi.websocket.llm.memory;
+
+import com.xiaozhi.entity.SysMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 对话历史存储
+ * 所有LLM服务共享，按 设备+角色 保存最近的对话，每个对话是固定容量的环形缓冲区。
+ * 长时间不活跃的对话按TTL过期，对话数或估算内存超过上限时按LRU淘汰，
+ * 未命中时才从数据库(sys_message)加载。
+ */
+@Component
+public class ConversationHistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationHistoryStore.class);
+
+    // 每条消息除文本外的估算开销（字节）
+    private static final long MESSAGE_OVERHEAD_BYTES = 96;
+
+    // 每个对话保留的消息数
+    @Value("${app.history.capacity:10}")
+    private int capacity = 10;
+
+    // 最多缓存的对话数
+    @Value("${app.history.max-conversations:10000}")
+    private int maxConversations = 10000;
+
+    // 对话空闲多久后过期（分钟）
+    @Value("${app.history.idle-ttl-minutes:30}")
+    private long idleTtlMinutes = 30;
+
+    // 缓存占用内存上限（MB）
+    @Value("${app.history.max-memory-mb:64}")
+    private long maxMemoryMb = 64;
+
+    // 按访问顺序排列，最久未访问的在前
+    private final LinkedHashMap<String, Conversation> conversations = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        logger.info("对话历史缓存配置 - 每个对话: {}条, 最多对话: {}, 空闲过期: {}分钟, 内存上限: {}MB",
+                capacity, maxConversations, idleTtlMinutes, maxMemoryMb);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "history-store-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 获取对话历史，未命中时通过loader从数据库加载
+     *
+     * @param deviceId 设备ID
+     * @param roleId   角色ID
+     * @param loader   加载最近capacity条消息，按时间正序
+     * @return 历史消息快照，按时间正序
+     */
+    public List<SysMessage> get(String deviceId, Integer roleId, Supplier<List<SysMessage>> loader) {
+        return obtain(deviceId, roleId, loader).snapshot();
+    }
+
+    /**
+     * 追加一条消息
+     * 消息在追加前已写入数据库，对话不在缓存中（过期或被淘汰）时不追加，下次读取时从数据库加载的
+     * 快照已包含这条消息；此时加载再追加会让同一条消息出现两次。
+     *
+     * @param message 已入库的消息
+     */
+    public void append(SysMessage message) {
+        String key = key(message.getDeviceId(), message.getRoleId());
+        long now = System.currentTimeMillis();
+        Conversation conversation;
+        synchronized (this) {
+            conversation = conversations.get(key);
+            if (conversation == null || conversation.isExpired(now, ttlMillis())) {
+                return;
+            }
+            conversation.touch(now);
+        }
+        long delta = conversation.add(message);
+        synchronized (this) {
+            // 对话可能已在查找和追加之间被淘汰，此时不再计入
+            if (conversations.get(key) == conversation) {
+                totalBytes += delta;
+                evictIfNeeded();
+            }
+        }
+    }
+
+    /**
+     * 移除设备的所有对话
+     *
+     * @param deviceId 设备ID
+     */
+    public synchronized void evictDevice(String deviceId) {
+        String prefix = deviceId + ":";
+        Iterator<Map.Entry<String, Conversation>> iterator = conversations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Conversation> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                totalBytes -= entry.getValue().bytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("conversations", (long) conversations.size());
+        stats.put("bytes", totalBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private Conversation obtain(String deviceId, Integer roleId, Supplier<List<SysMessage>> loader) {
+        String key = key(deviceId, roleId);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Conversation conversation = conversations.get(key);
+            if (conversation != null && !conversation.isExpired(now, ttlMillis())) {
+                conversation.touch(now);
+                hits.incrementAndGet();
+                return conversation;
+            }
+        }
+
+        // 数据库查询不占用全局锁，并发加载时以先放入的为准
+        misses.incrementAndGet();
+        Conversation loaded = new Conversation(capacity, now);
+        List<SysMessage> messages = loader == null ? null : loader.get();
+        if (messages != null) {
+            int from = Math.max(0, messages.size() - capacity);
+            for (SysMessage message : messages.subList(from, messages.size())) {
+                loaded.add(message);
+            }
+        }
+
+        synchronized (this) {
+            Conversation existing = conversations.get(key);
+            if (existing != null && !existing.isExpired(now, ttlMillis())) {
+                existing.touch(now);
+                return existing;
+            }
+            if (existing != null) {
+                totalBytes -= existing.bytes();
+            }
+            conversations.put(key, loaded);
+            totalBytes += loaded.bytes();
+            evictIfNeeded();
+        }
+        logger.debug("已加载对话历史 - {}, 共 {} 条消息", key, loaded.size());
+        return loaded;
+    }
+
+    /**
+     * 超过对话数或内存上限时，从最久未访问的对话开始淘汰（调用方持有锁）
+     */
+    private void evictIfNeeded() {
+        long maxBytes = maxMemoryMb * 1024 * 1024;
+        Iterator<Conversation> iterator = conversations.values().iterator();
+        while ((conversations.size() > maxConversations || totalBytes > maxBytes) && iterator.hasNext()) {
+            Conversation conversation = iterator.next();
+            totalBytes -= conversation.bytes();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 清理过期对话
+     */
+    void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            synchronized (this) {
+                Iterator<Conversation> iterator = conversations.values().iterator();
+                while (iterator.hasNext()) {
+                    Conversation conversation = iterator.next();
+                    if (conversation.isExpired(now, ttlMillis())) {
+                        totalBytes -= conversation.bytes();
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+            if (removed > 0) {
+                evictions.addAndGet(removed);
+                logger.debug("已清理 {} 个过期对话历史，统计: {}", removed, getStats());
+            }
+        } catch (Exception e) {
+            logger.error("清理对话历史时出错: {}", e.getMessage(), e);
+        }
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.MINUTES.toMillis(idleTtlMinutes);
+    }
+
+    private static String key(String deviceId, Integer roleId) {
+        return deviceId + ":" + roleId;
+    }
+
+    private static long estimateBytes(SysMessage message) {
+        String text = message.getMessage();
+        return MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : text.length() * 2L);
+    }
+
+    /**
+     * 单个对话的环形缓冲区
+     */
+    private static class Conversation {
+        private final SysMessage[] buffer;
+        private int head = 0; // 最旧消息的位置
+        private int size = 0;
+        private long bytes = 0;
+        private volatile long lastAccess;
+
+        Conversation(int capacity, long now) {
+            this.buffer = new SysMessage[Math.max(2, capacity)];
+            this.lastAccess = now;
+        }
+
+        /**
+         * 追加消息，缓冲区满时覆盖最旧的消息，并保证最旧的消息不是孤立的助手回复
+         *
+         * @return 占用内存的变化量
+         */
+        synchronized long add(SysMessage message) {
+            long before = bytes;
+            if (size == buffer.length) {
+                removeOldest();
+                if (size > 0 && "assistant".equals(buffer[head].getSender())) {
+                    removeOldest();
+                }
+            }
+            buffer[(head + size) % buffer.length] = message;
+            size++;
+            bytes += estimateBytes(message);
+            return bytes - before;
+        }
+
+        synchronized List<SysMessage> snapshot() {
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            List<SysMessage> messages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                messages.add(buffer[(head + i) % buffer.length]);
+            }
+            return messages;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        void touch(long now) {
+            lastAccess = now;
+        }
+
+        boolean isExpired(long now, long ttl) {
+            return ttl > 0 && now - lastAccess > ttl;
+        }
+
+        private void removeOldest() {
+            bytes -= estimateBytes(buffer[head]);
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+        }
+    }
+}
@@ -5,7 +5,6 @@ import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.service.SysMessageService;
 import com.xiaozhi.service.SysRoleService;
-import com.xiaozhi.websocket.tts.factory.TtsServiceFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -32,11 +32,14 @@ public class DatabaseChatMemory implements ChatMemory {
     private SysRoleService roleService;
 
     @Autowired
-    private TtsServiceFactory ttsService;
+    private ConversationHistoryStore historyStore;
 
     // 缓存系统消息，避免频繁查询数据库
     private Map<String, String> systemMessageCache = new ConcurrentHashMap<>();
 
+    // 会话当前轮次待回填的助手语音
+    private final Map<String, CompletableFuture<String>> pendingAssistantAudio = new ConcurrentHashMap<>();
+
     @Override
     public void addMessage(String deviceId, String sessionId, String sender, String content, Integer roleId, String messageType) {
         try {
@@ -47,17 +50,38 @@ public class DatabaseChatMemory implements ChatMemory {
             message.setMessage(content);
             message.setRoleId(roleId);
             message.setMessageType(messageType);
-            if (sender == "assistant") {
-                // 目前生成的语音保存采用默认的语音合成服务，后续可以考虑支持自定义语音合成服务
-                // todo
-                message.setAudioPath(ttsService.getDefaultTtsService().textToSpeech(content));
-            }
             messageService.add(message);
+
+            // 复用对话过程中已合成的句子语音，归档完成后再回填，不在这里重复合成
+            if ("assistant".equals(sender)) {
+                CompletableFuture<String> audioFuture = pendingAssistantAudio.remove(sessionId);
+                if (audioFuture != null && message.getMessageId() != null) {
+                    audioFuture.thenAccept(audioPath -> {
+                        if (audioPath != null) {
+                            messageService.updateAudioPath(new SysMessage()
+                                    .setMessageId(message.getMessageId())
+                                    .setAudioPath(audioPath));
+                        }
+                    }).exceptionally(e -> {
+                        logger.error("回填消息语音时出错: {}", e.getMessage(), e);
+                        return null;
+                    });
+                }
+            }
         } catch (Exception e) {
             logger.error("保存消息时出错: {}", e.getMessage(), e);
         }
     }
 
+    @Override
+    public void bindAssistantAudio(String sessionId, CompletableFuture<String> audioFuture) {
+        if (audioFuture == null) {
+            pendingAssistantAudio.remove(sessionId);
+        } else {
+            pendingAssistantAudio.put(sessionId, audioFuture);
+        }
+    }
+
     @Override
     public List<SysMessage> getMessages(String deviceId, String messageType, Integer limit) {
         try {
@@ -78,6 +102,37 @@ public class DatabaseChatMemory implements ChatMemory {
         }
     }
 
+    @Override
+    public List<SysMessage> getHistory(String deviceId, Integer roleId) {
+        return historyStore.get(deviceId, roleId, () -> loadHistory(deviceId, roleId));
+    }
+
+    @Override
+    public void appendHistory(SysMessage message) {
+        historyStore.append(message);
+    }
+
+    /**
+     * 从数据库加载设备在该角色下最近的普通消息
+     */
+    private List<SysMessage> loadHistory(String deviceId, Integer roleId) {
+        try {
+            SysMessage queryMessage = new SysMessage();
+            queryMessage.setDeviceId(deviceId);
+            queryMessage.setRoleId(roleId);
+            queryMessage.setMessageType(SysMessage.MESSAGE_TYPE_NORMAL);
+            queryMessage.setStart(1);
+            queryMessage.setLimit(historyStore.getCapacity());
+
+            List<SysMessage> messages = new ArrayList<>(messageService.query(queryMessage));
+            messages.sort(Comparator.comparing(Base::getCreateTime));
+            return messages;
+        } catch (Exception e) {
+            logger.error("加载历史消息时出错: {}", e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+
     @Override
     public void clearMessages(String deviceId) {
         try {
@@ -88,6 +143,7 @@ public class DatabaseChatMemory implements ChatMemory {
 
             // 清除缓存
             systemMessageCache.keySet().removeIf(key -> key.startsWith(deviceId + ":"));
+            historyStore.evictDevice(deviceId);
         } catch (Exception e) {
             logger.error("清除设备历史记录时出错: {}", e.getMessage(), e);
         }
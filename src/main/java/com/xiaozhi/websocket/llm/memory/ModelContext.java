@@ -1,8 +1,11 @@
 package com.xiaozhi.websocket.llm.memory;
 
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.xiaozhi.entity.SysMessage;
+import com.xiaozhi.websocket.llm.api.CancellationToken;
 import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
 
 /**
@@ -16,6 +19,10 @@ public class ModelContext {
     private final String systemMessage;
     private final ChatMemory chatMemory;
     private final FunctionSessionHolder functionSessionHolder;
+    // 本次请求的取消令牌，取消后提供方应中断请求并不再回调
+    private CancellationToken cancellationToken = new CancellationToken();
+    // 本次请求的历史消息 -> 缓存的JSON片段，按对象identity查找，由ContextBuilder组装消息时写入
+    private final Map<Map<String, Object>, byte[]> messageJson = new IdentityHashMap<>();
 
     /**
      * 构造函数
@@ -128,6 +135,24 @@ public class ModelContext {
         return chatMemory.getMessages(deviceId, messageType, limit);
     }
 
+    /**
+     * 获取当前设备和角色最近的对话，来自共享缓存
+     *
+     * @return 历史消息列表，按时间正序
+     */
+    public List<SysMessage> getHistory() {
+        return chatMemory.getHistory(deviceId, roleId);
+    }
+
+    /**
+     * 把消息追加到共享的对话缓存
+     *
+     * @param message 消息
+     */
+    public void appendHistory(SysMessage message) {
+        chatMemory.appendHistory(message);
+    }
+
     /**
      * 获取会话的函数控制器s
      *
@@ -136,4 +161,33 @@ public class ModelContext {
     public FunctionSessionHolder getFunctionSessionHolder() {
         return functionSessionHolder;
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取本次请求的取消令牌
+     *
+     * @return 取消令牌
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * 设置本次请求的取消令牌
+     *
+     * @param cancellationToken 取消令牌
+     * @return 模型上下文
+     */
+    public ModelContext setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
+    /**
+     * 获取本次请求中历史消息对应的JSON片段
+     *
+     * @return 消息 -> 序列化后的 {"role":...,"content":...}
+     */
+    public Map<Map<String, Object>, byte[]> getMessageJson() {
+        return messageJson;
+    }
+}
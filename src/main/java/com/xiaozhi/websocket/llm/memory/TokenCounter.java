@@ -0,0 +1,16 @@
+package com.xiaozhi.websocket.llm.memory;
+
+/**
+ * Token计数器
+ * 用于估算消息占用的上下文长度，需要精确计数时可以提供基于模型词表的实现（注册为Spring Bean即可替换默认实现）
+ */
+public interface TokenCounter {
+
+    /**
+     * 估算文本的token数
+     *
+     * @param text 文本
+     * @return token数
+     */
+    int count(CharSequence text);
+}
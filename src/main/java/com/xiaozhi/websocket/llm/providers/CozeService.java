@@ -1,14 +1,6 @@
 package com.xiaozhi.websocket.llm.providers;
 
-import com.coze.openapi.client.chat.CreateChatReq;
-import com.coze.openapi.client.chat.SubmitToolOutputsReq;
-import com.coze.openapi.client.chat.model.ChatEvent;
-import com.coze.openapi.client.chat.model.ChatEventType;
-import com.coze.openapi.client.chat.model.ChatToolCall;
-import com.coze.openapi.client.chat.model.ToolOutput;
-import com.coze.openapi.client.connversations.message.model.Message;
-import com.coze.openapi.service.auth.TokenAuth;
-import com.coze.openapi.service.service.CozeAPI;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.websocket.llm.api.AbstractLlmService;
 import com.xiaozhi.websocket.llm.api.StreamResponseListener;
@@ -16,28 +8,65 @@ import com.xiaozhi.websocket.llm.api.ToolCallInfo;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
 import com.xiaozhi.websocket.llm.tool.ActionType;
 import com.xiaozhi.websocket.llm.tool.ToolResponse;
-import io.reactivex.Flowable;
-import io.reactivex.schedulers.Schedulers;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * Coze LLM服务实现
+ * 直接调用Coze的v3流式接口，SSE事件由共享的WebClient在事件循环上解析并转发给监听器，
+ * 回答过程中不占用线程；需要执行本地函数时交给工具线程池执行，函数结果异步提交后继续接收后续事件。
  */
 public class CozeService extends AbstractLlmService {
 
-    private final TokenAuth authCli;
-    private final CozeAPI coze;
+    private static final String BASE_URL = "https://api.coze.cn";
+
+    // 与HttpClientRegistry中的OkHttp客户端保持一致：连接30秒，读60秒，写30秒
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(30);
+
+    // 所有Coze服务共享一个基于事件循环的客户端
+    private static final WebClient sharedClient = createClient(BASE_URL, READ_TIMEOUT);
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<ServerSentEvent<String>>() {
+            };
+
+    // 同步调用等待的最长时间
+    private static final Duration CHAT_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final String EVENT_MESSAGE_DELTA = "conversation.message.delta";
+    private static final String EVENT_REQUIRES_ACTION = "conversation.chat.requires_action";
+    private static final String EVENT_CHAT_FAILED = "conversation.chat.failed";
+    private static final String EVENT_ERROR = "error";
+
     private final String botId;
 
+    // 请求使用的客户端，测试时可替换
+    private WebClient webClient = sharedClient;
+
     /**
      * 构造函数
-     * 
+     *
      * @param endpoint  API端点
      * @param appId     应用ID (在Coze中对应botId)
      * @param apiKey    API密钥 (在Coze中不使用)
@@ -47,23 +76,10 @@ public class CozeService extends AbstractLlmService {
     public CozeService(String endpoint, String appId, String apiKey, String apiSecret, String model) {
         super(endpoint, appId, apiKey, apiSecret, model);
 
-        // 使用apiSecret作为access_token
-        this.authCli = new TokenAuth(apiSecret);
-
-        // 使用endpoint或默认的Coze API地址
-        String baseUrl = "https://api.coze.cn";
-
-        // 初始化Coze API客户端
-        this.coze = new CozeAPI.Builder()
-                .baseURL(baseUrl)
-                .auth(authCli)
-                .readTimeout(60000) // 60秒超时
-                .build();
-
         // 使用appId作为botId
         this.botId = model;
 
-        logger.info("初始化Coze服务，botId: {}, baseUrl: {}", botId, baseUrl);
+        logger.info("初始化Coze服务，botId: {}, baseUrl: {}", botId, BASE_URL);
     }
 
     @Override
@@ -72,55 +88,19 @@ public class CozeService extends AbstractLlmService {
             throw new IOException("消息列表不能为空");
         }
 
-        // 将消息格式转换为Coze API所需格式
-        List<Message> cozeMessages = convertToCozeMessages(messages);
-
         // 创建唯一的用户ID
         String userId = "user_" + UUID.randomUUID().toString().replace("-", "");
 
-        // 创建聊天请求
-        CreateChatReq req = CreateChatReq.builder()
-                .botID(botId)
-                .userID(userId)
-                .messages(cozeMessages)
-                .build();
-
         try {
-            // 创建CompletableFuture来处理异步响应
-            CompletableFuture<String> future = new CompletableFuture<>();
-
-            // 发送请求并获取流式响应
-            StringBuilder fullResponse = new StringBuilder();
-            Flowable<ChatEvent> resp = coze.chat().stream(req);
-
-            resp.subscribeOn(Schedulers.io())
-                    .subscribe(
-                            event -> {
-                                if (ChatEventType.CONVERSATION_MESSAGE_DELTA.equals(event.getEvent())) {
-                                    String content = event.getMessage().getContent();
-                                    if (content != null && !content.isEmpty()) {
-                                        fullResponse.append(content);
-                                    }
-                                }
-                                if (ChatEventType.CONVERSATION_CHAT_COMPLETED.equals(event.getEvent())) {
-                                    future.complete(fullResponse.toString());
-                                }
-                            },
-                            throwable -> {
-                                logger.error("Coze API请求失败: {}", throwable.getMessage(), throwable);
-                                future.completeExceptionally(throwable);
-                            },
-                            () -> {
-                                // 如果没有收到CONVERSATION_CHAT_COMPLETED事件，确保完成future
-                                if (!future.isDone()) {
-                                    future.complete(fullResponse.toString());
-                                }
-                            });
-
-            // 等待响应，设置超时
-            return future.get(60, TimeUnit.SECONDS);
-
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // 同步接口按约定需要返回完整回复，这里只阻塞调用方，事件解析仍在事件循环上
+            String response = stream("/v3/chat", createChatBody(userId, messages))
+                    .filter(event -> EVENT_MESSAGE_DELTA.equals(event.event()))
+                    .map(event -> answerContent(readTree(event.data())))
+                    .reduce(new StringBuilder(), StringBuilder::append)
+                    .map(StringBuilder::toString)
+                    .block(CHAT_TIMEOUT);
+            return response == null ? "" : response;
+        } catch (Exception e) {
             logger.error("获取Coze响应时出错: {}", e.getMessage(), e);
             throw new IOException("获取Coze响应时出错: " + e.getMessage(), e);
         }
@@ -136,173 +116,277 @@ public class CozeService extends AbstractLlmService {
         // 通知开始
         streamListener.onStart();
 
-        // 将消息格式转换为Coze API所需格式
-        List<Message> cozeMessages = convertToCozeMessages(messages);
-
         // 创建唯一的用户ID
         String userId = "user_xz_" + modelContext.getDeviceId().replace(":", "");
 
-        // 创建聊天请求
-        CreateChatReq req = CreateChatReq.builder()
-                .botID(botId)
-                .userID(userId)
-                .messages(cozeMessages)
+        subscribe(stream("/v3/chat", createChatBody(userId, messages)),
+                new CozeEventHandler(messages, streamListener, modelContext, SysMessage.MESSAGE_TYPE_NORMAL));
+    }
+
+    @Override
+    protected void submitFunctionResultToLlm(ModelContext modelContext, ToolCallInfo toolCallInfo,
+                                             StreamResponseListener streamListener, List<Map<String, Object>> messages,
+                                             ToolResponse toolResponse){
+        submitFunctionResultsToLlm(modelContext, Collections.singletonList(toolCallInfo), streamListener, messages,
+                Collections.singletonList(toolResponse));
+    }
+
+    /**
+     * 把同一轮所有函数的结果一次提交给Coze，继续接收总结回复
+     */
+    @Override
+    protected void submitFunctionResultsToLlm(ModelContext modelContext, List<ToolCallInfo> toolCallInfos,
+                                              StreamResponseListener streamListener, List<Map<String, Object>> messages,
+                                              List<ToolResponse> toolResponses){
+        CozeToolCallInfo first = (CozeToolCallInfo) toolCallInfos.get(0);
+        List<Map<String, Object>> toolOutputs = new ArrayList<>();
+        for (int i = 0; i < toolCallInfos.size(); i++) {
+            Map<String, Object> output = new HashMap<>();
+            output.put("output", toolResponses.get(i).getResponse());
+            Map<String, Object> toolOutput = new HashMap<>();
+            toolOutput.put("tool_call_id", toolCallInfos.get(i).getTool_call_id());
+            toolOutput.put("output", writeJson(output));
+            toolOutputs.add(toolOutput);
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("tool_outputs", toolOutputs);
+        body.put("stream", true);
+
+        String uri = "/v3/chat/submit_tool_outputs?conversation_id=" + first.conversationID + "&chat_id=" + first.chatID;
+        subscribe(stream(uri, body), new CozeEventHandler(messages, streamListener, modelContext, SysMessage.MESSAGE_TYPE_NORMAL));
+    }
+
+    /**
+     * 创建带超时的客户端
+     * 读超时按两次读之间的间隔计算，流式回答持续输出时不会被打断，服务端长时间无响应或中途停止输出时请求失败。
+     * 连接归还连接池时会移除附加的处理器，所以读写超时处理器在每次请求时添加
+     *
+     * @param baseUrl     服务地址
+     * @param readTimeout 等待响应头及两次读之间的最长时间
+     */
+    static WebClient createClient(String baseUrl, Duration readTimeout) {
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .responseTimeout(readTimeout)
+                .doOnRequest((request, connection) -> connection
+                        .addHandlerLast(new ReadTimeoutHandler(readTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                        .addHandlerLast(new WriteTimeoutHandler(WRITE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)));
+        return WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .build();
+    }
+
+    /**
+     * 发起流式请求
+     */
+    private Flux<ServerSentEvent<String>> stream(String uri, Map<String, Object> body) {
+        return webClient.post()
+                .uri(uri)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiSecret)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToFlux(SSE_TYPE);
+    }
+
+    /**
+     * 订阅事件流，取消时停止接收
+     */
+    private void subscribe(Flux<ServerSentEvent<String>> events, CozeEventHandler handler) {
+        Disposable subscription = events.subscribe(handler::onEvent, handler::onError, handler::onComplete);
+        handler.modelContext.getCancellationToken().onCancel(subscription::dispose);
+    }
+
+    private Map<String, Object> createChatBody(String userId, List<Map<String, Object>> messages) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("bot_id", botId);
+        body.put("user_id", userId);
+        body.put("stream", true);
+        body.put("additional_messages", convertToCozeMessages(messages));
+        return body;
+    }
 
+    /**
+     * 单次流式请求的事件处理
+     */
+    private class CozeEventHandler {
+        private final List<Map<String, Object>> messages;
+        private final StreamResponseListener streamListener;
+        private final ModelContext modelContext;
+        private final String messageType;
         // 保存完整响应
-        StringBuilder fullResponse = new StringBuilder();
+        private final StringBuilder fullResponse = new StringBuilder();
+        private final List<ToolCallInfo> toolCallInfos = new ArrayList<>();
+        private boolean failed = false;
+
+        CozeEventHandler(List<Map<String, Object>> messages, StreamResponseListener streamListener,
+                         ModelContext modelContext, String messageType) {
+            this.messages = messages;
+            this.streamListener = streamListener;
+            this.modelContext = modelContext;
+            this.messageType = messageType;
+        }
 
-        // 发送请求
+        void onEvent(ServerSentEvent<String> event) {
+            String name = event.event();
+            if (name == null || failed) {
+                return;
+            }
+            switch (name) {
+                case EVENT_MESSAGE_DELTA:
+                    String content = answerContent(readTree(event.data()));
+                    if (!content.isEmpty()) {
+                        streamListener.onToken(content);
+                        fullResponse.append(content);
+                    }
+                    break;
+                case EVENT_REQUIRES_ACTION:
+                    // 智能体需要调用本地函数
+                    JsonNode chat = readTree(event.data());
+                    for (JsonNode toolCall : chat.path("required_action").path("submit_tool_outputs").path("tool_calls")) {
+                        CozeToolCallInfo toolCallInfo = new CozeToolCallInfo();
+                        toolCallInfo.chatID = chat.path("id").asText();
+                        toolCallInfo.conversationID = chat.path("conversation_id").asText();
+                        toolCallInfo.setTool_call_id(toolCall.path("id").asText());
+                        toolCallInfo.setName(toolCall.path("function").path("name").asText());
+                        toolCallInfo.appendArgumentsJson(toolCall.path("function").path("arguments").asText());
+                        toolCallInfos.add(toolCallInfo);
+                    }
+                    break;
+                case EVENT_CHAT_FAILED:
+                    failed = true;
+                    JsonNode lastError = readTree(event.data()).path("last_error");
+                    streamListener.onError(new IOException("Coze对话失败: " + lastError.path("code").asText()
+                            + " " + lastError.path("msg").asText()));
+                    break;
+                case EVENT_ERROR:
+                    failed = true;
+                    JsonNode error = readTree(event.data());
+                    streamListener.onError(new IOException("Coze返回错误: " + error.path("code").asText()
+                            + " " + error.path("msg").asText()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void onError(Throwable throwable) {
+            if (modelContext.getCancellationToken().isCancelled()) {
+                return;
+            }
+            if (throwable instanceof WebClientResponseException) {
+                WebClientResponseException e = (WebClientResponseException) throwable;
+                logger.error("流式请求失败: {} {}", e.getRawStatusCode(), e.getResponseBodyAsString());
+            } else {
+                logger.error("流式请求失败: {}", throwable.getMessage(), throwable);
+            }
+            streamListener.onError(throwable);
+        }
+
+        void onComplete() {
+            if (failed || modelContext.getCancellationToken().isCancelled()) {
+                return;
+            }
+            // 完成通知中的消息入库是阻塞操作，不放在事件循环上
+            Mono.fromRunnable(this::finish)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .subscribe(null, this::onError);
+        }
+
+        private void finish() {
+            if (toolCallInfos.isEmpty()) {
+                if (fullResponse.length() > 0) {
+                    addResponseMessage(messageType);
+                }
+                complete();
+                return;
+            }
+            // 处理函数调用，函数在工具线程池中执行，执行完后再通知完成
+            doFunctionCalls(modelContext, toolCallInfos, streamListener, messages)
+                    .thenAccept(toolResponses -> {
+                        if (toolResponses.stream().anyMatch(toolResponse -> ActionType.REQLLM.equals(toolResponse.getActionType()))) {
+                            // 函数结果已提交给智能体，由提交请求的响应通知完成
+                            return;
+                        }
+                        if (!toolResponses.isEmpty()) {
+                            //非REQLLM函数，则将消息添加到消息列表，并设置完整内容为工具的response内容
+                            toolResponses.forEach(toolResponse -> fullResponse.append(toolResponse.getResponse()));
+                            addResponseMessage(SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
+                        }
+                        complete();
+                    })
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        logger.error("函数调用失败: {}", cause.getMessage(), cause);
+                        streamListener.onError(cause);
+                        return null;
+                    });
+        }
+
+        private void complete() {
+            if (fullResponse.length() > 0) {
+                streamListener.onComplete(fullResponse.toString());
+                streamListener.onFinal(messages, CozeService.this);
+            } else {
+                streamListener.onError(new IOException("未收到有效响应"));
+            }
+        }
+
+        private void addResponseMessage(String type) {
+            Map<String, Object> responseMessage = new HashMap<>();
+            responseMessage.put("role", "assistant");
+            responseMessage.put("content", fullResponse);
+            responseMessage.put("messageType", type);
+            messages.add(responseMessage);
+        }
+    }
+
+    /**
+     * 增量消息中的回答内容，其他类型的消息（如函数调用过程）忽略
+     */
+    private static String answerContent(JsonNode message) {
+        String type = message.path("type").asText("answer");
+        if (!"answer".equals(type)) {
+            return "";
+        }
+        return message.path("content").asText("");
+    }
+
+    private static JsonNode readTree(String data) {
         try {
-            Flowable<ChatEvent> resp = coze.chat().stream(req);
-            CozeToolCallInfo toolCallInfo = new CozeToolCallInfo();
-            resp.subscribeOn(Schedulers.io())
-                    .subscribe(
-                            event -> {
-                                if (ChatEventType.CONVERSATION_MESSAGE_DELTA.equals(event.getEvent())) {
-                                    String content = event.getMessage().getContent();
-                                    if (content != null && !content.isEmpty()) {
-                                        streamListener.onToken(content);
-                                        fullResponse.append(content);
-                                    }
-                                }
-                                /*
-                                 * handle the chat event, if event type is CONVERSATION_CHAT_REQUIRES_ACTION,
-                                 * it means the bot requires the invocation of local plugins.
-                                 * In this example, we will invoke the local plugin to get the weather information.
-                                 * */
-                                if (ChatEventType.CONVERSATION_CHAT_REQUIRES_ACTION.equals(event.getEvent())) {
-                                    toolCallInfo.chatID = event.getChat().getID();
-                                    toolCallInfo.conversationID = event.getChat().getConversationID();
-                                    //如果出现多工具调用，目前只执行第一个，后续再看是否需要处理多工具调用
-                                    ChatToolCall callInfo = event.getChat().getRequiredAction().getSubmitToolOutputs().
-                                            getToolCalls().get(0);
-                                        String callID = callInfo.getID();
-                                        String functionName = callInfo.getFunction().getName();
-                                        String argsJson = callInfo.getFunction().getArguments();
-                                        toolCallInfo.setTool_call_id(callID);
-                                        toolCallInfo.setName(functionName);
-                                        toolCallInfo.appendArgumentsJson(argsJson);
-                                }
-                            },
-                            throwable -> {
-                                logger.error("流式请求失败: {}", throwable.getMessage(), throwable);
-                                streamListener.onError(throwable);
-                            },
-                            () -> {
-                                boolean isFunctionResultReqLlm = false;
-                                // 处理函数调用
-                                if(toolCallInfo.getTool_call_id() != null){
-                                    try{
-                                        ToolResponse toolResponse = doFunctionCall(modelContext, toolCallInfo, streamListener, messages);
-                                        if(toolResponse != null){
-                                            if(ActionType.REQLLM.equals(toolResponse.getActionType())){
-                                                isFunctionResultReqLlm = true;
-                                            }else{
-                                                //非REQLLM函数，则将消息添加到消息列表，并设置完整内容为工具的response内容
-                                                fullResponse.append(toolResponse.getResponse());
-                                                Map<String, Object> responseMessage = new HashMap<>();
-                                                responseMessage.put("role", "assistant");
-                                                responseMessage.put("content", fullResponse);
-                                                responseMessage.put("messageType", SysMessage.MESSAGE_TYPE_FUNCTION_CALL);
-                                                messages.add(responseMessage);
-                                            }
-                                        }
-                                    }catch (Exception e){
-                                        logger.error("函数调用失败: {}", e.getMessage(), e);
-                                        streamListener.onError(e);
-                                    }
-                                }else{
-                                    if (fullResponse.length() > 0) {
-                                        Map<String, Object> responseMessage = new HashMap<>();
-                                        responseMessage.put("role", "assistant");
-                                        responseMessage.put("content", fullResponse);
-                                        responseMessage.put("messageType", SysMessage.MESSAGE_TYPE_NORMAL);
-                                        messages.add(responseMessage);
-                                    }
-                                }
-
-                                // 如果没有收到CONVERSATION_CHAT_COMPLETED事件，在这里确保通知完成
-                                if(!isFunctionResultReqLlm ){
-                                    if (fullResponse.length() > 0) {
-                                        streamListener.onComplete(fullResponse.toString());
-                                        streamListener.onFinal(messages, CozeService.this);
-                                    } else {
-                                        streamListener.onError(new IOException("未收到有效响应"));
-                                    }
-                                }
-                            });
-        } catch (Exception e) {
-            logger.error("创建流式请求时出错: {}", e.getMessage(), e);
-            streamListener.onError(e);
+            return objectMapper.readTree(data == null ? "{}" : data);
+        } catch (IOException e) {
+            return objectMapper.createObjectNode();
         }
     }
 
-    @Override
-    protected void submitFunctionResultToLlm(ModelContext modelContext, ToolCallInfo toolCallInfo,
-                                             StreamResponseListener streamListener, List<Map<String, Object>> messages,
-                                             ToolResponse toolResponse){
-        CozeToolCallInfo cozeToolCallInfo = (CozeToolCallInfo) toolCallInfo;
-        List<ToolOutput> toolOutputs = new ArrayList<>();
-        toolOutputs.add(ToolOutput.of(toolCallInfo.getTool_call_id(), "{ \"output\": \""+toolResponse.getResponse()+"\" }"));
-        SubmitToolOutputsReq toolReq =
-                SubmitToolOutputsReq.builder()
-                        .chatID(cozeToolCallInfo.chatID)
-                        .conversationID(cozeToolCallInfo.conversationID)
-                        .toolOutputs(toolOutputs)
-                        .stream(true)
-                        .build();
-        // 保存完整响应
-        StringBuilder fullResponse = new StringBuilder();
-        Flowable<ChatEvent> events = coze.chat().streamSubmitToolOutputs(toolReq);
-        events.subscribeOn(Schedulers.io())
-                .subscribe(
-                        event -> {
-                            if (ChatEventType.CONVERSATION_MESSAGE_DELTA.equals(event.getEvent())) {
-                                String content = event.getMessage().getContent();
-                                if (content != null && !content.isEmpty()) {
-                                    if (content != null && !content.isEmpty()) {
-                                        streamListener.onToken(content);
-                                        fullResponse.append(content);
-                                    }
-                                }
-                            }
-                        },
-                        throwable -> {
-                            logger.error("提交函数结果失败: {}", throwable.getMessage(), throwable);
-                            streamListener.onError(throwable);
-                        }, ()->{
-                            if (fullResponse.length() > 0) {
-                                Map<String, Object> responseMessage = new HashMap<>();
-                                responseMessage.put("role", "assistant");
-                                responseMessage.put("content", fullResponse);
-                                responseMessage.put("messageType", "NORMAL");
-                                messages.add(responseMessage);
-                                streamListener.onComplete(fullResponse.toString());
-                                streamListener.onFinal(messages, CozeService.this);
-                            } else {
-                                streamListener.onError(new IOException("未收到有效响应"));
-                            }
-                        });
+    private static String writeJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
      * 将通用消息格式转换为Coze API所需的消息格式
-     * 
+     *
      * @param messages 通用格式的消息列表
      * @return Coze格式的消息列表
      */
-    private List<Message> convertToCozeMessages(List<Map<String, Object>> messages) {
-        List<Message> cozeMessages = new ArrayList<>();
+    private List<Map<String, Object>> convertToCozeMessages(List<Map<String, Object>> messages) {
+        List<Map<String, Object>> cozeMessages = new ArrayList<>();
 
         for (Map<String, Object> msg : messages) {
             String role = String.valueOf(msg.get("role"));
             String content = String.valueOf(msg.get("content"));
 
             if ("user".equals(role)) {
-                cozeMessages.add(Message.buildUserQuestionText(content));
+                cozeMessages.add(cozeMessage("user", "question", content));
             } else if ("assistant".equals(role)) {
-                cozeMessages.add(Message.buildAssistantAnswer(content));
+                cozeMessages.add(cozeMessage("assistant", "answer", content));
             } else if ("system".equals(role)) {
                 // coze 系统提示默认不在这里设定，需要在 coze 中设定
             }
@@ -311,14 +395,23 @@ public class CozeService extends AbstractLlmService {
         return cozeMessages;
     }
 
+    private static Map<String, Object> cozeMessage(String role, String type, String content) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("role", role);
+        message.put("type", type);
+        message.put("content", content);
+        message.put("content_type", "text");
+        return message;
+    }
+
     @Override
     public String getProviderName() {
         return "coze";
     }
 
-    private class CozeToolCallInfo extends ToolCallInfo {
+    private static class CozeToolCallInfo extends ToolCallInfo {
         private String conversationID;
         private String chatID;
     }
 
-}
\ No newline at end of file
+}
@@ -2,10 +2,9 @@ package com.xiaozhi.websocket.llm.providers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.xiaozhi.websocket.llm.api.AbstractLlmService;
+import com.xiaozhi.websocket.llm.api.StreamChunkParser;
 import com.xiaozhi.websocket.llm.api.StreamResponseListener;
-import com.xiaozhi.websocket.llm.api.ToolCallInfo;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
-import com.xiaozhi.websocket.llm.tool.ToolResponse;
 import okhttp3.*;
 import okio.BufferedSource;
 
@@ -87,10 +86,16 @@ public class OllamaService extends AbstractLlmService {
         // 通知开始
         streamListener.onStart();
 
-        // 发送请求
-        client.newCall(request).enqueue(new Callback() {
+        // 发送请求，取消时中断连接
+        Call call = client.newCall(request);
+        modelContext.getCancellationToken().onCancel(call::cancel);
+        call.enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
+                if (modelContext.getCancellationToken().isCancelled()) {
+                    logger.debug("流式请求已取消 - 模型: {}", model);
+                    return;
+                }
                 logger.error("流式请求失败: {}", e.getMessage(), e);
                 streamListener.onError(e);
             }
@@ -114,28 +119,15 @@ public class OllamaService extends AbstractLlmService {
 
                     BufferedSource source = responseBody.source();
                     StringBuilder fullResponse = new StringBuilder();
+                    StreamChunkParser parser = new StreamChunkParser();
 
-                    while (!source.exhausted()) {
-                        String line = source.readUtf8Line();
-                        if (line == null) {
-                            break;
-                        }
-                        if (line.isEmpty()) {
-                            continue;
-                        }
+                    while (parser.readLine(source)) {
                         try {
-                            Map<String, Object> data = objectMapper.readValue(line,
-                                    new TypeReference<Map<String, Object>>() {
-                                    });
-                            if (data.containsKey("message")) {
-                                Map<String, Object> message = (Map<String, Object>) data.get("message");
-                                if (message != null && message.containsKey("content")) {
-                                    String content = (String) message.get("content");
-                                    if (content != null && !content.isEmpty()) {
-                                        streamListener.onToken(content);
-                                        fullResponse.append(content);
-                                    }
-                                }
+                            // Ollama返回NDJSON，每行一个分片，内容在message.content
+                            if (parser.parse() && parser.hasContent()) {
+                                String content = parser.getContent().toString();
+                                streamListener.onToken(content);
+                                fullResponse.append(content);
                             }
                         } catch (Exception e) {
                             logger.error("解析流式响应失败: {}", e.getMessage(), e);
@@ -146,6 +138,12 @@ public class OllamaService extends AbstractLlmService {
                     // 通知完成
                     streamListener.onComplete(fullResponse.toString());
                     streamListener.onFinal(messages, OllamaService.this);
+                } catch (IOException e) {
+                    if (!modelContext.getCancellationToken().isCancelled()) {
+                        throw e;
+                    }
+                    // 取消时连接被中断，读取失败是预期的
+                    logger.debug("流式请求已取消 - 模型: {}", model);
                 }
             }
         });
@@ -1,16 +1,11 @@
 package com.xiaozhi.websocket.llm.providers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.xiaozhi.utils.JsonUtil;
 import com.xiaozhi.websocket.llm.api.AbstractOpenAiLlmService;
-import com.xiaozhi.websocket.llm.api.ToolCallInfo;
 import com.xiaozhi.websocket.llm.memory.ModelContext;
-import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
-import com.xiaozhi.websocket.llm.tool.function.bean.FunctionLlmDescription;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -99,61 +94,26 @@ public class SparkService extends AbstractOpenAiLlmService {
         }
     }
 
-    @NotNull
-    protected String buildRequestJson(List<Map<String, Object>> messages, ModelContext modelContext) {
-        // 构建请求体
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        requestBody.put("stream", true);
-        requestBody.put("messages", messages);
-
+    @Override
+    protected byte[] getToolsJson(ModelContext modelContext) {
         //星火只有个别模型支持tools，这里做个判断，否则会导致模型调用报错
         if(!model.equalsIgnoreCase("4.0Ultra") && !model.equalsIgnoreCase("generalv3.5")){
-            return JsonUtil.toJson(requestBody);
-        }
-        FunctionSessionHolder functionSessionHolder = modelContext.getFunctionSessionHolder();
-        if(functionSessionHolder != null){
-            List<FunctionLlmDescription> tools = functionSessionHolder.getAllFunctionLlmDescription();
-            if(!tools.isEmpty()){
-                requestBody.put("tools", tools);
-            }
+            return null;
         }
-
-        // 转换为JSON
-        return JsonUtil.toJson(requestBody);
+        return super.getToolsJson(modelContext);
     }
 
-    protected Request buildRequest(String jsonBody) {
+    @Override
+    protected Request buildRequest(RequestBody requestBody) {
         // 构建请求
         return new Request.Builder()
                 .url(endpoint + "/chat/completions")
-                .post(RequestBody.create(jsonBody, JSON))
+                .post(requestBody)
                 .addHeader("Content-Type", "application/json")
                 .addHeader("Authorization", "Bearer " + apiSecret) // 使用apiSecret作为Bearer token
                 .build();
     }
 
-    /**
-     * 从toolCallsData中抽取工具调用信息
-     * @param toolCallInfo
-     * @param toolCallsData
-     */
-    protected ToolCallInfo getToolCallInfo(ToolCallInfo toolCallInfo, Object toolCallsData) {
-        if(toolCallInfo == null){
-            toolCallInfo = new ToolCallInfo();
-        }
-        Map<String, Object> toolInfo = (Map<String, Object>) toolCallsData;//讯飞星火模型返回的不是数组，这里做个适配
-        Map<String, String> toolCall = (Map<String, String>)toolInfo.get("function");
-        if(toolCall.get("name") != null){
-            toolCallInfo.setName(toolCall.get("name"));
-        }
-        String arguments = toolCall.get("arguments");
-        if (arguments != null && !arguments.isEmpty()) {
-            toolCallInfo.appendArgumentsJson(arguments);
-        }
-        return toolCallInfo;
-    }
-
     @Override
     public String getProviderName() {
         return "spark";
@@ -0,0 +1,156 @@
+package com.xiaozhi.websocket.llm.tool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 工具调用执行器
+ * 同一轮对话中的多个函数调用提交到有界线程池并发执行，立即返回CompletableFuture，
+ * 调用方（OkHttp回调线程等）不等待函数执行，结果全部就绪后在完成阶段继续处理。
+ * 每个调用的超时从它开始执行时计算，在队列中等待的时间不计入；超时后中断执行线程，
+ * 该调用返回ERROR类型的响应。
+ * 线程池全进程共用一个：所有会话的函数调用一起受tool-threads和tool-queue-size限制，
+ * 总并发不随LLM服务实例数增长，队列满时直接拒绝并返回ERROR类型的响应，不占用调用方线程。
+ */
+@Component
+public class ToolCallExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ToolCallExecutor.class);
+
+    // 单个调用的超时，从开始执行时计算
+    private static volatile long timeoutMillis = 10000;
+    private static volatile ThreadPoolExecutor executor = createExecutor(8, 256);
+
+    @Value("${app.llm.tool-threads:8}")
+    private int threads;
+
+    @Value("${app.llm.tool-queue-size:256}")
+    private int queueSize;
+
+    @Value("${app.llm.tool-timeout-ms:10000}")
+    private long configTimeoutMillis;
+
+    @PostConstruct
+    public void init() {
+        ThreadPoolExecutor previous = executor;
+        executor = createExecutor(threads, queueSize);
+        timeoutMillis = configTimeoutMillis;
+        previous.shutdown();
+        logger.info("工具调用线程池 - 线程数: {}, 队列: {}, 单次超时: {}ms", threads, queueSize, timeoutMillis);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 并发执行一组工具调用
+     * 超时、被拒绝或执行出错的调用返回ERROR类型的响应，不影响其他调用
+     *
+     * @param calls 工具调用
+     * @return 全部调用结束后完成，结果与calls一一对应，调用本身返回null时对应位置也为null
+     */
+    public static CompletableFuture<List<ToolResponse>> invokeAll(List<Callable<ToolResponse>> calls) {
+        List<CompletableFuture<ToolResponse>> futures = new ArrayList<>(calls.size());
+        for (Callable<ToolResponse> call : calls) {
+            futures.add(invoke(call));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<ToolResponse> responses = new ArrayList<>(futures.size());
+                    futures.forEach(future -> responses.add(future.join()));
+                    return responses;
+                });
+    }
+
+    private static CompletableFuture<ToolResponse> invoke(Callable<ToolResponse> call) {
+        CompletableFuture<ToolResponse> result = new CompletableFuture<>();
+        try {
+            executor.execute(new TimedCall(call, result));
+        } catch (RejectedExecutionException e) {
+            logger.warn("工具调用线程池已满，拒绝执行");
+            result.complete(new ToolResponse(ToolType.NONE, ActionType.ERROR, null, "操作繁忙，请稍后再试"));
+        }
+        return result;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "llm-tool-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * 开始执行时启动超时计时的调用
+     * 超时定时任务在boundedElastic上执行，后续的完成阶段可能在其中运行，允许阻塞操作
+     */
+    private static class TimedCall implements Runnable {
+        private final Callable<ToolResponse> call;
+        private final CompletableFuture<ToolResponse> result;
+        // 正在执行的线程，执行结束后为null，超时只中断仍在执行本调用的线程
+        private Thread runner;
+
+        TimedCall(Callable<ToolResponse> call, CompletableFuture<ToolResponse> result) {
+            this.call = call;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            Disposable timeout = Schedulers.boundedElastic().schedule(this::timeout, timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+            try {
+                result.complete(call.call());
+            } catch (Exception e) {
+                if (!result.isDone()) {
+                    logger.error("工具调用出错: {}", e.getMessage(), e);
+                }
+                result.complete(new ToolResponse(ToolType.NONE, ActionType.ERROR, null, "操作失败了，请稍后再试"));
+            } finally {
+                timeout.dispose();
+                synchronized (this) {
+                    runner = null;
+                }
+                // 超时的中断只针对本调用，不带到线程池的下一个任务
+                Thread.interrupted();
+            }
+        }
+
+        private void timeout() {
+            if (!result.complete(new ToolResponse(ToolType.NONE, ActionType.ERROR, null, "操作超时了，请稍后再试"))) {
+                return;
+            }
+            logger.warn("工具调用超时（{}ms），已取消", timeoutMillis);
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.xiaozhi.websocket.llm.tool.function;
 
+import com.xiaozhi.utils.JsonUtil;
 import com.xiaozhi.websocket.llm.tool.function.bean.FunctionCallTool;
 import com.xiaozhi.websocket.llm.tool.function.bean.FunctionLlmDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,6 +27,16 @@ public class FunctionSessionHolder {
 
     private FunctionGlobalRegistry globalFunctionRegistry;
 
+    // 函数注册变化时递增，用于判断工具定义缓存是否有效
+    private volatile int version = 0;
+
+    // 序列化后的工具定义及其对应的版本
+    private byte[] toolsJson;
+    private int toolsJsonVersion = -1;
+
+    // 本地意图匹配，随iot设备注册一起生成
+    private final IntentMatcher intentMatcher = new IntentMatcher();
+
     public FunctionSessionHolder(String sessionId, FunctionGlobalRegistry globalFunctionRegistry) {
         this.sessionId = sessionId;
         this.globalFunctionRegistry = globalFunctionRegistry;
@@ -44,6 +56,7 @@ public class FunctionSessionHolder {
             return null;
         }
         functionRegistry.put(name, func);
+        version++;
         logger.debug("[{}] - SessionId:{} Function:{} registered from global successfully", TAG, sessionId, name);
         return func;
     }
@@ -56,6 +69,7 @@ public class FunctionSessionHolder {
      */
     public void registerFunction(String name, FunctionCallTool functionCallTool) {
         functionRegistry.put(name, functionCallTool);
+        version++;
 //        logger.debug("[{}] - SessionId:{} Function:{} registered successfully", TAG, sessionId, name);
     }
 
@@ -72,6 +86,7 @@ public class FunctionSessionHolder {
             return false;
         }
         functionRegistry.remove(name);
+        version++;
         logger.info("[{}] - SessionId:{} Function:{} unregistered successfully", TAG, sessionId, name);
         return true;
     }
@@ -114,4 +129,28 @@ public class FunctionSessionHolder {
                 .map(FunctionCallTool::getFunctionLlmDescription).collect(Collectors.toList());
     }
 
+    /**
+     * Get serialized llm descriptions of all registered functions, cached until the function set changes
+     *
+     * @return json array of all function descriptions, or null if no function is registered
+     */
+    public synchronized byte[] getAllFunctionLlmDescriptionJson() {
+        int current = version;
+        if (toolsJsonVersion != current) {
+            List<FunctionLlmDescription> tools = getAllFunctionLlmDescription();
+            toolsJson = tools.isEmpty() ? null : JsonUtil.toJson(tools).getBytes(StandardCharsets.UTF_8);
+            toolsJsonVersion = current;
+        }
+        return toolsJson;
+    }
+
+    /**
+     * Get the local intent matcher compiled from the registered iot descriptors
+     *
+     * @return the intent matcher of this session
+     */
+    public IntentMatcher getIntentMatcher() {
+        return intentMatcher;
+    }
+
 }
@@ -0,0 +1,368 @@
+package com.xiaozhi.websocket.llm.tool.function;
+
+import com.xiaozhi.websocket.iot.IotDescriptor;
+import com.xiaozhi.websocket.iot.IotMethod;
+import com.xiaozhi.websocket.iot.IotMethodParameter;
+import com.xiaozhi.websocket.iot.IotProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地意图匹配
+ * 根据会话注册的iot设备描述（方法、属性）和退出函数，预先生成常见说法的归一化模板，
+ * 用户的话归一化后与模板完全一致时直接得到要调用的函数和参数，不再经过LLM。
+ * 归一化会去掉标点、语气词和客套话，统一“开/关”类动词，并把唯一的数字（含中文数字）替换为占位符。
+ * 一个模板对应多个函数时视为有歧义，不做匹配，交给LLM处理。
+ */
+public class IntentMatcher {
+
+    // 数字占位符
+    private static final char NUMBER = '#';
+
+    // 退出函数名称，与SessionExitFunction一致
+    public static final String EXIT_FUNCTION = "handle_exit_intent";
+
+    private static final String[] EXIT_PHRASES = { "退出", "退下", "再见", "拜拜", "结束对话", "退出对话", "不聊", "我要走", "我先走" };
+
+    // 去掉的客套话和语气词
+    private static final String[] FILLERS = { "请你", "请", "帮我", "给我", "麻烦", "一下", "吧", "呀", "啊", "哦", "嘛", "呢", "了" };
+
+    // 设置类方法描述中的动词前缀，去掉后得到调节对象（如“设置音量” -> “音量”）
+    private static final String[] SET_VERBS = { "设置", "调整", "调节", "设定", "修改", "调" };
+
+    // 数值设置的说法：[前缀]对象[连接词]数字
+    private static final String[] SET_PREFIXES = { "", "设置", "调", "调整", "调节", "设定", "设", "将" };
+    private static final String[] SET_JOINERS = { "", "到", "为", "成", "至", "调到", "调为", "调成", "调至", "设为", "设到", "设成",
+            "设置为", "设置成", "设置到", "改为", "改成" };
+
+    // 属性查询的说法：[前缀]对象后缀
+    private static final String[] QUERY_PREFIXES = { "", "现在", "当前", "查询", "查" };
+    private static final String[] QUERY_SUFFIXES = { "多少", "是多少", "现在是多少", "几", "是几", "是什么" };
+
+    // 数值范围，从参数描述中提取（如“0到100之间的整数”）
+    private static final Pattern RANGE = Pattern.compile("(\\d+)\\s*(?:到|至|-|~)\\s*(\\d+)");
+
+    // 有歧义的模板
+    private static final Intent AMBIGUOUS = new Intent(null, null, null, null, 0, 0);
+
+    // 归一化模板 -> 意图
+    private final Map<String, Intent> intents = new ConcurrentHashMap<>();
+
+    /**
+     * 模板对应的意图
+     */
+    public static class Intent {
+        private final String functionName;
+        // 数值参数名，为null表示不带参数
+        private final String parameterName;
+        private final String successTemplate;
+        private final String failureTemplate;
+        private final int min;
+        private final int max;
+
+        Intent(String functionName, String parameterName, String successTemplate, String failureTemplate, int min,
+                int max) {
+            this.functionName = functionName;
+            this.parameterName = parameterName;
+            this.successTemplate = successTemplate;
+            this.failureTemplate = failureTemplate;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * 匹配结果
+     */
+    public static class Match {
+        private final String functionName;
+        private final Map<String, Object> params;
+
+        Match(String functionName, Map<String, Object> params) {
+            this.functionName = functionName;
+            this.params = params;
+        }
+
+        public String getFunctionName() {
+            return functionName;
+        }
+
+        /**
+         * 调用函数的参数，可以直接修改
+         */
+        public Map<String, Object> getParams() {
+            return params;
+        }
+    }
+
+    public IntentMatcher() {
+        for (String phrase : EXIT_PHRASES) {
+            add(normalize(phrase).text, new Intent(EXIT_FUNCTION, null, null, null, 0, 0));
+        }
+    }
+
+    /**
+     * 根据iot设备描述生成模板，函数名与IotService注册的函数一致
+     *
+     * @param iotDescriptor iot设备描述
+     */
+    public void addIot(IotDescriptor iotDescriptor) {
+        String iotName = iotDescriptor.getName();
+        for (IotMethod method : iotDescriptor.getMethods().values()) {
+            addMethod(method);
+        }
+        for (IotProperty property : iotDescriptor.getProperties().values()) {
+            String type = property.getType();
+            if (!"number".equalsIgnoreCase(type) && !"string".equalsIgnoreCase(type)) {
+                continue;
+            }
+            String object = stripQueryWords(normalize(property.getDescription()).text);
+            if (object.isEmpty()) {
+                continue;
+            }
+            String functionName = "get_" + iotName.toLowerCase() + "_" + property.getName().toLowerCase();
+            Intent intent = new Intent(functionName, null, "当前" + object + "是{value}", "无法获取" + object, 0, 0);
+            for (String prefix : QUERY_PREFIXES) {
+                for (String suffix : QUERY_SUFFIXES) {
+                    add(prefix + object + suffix, intent);
+                }
+            }
+        }
+    }
+
+    /**
+     * 匹配用户的话
+     *
+     * @param text 用户的话（语音识别结果）
+     * @return 匹配结果，没有把握时返回null
+     */
+    public Match match(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        Normalized normalized = normalize(text);
+        if (normalized.text.isEmpty() || normalized.numbers > 1) {
+            return null;
+        }
+        Intent intent = intents.get(normalized.text);
+        if (intent == null || intent == AMBIGUOUS) {
+            return null;
+        }
+        Map<String, Object> params = new HashMap<>();
+        String success = intent.successTemplate;
+        if (intent.parameterName != null) {
+            if (normalized.numbers != 1 || normalized.number < intent.min || normalized.number > intent.max) {
+                return null;
+            }
+            params.put(intent.parameterName, normalized.number);
+            success = success.replace("{number}", String.valueOf(normalized.number));
+        }
+        if (success != null) {
+            params.put("response_success", success);
+        }
+        if (intent.failureTemplate != null) {
+            params.put("response_failure", intent.failureTemplate);
+        }
+        return new Match(intent.functionName, params);
+    }
+
+    private void addMethod(IotMethod method) {
+        String description = normalize(method.getDescription()).text;
+        if (description.isEmpty()) {
+            return;
+        }
+        Map<String, IotMethodParameter> parameters = method.getParameters();
+        if (parameters.isEmpty()) {
+            Intent intent = new Intent(method.getName(), null, "好的，已" + description, description + "失败", 0, 0);
+            add(description, intent);
+            // “打开灯” 也可以说成 “灯打开”
+            for (String verb : new String[] { "打开", "关闭" }) {
+                if (description.startsWith(verb) && description.length() > verb.length()) {
+                    add(description.substring(verb.length()) + verb, intent);
+                }
+            }
+            return;
+        }
+        if (parameters.size() != 1) {
+            return;
+        }
+        IotMethodParameter parameter = parameters.values().iterator().next();
+        String type = parameter.getType();
+        if (!"number".equalsIgnoreCase(type) && !"integer".equalsIgnoreCase(type)) {
+            return;
+        }
+        int min = 0;
+        int max = Integer.MAX_VALUE;
+        Matcher range = RANGE.matcher(parameter.getDescription() == null ? "" : parameter.getDescription());
+        if (range.find()) {
+            min = Integer.parseInt(range.group(1));
+            max = Integer.parseInt(range.group(2));
+        }
+        String object = description;
+        for (String verb : SET_VERBS) {
+            if (description.startsWith(verb) && description.length() > verb.length()) {
+                object = description.substring(verb.length());
+                break;
+            }
+        }
+        Intent intent = new Intent(method.getName(), parameter.getName(), "好的，已将" + object + "调到{number}",
+                object + "设置失败", min, max);
+        add(description + NUMBER, intent);
+        if (!object.equals(description)) {
+            for (String prefix : SET_PREFIXES) {
+                for (String joiner : SET_JOINERS) {
+                    add(prefix + object + joiner + NUMBER, intent);
+                }
+            }
+        }
+    }
+
+    private void add(String template, Intent intent) {
+        intents.merge(template, intent,
+                (existing, added) -> existing.functionName != null && existing.functionName.equals(added.functionName)
+                        ? existing : AMBIGUOUS);
+    }
+
+    private static String stripQueryWords(String text) {
+        for (String prefix : new String[] { "当前的", "当前" }) {
+            if (text.startsWith(prefix)) {
+                text = text.substring(prefix.length());
+                break;
+            }
+        }
+        if (text.endsWith("值") && text.length() > 1) {
+            text = text.substring(0, text.length() - 1);
+        }
+        return text;
+    }
+
+    /**
+     * 归一化后的文本
+     */
+    private static class Normalized {
+        private String text;
+        private int numbers = 0;
+        private int number = 0;
+    }
+
+    /**
+     * 归一化：去掉标点空白和语气词，中文数字转为数值并替换为占位符，统一开关类动词
+     */
+    static Normalized normalize(String text) {
+        Normalized result = new Normalized();
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        String s = sb.toString().replace("百分之", "");
+        for (String filler : FILLERS) {
+            s = s.replace(filler, "");
+        }
+        if (s.startsWith("把")) {
+            s = s.substring(1);
+        }
+
+        // 数字替换为占位符
+        sb.setLength(0);
+        for (int i = 0; i < s.length();) {
+            char c = s.charAt(i);
+            int end = i;
+            if (c >= '0' && c <= '9') {
+                while (end < s.length() && s.charAt(end) >= '0' && s.charAt(end) <= '9') {
+                    end++;
+                }
+                result.number = parseIntSafe(s.substring(i, end));
+            } else if (chineseDigit(c) >= 0 || c == '十' || c == '百') {
+                while (end < s.length() && (chineseDigit(s.charAt(end)) >= 0 || s.charAt(end) == '十'
+                        || s.charAt(end) == '百')) {
+                    end++;
+                }
+                result.number = parseChinese(s.substring(i, end));
+            } else {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            result.numbers++;
+            sb.append(NUMBER);
+            i = end;
+        }
+        s = sb.toString();
+
+        // 统一开关类动词
+        s = s.replace("开启", "打开").replace("关掉", "关闭").replace("关上", "关闭");
+        if (s.startsWith("开") && !s.startsWith("开关") && !s.startsWith("开始")) {
+            s = "打" + s;
+        } else if (s.startsWith("关") && !s.startsWith("关闭") && !s.startsWith("关于")) {
+            s = "关闭" + s.substring(1);
+        }
+        if (s.endsWith("开") && !s.endsWith("打开")) {
+            s = s.substring(0, s.length() - 1) + "打开";
+        } else if (s.endsWith("关") && s.length() > 1) {
+            s = s.substring(0, s.length() - 1) + "关闭";
+        }
+        result.text = s;
+        return result;
+    }
+
+    private static int chineseDigit(char c) {
+        switch (c) {
+            case '零':
+                return 0;
+            case '一':
+                return 1;
+            case '二':
+            case '两':
+                return 2;
+            case '三':
+                return 3;
+            case '四':
+                return 4;
+            case '五':
+                return 5;
+            case '六':
+                return 6;
+            case '七':
+                return 7;
+            case '八':
+                return 8;
+            case '九':
+                return 9;
+            default:
+                return -1;
+        }
+    }
+
+    private static int parseChinese(String text) {
+        int section = 0;
+        int digit = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '十') {
+                section += (digit == 0 ? 1 : digit) * 10;
+                digit = 0;
+            } else if (c == '百') {
+                section += (digit == 0 ? 1 : digit) * 100;
+                digit = 0;
+            } else {
+                digit = chineseDigit(c);
+            }
+        }
+        return section + digit;
+    }
+
+    private static int parseIntSafe(String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
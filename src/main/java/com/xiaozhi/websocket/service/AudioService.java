@@ -18,9 +18,6 @@ import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 音频服务，负责处理音频的非流式发送
@@ -40,12 +37,6 @@ public class AudioService {
     @Autowired
     private SessionManager sessionManager;
 
-    // 存储每个会话最后一次发送帧的时间戳
-    private final Map<String, AtomicLong> lastFrameSentTime = new ConcurrentHashMap<>();
-
-    // 存储每个会话当前是否正在播放音频
-    private final Map<String, AtomicBoolean> isPlaying = new ConcurrentHashMap<>();
-
     /**
      * 发送TTS开始消息
      */
@@ -86,8 +77,9 @@ public class AudioService {
      */
     public Mono<Void> sendStop(WebSocketSession session) {
         String sessionId = session.getId();
+        SessionContext context = sessionManager.getContext(sessionId);
         // 检查是否需要关闭会话
-        if (sessionManager.isCloseAfterChat(sessionId)) {
+        if (context != null && context.isCloseAfterChat()) {
             sessionManager.closeSession(sessionId);
             return Mono.empty();
         }
@@ -98,23 +90,19 @@ public class AudioService {
         try {
             String json = objectMapper.writeValueAsString(message);
             // 标记播放结束
-            isPlaying.computeIfAbsent(sessionId, k -> new AtomicBoolean()).set(false);
+            if (context != null) {
+                context.setPlaying(false);
+            }
             return session.send(Mono.just(session.textMessage(json)));
         } catch (Exception e) {
             logger.error("发送停止消息失败", e);
-            isPlaying.computeIfAbsent(sessionId, k -> new AtomicBoolean()).set(false);
+            if (context != null) {
+                context.setPlaying(false);
+            }
             return Mono.empty();
         }
     }
 
-    /**
-     * 检查会话是否正在播放音频
-     */
-    public boolean isPlaying(String sessionId) {
-        return isPlaying.containsKey(sessionId) && 
-               isPlaying.get(sessionId).get();
-    }
-
     /**
      * 发送音频消息
      * 
@@ -133,9 +121,13 @@ public class AudioService {
             boolean isLast) {
 
         String sessionId = session.getId();
-
+        SessionContext context = sessionManager.getContext(sessionId);
+        // 会话已关闭，不再发送
+        if (context == null) {
+            return Mono.empty();
+        }
         // 标记开始播放
-        isPlaying.computeIfAbsent(sessionId, k -> new AtomicBoolean()).set(true);
+        context.setPlaying(true);
 
         if (isFirst) {
             sendStart(session);
@@ -146,7 +138,7 @@ public class AudioService {
             if (isLast) {
                 return sendStop(session);
             }
-            isPlaying.get(sessionId).set(false);
+            context.setPlaying(false);
             return Mono.empty();
         }
         return sendSentenceStart(session, text)
@@ -169,7 +161,7 @@ public class AudioService {
                         byte[] audioData = AudioUtils.readAsPcm(fullPath);
                         // 将PCM转换为Opus帧
                         opusFrames = opusProcessor.pcmToOpus(
-                                session.getId(), audioData);
+                                context.getCodec(), audioData);
                     }
 
                     return opusFrames;
@@ -180,7 +172,7 @@ public class AudioService {
                         if (isLast) {
                             return sendStop(session);
                         }
-                        isPlaying.get(sessionId).set(false);
+                        context.setPlaying(false);
                         return Mono.empty();
                     }
 
@@ -191,24 +183,24 @@ public class AudioService {
                             // 确保在boundedElastic调度器上执行，以避免阻塞
                             .publishOn(Schedulers.boundedElastic())
                             // 只有当会话仍在播放时才发送
-                            .takeWhile(i -> isPlaying(sessionId))
+                            .takeWhile(i -> context.isPlaying())
                             // 发送每一帧
                             .flatMap(i -> {
                                 // 更新活跃时间
-                                sessionManager.updateLastActivity(sessionId); // 更新活动时间
+                                context.touch(); // 更新活动时间
                                 // 发送帧数据
                                 byte[] frame = opusFrames.get(i);
-                                return sendOpusFrame(session, frame);
+                                return sendOpusFrame(session, context, frame);
                             })
                             // 完成后发送结束消息
                             .then(Mono.fromRunnable(() -> {
-                                isPlaying.get(sessionId).set(false);
+                                context.setPlaying(false);
                             }))
                             .then(isLast ? sendStop(session) : Mono.empty());
                 })
                 .onErrorResume(error -> {
                     logger.error("处理音频消息时发生错误 - SessionId: {}", sessionId, error);
-                    isPlaying.get(sessionId).set(false);
+                    context.setPlaying(false);
                     // 如果发生错误但仍然是结束消息，确保发送stop
                     if (isLast) {
                         return sendStop(session);
@@ -220,9 +212,7 @@ public class AudioService {
     /**
      * 发送Opus帧数据
      */
-    private Mono<Void> sendOpusFrame(WebSocketSession session, byte[] opusFrame) {
-        String sessionId = session.getId();
-        
+    private Mono<Void> sendOpusFrame(WebSocketSession session, SessionContext context, byte[] opusFrame) {
         try {
             // 直接发送原始Opus帧数据作为二进制消息
             WebSocketMessage wsMessage = session.binaryMessage(
@@ -236,7 +226,7 @@ public class AudioService {
                             logger.error("发送Opus帧失败", error);
                         } else {
                             // 标记播放已停止
-                            isPlaying.get(sessionId).set(false);
+                            context.setPlaying(false);
                         }
                         return Mono.empty();
                     });
@@ -245,13 +235,4 @@ public class AudioService {
             return Mono.empty();
         }
     }
-
-    /**
-     * 清理会话资源
-     */
-    public void cleanupSession(String sessionId) {
-        lastFrameSentTime.remove(sessionId);
-        isPlaying.remove(sessionId);
-        opusProcessor.cleanup(sessionId);
-    }
 }
\ No newline at end of file
@@ -2,29 +2,36 @@ package com.xiaozhi.websocket.service;
 
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.EmojiUtils;
 import com.xiaozhi.utils.EmojiUtils.EmoSentence;
 import com.xiaozhi.websocket.llm.LlmManager;
+import com.xiaozhi.websocket.llm.Speculation;
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import com.xiaozhi.websocket.llm.memory.ChatMemory;
 import com.xiaozhi.websocket.service.VadService.VadStatus;
+import com.xiaozhi.websocket.stt.SttInputBuffer;
 import com.xiaozhi.websocket.stt.SttService;
 import com.xiaozhi.websocket.stt.factory.SttServiceFactory;
 import com.xiaozhi.websocket.tts.factory.TtsServiceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 import reactor.core.scheduler.Schedulers;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.text.DecimalFormat;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -58,33 +65,49 @@ public class DialogueService {
     @Autowired
     private SessionManager sessionManager;
 
-    // 会话状态管理
-    private final Map<String, AtomicInteger> seqCounters = new ConcurrentHashMap<>();
-    private final Map<String, Long> sttStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, Long> llmStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, StringBuilder> responses = new ConcurrentHashMap<>();
-    private final Map<String, CopyOnWriteArrayList<Sentence>> sentenceQueue = new ConcurrentHashMap<>();
-    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    @Autowired
+    private ChatMemory chatMemory;
+
+    // 推测模式：识别的中间结果稳定后提前发起LLM请求，最终结果一致时提交，否则重新请求
+    @Value("${app.llm.speculative-enabled:false}")
+    private boolean speculativeEnabled;
+
+    // 中间结果保持不变多久后发起推测请求（毫秒）
+    @Value("${app.llm.speculative-stable-ms:300}")
+    private long speculativeStableMs;
+
+    // 对话状态（句子序号、句子队列、当前轮次的取消令牌和语音归档等）保存在会话上下文中。
+    // 取消令牌在中止、打断、新一轮对话或连接关闭时取消，未完成的识别、LLM请求和语音合成随之停止
+
+    /**
+     * 会话关闭时解除助手消息与语音归档的绑定，其余对话状态随会话上下文一起释放
+     */
+    @PostConstruct
+    public void init() {
+        sessionManager.addCloseListener(context -> chatMemory.bindAssistantAudio(context.getSessionId(), null));
+    }
 
     /**
      * 句子对象，用于跟踪每个句子的处理状态
      */
-    private static class Sentence {
+    static class Sentence {
         private final int seq;
         private final String text;
         private final boolean isFirst;
         private final boolean isLast;
+        private final CancellationToken turnToken; // 句子所属的轮次
         private boolean ready = false;
         private String audioPath = null;
         private long timestamp = System.currentTimeMillis();
         private double modelResponseTime = 0.0; // 模型响应时间（秒）
         private double ttsGenerationTime = 0.0; // TTS生成时间（秒）
 
-        public Sentence(int seq, String text, boolean isFirst, boolean isLast) {
+        public Sentence(int seq, String text, boolean isFirst, boolean isLast, CancellationToken turnToken) {
             this.seq = seq;
             this.text = text;
             this.isFirst = isFirst;
             this.isLast = isLast;
+            this.turnToken = turnToken;
         }
 
         public void setAudio(String path) {
@@ -120,6 +143,10 @@ public class DialogueService {
             return audioPath;
         }
 
+        public CancellationToken getTurnToken() {
+            return turnToken;
+        }
+
         public void setModelResponseTime(double time) {
             this.modelResponseTime = time;
         }
@@ -142,10 +169,11 @@ public class DialogueService {
      */
     public Mono<Void> processAudioData(WebSocketSession session, byte[] opusData) {
         String sessionId = session.getId();
-        SysDevice device = sessionManager.getDeviceConfig(sessionId);
+        SessionContext context = sessionManager.getContext(sessionId);
+        SysDevice device = context != null ? context.getDevice() : null;
 
         // 如果设备未注册或不在监听状态，忽略音频数据
-        if (device == null || !sessionManager.isListening(sessionId)) {
+        if (device == null || !context.isListening()) {
             return Mono.empty();
         }
 
@@ -163,7 +191,7 @@ public class DialogueService {
         final SysConfig finalSttConfig = sttConfig;
         final SysConfig finalTtsConfig = ttsConfig;
 
-        return Mono.fromCallable(() -> vadService.processAudio(sessionId, opusData))
+        return Mono.fromCallable(() -> vadService.processAudio(context, opusData))
                 .subscribeOn(Schedulers.boundedElastic())
                 .flatMap(vadResult -> {
                     // 如果VAD处理出错，直接返回
@@ -172,33 +200,34 @@ public class DialogueService {
                     }
 
                     // 检测到语音
-                    sessionManager.updateLastActivity(sessionId);
+                    context.touch();
 
                     // 根据VAD状态处理
                     switch (vadResult.getStatus()) {
                         case SPEECH_START:
                             // 检测到语音开始
-                            sttStartTimes.put(sessionId, System.currentTimeMillis());
-                            return startStt(session, sessionId, finalSttConfig, finalTtsConfig,
+                            context.setSttStartTime(System.currentTimeMillis());
+                            return startStt(session, context, finalSttConfig, finalTtsConfig,
                                     device, vadResult.getProcessedData());
 
                         case SPEECH_CONTINUE:
                             // 语音继续，发送数据到流式识别
-                            if (sessionManager.isStreaming(sessionId)) {
-                                Sinks.Many<byte[]> audioSink = sessionManager.getAudioSink(sessionId);
+                            if (context.isStreaming()) {
+                                SttInputBuffer audioSink = context.getAudioSink();
                                 if (audioSink != null) {
-                                    audioSink.tryEmitNext(vadResult.getProcessedData());
+                                    // 写入失败（丢帧或溢出）已在缓冲区中统计和记录
+                                    audioSink.emit(vadResult.getProcessedData());
                                 }
                             }
                             return Mono.empty();
 
                         case SPEECH_END:
                             // 语音结束，完成流式识别
-                            if (sessionManager.isStreaming(sessionId)) {
-                                Sinks.Many<byte[]> audioSink = sessionManager.getAudioSink(sessionId);
+                            if (context.isStreaming()) {
+                                SttInputBuffer audioSink = context.getAudioSink();
                                 if (audioSink != null) {
-                                    audioSink.tryEmitComplete();
-                                    sessionManager.setStreamingState(sessionId, false);
+                                    audioSink.complete();
+                                    context.setStreaming(false);
                                 }
                             }
                             return Mono.empty();
@@ -218,18 +247,23 @@ public class DialogueService {
      */
     private Mono<Void> startStt(
             WebSocketSession session,
-            String sessionId,
+            SessionContext context,
             SysConfig sttConfig,
             SysConfig ttsConfig,
             SysDevice device,
             byte[] initialAudio) {
 
+        String sessionId = context.getSessionId();
+
+        // 新的语音输入打断上一轮未完成的处理
+        CancellationToken turnToken = beginTurn(context);
+
         // 如果已经在进行流式识别，先清理旧的资源
-        sessionManager.closeAudioSink(sessionId);
+        sessionManager.closeAudioSink(context);
 
         // 创建新的音频数据接收器
-        Sinks.Many<byte[]> audioSink = sessionManager.createAudioSink(sessionId);
-        sessionManager.setStreamingState(sessionId, true);
+        SttInputBuffer audioSink = sessionManager.createAudioSink(context);
+        context.setStreaming(true);
 
         // 获取STT服务
         SttService sttService = sttFactory.getSttService(sttConfig);
@@ -241,42 +275,66 @@ public class DialogueService {
 
         // 发送初始音频数据
         if (initialAudio != null && initialAudio.length > 0) {
-            audioSink.tryEmitNext(initialAudio);
+            audioSink.emit(initialAudio);
         }
 
         final SysConfig finalTtsConfig = ttsConfig;
 
+        // 推测模式下跟踪识别的中间结果，稳定后提前发起LLM请求
+        SpeculationTracker tracker = speculativeEnabled ? new SpeculationTracker(device, turnToken) : null;
+        Flux<String> results = sttService.streamRecognition(audioSink.asFlux());
+        if (tracker != null) {
+            results = results.doOnNext(tracker::onPartial);
+            turnToken.onCancel(tracker::finish);
+        }
+
         // 启动流式识别
-        sttService.streamRecognition(audioSink.asFlux())
+        Disposable recognition = results
                 .defaultIfEmpty("")
                 .last() // 获取最终结果
                 .flatMap(finalText -> {
-                    if (!StringUtils.hasText(finalText)) {
+                    Speculation speculation = tracker != null ? tracker.finish() : null;
+                    if (!StringUtils.hasText(finalText) || turnToken.isCancelled()) {
+                        if (speculation != null) {
+                            speculation.abort();
+                        }
                         return Mono.empty();
                     }
 
                     // 初始化对话状态
-                    initChat(sessionId);
+                    initChat(context);
 
                     // 设置会话为非监听状态，防止处理自己的声音
-                    sessionManager.setListeningState(sessionId, false);
+                    context.setListening(false);
 
                     // 发送最终识别结果，并立即发送TTS开始状态
                     return messageService.sendMessage(session, "stt", "final", finalText)
                             .then(audioService.sendStart(session)) // 立即发送TTS开始状态
                             .then(Mono.fromRunnable(() -> {
-                                // 使用句子切分处理响应
-                                llmManager.chatStreamBySentence(device, finalText,
+                                LlmManager.TriConsumer<String, Boolean, Boolean> sentenceHandler =
                                         (sentence, isFirst, isLast) -> {
                                             handleSentence(
+                                                    turnToken,
                                                     session,
-                                                    sessionId,
+                                                    context,
                                                     sentence,
                                                     isFirst,
                                                     isLast,
                                                     finalTtsConfig,
                                                     device.getVoiceName());
-                                        });
+                                        };
+                                // 最终结果与推测一致时直接提交推测请求的输出
+                                if (speculation != null && speculation.matches(finalText)
+                                        && speculation.commit(sentenceHandler)) {
+                                    logger.info("推测请求命中 - SessionId: {}", sessionId);
+                                    return;
+                                }
+                                if (speculation != null) {
+                                    speculation.abort();
+                                    logger.debug("推测请求未命中，按最终结果重新请求 - SessionId: {}", sessionId);
+                                }
+                                // 使用句子切分处理响应
+                                llmManager.chatStreamBySentence(device, finalText, turnToken, sentenceHandler);
                             }));
                 })
                 .onErrorResume(error -> {
@@ -284,63 +342,224 @@ public class DialogueService {
                     return Mono.empty();
                 })
                 .subscribe();
+        // 取消时停止识别，不再等待最终结果
+        turnToken.onCancel(recognition::dispose);
 
         return Mono.empty();
     }
 
+    /**
+     * 跟踪一轮识别的中间结果，文本保持不变超过稳定时间后发起推测请求；文本变化时放弃不一致的推测
+     */
+    private class SpeculationTracker {
+        private final SysDevice device;
+        private final CancellationToken turnToken;
+        private String lastText;
+        private Disposable timer;
+        private Speculation speculation;
+        // 正在发起推测请求
+        private boolean starting = false;
+        private boolean finished = false;
+
+        SpeculationTracker(SysDevice device, CancellationToken turnToken) {
+            this.device = device;
+            this.turnToken = turnToken;
+        }
+
+        synchronized void onPartial(String text) {
+            if (finished || !StringUtils.hasText(text) || text.equals(lastText)) {
+                return;
+            }
+            lastText = text;
+            if (timer != null) {
+                timer.dispose();
+            }
+            if (speculation != null && !speculation.matches(text)) {
+                speculation.abort();
+                speculation = null;
+            }
+            if (speculation == null) {
+                scheduleStart(text);
+            }
+        }
+
+        private void scheduleStart(String text) {
+            if (timer != null) {
+                timer.dispose();
+            }
+            // 发起请求时可能查询数据库、加载对话历史，不放在parallel线程上
+            timer = Schedulers.boundedElastic().schedule(() -> start(text), speculativeStableMs,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void start(String text) {
+            synchronized (this) {
+                if (finished || starting || speculation != null || turnToken.isCancelled()
+                        || !text.equals(lastText)) {
+                    return;
+                }
+                starting = true;
+                // 已在执行，之后的中间结果不再取消这个任务，避免中断正在发起的请求
+                timer = null;
+            }
+            // 不持有锁发起请求，识别线程上的onPartial不会被阻塞
+            Speculation started = null;
+            try {
+                started = llmManager.speculate(device, text, turnToken);
+            } finally {
+                synchronized (this) {
+                    starting = false;
+                    // 发起期间识别已结束或文本已变化时放弃，文本变化时按新文本重新计时
+                    if (started != null && !finished) {
+                        if (started.matches(lastText)) {
+                            speculation = started;
+                            started = null;
+                        } else {
+                            scheduleStart(lastText);
+                        }
+                    }
+                }
+            }
+            if (started != null) {
+                started.abort();
+            }
+        }
+
+        /**
+         * 识别结束，返回当前的推测请求
+         */
+        synchronized Speculation finish() {
+            finished = true;
+            if (timer != null) {
+                timer.dispose();
+            }
+            return speculation;
+        }
+    }
+
+    /**
+     * 开始新一轮对话，取消上一轮未完成的识别、LLM请求和语音合成
+     */
+    private CancellationToken beginTurn(SessionContext context) {
+        CancellationToken token = new CancellationToken();
+        CancellationToken previous = context.replaceTurnToken(token);
+        if (previous != null && previous.cancel()) {
+            // 上一轮还没播放的句子不再播放
+            context.getSentenceQueue().clear();
+            logger.debug("开始新一轮对话，已取消上一轮 - SessionId: {}", context.getSessionId());
+        }
+        return token;
+    }
+
+    /**
+     * 取消当前轮次
+     */
+    private void cancelTurn(SessionContext context) {
+        CancellationToken token = context.clearTurnToken();
+        if (token != null && token.cancel()) {
+            logger.info("已取消当前轮次的识别、LLM请求和语音合成 - SessionId: {}", context.getSessionId());
+        }
+    }
+
     /**
      * 初始化对话状态
      */
-    private void initChat(String sessionId) {
-        llmStartTimes.put(sessionId, System.currentTimeMillis());
-        responses.put(sessionId, new StringBuilder());
-        seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
-        sentenceQueue.putIfAbsent(sessionId, new CopyOnWriteArrayList<>());
-        locks.putIfAbsent(sessionId, new ReentrantLock());
+    private void initChat(SessionContext context) {
+        context.setLlmStartTime(System.currentTimeMillis());
+        context.setResponse(new StringBuilder());
+
+        // 新一轮对话的语音归档，助手消息入库时会绑定该结果
+        context.setTurnAudioPaths(new CopyOnWriteArrayList<>());
+        CompletableFuture<String> audioFuture = new CompletableFuture<>();
+        CompletableFuture<String> previous = context.replaceTurnAudioFuture(audioFuture);
+        if (previous != null) {
+            previous.complete(null);
+        }
+        chatMemory.bindAssistantAudio(context.getSessionId(), audioFuture);
+    }
+
+    /**
+     * 记录已播放句子的音频，句子有内容但没有音频时记为null，归档时整轮放弃
+     */
+    private void recordTurnAudio(SessionContext context, Sentence sentence) {
+        List<String> paths = context.getTurnAudioPaths();
+        if (paths == null || sentence.getText() == null || sentence.getText().isEmpty()) {
+            return;
+        }
+        if (sentence.getAudioPath() == null) {
+            paths.add(null);
+        } else {
+            paths.add(sentence.getAudioPath());
+        }
+    }
+
+    /**
+     * 归档当前轮次的语音
+     * 在句子全部播放后异步拼接为一个文件，不占用对话的处理链路
+     */
+    private void archiveTurnAudio(SessionContext context) {
+        List<String> paths = context.getTurnAudioPaths();
+        context.setTurnAudioPaths(null);
+        CompletableFuture<String> audioFuture = context.takeTurnAudioFuture();
+        if (audioFuture == null) {
+            return;
+        }
+        if (paths == null || paths.isEmpty() || paths.contains(null)) {
+            // 没有完整的句子音频，留给管理端播放时再按需生成
+            audioFuture.complete(null);
+            return;
+        }
+        CompletableFuture.runAsync(() -> audioFuture.complete(AudioUtils.mergeAsWav(paths)));
     }
 
     /**
      * 处理LLM返回的句子
      */
     private void handleSentence(
+            CancellationToken turnToken,
             WebSocketSession session,
-            String sessionId,
+            SessionContext context,
             String text,
             boolean isFirst,
             boolean isLast,
             SysConfig ttsConfig,
             String voiceName) {
 
+        // 本轮已取消，句子不再合成和播放
+        if (turnToken.isCancelled()) {
+            return;
+        }
+
         // 获取句子序列号
-        int seq = seqCounters.get(sessionId).incrementAndGet();
+        int seq = context.nextSeq();
 
         // 累加完整回复内容
         if (text != null && !text.isEmpty()) {
-            responses.get(sessionId).append(text);
+            context.getResponse().append(text);
         }
 
         // 计算模型响应时间
         final double responseTime;
-        Long startTime = llmStartTimes.get(sessionId);
-        if (startTime != null) {
+        long startTime = context.getLlmStartTime();
+        if (startTime > 0) {
             responseTime = (System.currentTimeMillis() - startTime) / 1000.0;
         } else {
             responseTime = 0.0;
         }
 
         // 创建句子对象
-        Sentence sentence = new Sentence(seq, text, isFirst, isLast);
+        Sentence sentence = new Sentence(seq, text, isFirst, isLast, turnToken);
         sentence.setModelResponseTime(responseTime); // 记录模型响应时间
 
         // 添加到句子队列
-        CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
+        CopyOnWriteArrayList<Sentence> queue = context.getSentenceQueue();
         queue.add(sentence);
 
         // 如果句子为空且是结束状态，直接标记为准备好（不需要生成音频）
         if ((text == null || text.isEmpty()) && isLast) {
             sentence.setAudio(null);
             sentence.setTtsGenerationTime(0); // 设置TTS生成时间为0
-            processQueue(session, sessionId); // 尝试处理队列
+            processQueue(session, context); // 尝试处理队列
             return;
         }
 
@@ -349,6 +568,10 @@ public class DialogueService {
 
         // 异步生成音频文件
         CompletableFuture.runAsync(() -> {
+            // 排队期间本轮被取消，不再合成
+            if (turnToken.isCancelled()) {
+                return;
+            }
             try {
                 // 生成音频
                 long ttsStartTime = System.currentTimeMillis();
@@ -365,11 +588,16 @@ public class DialogueService {
                         seq, df.format(sentence.getModelResponseTime()),
                         df.format(sentence.getTtsGenerationTime()), text);
 
+                if (turnToken.isCancelled()) {
+                    logger.debug("本轮已取消，丢弃合成的音频 - 序号: {}", seq);
+                    return;
+                }
+
                 // 标记音频准备就绪
                 sentence.setAudio(audioPath);
 
                 // 尝试处理队列
-                processQueue(session, sessionId);
+                processQueue(session, context);
             } catch (Exception e) {
                 logger.error("生成音频失败 - 句子序号: {}, 错误: {}", seq, e.getMessage(), e);
                 // 即使失败也标记为准备好，以便队列继续处理
@@ -377,7 +605,7 @@ public class DialogueService {
                 sentence.setTtsGenerationTime(0);
 
                 // 尝试处理队列
-                processQueue(session, sessionId);
+                processQueue(session, context);
             }
         });
     }
@@ -386,12 +614,9 @@ public class DialogueService {
      * 处理音频队列
      * 在音频生成完成后调用
      */
-    private void processQueue(WebSocketSession session, String sessionId) {
+    private void processQueue(WebSocketSession session, SessionContext context) {
         // 获取锁，确保线程安全
-        ReentrantLock lock = locks.get(sessionId);
-        if (lock == null) {
-            return;
-        }
+        ReentrantLock lock = context.getQueueLock();
 
         // 尝试获取锁，避免多线程同时处理
         if (!lock.tryLock()) {
@@ -400,13 +625,13 @@ public class DialogueService {
 
         try {
             // 获取句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue == null || queue.isEmpty()) {
+            CopyOnWriteArrayList<Sentence> queue = context.getSentenceQueue();
+            if (queue.isEmpty()) {
                 return;
             }
 
             // 检查当前是否有句子正在播放
-            boolean isCurrentlyPlaying = audioService.isPlaying(sessionId);
+            boolean isCurrentlyPlaying = context.isPlaying();
 
             if (isCurrentlyPlaying) {
                 return;
@@ -452,24 +677,28 @@ public class DialogueService {
                             // 移除已处理的句子，即使失败也移除
                             queue.remove(sentenceToProcess);
                             // 递归调用，尝试处理下一个句子
-                            processQueue(session, sessionId);
+                            processQueue(session, context);
                         },
                         () -> {
                             // 从队列中移除已处理的句子
                             queue.remove(sentenceToProcess);
+                            recordTurnAudio(context, sentenceToProcess);
 
                             // 如果队列为空且是最后一句，重置监听状态
                             if (queue.isEmpty() && sentenceToProcess.isLast()) {
-                                sessionManager.setListeningState(sessionId, true);
+                                // 发送期间可能已开始新一轮，只清除本句所属轮次的令牌
+                                context.clearTurnTokenIf(sentenceToProcess.getTurnToken());
+                                archiveTurnAudio(context);
+                                context.setListening(true);
                             } else {
                                 // 递归调用，尝试处理下一个句子
-                                processQueue(session, sessionId);
+                                processQueue(session, context);
                             }
                         });
             } else {
                 // 如果队列为空，重置监听状态
                 if (queue.isEmpty()) {
-                    sessionManager.setListeningState(sessionId, true);
+                    context.setListening(true);
                 }
             }
         } finally {
@@ -481,8 +710,8 @@ public class DialogueService {
      * 处理语音唤醒
      */
     public Mono<Void> handleWakeWord(WebSocketSession session, String text) {
-        String sessionId = session.getId();
-        SysDevice device = sessionManager.getDeviceConfig(sessionId);
+        SessionContext context = sessionManager.getContext(session.getId());
+        SysDevice device = context != null ? context.getDevice() : null;
 
         if (device == null) {
             return Mono.empty();
@@ -491,25 +720,29 @@ public class DialogueService {
         // 获取配置
         final SysConfig ttsConfig = device.getTtsId() != null ? sessionManager.getCachedConfig(device.getTtsId())
                 : null;
-        sessionManager.updateLastActivity(sessionId);
+        context.touch();
         logger.info("检测到唤醒词: \"{}\"", text);
 
+        // 唤醒词打断上一轮未完成的处理
+        CancellationToken turnToken = beginTurn(context);
+
         // 初始化对话处理状态
-        initChat(sessionId);
+        initChat(context);
 
         // 设置为非监听状态，防止处理自己的声音
-        sessionManager.setListeningState(sessionId, false);
+        context.setListening(false);
 
         // 发送识别结果
         return messageService.sendMessage(session, "stt", "start", text)
                 .then(audioService.sendStart(session)) // 立即发送TTS开始状态
                 .then(Mono.fromRunnable(() -> {
                     // 使用句子切分处理响应
-                    llmManager.chatStreamBySentence(device, text,
+                    llmManager.chatStreamBySentence(device, text, turnToken,
                             (sentence, isFirst, isLast) -> {
                                 handleSentence(
+                                        turnToken,
                                         session,
-                                        sessionId,
+                                        context,
                                         sentence,
                                         isFirst,
                                         isLast,
@@ -526,35 +759,32 @@ public class DialogueService {
         String sessionId = session.getId();
         logger.info("中止对话 - SessionId: {}, Reason: {}", sessionId, reason);
 
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return Mono.empty();
+        }
+
+        // 停止本轮的识别、LLM请求和语音合成
+        cancelTurn(context);
+
         // 关闭音频流
-        sessionManager.closeAudioSink(sessionId);
-        sessionManager.setStreamingState(sessionId, false);
+        sessionManager.closeAudioSink(context);
+        context.setStreaming(false);
 
         // 清空句子队列
-        CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-        if (queue != null) {
-            queue.clear();
+        context.getSentenceQueue().clear();
+
+        // 被中止的回复不再归档语音
+        context.setTurnAudioPaths(null);
+        CompletableFuture<String> audioFuture = context.takeTurnAudioFuture();
+        if (audioFuture != null) {
+            audioFuture.complete(null);
         }
 
         // 重新设置监听状态
-        sessionManager.setListeningState(sessionId, true);
+        context.setListening(true);
 
         // 终止语音发送
         return audioService.sendStop(session);
     }
-
-    /**
-     * 清理会话资源
-     */
-    public void cleanupSession(String sessionId) {
-        seqCounters.remove(sessionId);
-        sttStartTimes.remove(sessionId);
-        llmStartTimes.remove(sessionId);
-        responses.remove(sessionId);
-        sentenceQueue.remove(sessionId);
-        locks.remove(sessionId);
-
-        // 清理AudioService中的资源
-        audioService.cleanupSession(sessionId);
-    }
-}
\ No newline at end of file
+}
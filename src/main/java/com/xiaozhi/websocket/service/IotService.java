@@ -232,6 +232,7 @@ public class IotService {
         registerPropertiesFunctionTools(sessionId, functionSessionHolder, iotDescriptor);
         registerMethodFunctionTools(sessionId, functionSessionHolder, iotDescriptor);
         registerGlobalFunctionTools(sessionId, functionSessionHolder);
+        functionSessionHolder.getIntentMatcher().addIot(iotDescriptor);
     }
 
     /**
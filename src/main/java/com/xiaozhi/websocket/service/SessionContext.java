@@ -0,0 +1,347 @@
+package com.xiaozhi.websocket.service;
+
+import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.TarsosNoiseReducer;
+import com.xiaozhi.websocket.iot.IotDescriptor;
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
+import com.xiaozhi.websocket.stt.SttInputBuffer;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 会话上下文
+ * 连接建立时创建，保存一个会话的全部状态：设备信息、监听和识别状态、识别输入、VAD和编解码状态、
+ * 对话轮次、句子队列和播放状态等。音频处理链路取一次上下文后直接读写字段，不再按会话ID逐项查表；
+ * 连接关闭时由SessionManager移除并调用close()统一释放。
+ */
+public class SessionContext {
+
+    private final String sessionId;
+    private final WebSocketSession session;
+    private final long createdAt = System.currentTimeMillis();
+
+    // 设备、Iot部件描述信息和function_call tools
+    private volatile SysDevice device;
+    private final Map<String, IotDescriptor> iotDescriptors = new ConcurrentHashMap<>();
+    private final AtomicReference<FunctionSessionHolder> functionSessionHolder = new AtomicReference<>();
+
+    // 对话完成后是否关闭会话、是否处于监听状态、是否正在流式识别、最后有效活动时间
+    private volatile boolean closeAfterChat = false;
+    private volatile boolean listening = false;
+    private volatile boolean streaming = false;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    // 当前识别的音频输入
+    private volatile SttInputBuffer audioSink;
+
+    // VAD状态、降噪状态和Opus编解码器，VAD处理时在vadLock下访问
+    private final Object vadLock = new Object();
+    private VadService.VadSessionState vadState;
+    private final TarsosNoiseReducer.NoiseProfile noiseProfile = new TarsosNoiseReducer.NoiseProfile();
+    private final OpusProcessor.Codec codec = new OpusProcessor.Codec();
+
+    // 对话状态：当前轮次的取消令牌、句子序号、LLM开始时间、完整回复、待播放的句子
+    private final AtomicReference<CancellationToken> turnToken = new AtomicReference<>();
+    private final AtomicInteger seqCounter = new AtomicInteger(0);
+    private volatile long sttStartTime;
+    private volatile long llmStartTime;
+    private volatile StringBuilder response = new StringBuilder();
+    private final CopyOnWriteArrayList<DialogueService.Sentence> sentenceQueue = new CopyOnWriteArrayList<>();
+    private final ReentrantLock queueLock = new ReentrantLock();
+
+    // 当前轮次已播放句子的音频路径和归档结果
+    private volatile List<String> turnAudioPaths;
+    private final AtomicReference<CompletableFuture<String>> turnAudioFuture = new AtomicReference<>();
+
+    // 是否正在播放音频
+    private volatile boolean playing = false;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public SessionContext(String sessionId, WebSocketSession session) {
+        this.sessionId = sessionId;
+        this.session = session;
+    }
+
+    /**
+     * 释放会话状态：结束识别输入，取消当前轮次，清空句子队列，放弃未归档的语音。只执行一次
+     *
+     * @return 是否是第一次关闭
+     */
+    boolean close() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        listening = false;
+        streaming = false;
+        playing = false;
+        SttInputBuffer sink = audioSink;
+        audioSink = null;
+        if (sink != null) {
+            sink.complete();
+        }
+        CancellationToken token = turnToken.getAndSet(null);
+        if (token != null) {
+            token.cancel();
+        }
+        sentenceQueue.clear();
+        turnAudioPaths = null;
+        CompletableFuture<String> audioFuture = turnAudioFuture.getAndSet(null);
+        if (audioFuture != null) {
+            audioFuture.complete(null);
+        }
+        synchronized (vadLock) {
+            vadState = null;
+        }
+        return true;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 更新最后有效活动时间
+     */
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * 当前会话占用的主要内存（字节）：识别输入缓冲、VAD预缓冲、待播放句子的文本和完整回复
+     */
+    public long estimateRetainedBytes() {
+        long bytes = 0;
+        SttInputBuffer sink = audioSink;
+        if (sink != null) {
+            bytes += sink.getBufferedBytes();
+        }
+        synchronized (vadLock) {
+            if (vadState != null) {
+                bytes += vadState.getPreBufferSize();
+            }
+        }
+        for (DialogueService.Sentence sentence : sentenceQueue) {
+            if (sentence.getText() != null) {
+                bytes += sentence.getText().length() * 2L;
+            }
+        }
+        bytes += response.length() * 2L;
+        return bytes;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public SysDevice getDevice() {
+        return device;
+    }
+
+    public void setDevice(SysDevice device) {
+        this.device = device;
+    }
+
+    public Map<String, IotDescriptor> getIotDescriptors() {
+        return iotDescriptors;
+    }
+
+    public FunctionSessionHolder getFunctionSessionHolder() {
+        return functionSessionHolder.get();
+    }
+
+    /**
+     * 设置function_call tools，已存在时保留原有的
+     */
+    public void setFunctionSessionHolderIfAbsent(FunctionSessionHolder holder) {
+        functionSessionHolder.compareAndSet(null, holder);
+    }
+
+    public boolean isCloseAfterChat() {
+        return closeAfterChat;
+    }
+
+    public void setCloseAfterChat(boolean closeAfterChat) {
+        this.closeAfterChat = closeAfterChat;
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * 设置监听状态，同时更新活动时间
+     */
+    public void setListening(boolean listening) {
+        this.listening = listening;
+        touch();
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * 设置流式识别状态，同时更新活动时间
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        touch();
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public SttInputBuffer getAudioSink() {
+        return audioSink;
+    }
+
+    public void setAudioSink(SttInputBuffer audioSink) {
+        this.audioSink = audioSink;
+    }
+
+    Object getVadLock() {
+        return vadLock;
+    }
+
+    VadService.VadSessionState getVadState() {
+        return vadState;
+    }
+
+    void setVadState(VadService.VadSessionState vadState) {
+        this.vadState = vadState;
+    }
+
+    public TarsosNoiseReducer.NoiseProfile getNoiseProfile() {
+        return noiseProfile;
+    }
+
+    public OpusProcessor.Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * 当前轮次的取消令牌，没有进行中的轮次时为null
+     */
+    public CancellationToken getTurnToken() {
+        return turnToken.get();
+    }
+
+    /**
+     * 开始新的轮次
+     *
+     * @return 被替换的上一轮令牌，由调用方决定是否取消
+     */
+    public CancellationToken replaceTurnToken(CancellationToken token) {
+        return turnToken.getAndSet(token);
+    }
+
+    /**
+     * 结束当前轮次
+     *
+     * @return 被清除的令牌，没有进行中的轮次时为null
+     */
+    public CancellationToken clearTurnToken() {
+        return turnToken.getAndSet(null);
+    }
+
+    /**
+     * 当前轮次仍是指定的轮次时才清除，期间已开始新一轮时保留新一轮的令牌
+     *
+     * @return 是否已清除
+     */
+    public boolean clearTurnTokenIf(CancellationToken token) {
+        return turnToken.compareAndSet(token, null);
+    }
+
+    /**
+     * 下一个句子的序号
+     */
+    public int nextSeq() {
+        return seqCounter.incrementAndGet();
+    }
+
+    public long getSttStartTime() {
+        return sttStartTime;
+    }
+
+    public void setSttStartTime(long sttStartTime) {
+        this.sttStartTime = sttStartTime;
+    }
+
+    public long getLlmStartTime() {
+        return llmStartTime;
+    }
+
+    public void setLlmStartTime(long llmStartTime) {
+        this.llmStartTime = llmStartTime;
+    }
+
+    public StringBuilder getResponse() {
+        return response;
+    }
+
+    public void setResponse(StringBuilder response) {
+        this.response = response;
+    }
+
+    CopyOnWriteArrayList<DialogueService.Sentence> getSentenceQueue() {
+        return sentenceQueue;
+    }
+
+    ReentrantLock getQueueLock() {
+        return queueLock;
+    }
+
+    public List<String> getTurnAudioPaths() {
+        return turnAudioPaths;
+    }
+
+    public void setTurnAudioPaths(List<String> turnAudioPaths) {
+        this.turnAudioPaths = turnAudioPaths;
+    }
+
+    /**
+     * 设置新一轮的语音归档结果
+     *
+     * @return 被替换的上一轮归档结果，由调用方完成
+     */
+    public CompletableFuture<String> replaceTurnAudioFuture(CompletableFuture<String> audioFuture) {
+        return turnAudioFuture.getAndSet(audioFuture);
+    }
+
+    /**
+     * 取出当前轮次的语音归档结果，取出后由调用方负责完成
+     */
+    public CompletableFuture<String> takeTurnAudioFuture() {
+        return turnAudioFuture.getAndSet(null);
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+    }
+}
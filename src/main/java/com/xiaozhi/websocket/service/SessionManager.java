@@ -4,25 +4,30 @@ import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.websocket.iot.IotDescriptor;
 import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
+import com.xiaozhi.websocket.stt.SttInputBuffer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.socket.WebSocketSession;
-import reactor.core.publisher.Sinks;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * WebSocket会话管理服务
  * 负责管理所有WebSocket连接的会话状态
+ * 会话数、监听中和识别中的会话数、各会话占用内存之和与最大值注册为Micrometer指标，读取时按当前会话计算。
  */
 @Service
 public class SessionManager {
@@ -31,39 +36,54 @@ public class SessionManager {
     // 设置不活跃超时时间为60秒
     private static final long INACTIVITY_TIMEOUT_SECONDS = 60;
 
-    // 用于存储所有连接的会话
-    private final ConcurrentHashMap<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // 所有连接的会话上下文，会话的全部状态都保存在上下文中
+    private final ConcurrentHashMap<String, SessionContext> contexts = new ConcurrentHashMap<>();
 
-    // 用于存储会话和设备的映射关系
-    private final ConcurrentHashMap<String, SysDevice> deviceConfigs = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Integer, SysConfig> configCache = new ConcurrentHashMap<>();
-    // 用于存储会话的设备上的Iot部件的描述信息
-    private final ConcurrentHashMap<String, Map<String, IotDescriptor>> iotDescriptors
-            = new ConcurrentHashMap<>();
-    // 用于存储会话的function_call tools
-    private final ConcurrentHashMap<String, FunctionSessionHolder> functionHolders
-            = new ConcurrentHashMap<>();
-    // 用于标识对话完成后，是否需要关闭对话
-    private final ConcurrentHashMap<String, Boolean> closeAfterChat = new ConcurrentHashMap<>();
 
-    // 用于跟踪会话是否处于监听状态
-    private final ConcurrentHashMap<String, Boolean> listeningState = new ConcurrentHashMap<>();
+    // 识别输入缓冲区容量（毫秒音频）和缓冲区满时的处理策略
+    @Value("${app.stt.input-buffer-ms:3000}")
+    private long inputBufferMs;
 
-    // 用于存储每个会话的音频数据流
-    private final ConcurrentHashMap<String, Sinks.Many<byte[]>> audioSinks = new ConcurrentHashMap<>();
-
-    // 用于跟踪会话是否正在进行流式识别
-    private final ConcurrentHashMap<String, Boolean> streamingState = new ConcurrentHashMap<>();
+    @Value("${app.stt.input-overflow-policy:DROP_OLDEST}")
+    private SttInputBuffer.OverflowPolicy inputOverflowPolicy;
 
     // 存储验证码生成状态
     private final ConcurrentHashMap<String, Boolean> captchaState = new ConcurrentHashMap<>();
 
-    // 存储每个会话的最后有效活动时间
-    private final ConcurrentHashMap<String, Instant> lastActivityTime = new ConcurrentHashMap<>();
+    // 会话关闭时的回调，用于释放会话上下文以外的资源
+    private final List<Consumer<SessionContext>> closeListeners = new CopyOnWriteArrayList<>();
 
     // 定时任务执行器
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
+    // 会话指标，引用本实例，关闭时移除
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    public SessionManager() {
+        gauges.add(Gauge.builder("xiaozhi.sessions", contexts::size)
+                .description("连接中的会话数")
+                .register(Metrics.globalRegistry));
+        gauges.add(Gauge.builder("xiaozhi.sessions.listening",
+                () -> contexts.values().stream().filter(SessionContext::isListening).count())
+                .description("监听中的会话数")
+                .register(Metrics.globalRegistry));
+        gauges.add(Gauge.builder("xiaozhi.sessions.streaming",
+                () -> contexts.values().stream().filter(SessionContext::isStreaming).count())
+                .description("流式识别中的会话数")
+                .register(Metrics.globalRegistry));
+        gauges.add(Gauge.builder("xiaozhi.sessions.retained",
+                () -> contexts.values().stream().mapToLong(SessionContext::estimateRetainedBytes).sum())
+                .baseUnit("bytes")
+                .description("各会话占用内存之和")
+                .register(Metrics.globalRegistry));
+        gauges.add(Gauge.builder("xiaozhi.sessions.retained.max",
+                () -> contexts.values().stream().mapToLong(SessionContext::estimateRetainedBytes).max().orElse(0))
+                .baseUnit("bytes")
+                .description("单个会话占用内存的最大值")
+                .register(Metrics.globalRegistry));
+    }
+
     /**
      * 初始化方法，启动定时检查不活跃会话的任务
      */
@@ -89,21 +109,19 @@ public class SessionManager {
             Thread.currentThread().interrupt();
         }
         logger.info("不活跃会话检查任务已关闭");
+        gauges.forEach(Metrics.globalRegistry::remove);
     }
 
     /**
      * 检查不活跃的会话并关闭它们
      */
     private void checkInactiveSessions() {
-        Instant now = Instant.now();
-        sessions.keySet().forEach(sessionId -> {
-            Instant lastActivity = lastActivityTime.get(sessionId);
-            if (lastActivity != null) {
-                Duration inactiveDuration = Duration.between(lastActivity, now);
-                if (inactiveDuration.getSeconds() > INACTIVITY_TIMEOUT_SECONDS) {
-                    logger.info("会话 {} 已经 {} 秒没有有效活动，自动关闭", sessionId, inactiveDuration.getSeconds());
-                    closeSession(sessionId);
-                }
+        long now = System.currentTimeMillis();
+        contexts.forEach((sessionId, context) -> {
+            long inactiveSeconds = (now - context.getLastActivity()) / 1000;
+            if (inactiveSeconds > INACTIVITY_TIMEOUT_SECONDS) {
+                logger.info("会话 {} 已经 {} 秒没有有效活动，自动关闭", sessionId, inactiveSeconds);
+                closeSession(sessionId);
             }
         });
     }
@@ -115,51 +133,69 @@ public class SessionManager {
      * @param sessionId 会话ID
      */
     public void updateLastActivity(String sessionId) {
-        lastActivityTime.put(sessionId, Instant.now());
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            context.touch();
+        }
     }
 
     /**
-     * 注册新的WebSocket会话
+     * 注册新的WebSocket会话，创建会话上下文
      * 
      * @param sessionId 会话ID
      * @param session   WebSocket会话
+     * @return 会话上下文
      */
-    public void registerSession(String sessionId, WebSocketSession session) {
-        sessions.put(sessionId, session);
-        listeningState.put(sessionId, false);
-        streamingState.put(sessionId, false);
-        updateLastActivity(sessionId); // 初始化活动时间
+    public SessionContext registerSession(String sessionId, WebSocketSession session) {
+        SessionContext context = new SessionContext(sessionId, session);
+        contexts.put(sessionId, context);
         logger.info("WebSocket会话已注册 - SessionId: {}", sessionId);
+        return context;
+    }
+
+    /**
+     * 获取会话上下文
+     *
+     * @param sessionId 会话ID
+     * @return 会话上下文，会话已关闭时返回null
+     */
+    public SessionContext getContext(String sessionId) {
+        return contexts.get(sessionId);
+    }
+
+    /**
+     * 注册会话关闭时的回调
+     *
+     * @param listener 回调，参数为已释放的会话上下文
+     */
+    public void addCloseListener(Consumer<SessionContext> listener) {
+        closeListeners.add(listener);
     }
 
     /**
      * 关闭并清理WebSocket会话
+     * 移除会话上下文并统一释放识别、对话、播放、VAD和编解码状态，重复调用时不再处理
      * 
      * @param sessionId 会话ID
      */
     public void closeSession(String sessionId) {
+        SessionContext context = contexts.remove(sessionId);
+        if (context == null || !context.close()) {
+            return;
+        }
         // 关闭会话
-        WebSocketSession session = sessions.get(sessionId);
-        if (session != null) {
+        try {
+            context.getSession().close().subscribe();
+        } catch (Exception e) {
+            logger.error("关闭WebSocket会话时发生错误 - SessionId: {}", sessionId, e);
+        }
+        for (Consumer<SessionContext> listener : closeListeners) {
             try {
-                session.close().subscribe();
+                listener.accept(context);
             } catch (Exception e) {
-                logger.error("关闭WebSocket会话时发生错误 - SessionId: {}", sessionId, e);
+                logger.error("会话关闭回调出错 - SessionId: {}", sessionId, e);
             }
         }
-        sessions.remove(sessionId);
-        SysDevice device = deviceConfigs.remove(sessionId);
-        listeningState.remove(sessionId);
-        streamingState.remove(sessionId);
-        lastActivityTime.remove(sessionId); // 清理活动时间记录
-        iotDescriptors.remove(sessionId); // 清理Iot部件描述信息
-        functionHolders.remove(sessionId);// 清理function_call tools
-        closeAfterChat.remove(sessionId);
-        // 清理音频流
-        Sinks.Many<byte[]> sink = audioSinks.remove(sessionId);
-        if (sink != null) {
-            sink.tryEmitComplete();
-        }
 
         logger.info("WebSocket会话已关闭 - SessionId: {}", sessionId);
     }
@@ -171,13 +207,12 @@ public class SessionManager {
      * @param device    设备信息
      */
     public void registerDevice(String sessionId, SysDevice device) {
-        // 先检查是否已存在该sessionId的配置
-        SysDevice existingDevice = deviceConfigs.get(sessionId);
-        if (existingDevice != null) {
-            deviceConfigs.remove(sessionId);
+        SessionContext context = contexts.get(sessionId);
+        if (context == null) {
+            return;
         }
-        deviceConfigs.put(sessionId, device);
-        updateLastActivity(sessionId); // 更新活动时间
+        context.setDevice(device);
+        context.touch(); // 更新活动时间
         logger.debug("设备配置已注册 - SessionId: {}, DeviceId: {}", sessionId, device.getDeviceId());
     }
 
@@ -188,9 +223,11 @@ public class SessionManager {
      * @param iotDescriptor iot部件描述信息
      */
     public void registerIot(String sessionId, IotDescriptor iotDescriptor) {
-        // 先检查是否已存在该sessionId的配置
-        Map<String, IotDescriptor> existingIotDescriptors = iotDescriptors.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>());
-        existingIotDescriptors.put(iotDescriptor.getName(), iotDescriptor);
+        SessionContext context = contexts.get(sessionId);
+        if (context == null) {
+            return;
+        }
+        context.getIotDescriptors().put(iotDescriptor.getName(), iotDescriptor);
         logger.debug("设备iot部件已注册 - SessionId: {}, Iot: {}", sessionId, iotDescriptor.getName());
     }
 
@@ -201,7 +238,10 @@ public class SessionManager {
      * @param functionSessionHolder function_call工具
      */
     public void registerFunctionSessionHolder(String sessionId, FunctionSessionHolder functionSessionHolder) {
-        functionHolders.putIfAbsent(sessionId, functionSessionHolder);
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            context.setFunctionSessionHolderIfAbsent(functionSessionHolder);
+        }
     }
 
     /**
@@ -211,7 +251,10 @@ public class SessionManager {
      * @param close     是否关闭
      */
     public void setCloseAfterChat(String sessionId, boolean close) {
-        closeAfterChat.put(sessionId, close);
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            context.setCloseAfterChat(close);
+        }
     }
 
     /**
@@ -221,7 +264,8 @@ public class SessionManager {
      * @return 是否关闭
      */
     public boolean isCloseAfterChat(String sessionId) {
-        return closeAfterChat.getOrDefault(sessionId, false);
+        SessionContext context = contexts.get(sessionId);
+        return context != null && context.isCloseAfterChat();
     }
 
     /**
@@ -243,7 +287,8 @@ public class SessionManager {
      * @return WebSocket会话
      */
     public WebSocketSession getSession(String sessionId) {
-        return sessions.get(sessionId);
+        SessionContext context = contexts.get(sessionId);
+        return context != null ? context.getSession() : null;
     }
 
     /**
@@ -253,9 +298,10 @@ public class SessionManager {
      * @return 会话ID
      */
     public String getSessionByDeviceId(String deviceId) {
-        for (String key : deviceConfigs.keySet()) {
-            if (deviceConfigs.get(key).getDeviceId().equals(deviceId)) {
-                return key;
+        for (SessionContext context : contexts.values()) {
+            SysDevice device = context.getDevice();
+            if (device != null && device.getDeviceId().equals(deviceId)) {
+                return context.getSessionId();
             }
         }
         return null;
@@ -268,7 +314,8 @@ public class SessionManager {
      * @return 设备配置
      */
     public SysDevice getDeviceConfig(String sessionId) {
-        return deviceConfigs.get(sessionId);
+        SessionContext context = contexts.get(sessionId);
+        return context != null ? context.getDevice() : null;
     }
 
     /**
@@ -278,7 +325,8 @@ public class SessionManager {
      * @return 设备配置
      */
     public Map<String, IotDescriptor> getAllIotDescriptor(String sessionId) {
-        return iotDescriptors.get(sessionId);
+        SessionContext context = contexts.get(sessionId);
+        return context != null ? context.getIotDescriptors() : null;
     }
 
     /**
@@ -288,9 +336,9 @@ public class SessionManager {
      * @return 设备配置
      */
     public IotDescriptor getIotDescriptor(String sessionId, String iotName) {
-        Map<String, IotDescriptor> descriptors = iotDescriptors.get(sessionId);
-        if (descriptors != null) {
-            return descriptors.get(iotName);
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            return context.getIotDescriptors().get(iotName);
         }
         return null;
     }
@@ -302,7 +350,8 @@ public class SessionManager {
      * @return FunctionSessionHolder
      */
     public FunctionSessionHolder getFunctionSessionHolder(String sessionId) {
-        return functionHolders.get(sessionId);
+        SessionContext context = contexts.get(sessionId);
+        return context != null ? context.getFunctionSessionHolder() : null;
     }
 
     /**
@@ -322,8 +371,10 @@ public class SessionManager {
      * @param isListening 是否正在监听
      */
     public void setListeningState(String sessionId, boolean isListening) {
-        listeningState.put(sessionId, isListening);
-        updateLastActivity(sessionId); // 更新活动时间
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            context.setListening(isListening); // 同时更新活动时间
+        }
     }
 
     /**
@@ -333,7 +384,8 @@ public class SessionManager {
      * @return 是否正在监听
      */
     public boolean isListening(String sessionId) {
-        return listeningState.getOrDefault(sessionId, false);
+        SessionContext context = contexts.get(sessionId);
+        return context != null && context.isListening();
     }
 
     /**
@@ -343,8 +395,10 @@ public class SessionManager {
      * @param isStreaming 是否正在流式识别
      */
     public void setStreamingState(String sessionId, boolean isStreaming) {
-        streamingState.put(sessionId, isStreaming);
-        updateLastActivity(sessionId); // 更新活动时间
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            context.setStreaming(isStreaming); // 同时更新活动时间
+        }
     }
 
     /**
@@ -354,40 +408,43 @@ public class SessionManager {
      * @return 是否正在流式识别
      */
     public boolean isStreaming(String sessionId) {
-        return streamingState.getOrDefault(sessionId, false);
+        SessionContext context = contexts.get(sessionId);
+        return context != null && context.isStreaming();
     }
 
     /**
      * 创建并注册音频数据接收器
      * 
-     * @param sessionId 会话ID
+     * @param context 会话上下文
      * @return 音频数据接收器
      */
-    public Sinks.Many<byte[]> createAudioSink(String sessionId) {
-        Sinks.Many<byte[]> sink = Sinks.many().multicast().onBackpressureBuffer();
-        audioSinks.put(sessionId, sink);
+    public SttInputBuffer createAudioSink(SessionContext context) {
+        SttInputBuffer sink = new SttInputBuffer(context.getSessionId(), inputBufferMs, inputOverflowPolicy);
+        context.setAudioSink(sink);
         return sink;
     }
 
     /**
-     * 获取音频数据接收器
+     * 关闭音频数据接收器
      * 
      * @param sessionId 会话ID
-     * @return 音频数据接收器
      */
-    public Sinks.Many<byte[]> getAudioSink(String sessionId) {
-        return audioSinks.get(sessionId);
+    public void closeAudioSink(String sessionId) {
+        SessionContext context = contexts.get(sessionId);
+        if (context != null) {
+            closeAudioSink(context);
+        }
     }
 
     /**
      * 关闭音频数据接收器
-     * 
-     * @param sessionId 会话ID
+     *
+     * @param context 会话上下文
      */
-    public void closeAudioSink(String sessionId) {
-        Sinks.Many<byte[]> sink = audioSinks.get(sessionId);
+    public void closeAudioSink(SessionContext context) {
+        SttInputBuffer sink = context.getAudioSink();
         if (sink != null) {
-            sink.tryEmitComplete();
+            sink.complete();
         }
     }
 
@@ -409,4 +466,4 @@ public class SessionManager {
     public void unmarkCaptchaGeneration(String deviceId) {
         captchaState.remove(deviceId);
     }
-}
\ No newline at end of file
+}
@@ -16,7 +16,6 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class VadService {
@@ -51,9 +50,8 @@ public class VadService {
     // 噪声抑制器
     private TarsosNoiseReducer tarsosNoiseReducer;
 
-    // 会话状态管理
-    private final ConcurrentHashMap<String, VadSessionState> sessionStates = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Object> sessionLocks = new ConcurrentHashMap<>();
+    @Autowired
+    private SessionManager sessionManager;
 
     @PostConstruct
     public void init() {
@@ -81,9 +79,9 @@ public class VadService {
     }
 
     /**
-     * 会话状态类
+     * 会话状态类，由会话上下文持有
      */
-    private class VadSessionState {
+    class VadSessionState {
         private boolean speaking = false;
         private long lastSpeechTime = 0;
         private long lastSilenceTime = 0; // 添加最后一次检测到静音的时间
@@ -165,6 +163,10 @@ public class VadService {
             return probabilities;
         }
 
+        public int getPreBufferSize() {
+            return preBufferSize;
+        }
+
         /**
          * 添加数据到预缓冲区
          */
@@ -228,13 +230,15 @@ public class VadService {
      * 初始化会话状态
      */
     public void initializeSession(String sessionId) {
-        Object lock = getSessionLock(sessionId);
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return;
+        }
 
-        synchronized (lock) {
-            VadSessionState state = sessionStates.get(sessionId);
+        synchronized (context.getVadLock()) {
+            VadSessionState state = context.getVadState();
             if (state == null) {
-                state = new VadSessionState();
-                sessionStates.put(sessionId, state);
+                context.setVadState(new VadSessionState());
             } else {
                 state.reset();
             }
@@ -243,25 +247,33 @@ public class VadService {
     }
 
     /**
-     * 获取会话锁对象
+     * 处理音频数据
      */
-    private Object getSessionLock(String sessionId) {
-        return sessionLocks.computeIfAbsent(sessionId, k -> new Object());
+    public VadResult processAudio(String sessionId, byte[] opusData) {
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return new VadResult(VadStatus.ERROR, null);
+        }
+        return processAudio(context, opusData);
     }
 
     /**
      * 处理音频数据
      */
-    public VadResult processAudio(String sessionId, byte[] opusData) {
-        Object lock = getSessionLock(sessionId);
+    public VadResult processAudio(SessionContext context, byte[] opusData) {
+        String sessionId = context.getSessionId();
 
-        synchronized (lock) {
+        synchronized (context.getVadLock()) {
             try {
                 // 确保会话状态已初始化
-                VadSessionState state = sessionStates.computeIfAbsent(sessionId, k -> new VadSessionState());
+                VadSessionState state = context.getVadState();
+                if (state == null) {
+                    state = new VadSessionState();
+                    context.setVadState(state);
+                }
 
                 // 解码Opus数据为PCM
-                byte[] pcmData = opusDecoder.opusToPcm(sessionId, opusData);
+                byte[] pcmData = opusDecoder.opusToPcm(context.getCodec(), opusData);
                 if (pcmData == null || pcmData.length == 0) {
                     return new VadResult(VadStatus.NO_SPEECH, null);
                 }
@@ -270,7 +282,7 @@ public class VadService {
                 state.addToPreBuffer(pcmData);
 
                 // 应用噪声抑制
-                byte[] processedPcm = applyNoiseReduction(sessionId, pcmData);
+                byte[] processedPcm = applyNoiseReduction(context, pcmData);
 
                 // 计算音频能量
                 float[] samples = convertBytesToFloats(processedPcm);
@@ -407,9 +419,9 @@ public class VadService {
     /**
      * 应用噪声抑制
      */
-    private byte[] applyNoiseReduction(String sessionId, byte[] pcmData) {
+    private byte[] applyNoiseReduction(SessionContext context, byte[] pcmData) {
         if (tarsosNoiseReducer != null && enableNoiseReduction) {
-            return tarsosNoiseReducer.processAudio(sessionId, pcmData);
+            return tarsosNoiseReducer.processAudio(context.getNoiseProfile(), pcmData);
         }
         return pcmData;
     }
@@ -436,20 +448,21 @@ public class VadService {
      * 重置会话状态
      */
     public void resetSession(String sessionId) {
-        Object lock = getSessionLock(sessionId);
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return;
+        }
 
-        synchronized (lock) {
-            VadSessionState state = sessionStates.get(sessionId);
+        synchronized (context.getVadLock()) {
+            VadSessionState state = context.getVadState();
             if (state != null) {
                 state.reset();
             }
-            sessionStates.remove(sessionId);
+            context.setVadState(null);
 
             if (enableNoiseReduction && tarsosNoiseReducer != null) {
-                tarsosNoiseReducer.cleanupSession(sessionId);
+                tarsosNoiseReducer.resetNoiseEstimate(context.getNoiseProfile());
             }
-
-            sessionLocks.remove(sessionId);
         }
     }
 
@@ -457,10 +470,13 @@ public class VadService {
      * 检查当前是否正在说话
      */
     public boolean isSpeaking(String sessionId) {
-        Object lock = getSessionLock(sessionId);
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return false;
+        }
 
-        synchronized (lock) {
-            VadSessionState state = sessionStates.get(sessionId);
+        synchronized (context.getVadLock()) {
+            VadSessionState state = context.getVadState();
             return state != null && state.isSpeaking();
         }
     }
@@ -469,10 +485,13 @@ public class VadService {
      * 获取当前语音概率
      */
     public float getCurrentSpeechProbability(String sessionId) {
-        Object lock = getSessionLock(sessionId);
+        SessionContext context = sessionManager.getContext(sessionId);
+        if (context == null) {
+            return 0.0f;
+        }
 
-        synchronized (lock) {
-            VadSessionState state = sessionStates.get(sessionId);
+        synchronized (context.getVadLock()) {
+            VadSessionState state = context.getVadState();
             if (state != null && !state.getProbabilities().isEmpty()) {
                 return state.getLastProbability();
             }
@@ -0,0 +1,250 @@
+package com.xiaozhi.websocket.stt;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 竞速识别
+ * 同一段音频同时交给两个识别服务（例如本地Vosk和一个云端服务），两者共享同一个音频流，音频帧不复制。
+ * 首选服务（设备配置的服务）先得到非空的最终结果时直接采用；备选服务先得到结果时，
+ * 在宽限时间内等待首选服务的结果，超时则采用备选服务的结果。
+ * 各识别服务都不提供置信度，这里以首选服务作为更可信的一方。结果确定后取消另一个服务的识别。
+ * 中间结果只转发首选服务的，最后一个元素是胜出的最终结果，都没有识别出内容时为空字符串。
+ * 按服务统计参与次数、胜出次数、被取消次数、失败次数以及音频结束到最终结果的耗时分布，
+ * 注册为以服务名为标签的Micrometer指标。
+ */
+public class RaceSttService implements SttService {
+    private static final Logger logger = LoggerFactory.getLogger(RaceSttService.class);
+
+    private static final int PRIMARY = 0;
+    private static final int SECONDARY = 1;
+
+    private final SttService[] services;
+    private final long graceMillis;
+
+    /**
+     * @param primary     首选识别服务
+     * @param secondary   备选识别服务
+     * @param graceMillis 备选服务先出结果时等待首选服务的时间（毫秒），0表示谁先出结果用谁
+     */
+    public RaceSttService(SttService primary, SttService secondary, long graceMillis) {
+        this.services = new SttService[] { primary, secondary };
+        this.graceMillis = graceMillis;
+    }
+
+    @Override
+    public String getProviderName() {
+        return services[PRIMARY].getProviderName() + "+" + services[SECONDARY].getProviderName();
+    }
+
+    /**
+     * 非流式识别不在实时链路上，只使用首选服务
+     */
+    @Override
+    public String recognition(byte[] audioData) {
+        return services[PRIMARY].recognition(audioData);
+    }
+
+    /**
+     * 批量识别同样只使用首选服务
+     */
+    @Override
+    public List<String> batchRecognition(List<byte[]> audioBuffers) {
+        return services[PRIMARY].batchRecognition(audioBuffers);
+    }
+
+    @Override
+    public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
+        return Flux.create(sink -> new Race(audioStream, sink).start());
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return services[PRIMARY].supportsStreaming();
+    }
+
+    /**
+     * 一次竞速识别
+     */
+    private class Race {
+        private final FluxSink<String> sink;
+        private final Flux<byte[]> audio;
+        private final AtomicBoolean[] arrived = { new AtomicBoolean(), new AtomicBoolean() };
+        private final Disposable[] subscriptions = new Disposable[2];
+        private final String[] latest = new String[2];
+        private final boolean[] done = new boolean[2];
+        private final long startNanos = System.nanoTime();
+        private volatile long audioEndNanos = 0;
+        private volatile Disposable connection;
+        private Disposable graceTimer;
+        private boolean decided = false;
+
+        Race(Flux<byte[]> audioStream, FluxSink<String> sink) {
+            this.sink = sink;
+            // 两个识别服务订阅同一个音频流，都订阅（或已结束）后才开始读取，避免先订阅的一方独占开头的音频
+            this.audio = audioStream
+                    .doOnComplete(() -> audioEndNanos = System.nanoTime())
+                    .publish()
+                    .autoConnect(services.length, c -> connection = c);
+        }
+
+        void start() {
+            sink.onDispose(this::dispose);
+            for (int i = 0; i < services.length; i++) {
+                final int index = i;
+                count("xiaozhi.stt.race.races", index);
+                Flux<byte[]> input = audio.doOnSubscribe(s -> arrived[index].set(true));
+                Disposable subscription = services[index].streamRecognition(input)
+                        .subscribe(
+                                text -> onResult(index, text),
+                                error -> onError(index, error),
+                                () -> onFinal(index, false));
+                synchronized (this) {
+                    subscriptions[index] = subscription;
+                }
+            }
+        }
+
+        /**
+         * 识别服务没有订阅音频就已结束时代为计数，避免另一个服务一直等不到音频
+         */
+        private void arrive(int index) {
+            if (arrived[index].compareAndSet(false, true)) {
+                audio.subscribe().dispose();
+            }
+        }
+
+        private synchronized void onResult(int index, String text) {
+            if (decided) {
+                return;
+            }
+            latest[index] = text;
+            if (index == PRIMARY) {
+                sink.next(text);
+            }
+        }
+
+        private void onError(int index, Throwable error) {
+            logger.warn("竞速识别中{}识别失败: {}", services[index].getProviderName(), error.getMessage());
+            onFinal(index, true);
+        }
+
+        private void onFinal(int index, boolean failed) {
+            arrive(index);
+            synchronized (this) {
+                if (decided || done[index]) {
+                    return;
+                }
+                done[index] = true;
+                if (failed) {
+                    count("xiaozhi.stt.race.failures", index);
+                    latest[index] = null;
+                } else {
+                    long end = audioEndNanos;
+                    latency(index).record(end == 0 ? 0 : System.nanoTime() - end, TimeUnit.NANOSECONDS);
+                }
+
+                int other = 1 - index;
+                if (StringUtils.hasText(latest[index])) {
+                    if (index == PRIMARY || graceMillis <= 0 || done[PRIMARY]) {
+                        decide(index);
+                    } else {
+                        // 备选服务先出结果，在宽限时间内等待首选服务
+                        graceTimer = Schedulers.parallel().schedule(this::graceExpired, graceMillis,
+                                TimeUnit.MILLISECONDS);
+                    }
+                } else if (done[other]) {
+                    decide(StringUtils.hasText(latest[other]) ? other : -1);
+                }
+            }
+        }
+
+        private synchronized void graceExpired() {
+            if (!decided) {
+                decide(SECONDARY);
+            }
+        }
+
+        /**
+         * 确定结果，取消未结束的识别
+         *
+         * @param winner 胜出的服务，-1表示都没有识别出内容
+         */
+        private void decide(int winner) {
+            decided = true;
+            if (graceTimer != null) {
+                graceTimer.dispose();
+            }
+            for (int i = 0; i < services.length; i++) {
+                if (!done[i]) {
+                    count("xiaozhi.stt.race.cancelled", i);
+                    if (subscriptions[i] != null) {
+                        subscriptions[i].dispose();
+                    }
+                    arrive(i);
+                }
+            }
+            if (winner >= 0) {
+                count("xiaozhi.stt.race.wins", winner);
+                // 首选服务的最终结果已作为最后一个中间结果转发
+                if (winner != PRIMARY) {
+                    sink.next(latest[winner]);
+                }
+                logger.debug("竞速识别结果来自{}，耗时: {}ms", services[winner].getProviderName(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            } else {
+                // 首选服务转发过的中间结果不能当作最终结果
+                sink.next("");
+            }
+            sink.complete();
+        }
+
+        private void dispose() {
+            Disposable[] pending;
+            synchronized (this) {
+                decided = true;
+                if (graceTimer != null) {
+                    graceTimer.dispose();
+                }
+                pending = subscriptions.clone();
+            }
+            for (Disposable subscription : pending) {
+                if (subscription != null) {
+                    subscription.dispose();
+                }
+            }
+            Disposable current = connection;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+
+        private void count(String name, int index) {
+            Metrics.counter(name, "provider", services[index].getProviderName()).increment();
+        }
+
+        /**
+         * 音频结束到最终结果的耗时
+         */
+        private Timer latency(int index) {
+            return Timer.builder("xiaozhi.stt.race.latency")
+                    .tag("provider", services[index].getProviderName())
+                    .description("竞速识别中音频结束到最终结果的耗时")
+                    .publishPercentiles(0.5, 0.95)
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.xiaozhi.websocket.stt;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.xiaozhi.utils.AudioUtils;
+
+/**
+ * 识别音频调试采集
+ * 按比例抽样保存送去识别的音频，写文件在单独的线程中进行，不影响识别耗时；
+ * 队列满时直接丢弃。默认关闭。
+ * 各识别服务在拿到完整音频后直接调用capture()，全部服务共用一个写文件线程和抽样比例，
+ * 未开启时capture()只做一次判断就返回。
+ */
+@Component
+public class SttAudioCapture {
+    private static final Logger logger = LoggerFactory.getLogger(SttAudioCapture.class);
+
+    // 开启后才创建写文件线程
+    private static volatile boolean enabled = false;
+    private static volatile double sampleRatio = 0;
+    private static volatile ThreadPoolExecutor writer;
+
+    private static final AtomicLong captured = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    @Value("${app.stt.capture.enabled:false}")
+    private boolean configEnabled;
+
+    @Value("${app.stt.capture.sample-ratio:0.05}")
+    private double configSampleRatio;
+
+    @Value("${app.stt.capture.queue-size:16}")
+    private int queueSize;
+
+    @PostConstruct
+    public void init() {
+        if (!configEnabled || configSampleRatio <= 0) {
+            return;
+        }
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "stt-capture");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (task, executor) -> dropped.incrementAndGet());
+        sampleRatio = configSampleRatio;
+        enabled = true;
+        logger.info("识别音频调试采集已开启 - 抽样比例: {}, 目录: {}", sampleRatio, AudioUtils.AUDIO_PATH);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        enabled = false;
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * 按抽样比例异步保存识别音频
+     *
+     * @param provider  识别服务名称，用于日志
+     * @param audioData PCM音频数据，调用方之后不能再修改
+     */
+    public static void capture(String provider, byte[] audioData) {
+        if (!enabled || audioData == null || audioData.length == 0
+                || ThreadLocalRandom.current().nextDouble() >= sampleRatio) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(Paths.get(AudioUtils.AUDIO_PATH));
+                String fileName = AudioUtils.saveAsWav(audioData);
+                captured.incrementAndGet();
+                logger.debug("已采集{}识别音频: {}", provider, fileName);
+            } catch (Exception e) {
+                logger.warn("保存识别音频失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    public static long getCapturedCount() {
+        return captured.get();
+    }
+
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,86 @@
+package com.xiaozhi.websocket.stt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.reactivestreams.Subscription;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 识别音频发送器
+ * 每次只向识别输入请求一帧，写出后再请求下一帧。识别服务的连接发送不过来时，音频留在SttInputBuffer中，
+ * 由缓冲区按字节容量和溢出策略处理，不会堆积到订阅者的预取队列或网络库的发送队列里。
+ * 连接暂时不可写时不请求新帧，间隔一小段时间后再检查。
+ */
+public class SttAudioSender extends BaseSubscriber<byte[]> {
+
+    // 连接不可写时的重新检查间隔
+    private static final long RETRY_MILLIS = 10;
+
+    private final Consumer<byte[]> writer;
+    private final BooleanSupplier writable;
+    private final Consumer<Throwable> onError;
+    private final Runnable onComplete;
+
+    private SttAudioSender(Consumer<byte[]> writer, BooleanSupplier writable, Consumer<Throwable> onError,
+            Runnable onComplete) {
+        this.writer = writer;
+        this.writable = writable;
+        this.onError = onError;
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * 订阅音频流并逐帧写出
+     *
+     * @param audioStream 识别输入的音频流
+     * @param writer      写出一帧音频，同步执行
+     * @param writable    连接当前是否可以继续写入
+     * @param onError     音频流出错
+     * @param onComplete  音频流结束
+     * @return 用于取消发送
+     */
+    public static Disposable send(Flux<byte[]> audioStream, Consumer<byte[]> writer, BooleanSupplier writable,
+            Consumer<Throwable> onError, Runnable onComplete) {
+        SttAudioSender sender = new SttAudioSender(writer, writable, onError, onComplete);
+        audioStream.subscribe(sender);
+        return sender;
+    }
+
+    @Override
+    protected void hookOnSubscribe(Subscription subscription) {
+        requestWhenWritable();
+    }
+
+    @Override
+    protected void hookOnNext(byte[] data) {
+        writer.accept(data);
+        requestWhenWritable();
+    }
+
+    @Override
+    protected void hookOnError(Throwable throwable) {
+        onError.accept(throwable);
+    }
+
+    @Override
+    protected void hookOnComplete() {
+        onComplete.run();
+    }
+
+    private void requestWhenWritable() {
+        if (isDisposed()) {
+            return;
+        }
+        if (writable.getAsBoolean()) {
+            request(1);
+        } else {
+            Schedulers.parallel().schedule(this::requestWhenWritable, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.xiaozhi.websocket.stt;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xiaozhi.utils.AudioUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 识别输入缓冲区
+ * 每个会话一次识别一个，VAD输出的音频先进入缓冲区，再由识别服务按需读取。
+ * 容量按音频时长计算，识别服务跟不上导致缓冲区满时按配置的策略处理：
+ * BLOCK 阻塞写入的VAD线程等待空间（最多等待一个缓冲区时长，超时后丢弃该帧）；
+ * DROP_OLDEST 丢弃最早的音频；FAIL 结束本次识别。
+ * 丢帧、写入失败和缓冲区的最高水位都有统计，可以判断识别效果差是否因为丢了音频；
+ * 全局的统计注册为Micrometer指标，每次识别的最高水位在识别结束时记入分布。
+ */
+public class SttInputBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(SttInputBuffer.class);
+
+    /**
+     * 缓冲区满时的处理策略
+     */
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, FAIL
+    }
+
+    // 全局统计
+    private static final Counter totalFrames = Counter.builder("xiaozhi.stt.input.frames")
+            .description("写入识别输入缓冲区的音频帧数")
+            .register(Metrics.globalRegistry);
+    private static final Counter totalDropped = Counter.builder("xiaozhi.stt.input.dropped")
+            .description("缓冲区满时丢弃的音频帧数")
+            .register(Metrics.globalRegistry);
+    private static final Counter totalEmitFailures = Counter.builder("xiaozhi.stt.input.emit.failures")
+            .description("写入识别输入失败的次数")
+            .register(Metrics.globalRegistry);
+    private static final Counter totalOverflowFailures = Counter.builder("xiaozhi.stt.input.overflow.failures")
+            .description("因缓冲区溢出结束的识别数")
+            .register(Metrics.globalRegistry);
+    private static final DistributionSummary highWater = DistributionSummary.builder("xiaozhi.stt.input.high.water")
+            .baseUnit("bytes")
+            .description("每次识别中缓冲区的最高水位")
+            .publishPercentiles(0.5, 0.95)
+            .register(Metrics.globalRegistry);
+
+    private final String sessionId;
+    private final long capacityBytes;
+    private final long blockNanos;
+    private final OverflowPolicy policy;
+
+    private final ByteBoundedQueue queue = new ByteBoundedQueue();
+    private final Sinks.Many<byte[]> sink;
+
+    // 本次识别的统计
+    private long dropped = 0;
+    private long emitFailures = 0;
+    private long highWaterBytes = 0;
+    private boolean completed = false;
+
+    /**
+     * @param sessionId  会话ID，用于日志
+     * @param capacityMs 缓冲区容量（毫秒音频）
+     * @param policy     缓冲区满时的处理策略
+     */
+    public SttInputBuffer(String sessionId, long capacityMs, OverflowPolicy policy) {
+        this.sessionId = sessionId;
+        this.capacityBytes = Math.max(1, capacityMs * AudioUtils.SAMPLE_RATE * AudioUtils.CHANNELS * 2 / 1000);
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(capacityMs);
+        this.policy = policy;
+        this.sink = Sinks.many().unicast().onBackpressureBuffer(queue);
+    }
+
+    /**
+     * 识别服务读取的音频流，只能订阅一次
+     */
+    public Flux<byte[]> asFlux() {
+        return sink.asFlux();
+    }
+
+    /**
+     * 写入一帧音频
+     *
+     * @return 是否写入成功，失败时已计入统计
+     */
+    public boolean emit(byte[] data) {
+        totalFrames.increment();
+        if (data.length <= capacityBytes && !queue.hasRoom(data.length)) {
+            if (!makeRoom(data.length)) {
+                return false;
+            }
+        }
+        Sinks.EmitResult result = sink.tryEmitNext(data);
+        if (result.isSuccess()) {
+            recordHighWater();
+            return true;
+        }
+        synchronized (this) {
+            emitFailures++;
+        }
+        totalEmitFailures.increment();
+        if (result == Sinks.EmitResult.FAIL_OVERFLOW && policy == OverflowPolicy.FAIL) {
+            fail();
+        } else {
+            logger.debug("识别输入写入失败 - SessionId: {}, 结果: {}", sessionId, result);
+        }
+        return false;
+    }
+
+    /**
+     * 音频结束
+     */
+    public void complete() {
+        sink.tryEmitComplete();
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            highWater.record(highWaterBytes);
+            if (dropped > 0 || emitFailures > 0) {
+                logger.warn("识别输入有音频丢失 - SessionId: {}, 丢弃: {}帧, 写入失败: {}次, 最高水位: {}字节/{}字节",
+                        sessionId, dropped, emitFailures, highWaterBytes, capacityBytes);
+            }
+        }
+    }
+
+    /**
+     * 按策略腾出空间
+     *
+     * @return 是否可以继续写入
+     */
+    private boolean makeRoom(int length) {
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.hasRoom(length) && queue.poll() != null) {
+                    recordDrop();
+                }
+                return true;
+            case BLOCK:
+                long deadline = System.nanoTime() + blockNanos;
+                synchronized (queue) {
+                    while (!queue.hasRoom(length)) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            recordDrop();
+                            return false;
+                        }
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            recordDrop();
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            case FAIL:
+            default:
+                fail();
+                return false;
+        }
+    }
+
+    private void fail() {
+        totalOverflowFailures.increment();
+        logger.warn("识别输入缓冲区已满（{}字节），结束本次识别 - SessionId: {}", capacityBytes, sessionId);
+        sink.tryEmitError(new IllegalStateException("识别输入缓冲区溢出"));
+    }
+
+    private synchronized void recordDrop() {
+        dropped++;
+        totalDropped.increment();
+    }
+
+    private void recordHighWater() {
+        long buffered = queue.bytes.get();
+        synchronized (this) {
+            if (buffered > highWaterBytes) {
+                highWaterBytes = buffered;
+            }
+        }
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    public synchronized long getEmitFailureCount() {
+        return emitFailures;
+    }
+
+    public synchronized long getHighWaterBytes() {
+        return highWaterBytes;
+    }
+
+    /**
+     * 当前缓冲的音频字节数
+     */
+    public long getBufferedBytes() {
+        return queue.bytes.get();
+    }
+
+    /**
+     * 按字节数限制容量的队列，识别服务读取后唤醒阻塞的写入方
+     */
+    private class ByteBoundedQueue extends AbstractQueue<byte[]> {
+        private final ConcurrentLinkedQueue<byte[]> items = new ConcurrentLinkedQueue<>();
+        private final AtomicLong bytes = new AtomicLong();
+
+        boolean hasRoom(int length) {
+            return bytes.get() + length <= capacityBytes;
+        }
+
+        @Override
+        public boolean offer(byte[] data) {
+            // 单帧超过容量时也允许写入，避免永远写不进去
+            if (!hasRoom(data.length) && !items.isEmpty()) {
+                return false;
+            }
+            bytes.addAndGet(data.length);
+            items.offer(data);
+            return true;
+        }
+
+        @Override
+        public byte[] poll() {
+            byte[] data = items.poll();
+            if (data != null) {
+                bytes.addAndGet(-data.length);
+                if (policy == OverflowPolicy.BLOCK) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public byte[] peek() {
+            return items.peek();
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return items.iterator();
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public void clear() {
+            items.clear();
+            bytes.set(0);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.xiaozhi.websocket.stt;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import reactor.core.publisher.Flux;
 
 /**
@@ -20,6 +23,22 @@ public interface SttService {
    */
   String recognition(byte[] audioData);
 
+  /**
+   * 批量处理多段音频数据（非流式）
+   * 默认逐段调用{@link #recognition(byte[])}，能并行识别的服务可以覆盖
+   * 
+   * @param audioBuffers 多段音频字节数组
+   * @return 识别的文本结果，与audioBuffers一一对应，识别失败的为空字符串
+   */
+  default List<String> batchRecognition(List<byte[]> audioBuffers) {
+    List<String> results = new ArrayList<>(audioBuffers.size());
+    for (byte[] audioData : audioBuffers) {
+      String text = recognition(audioData);
+      results.add(text == null ? "" : text);
+    }
+    return results;
+  }
+
   /**
    * 流式处理音频数据
    * 
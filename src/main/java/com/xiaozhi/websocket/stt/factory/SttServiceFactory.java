@@ -1,6 +1,8 @@
 package com.xiaozhi.websocket.stt.factory;
 
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.service.SysConfigService;
+import com.xiaozhi.websocket.stt.RaceSttService;
 import com.xiaozhi.websocket.stt.SttService;
 import com.xiaozhi.websocket.stt.providers.AliyunSttService;
 import com.xiaozhi.websocket.stt.providers.FunASRSttService;
@@ -10,9 +12,11 @@ import com.xiaozhi.websocket.token.TokenManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -33,9 +37,60 @@ public class SttServiceFactory {
     // 备选默认提供商（当Vosk初始化失败时使用）
     private String fallbackProvider = null;
 
+    // 竞速识别服务，以首选服务为键
+    private final Map<SttService, SttService> raceCache = new ConcurrentHashMap<>();
+
     // 注入TokenManager
     @Autowired
     private TokenManager tokenManager;
+
+    @Autowired
+    private SysConfigService configService;
+
+    // Vosk推理线程数，0表示使用物理核心数
+    @Value("${app.stt.vosk.workers:0}")
+    private int voskWorkers;
+
+    // Vosk识别器池最多保留的空闲识别器数量，0表示推理线程数的4倍
+    @Value("${app.stt.vosk.recognizer-pool-size:0}")
+    private int voskRecognizerPoolSize;
+
+    // Vosk每隔多少个音频块提取一次部分识别结果，0表示不提取
+    @Value("${app.stt.vosk.partial-interval:0}")
+    private int voskPartialInterval;
+
+    // FunASR预热连接数、最多空闲连接数、多余空闲连接的超时时间和存活检测间隔
+    @Value("${app.stt.funasr.min-idle:2}")
+    private int funasrMinIdle;
+
+    @Value("${app.stt.funasr.max-idle:16}")
+    private int funasrMaxIdle;
+
+    @Value("${app.stt.funasr.idle-timeout-ms:300000}")
+    private long funasrIdleTimeout;
+
+    @Value("${app.stt.funasr.health-check-seconds:30}")
+    private int funasrHealthCheckSeconds;
+
+    // 腾讯云实时识别的最大并发数（与账号配额一致）和单次识别的最长时长
+    @Value("${app.stt.tencent.max-concurrency:20}")
+    private int tencentMaxConcurrency;
+
+    @Value("${app.stt.tencent.max-session-ms:300000}")
+    private long tencentMaxSessionMillis;
+
+    // 竞速识别：同时使用设备配置的服务和备选服务识别，取先出的结果
+    @Value("${app.stt.race.enabled:false}")
+    private boolean raceEnabled;
+
+    // 竞速识别的备选服务配置ID，0表示本地Vosk
+    @Value("${app.stt.race.secondary-config-id:0}")
+    private int raceSecondaryConfigId;
+
+    // 备选服务先出结果时等待设备配置的服务的时间（毫秒）
+    @Value("${app.stt.race.grace-ms:100}")
+    private long raceGraceMs;
+
     /**
    * 应用启动时自动初始化Vosk服务
      */
@@ -58,8 +113,13 @@ public class SttServiceFactory {
         }
 
     try {
-      VoskSttService voskService = new VoskSttService();
+      VoskSttService voskService = new VoskSttService(voskWorkers, voskRecognizerPoolSize, voskPartialInterval);
       voskService.initialize();
+      if (!voskService.isReady()) {
+        // 模型加载失败，不缓存，下次需要时重新尝试
+        voskInitialized = false;
+        return;
+      }
       serviceCache.put(DEFAULT_PROVIDER, voskService);
       voskInitialized = true;
       logger.info("Vosk STT服务初始化成功");
@@ -69,6 +129,27 @@ public class SttServiceFactory {
     }
   }
 
+  /**
+   * 应用关闭时释放Vosk推理线程、识别器、FunASR连接池和腾讯云识别器
+   */
+  @PreDestroy
+  public void destroy() {
+    for (SttService service : serviceCache.values()) {
+      // 逐个释放，一个服务释放失败不影响其他服务
+      try {
+        if (service instanceof VoskSttService) {
+          ((VoskSttService) service).shutdown();
+        } else if (service instanceof FunASRSttService) {
+          ((FunASRSttService) service).shutdown();
+        } else if (service instanceof TencentSttService) {
+          ((TencentSttService) service).shutdown();
+        }
+      } catch (Exception e) {
+        logger.error("释放{}服务失败", service.getProviderName(), e);
+      }
+    }
+  }
+
   /**
    * 获取默认STT服务
    * 如果Vosk可用则返回Vosk，否则返回备选服务
@@ -100,8 +181,39 @@ public class SttServiceFactory {
 
   /**
    * 根据配置获取STT服务
+   * 开启竞速识别且备选服务可用时，返回同时使用两者的竞速识别服务
    */
   public SttService getSttService(SysConfig config) {
+    SttService service = resolveSttService(config);
+    if (!raceEnabled || service == null) {
+      return service;
+    }
+    SttService secondary = getRaceSecondary();
+    if (secondary == null || secondary == service) {
+      return service;
+    }
+    return raceCache.computeIfAbsent(service, primary -> new RaceSttService(primary, secondary, raceGraceMs));
+  }
+
+  /**
+   * 获取竞速识别的备选服务
+   */
+  private SttService getRaceSecondary() {
+    if (raceSecondaryConfigId <= 0) {
+      return resolveSttService(new SysConfig().setProvider(DEFAULT_PROVIDER));
+    }
+    SysConfig secondaryConfig = configService.selectConfigById(raceSecondaryConfigId);
+    if (secondaryConfig == null) {
+      logger.warn("竞速识别的备选服务配置不存在, configId={}", raceSecondaryConfigId);
+      return null;
+    }
+    return resolveSttService(secondaryConfig);
+  }
+
+  /**
+   * 根据配置获取单个STT服务
+   */
+  private SttService resolveSttService(SysConfig config) {
     if (config == null) {
       return getDefaultSttService();
     }
@@ -162,11 +274,11 @@ public class SttServiceFactory {
 
     // 根据提供商类型创建对应的服务实例
     if ("tencent".equals(provider)) {
-      return new TencentSttService(config);
+      return new TencentSttService(config, tencentMaxConcurrency, tencentMaxSessionMillis);
     } else if ("aliyun".equals(provider)) {
       return new AliyunSttService(config);
     } else if ("funasr".equals(provider)) {
-      return new FunASRSttService(config);
+      return new FunASRSttService(config, funasrMinIdle, funasrMaxIdle, funasrIdleTimeout, funasrHealthCheckSeconds);
     }
     // 可以添加其他服务提供商的支持
 
@@ -2,6 +2,7 @@ package com.xiaozhi.websocket.stt.providers;
 
 import com.alibaba.dashscope.audio.asr.recognition.Recognition;
 import com.alibaba.dashscope.audio.asr.recognition.RecognitionParam;
+import com.alibaba.dashscope.audio.asr.recognition.RecognitionResult;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.websocket.stt.SttService;
@@ -10,22 +11,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
-import reactor.core.scheduler.Schedulers;
 
 import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
 
 public class AliyunSttService implements SttService {
     private static final Logger logger = LoggerFactory.getLogger(AliyunSttService.class);
     private static final String PROVIDER_NAME = "aliyun";
 
-    private String apiKey;
+    // 每个配置最多保留的空闲识别客户端数量
+    private static final int MAX_IDLE_RECOGNIZERS = 8;
+
+    private final RecognitionParam param;
+
+    private final Queue<Recognition> idleRecognizers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
 
     public AliyunSttService(SysConfig config) {
-        this.apiKey = config.getApiKey();
+        // 识别参数只与配置有关，创建一次
+        this.param = RecognitionParam.builder()
+                .model("paraformer-realtime-v2")
+                .format("pcm") // 默认使用PCM格式，可以根据实际情况调整
+                .sampleRate(AudioUtils.SAMPLE_RATE)
+                .apiKey(config.getApiKey())
+                .build();
     }
 
     @Override
@@ -45,49 +59,78 @@ public class AliyunSttService implements SttService {
         return null;
     }
 
+    /**
+     * 流式识别，每次输出到目前为止的完整文本（已结束的句子加上当前句子的中间结果），文本没有变化时不重复输出
+     */
+    @Override
     public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
-        Sinks.Many<String> resultSink = Sinks.many().multicast().onBackpressureBuffer();
-
-        Flowable<ByteBuffer> rxAudioStream = Flowable.create(emitter -> {
-            audioStream.subscribe(
-                    bytes -> {
-                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-                        emitter.onNext(buffer);
-                    },
-                    emitter::onError,
-                    emitter::onComplete);
-        }, BackpressureStrategy.BUFFER);
-
-        // 创建识别参数
-        RecognitionParam param = RecognitionParam.builder()
-                .model("paraformer-realtime-v2")
-                .format("pcm") // 默认使用PCM格式，可以根据实际情况调整
-                .sampleRate(AudioUtils.SAMPLE_RATE)
-                .apiKey(apiKey)
-                .build();
+        return Flux.defer(() -> {
+            Recognition recognizer = acquire();
+            AtomicBoolean completed = new AtomicBoolean(false);
 
-        // 创建识别器
-        Recognition recognizer = new Recognition();
+            // Flux本身就是Publisher，直接转换，SDK按需请求音频，背压传递到上游
+            Flowable<ByteBuffer> rxAudioStream = Flowable.fromPublisher(audioStream.map(ByteBuffer::wrap));
 
-        // 在单独的线程中执行流式识别，避免阻塞
-        // 使用Reactor的Schedulers来管理线程
-        Schedulers.boundedElastic().schedule(() -> {
+            Flowable<RecognitionResult> results;
             try {
-                recognizer.streamCall(param, rxAudioStream)
-                        .blockingForEach(result -> {
-                                String text = result.getSentence().getText();
-                                resultSink.tryEmitNext(text);
-                        });
-
-                // 识别完成
-                resultSink.tryEmitComplete();
+                results = recognizer.streamCall(param, rxAudioStream);
             } catch (Exception e) {
-                logger.error("流式语音识别失败", e);
-                resultSink.tryEmitError(e);
+                release(recognizer, false);
+                return Flux.error(e);
             }
+
+            Transcript transcript = new Transcript();
+            return Flux.from(results)
+                    .filter(result -> result.getSentence() != null && !result.getSentence().isHeartbeat())
+                    .map(transcript::update)
+                    .filter(text -> !text.isEmpty())
+                    .distinctUntilChanged()
+                    .doOnComplete(() -> completed.set(true))
+                    .doOnError(e -> logger.error("流式语音识别失败", e))
+                    .doFinally(signal -> release(recognizer, completed.get()));
         });
+    }
+
+    /**
+     * 取出一个空闲的识别客户端，没有则新建
+     */
+    private Recognition acquire() {
+        Recognition recognizer = idleRecognizers.poll();
+        if (recognizer == null) {
+            return new Recognition();
+        }
+        idleCount.decrementAndGet();
+        return recognizer;
+    }
 
-        return resultSink.asFlux();
+    /**
+     * 识别正常结束的客户端放回复用，Recognition有内部状态，同一时间只能用于一次识别
+     */
+    private void release(Recognition recognizer, boolean reusable) {
+        if (reusable && idleCount.incrementAndGet() <= MAX_IDLE_RECOGNIZERS) {
+            idleRecognizers.offer(recognizer);
+        } else if (reusable) {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * 拼接一次识别中的各个句子
+     */
+    private static class Transcript {
+        private final StringBuilder finished = new StringBuilder();
+
+        String update(RecognitionResult result) {
+            String text = result.getSentence().getText();
+            if (text == null) {
+                text = "";
+            }
+            if (result.isSentenceEnd()) {
+                finished.append(text);
+                return finished.toString();
+            }
+            return finished + text;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FunASR WebSocket连接池
+ * 预先建立好连接，识别时直接借出已连接的会话，省去每句话的握手耗时；识别结束（is_final）后归还复用。
+ * 后台定时检查：移除已断开的连接，关闭空闲过久的连接，补足预热连接数；连接失败时按指数退避重试。
+ * 连接的存活由WebSocket的ping/pong检测（setConnectionLostTimeout）。
+ */
+public class FunASRConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FunASRConnectionPool.class);
+
+    // 所有连接池共享的维护线程
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "funasr-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final URI uri;
+    // 保持的预热连接数
+    private final int minIdle;
+    // 最多保留的空闲连接数
+    private final int maxIdle;
+    // 超过预热数量的空闲连接的最长空闲时间
+    private final long idleTimeoutMillis;
+    // 存活检测间隔
+    private final int healthCheckSeconds;
+
+    // 空闲连接，最近归还的在前
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    // 正在建立的预热连接数
+    private final AtomicInteger warming = new AtomicInteger();
+
+    private volatile int failures = 0;
+    private volatile long nextConnectAt = 0;
+    private volatile boolean closed = false;
+
+    private final ScheduledFuture<?> maintenance;
+
+    public FunASRConnectionPool(String url, int minIdle, int maxIdle, long idleTimeoutMillis, int healthCheckSeconds) {
+        this.uri = URI.create(url);
+        this.minIdle = minIdle;
+        this.maxIdle = Math.max(minIdle, maxIdle);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.healthCheckSeconds = healthCheckSeconds;
+        this.maintenance = scheduler.scheduleWithFixedDelay(this::maintain, 0, healthCheckSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 借出一个已连接的会话，没有空闲连接时新建，连接建立后返回
+     */
+    public Mono<Connection> borrow() {
+        return Mono.defer(() -> {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.isOpen()) {
+                    return Mono.just(connection);
+                }
+            }
+            // 借用时建立的连接没有预热，补一个预热连接给后面的请求
+            scheduler.execute(this::maintain);
+            return Mono.create(sink -> open(sink));
+        });
+    }
+
+    /**
+     * 识别正常结束后归还连接
+     */
+    public void release(Connection connection) {
+        connection.handler = null;
+        if (closed || !connection.isOpen() || idle.size() >= maxIdle) {
+            connection.close();
+            return;
+        }
+        connection.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(connection);
+    }
+
+    /**
+     * 识别中途取消或出错，连接上可能还有未收到的结果，直接关闭不再复用
+     */
+    public void invalidate(Connection connection) {
+        connection.handler = null;
+        idle.remove(connection);
+        connection.close();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    private void open(MonoSink<Connection> sink) {
+        Connection connection = new Connection(uri, sink);
+        connection.setConnectionLostTimeout(healthCheckSeconds);
+        connection.connect();
+    }
+
+    /**
+     * 定时维护：移除断开的连接，关闭多余的空闲连接，补足预热连接
+     */
+    private void maintain() {
+        if (closed) {
+            return;
+        }
+        try {
+            idle.removeIf(connection -> !connection.isOpen());
+
+            long now = System.currentTimeMillis();
+            Connection oldest;
+            while (idle.size() > minIdle && (oldest = idle.peekLast()) != null
+                    && now - oldest.lastUsed > idleTimeoutMillis) {
+                if (idle.remove(oldest)) {
+                    oldest.close();
+                }
+            }
+
+            while (idle.size() + warming.get() < minIdle && now >= nextConnectAt) {
+                warming.incrementAndGet();
+                Mono.<Connection>create(this::open)
+                        .doFinally(signal -> warming.decrementAndGet())
+                        .subscribe(this::release, e -> {
+                        });
+            }
+        } catch (Exception e) {
+            logger.warn("FunASR连接池维护失败: {}", e.getMessage());
+        }
+    }
+
+    private void onConnected() {
+        failures = 0;
+        nextConnectAt = 0;
+    }
+
+    private void onConnectFailed(String reason) {
+        int count = ++failures;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(count - 1, 16));
+        nextConnectAt = System.currentTimeMillis() + backoff;
+        logger.warn("FunASR连接失败（第{}次），{}ms后重试预热: {} {}", count, backoff, uri, reason);
+    }
+
+    /**
+     * 借出期间接收连接事件
+     */
+    public interface Handler {
+        void onMessage(String message);
+
+        void onClosed(Exception e);
+    }
+
+    /**
+     * 池中的连接
+     */
+    public class Connection extends WebSocketClient {
+        private volatile MonoSink<Connection> pendingOpen;
+        private volatile Handler handler;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Connection(URI uri, MonoSink<Connection> pendingOpen) {
+            super(uri);
+            this.pendingOpen = pendingOpen;
+        }
+
+        public void setHandler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            onConnected();
+            MonoSink<Connection> sink = pendingOpen;
+            pendingOpen = null;
+            if (sink != null) {
+                sink.success(this);
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+            Handler current = handler;
+            if (current != null) {
+                current.onMessage(message);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            idle.remove(this);
+            MonoSink<Connection> sink = pendingOpen;
+            pendingOpen = null;
+            if (sink != null) {
+                onConnectFailed(reason);
+                sink.error(new IOException("FunASR连接失败: " + reason));
+                return;
+            }
+            Handler current = handler;
+            handler = null;
+            if (current != null) {
+                logger.info("FunASR WS close，reason：{}", reason);
+                current.onClosed(new IOException("FunASR连接已断开: " + code + " " + reason));
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.info("FunASR WS onError", ex);
+        }
+    }
+}
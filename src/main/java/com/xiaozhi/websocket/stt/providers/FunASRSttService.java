@@ -3,17 +3,17 @@ package com.xiaozhi.websocket.stt.providers;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.websocket.stt.SttAudioSender;
 import com.xiaozhi.websocket.stt.SttService;
 import org.apache.commons.lang3.StringUtils;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Sinks;
-import reactor.core.scheduler.Schedulers;
 
-import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * FunASR STT服务实现
@@ -32,10 +32,18 @@ public class FunASRSttService implements SttService {
     private static final String SPEAKING_START = "{\"mode\":\"online\",\"wav_name\":\"voice.wav\",\"is_speaking\":true,\"wav_format\":\"pcm\",\"chunk_size\":[5,10,5],\"itn\":true}";
     private static final String SPEAKING_END = "{\"is_speaking\": false}";
 
-    private final String apiUrl;
-
-    public FunASRSttService(SysConfig config) {
-        this.apiUrl = config.getApiUrl();
+    private final FunASRConnectionPool connectionPool;
+
+    /**
+     * @param config             STT配置
+     * @param minIdle            预热连接数
+     * @param maxIdle            最多保留的空闲连接数
+     * @param idleTimeoutMillis  超过预热数量的空闲连接的最长空闲时间
+     * @param healthCheckSeconds 连接存活检测和连接池维护的间隔
+     */
+    public FunASRSttService(SysConfig config, int minIdle, int maxIdle, long idleTimeoutMillis, int healthCheckSeconds) {
+        this.connectionPool = new FunASRConnectionPool(config.getApiUrl(), minIdle, maxIdle, idleTimeoutMillis,
+                healthCheckSeconds);
     }
 
     @Override
@@ -54,56 +62,77 @@ public class FunASRSttService implements SttService {
         return true;
     }
 
+    @Override
     public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
-        // 创建结果接收器
-        Sinks.Many<String> respSink = Sinks.many().multicast().onBackpressureBuffer();
-
-        WebSocketClient webSocketClient = new WebSocketClient(URI.create(apiUrl)) {
-            @Override
-            public void onOpen(ServerHandshake handshake) {
-                send(SPEAKING_START);
-                audioStream.subscribeOn(Schedulers.boundedElastic())
-                        .subscribe(this::send,
-                                respSink::tryEmitError,
-                                () -> {
-                                    send(SPEAKING_END);
-                                });
-            }
-
-            @Override
-            public void onMessage(String message) {
-                JSONObject jsonObject = JSON.parseObject(message);
-                if (jsonObject.getBoolean("is_final")) {
+        return connectionPool.borrow().flatMapMany(connection -> {
+            // 创建结果接收器
+            Sinks.Many<String> respSink = Sinks.many().unicast().onBackpressureBuffer();
+            AtomicBoolean finished = new AtomicBoolean(false);
+            // 音频发送，收到最终结果时先停止发送再归还连接
+            Disposable.Swap audio = Disposables.swap();
+
+            connection.setHandler(new FunASRConnectionPool.Handler() {
+                @Override
+                public void onMessage(String message) {
+                    JSONObject jsonObject = JSON.parseObject(message);
+                    if (!Boolean.TRUE.equals(jsonObject.getBoolean("is_final"))) {
+                        return;
+                    }
+                    synchronized (finished) {
+                        if (!finished.compareAndSet(false, true)) {
+                            return;
+                        }
+                        // 先停止发送并归还连接再通知结果，下一句话可以直接复用，不会收到本次识别剩余的音频
+                        audio.dispose();
+                        connectionPool.release(connection);
+                    }
                     respSink.tryEmitNext(jsonObject.getString("text"));
                     respSink.tryEmitComplete();
                 }
-            }
 
-            @Override
-            public void onClose(int code, String reason, boolean remote) {
-                logger.info("FunASR WS close，reason：{}", reason);
-            }
+                @Override
+                public void onClosed(Exception e) {
+                    respSink.tryEmitError(e);
+                }
+            });
+
+            // 连接已建立，立即开始发送，音频块直接作为二进制帧写出；上一帧还没发出去时不读取新的音频
+            connection.send(SPEAKING_START);
+            audio.update(SttAudioSender.send(audioStream,
+                    data -> sendUnlessFinished(finished, () -> connection.send(data)),
+                    () -> !connection.hasBufferedData(),
+                    respSink::tryEmitError,
+                    () -> sendUnlessFinished(finished, () -> connection.send(SPEAKING_END))));
+
+            return respSink.asFlux()
+                    .doFinally(signal -> {
+                        audio.dispose();
+                        // 没有收到最终结果（出错或取消）时连接状态不确定，不再复用
+                        synchronized (finished) {
+                            if (finished.compareAndSet(false, true)) {
+                                connectionPool.invalidate(connection);
+                            }
+                        }
+                    });
+        });
+    }
 
-            @Override
-            public void onError(Exception ex) {
-                logger.info("FunASR WS onError", ex);
-                respSink.tryEmitError(ex);
+    /**
+     * 连接归还后可能已被下一次识别借走，写出与归还互斥，归还后不再写出
+     */
+    private static void sendUnlessFinished(AtomicBoolean finished, Runnable send) {
+        synchronized (finished) {
+            if (!finished.get()) {
+                send.run();
             }
-        };
-
-        webSocketClient.connect();
+        }
+    }
 
-        return respSink.asFlux()
-                .doOnCancel(() -> {
-                    if (webSocketClient.isOpen()) {
-                        webSocketClient.close();
-                    }
-                })
-                .doOnTerminate(() -> {
-                    if (webSocketClient.isOpen()) {
-                        webSocketClient.close();
-                    }
-                });
+    /**
+     * 关闭连接池
+     */
+    public void shutdown() {
+        connectionPool.close();
     }
 
 }
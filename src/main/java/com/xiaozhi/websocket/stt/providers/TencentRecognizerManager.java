@@ -0,0 +1,296 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import com.tencent.asrv2.SpeechRecognizer;
+import com.tencent.asrv2.SpeechRecognizerListener;
+import com.tencent.asrv2.SpeechRecognizerRequest;
+import com.tencent.asrv2.SpeechRecognizerResponse;
+import com.tencent.core.ws.Credential;
+import com.tencent.core.ws.SpeechClient;
+import com.xiaozhi.websocket.stt.SttAudioSender;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 腾讯云实时识别的识别器生命周期管理
+ * 凭证和SpeechClient按配置创建一次；每次识别登记为活跃会话，无论正常结束、出错还是被取消，
+ * 都在doFinally中关闭识别器、移出登记。并发数不超过配置的配额，超出时直接拒绝。
+ * 后台定时回收超过最长时长仍未结束的会话（上游既不结束也不取消），计为泄漏。
+ * 活跃会话数和各结束方式的会话数按配置注册为Micrometer指标。
+ */
+public class TencentRecognizerManager {
+    private static final Logger logger = LoggerFactory.getLogger(TencentRecognizerManager.class);
+
+    // 所有配置共享的回收线程
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tencent-stt-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SpeechClient speechClient;
+    private final Credential credential;
+
+    private final int maxConcurrency;
+    private final long maxSessionMillis;
+    private final Semaphore permits;
+
+    // 当前活跃的识别会话
+    private final ConcurrentHashMap<String, Session> activeSessions = new ConcurrentHashMap<>();
+
+    // 按结束方式统计的会话数：正常结束、出错或取消、因并发上限被拒绝、超时回收
+    private final Counter completed;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter leaked;
+    private final Gauge active;
+
+    private final ScheduledFuture<?> reaping;
+
+    /**
+     * @param config           配置ID，作为指标的标签
+     * @param speechClient     SpeechClient
+     * @param credential       凭证
+     * @param maxConcurrency   最大并发识别数，与腾讯云的并发配额一致
+     * @param maxSessionMillis 单次识别的最长时长，超过后强制回收
+     */
+    public TencentRecognizerManager(String config, SpeechClient speechClient, Credential credential,
+            int maxConcurrency, long maxSessionMillis) {
+        this.speechClient = speechClient;
+        this.credential = credential;
+        this.maxConcurrency = maxConcurrency;
+        this.maxSessionMillis = maxSessionMillis;
+        this.permits = new Semaphore(maxConcurrency);
+        this.completed = sessionCounter(config, "completed");
+        this.failed = sessionCounter(config, "failed");
+        this.rejected = sessionCounter(config, "rejected");
+        this.leaked = sessionCounter(config, "leaked");
+        this.active = Gauge.builder("xiaozhi.stt.tencent.sessions.active", activeSessions::size)
+                .tag("config", config)
+                .description("腾讯云实时识别的活跃会话数")
+                .register(Metrics.globalRegistry);
+        long period = Math.max(1000, maxSessionMillis / 4);
+        this.reaping = reaper.scheduleWithFixedDelay(this::reap, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 流式识别
+     */
+    public Flux<String> recognize(Flux<byte[]> audioStream) {
+        return Flux.defer(() -> {
+            if (!permits.tryAcquire()) {
+                rejected.increment();
+                logger.warn("腾讯云语音识别并发已达上限: {}", maxConcurrency);
+                return Flux.error(new IllegalStateException("腾讯云语音识别并发已达上限: " + maxConcurrency));
+            }
+
+            // 生成唯一的语音ID
+            String voiceId = UUID.randomUUID().toString();
+            Sinks.Many<String> resultSink = Sinks.many().unicast().onBackpressureBuffer();
+
+            // 创建识别请求
+            SpeechRecognizerRequest request = SpeechRecognizerRequest.init();
+            request.setEngineModelType("16k_zh"); // 16k采样率中文模型
+            request.setVoiceFormat(1); // PCM格式
+            request.setVoiceId(voiceId);
+
+            Session session;
+            try {
+                session = new Session(voiceId, resultSink,
+                        new SpeechRecognizer(speechClient, credential, request, createListener(voiceId, resultSink)));
+            } catch (Exception e) {
+                permits.release();
+                failed.increment();
+                logger.error("创建语音识别会话时发生错误", e);
+                return Flux.error(e);
+            }
+            activeSessions.put(voiceId, session);
+
+            try {
+                // 启动识别器
+                session.recognizer.start();
+            } catch (Exception e) {
+                logger.error("启动识别器时发生错误 - VoiceId: {}", voiceId, e);
+                close(session, false);
+                return Flux.error(e);
+            }
+
+            // 订阅音频流并逐帧发送数据，SDK不提供发送队列的长度，只按帧请求
+            session.audio = SttAudioSender.send(audioStream,
+                    data -> {
+                        if (!session.closed.get()) {
+                            session.recognizer.write(data);
+                        }
+                    },
+                    () -> true,
+                    error -> {
+                        logger.error("音频流错误 - VoiceId: {}", voiceId, error);
+                        resultSink.tryEmitError(error);
+                    },
+                    session::stop);
+
+            return resultSink.asFlux()
+                    .doFinally(signal -> close(session, session.recognitionComplete));
+        });
+    }
+
+    /**
+     * 关闭所有活跃的识别器
+     */
+    public void shutdown() {
+        reaping.cancel(false);
+        activeSessions.values().forEach(session -> close(session, false));
+        speechClient.shutdown();
+        // 活跃会话数引用本实例，关闭后移除；累计的会话数保留
+        Metrics.globalRegistry.remove(active);
+    }
+
+    private static Counter sessionCounter(String config, String result) {
+        return Counter.builder("xiaozhi.stt.tencent.sessions")
+                .tag("config", config)
+                .tag("result", result)
+                .description("腾讯云实时识别按结束方式统计的会话数")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 结束会话，只执行一次
+     */
+    private void close(Session session, boolean success) {
+        if (!session.closed.compareAndSet(false, true)) {
+            return;
+        }
+        activeSessions.remove(session.voiceId, session);
+        permits.release();
+        (success ? completed : failed).increment();
+        if (session.audio != null) {
+            session.audio.dispose();
+        }
+        // 异常结束时不再发送停止信号等待结果，直接关闭连接
+        try {
+            session.recognizer.close();
+        } catch (Exception e) {
+            logger.error("关闭识别器时发生错误 - VoiceId: {}", session.voiceId, e);
+        }
+    }
+
+    /**
+     * 回收超过最长时长的会话
+     */
+    private void reap() {
+        long deadline = System.currentTimeMillis() - maxSessionMillis;
+        activeSessions.values().stream()
+                .filter(session -> session.startTime < deadline)
+                .forEach(session -> {
+                    logger.warn("识别会话超过{}ms未结束，强制回收 - VoiceId: {}", maxSessionMillis, session.voiceId);
+                    leaked.increment();
+                    close(session, false);
+                    session.resultSink.tryEmitError(new TimeoutException("识别会话超时"));
+                });
+    }
+
+    private SpeechRecognizerListener createListener(String voiceId, Sinks.Many<String> resultSink) {
+        return new SpeechRecognizerListener() {
+            @Override
+            public void onRecognitionStart(SpeechRecognizerResponse response) {
+            }
+
+            @Override
+            public void onSentenceBegin(SpeechRecognizerResponse response) {
+            }
+
+            @Override
+            public void onRecognitionResultChange(SpeechRecognizerResponse response) {
+                // 非稳态结果，可能会变化
+                emitText(response, resultSink);
+            }
+
+            @Override
+            public void onSentenceEnd(SpeechRecognizerResponse response) {
+                // 稳态结果，不再变化
+                emitText(response, resultSink);
+            }
+
+            @Override
+            public void onRecognitionComplete(SpeechRecognizerResponse response) {
+                Session session = activeSessions.get(voiceId);
+                if (session != null) {
+                    session.recognitionComplete = true;
+                }
+                resultSink.tryEmitComplete();
+            }
+
+            @Override
+            public void onFail(SpeechRecognizerResponse response) {
+                String message = response.getMessage() != null ? response.getMessage() : "未知错误";
+                logger.error("识别失败 - VoiceId: {}, 错误: {}", voiceId, message);
+                resultSink.tryEmitError(new RuntimeException("识别失败: " + message));
+            }
+
+            @Override
+            public void onMessage(SpeechRecognizerResponse response) {
+                // 可以记录所有消息，但不需要特别处理
+            }
+        };
+    }
+
+    private static void emitText(SpeechRecognizerResponse response, Sinks.Many<String> resultSink) {
+        if (response.getResult() != null && response.getResult().getVoiceTextStr() != null) {
+            String text = response.getResult().getVoiceTextStr();
+            if (!text.isEmpty()) {
+                resultSink.tryEmitNext(text);
+            }
+        }
+    }
+
+    /**
+     * 一次识别会话
+     */
+    private static class Session {
+        private final String voiceId;
+        private final Sinks.Many<String> resultSink;
+        private final SpeechRecognizer recognizer;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final AtomicBoolean stopSent = new AtomicBoolean(false);
+        private volatile Disposable audio;
+        private volatile boolean recognitionComplete = false;
+
+        Session(String voiceId, Sinks.Many<String> resultSink, SpeechRecognizer recognizer) {
+            this.voiceId = voiceId;
+            this.resultSink = resultSink;
+            this.recognizer = recognizer;
+        }
+
+        /**
+         * 音频发送完毕，发送停止信号
+         */
+        void stop() {
+            if (closed.get() || !stopSent.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                recognizer.stop();
+            } catch (Exception e) {
+                logger.error("停止识别器时发生错误 - VoiceId: {}", voiceId, e);
+                resultSink.tryEmitError(e);
+            }
+        }
+    }
+}
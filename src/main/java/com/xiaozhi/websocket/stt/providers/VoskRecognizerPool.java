@@ -0,0 +1,110 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vosk.Model;
+import org.vosk.Recognizer;
+
+import com.xiaozhi.utils.AudioUtils;
+
+/**
+ * Vosk识别器池
+ * 创建Recognizer需要加载解码图，开销远大于识别本身。识别结束后重置并放回池中复用，
+ * 空闲数量超过上限的直接释放；识别出错的识别器状态不确定，不再放回。
+ */
+public class VoskRecognizerPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoskRecognizerPool.class);
+
+    private final Model model;
+
+    // 最多保留的空闲识别器数量
+    private final int maxIdle;
+
+    private final ConcurrentLinkedDeque<Recognizer> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public VoskRecognizerPool(Model model, int maxIdle) {
+        this.model = model;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * 取出一个识别器，池中没有空闲的则新建
+     */
+    public Recognizer acquire() throws IOException {
+        Recognizer recognizer = idle.pollFirst();
+        if (recognizer != null) {
+            idleCount.decrementAndGet();
+            reused.incrementAndGet();
+            return recognizer;
+        }
+        created.incrementAndGet();
+        return new Recognizer(model, AudioUtils.SAMPLE_RATE);
+    }
+
+    /**
+     * 归还识别器，必须由最后使用它的线程调用
+     *
+     * @param recognizer 识别器
+     * @param healthy    识别过程中是否正常，出错的识别器直接释放
+     */
+    public void release(Recognizer recognizer, boolean healthy) {
+        if (recognizer == null) {
+            return;
+        }
+        if (healthy && !closed) {
+            try {
+                recognizer.reset();
+                if (idleCount.incrementAndGet() <= maxIdle) {
+                    idle.offerFirst(recognizer);
+                    return;
+                }
+                idleCount.decrementAndGet();
+            } catch (Exception e) {
+                logger.warn("重置Vosk识别器失败: {}", e.getMessage());
+            }
+        }
+        closeQuietly(recognizer);
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Recognizer recognizer;
+        while ((recognizer = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(recognizer);
+        }
+    }
+
+    private static void closeQuietly(Recognizer recognizer) {
+        try {
+            recognizer.close();
+        } catch (Exception e) {
+            logger.error("关闭识别器时发生错误", e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.xiaozhi.websocket.stt.providers;
 
-import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.PostConstruct;
 
@@ -12,11 +13,11 @@ import org.vosk.Model;
 import org.vosk.Recognizer;
 
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.websocket.stt.SttAudioCapture;
 import com.xiaozhi.websocket.stt.SttService;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import org.json.JSONObject;
 
@@ -28,10 +29,32 @@ public class VoskSttService implements SttService {
     private static final Logger logger = LoggerFactory.getLogger(VoskSttService.class);
     private static final String PROVIDER_NAME = "vosk";
 
+    // 批量识别每次送入识别器的字节数，约2秒音频
+    private static final int BATCH_CHUNK_SIZE = AudioUtils.SAMPLE_RATE * 2 * 2;
+
+    // 流式识别切换到推理通道时预取的帧数，推理跟不上时其余音频留在识别输入缓冲区里
+    private static final int LANE_PREFETCH = 4;
+
     // Vosk模型相关对象
     private Model model;
     private String voskModelPath;
 
+    // 推理线程数，小于等于0时使用物理核心数
+    private final int workerCount;
+    // 识别器池最多保留的空闲识别器数量
+    private final int maxIdleRecognizers;
+    // 每隔多少个音频块提取一次部分识别结果，0表示不提取
+    private final int partialInterval;
+
+    private VoskWorkers workers;
+    private VoskRecognizerPool recognizerPool;
+
+    public VoskSttService(int workerCount, int maxIdleRecognizers, int partialInterval) {
+        this.workerCount = workerCount;
+        this.maxIdleRecognizers = maxIdleRecognizers;
+        this.partialInterval = partialInterval;
+    }
+
     /**
      * 初始化Vosk模型
      */
@@ -57,12 +80,27 @@ public class VoskSttService implements SttService {
             voskModelPath = System.getProperty("user.dir") + "/models/vosk-model";
             logger.debug(voskModelPath);
             model = new Model(voskModelPath);
+            workers = new VoskWorkers(workerCount);
+            recognizerPool = new VoskRecognizerPool(model, maxIdleRecognizers > 0 ? maxIdleRecognizers : workers.size() * 4);
             logger.info("Vosk 模型加载成功！路径: {}", voskModelPath);
         } catch (Exception e) {
             logger.warn("Vosk 模型加载失败！将使用其他STT服务: {}", e.getMessage());
         }
     }
 
+    /**
+     * 模型是否已加载，未加载时不能识别
+     */
+    public boolean isReady() {
+        return workers != null && recognizerPool != null;
+    }
+
+    private void checkReady() {
+        if (!isReady()) {
+            throw new IllegalStateException("Vosk模型未加载，路径: " + voskModelPath);
+        }
+    }
+
     @Override
     public String getProviderName() {
         return PROVIDER_NAME;
@@ -75,87 +113,167 @@ public class VoskSttService implements SttService {
             return null;
         }
 
-        // 将原始音频数据转换为MP3格式并保存
-        String fileName = AudioUtils.saveAsWav(audioData);
-
-        try (Recognizer recognizer = new Recognizer(model, AudioUtils.SAMPLE_RATE)) {
-            ByteArrayInputStream audioStream = new ByteArrayInputStream(audioData);
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-
-            while ((bytesRead = audioStream.read(buffer)) != -1) {
-                if (recognizer.acceptWaveForm(buffer, bytesRead)) {
-                    // 如果识别到完整的结果
-                    return recognizer.getResult().replaceAll("\\s+", "");
-                }
-            }
-
-            // 返回最终的识别结果
-            return recognizer.getFinalResult().replaceAll("\\s+", "");
+        SttAudioCapture.capture(PROVIDER_NAME, audioData);
 
+        try {
+            return recognizeBuffer(audioData).block();
         } catch (Exception e) {
             logger.error("处理音频时发生错误！", e);
             return null;
         }
     }
 
+    /**
+     * 批量识别多段音频，分散到各推理通道并行执行
+     *
+     * @param audioBuffers 多段PCM音频
+     * @return 识别结果，与audioBuffers一一对应，识别失败的为空字符串
+     */
+    @Override
+    public List<String> batchRecognition(List<byte[]> audioBuffers) {
+        checkReady();
+        return Flux.fromIterable(audioBuffers)
+                .doOnNext(audioData -> SttAudioCapture.capture(PROVIDER_NAME, audioData))
+                .flatMapSequential(audioData -> recognizeBuffer(audioData)
+                        .onErrorResume(e -> {
+                            logger.error("批量识别音频时发生错误", e);
+                            return Mono.just("");
+                        }), workers.size())
+                .collectList()
+                .block();
+    }
+
+    /**
+     * 在一个推理通道上识别整段音频，按大块直接从内存送入识别器，拼接所有分段的结果
+     */
+    private Mono<String> recognizeBuffer(byte[] audioData) {
+        return Mono.defer(() -> {
+            checkReady();
+            VoskWorkers.Lane lane = workers.acquire();
+            return Mono.fromCallable(() -> {
+                Recognizer recognizer = recognizerPool.acquire();
+                boolean healthy = false;
+                try {
+                    StringBuilder text = new StringBuilder();
+                    byte[] buffer = new byte[BATCH_CHUNK_SIZE];
+                    for (int offset = 0; offset < audioData.length; offset += BATCH_CHUNK_SIZE) {
+                        int length = Math.min(BATCH_CHUNK_SIZE, audioData.length - offset);
+                        System.arraycopy(audioData, offset, buffer, 0, length);
+                        if (recognizer.acceptWaveForm(buffer, length)) {
+                            // 识别到完整的分段，继续识别剩余音频
+                            text.append(text(recognizer.getResult(), "text"));
+                        }
+                    }
+                    text.append(text(recognizer.getFinalResult(), "text"));
+                    healthy = true;
+                    return text.toString();
+                } finally {
+                    recognizerPool.release(recognizer, healthy);
+                }
+            }).subscribeOn(lane.getScheduler()).doFinally(signal -> lane.release());
+        });
+    }
+
     @Override
     public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
-        return Mono.fromCallable(() -> new Recognizer(model, AudioUtils.SAMPLE_RATE))
-                .flatMapMany(recognizer -> {
-                    return audioStream
-                            .publishOn(Schedulers.boundedElastic())
-                            .map(audioChunk -> {
-                                try {
-                                    boolean hasResult = recognizer.acceptWaveForm(audioChunk, audioChunk.length);
-                                    if (hasResult) {
-                                        // 提取部分识别结果中的文本
-                                        String result = recognizer.getResult();
-                                        JSONObject jsonResult = new JSONObject(result);
-                                        if (jsonResult.has("text") && !jsonResult.getString("text").isEmpty()) {
-                                            return jsonResult.getString("text").replaceAll("\\s+", "");
-                                        }
-                                    } else {
-                                        // 获取部分识别结果
-                                        String partialResult = recognizer.getPartialResult();
-                                        JSONObject jsonPartial = new JSONObject(partialResult);
-                                        if (jsonPartial.has("partial") && !jsonPartial.getString("partial").isEmpty()) {
-                                            return jsonPartial.getString("partial").replaceAll("\\s+", "");
-                                        }
-                                    }
-                                    return "";
-                                } catch (Exception e) {
-                                    logger.error("流式识别处理音频块时发生错误", e);
-                                    return "";
-                                }
-                            })
-                            .filter(text -> !text.isEmpty())
-                            .concatWith(Mono.fromSupplier(() -> {
-                                try {
-                                    // 流结束时获取最终结果
-                                    String finalResult = recognizer.getFinalResult().replaceAll("\\s+", "");
-                                    JSONObject jsonFinal = new JSONObject(finalResult);
-
-                                    recognizer.close();
-                                    return jsonFinal.getString("text").replaceAll("\\s+", "");
-                                } catch (Exception e) {
-                                    logger.error("获取最终识别结果时发生错误", e);
-                                    return "";
-                                }
-                            }))
-                            .doOnError(e -> {
-                                logger.error("流式识别过程中发生错误", e);
-                                try {
-                                    recognizer.close();
-                                } catch (Exception ex) {
-                                    logger.error("关闭识别器时发生错误", ex);
-                                }
-                            });
-                })
-                .onErrorResume(e -> {
-                    logger.error("创建Vosk识别器时发生错误", e);
-                    return Flux.empty();
-                });
+        return Flux.defer(() -> {
+            checkReady();
+            // 整个识别过程固定在一个推理通道上
+            VoskWorkers.Lane lane = workers.acquire();
+            Utterance utterance = new Utterance();
+            return audioStream
+                    .publishOn(lane.getScheduler(), LANE_PREFETCH)
+                    .<String>handle((audioChunk, sink) -> {
+                        String text = utterance.accept(audioChunk);
+                        if (!text.isEmpty()) {
+                            sink.next(text);
+                        }
+                    })
+                    // 流结束时获取最终结果
+                    .concatWith(Mono.fromSupplier(utterance::finish))
+                    .doOnError(e -> {
+                        logger.error("流式识别过程中发生错误", e);
+                        utterance.healthy = false;
+                    })
+                    // 取消时可能还有音频块在通道上处理，归还识别器也放到通道上排队执行
+                    .doFinally(signal -> runOnLane(lane, () -> {
+                        recognizerPool.release(utterance.recognizer, utterance.healthy);
+                        lane.release();
+                    }));
+        }).onErrorResume(e -> {
+            logger.error("Vosk流式识别失败", e);
+            return Flux.empty();
+        });
+    }
+
+    private static void runOnLane(VoskWorkers.Lane lane, Runnable task) {
+        try {
+            lane.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已关闭，直接在当前线程执行
+            task.run();
+        }
+    }
+
+    /**
+     * 一次流式识别的状态，只在所属的推理通道上访问
+     */
+    private class Utterance {
+        private Recognizer recognizer;
+        private volatile boolean healthy = true;
+        private int chunks = 0;
+
+        String accept(byte[] audioChunk) {
+            try {
+                if (recognizer == null) {
+                    recognizer = recognizerPool.acquire();
+                }
+                chunks++;
+                if (recognizer.acceptWaveForm(audioChunk, audioChunk.length)) {
+                    // 提取分段识别结果中的文本
+                    return text(recognizer.getResult(), "text");
+                }
+                // 部分识别结果按间隔提取，未开启时不提取
+                if (partialInterval > 0 && chunks % partialInterval == 0) {
+                    return text(recognizer.getPartialResult(), "partial");
+                }
+                return "";
+            } catch (Exception e) {
+                logger.error("流式识别处理音频块时发生错误", e);
+                healthy = false;
+                return "";
+            }
+        }
+
+        String finish() {
+            if (recognizer == null) {
+                return "";
+            }
+            try {
+                return text(recognizer.getFinalResult(), "text");
+            } catch (Exception e) {
+                logger.error("获取最终识别结果时发生错误", e);
+                healthy = false;
+                return "";
+            }
+        }
+    }
+
+    private static String text(String json, String field) {
+        JSONObject result = new JSONObject(json);
+        return result.optString(field, "").replaceAll("\\s+", "");
+    }
+
+    /**
+     * 释放推理线程和识别器
+     */
+    public void shutdown() {
+        // 模型加载失败时没有创建
+        if (workers != null) {
+            workers.close();
+        }
+        if (recognizerPool != null) {
+            recognizerPool.close();
+        }
     }
 }
@@ -0,0 +1,135 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Vosk推理线程
+ * 解码是纯CPU计算，线程数超过物理核心只会互相抢占，因此使用固定数量的单线程通道。
+ * 一次识别的所有音频块都在同一个通道上执行，识别器不会被多个线程交替使用，也能保持缓存局部性。
+ */
+public class VoskWorkers implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoskWorkers.class);
+
+    private final Lane[] lanes;
+
+    /**
+     * @param size 通道数量，小于等于0时使用物理核心数
+     */
+    public VoskWorkers(int size) {
+        int count = size > 0 ? size : physicalCores();
+        lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(i);
+        }
+        logger.info("Vosk推理线程数: {}", count);
+    }
+
+    /**
+     * 为一次识别分配通道，选择当前识别数最少的通道，用完后需调用{@link Lane#release()}
+     */
+    public Lane acquire() {
+        Lane selected = lanes[0];
+        for (Lane lane : lanes) {
+            if (lane.active.get() < selected.active.get()) {
+                selected = lane;
+            }
+        }
+        selected.active.incrementAndGet();
+        return selected;
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.scheduler.dispose();
+            lane.executor.shutdown();
+        }
+    }
+
+    /**
+     * 单线程推理通道
+     */
+    public static class Lane {
+        private final ExecutorService executor;
+        private final Scheduler scheduler;
+        private final AtomicInteger active = new AtomicInteger();
+
+        private Lane(int index) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "vosk-worker-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler = Schedulers.fromExecutorService(executor, "vosk-worker-" + index);
+        }
+
+        public Scheduler getScheduler() {
+            return scheduler;
+        }
+
+        /**
+         * 在通道线程上执行，排在已提交的音频块之后
+         */
+        public void execute(Runnable task) {
+            executor.execute(task);
+        }
+
+        public void release() {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * 物理核心数，Linux下按/proc/cpuinfo中不同的(physical id, core id)统计，取不到时使用逻辑核心数
+     */
+    static int physicalCores() {
+        int logical = Runtime.getRuntime().availableProcessors();
+        Path cpuinfo = Paths.get("/proc/cpuinfo");
+        if (!Files.isReadable(cpuinfo)) {
+            return logical;
+        }
+        try {
+            List<String> lines = Files.readAllLines(cpuinfo, StandardCharsets.UTF_8);
+            Set<String> cores = new HashSet<>();
+            String physicalId = "0";
+            for (String line : lines) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String key = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if ("physical id".equals(key)) {
+                    physicalId = value;
+                } else if ("core id".equals(key)) {
+                    cores.add(physicalId + ":" + value);
+                }
+            }
+            // 容器中可用的CPU可能少于物理核心
+            return cores.isEmpty() ? logical : Math.max(1, Math.min(cores.size(), logical));
+        } catch (IOException e) {
+            return logical;
+        }
+    }
+}
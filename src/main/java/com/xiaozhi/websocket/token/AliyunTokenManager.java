@@ -3,41 +3,94 @@ package com.xiaozhi.websocket.token;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.utils.AliyunAccessToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * 阿里云Token管理器
  * 负责管理阿里云NLS服务的Token
+ * <p>
+ * 每个配置同一时间只有一个刷新任务，并发的调用方共享同一个结果；Token在有效期过去一定比例后在后台提前续期，
+ * 续期期间调用方继续使用旧Token，不会等待。只有没有可用Token（首次使用或已过期）时才等待刷新完成。
+ * <p>
+ * 获取Token的请求在有界的线程池中执行，各配置的刷新互不等待，一个配置的接口变慢不会推迟其他配置的续期；
+ * 定时线程只负责到点提交续期。刷新耗时、续期期间返回旧Token和因无可用Token而等待的次数，
+ * 以及各配置Token的剩余有效时间注册为Micrometer指标。
  */
 @Component
 public class AliyunTokenManager implements TokenManager {
     private static final Logger logger = LoggerFactory.getLogger(AliyunTokenManager.class);
-    
-    // Token缓存，以configId为键
-    private final Map<Integer, String> tokenCache = new ConcurrentHashMap<>();
-    // Token过期时间缓存，以configId为键
-    private final Map<Integer, Long> expirationCache = new ConcurrentHashMap<>();
-    // 用于确保并发安全的锁，以configId为键
-    private final Map<Integer, ReentrantLock> tokenLocks = new ConcurrentHashMap<>();
-    // 配置缓存，以configId为键
-    private final Map<Integer, SysConfig> configCache = new ConcurrentHashMap<>();
-    
-    // 提前刷新时间（毫秒），设置为1小时
-    private static final long REFRESH_BEFORE_EXPIRY = 3600000;
-    
+
+    // 后台续期和失败重试的间隔范围（毫秒）
+    private static final long MIN_RETRY_DELAY = 5000;
+    private static final long MAX_RETRY_DELAY = 300000;
+
+    // Token状态，以configId为键
+    private final Map<Integer, TokenEntry> entries = new ConcurrentHashMap<>();
+
+    // 到点提交续期的定时线程，不执行请求
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "aliyun-token-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 执行获取Token请求的线程池，每个配置同一时间最多占用一个线程
+    private final ThreadPoolExecutor fetchers = createFetchers(4);
+
+    // 同时获取Token的最大线程数
+    @Value("${app.aliyun.token.refresh-threads:4}")
+    private int refreshThreads = 4;
+
+    // 续期时间点占有效期的比例
+    @Value("${app.aliyun.token.refresh-fraction:0.8}")
+    private double refreshFraction = 0.8;
+
+    // 没有可用Token时最多等待刷新的时间（毫秒）
+    @Value("${app.aliyun.token.wait-ms:3000}")
+    private long waitMillis = 3000;
+
+    private final Timer refreshSuccess = refreshTimer("success");
+    private final Timer refreshFailure = refreshTimer("failure");
+    private final Counter staleServes = Counter.builder("xiaozhi.aliyun.token.stale.serves")
+            .description("续期期间返回旧Token的次数")
+            .register(Metrics.globalRegistry);
+    private final Counter expiredWaits = Counter.builder("xiaozhi.aliyun.token.expired.waits")
+            .description("没有可用Token而等待刷新的次数")
+            .register(Metrics.globalRegistry);
+    // 各配置Token剩余有效时间的指标，关闭时移除
+    private final List<Gauge> expiryGauges = new CopyOnWriteArrayList<>();
+
     @Autowired
     private SysConfigService configService;
-    
+
+    // 获取Token的方法，测试时可替换
+    private Function<SysConfig, Map<String, String>> tokenFetcher =
+            config -> AliyunAccessToken.createToken(config.getAppId(), config.getApiSecret());
+
     /**
      * 系统启动时初始化所有Token
      */
@@ -46,9 +99,29 @@ public class AliyunTokenManager implements TokenManager {
         logger.info("初始化阿里云Token管理器");
         initializeAllTokens();
     }
-    
+
+    @PostConstruct
+    public void configure() {
+        int threads = Math.max(1, refreshThreads);
+        // 先调整会被对方限制的一侧
+        if (threads > fetchers.getMaximumPoolSize()) {
+            fetchers.setMaximumPoolSize(threads);
+            fetchers.setCorePoolSize(threads);
+        } else {
+            fetchers.setCorePoolSize(threads);
+            fetchers.setMaximumPoolSize(threads);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        fetchers.shutdownNow();
+        expiryGauges.forEach(Metrics.globalRegistry::remove);
+    }
+
     /**
-     * 初始化所有需要的Token
+     * 初始化所有需要的Token，异步刷新，不等待结果
      */
     @Override
     public void initializeAllTokens() {
@@ -62,152 +135,197 @@ public class AliyunTokenManager implements TokenManager {
 
             logger.info("开始初始化 {} 个阿里云配置的Token", aliyunConfigs.size());
             for (SysConfig config : aliyunConfigs) {
-                try {
-                    // 检查配置是否与设备关联
-                    if ((config.getDeviceId() == null || config.getDeviceId().isEmpty()) && (config.getRoleId() == null)) {
-                        logger.info("配置ID: {} 没有关联设备，跳过Token初始化", config.getConfigId());
-                        continue;
-                    }
-                    
-                    Integer configId = config.getConfigId();
-                    // 缓存配置信息
-                    configCache.put(configId, config);
-                    // 为每个配置创建一个锁
-                    tokenLocks.putIfAbsent(configId, new ReentrantLock());
-                    // 刷新Token
-                    refreshToken(config);
-                } catch (Exception e) {
-                    logger.error("初始化配置ID: {} 的Token失败: {}", config.getConfigId(), e.getMessage(), e);
+                // 检查配置是否与设备关联
+                if ((config.getDeviceId() == null || config.getDeviceId().isEmpty()) && (config.getRoleId() == null)) {
+                    logger.info("配置ID: {} 没有关联设备，跳过Token初始化", config.getConfigId());
+                    continue;
                 }
+                refreshAsync(config);
             }
-            logger.info("阿里云Token初始化完成");
         } catch (Exception e) {
             logger.error("初始化阿里云Token时发生错误: {}", e.getMessage(), e);
         }
     }
-    
-    /**
-     * 定时任务，每小时检查并刷新即将过期的Token
-     */
-    @Scheduled(fixedRate = 3600000) // 每小时执行一次
-    public void scheduleTokenRefresh() {
-        logger.info("开始定时检查Token过期情况");
-        try {
-            for (Integer configId : tokenCache.keySet()) {
-                if (isTokenExpiringSoon(configId)) {
-                    logger.info("配置ID: {} 的Token即将过期，开始刷新", configId);
-                    
-                    // 从缓存获取配置信息
-                    SysConfig config = configCache.get(configId);
-                    if (config == null) {
-                        // 如果缓存中没有，则从数据库重新获取
-                        config = configService.selectConfigById(configId);
-                        if (config == null) {
-                            logger.error("找不到配置ID: {}, 无法刷新Token", configId);
-                            continue;
-                        }
-                        // 更新缓存
-                        configCache.put(configId, config);
-                    }
-                    
-                    // 刷新Token
-                    refreshToken(config);
-                }
-            }
-        } catch (Exception e) {
-            logger.error("定时刷新Token时发生错误: {}", e.getMessage(), e);
-        }
-    }
-    
+
     /**
      * 获取指定配置的有效Token
+     * 到了续期时间点时触发后台刷新并立即返回当前Token；只有没有可用Token时才等待刷新
      * @param config 配置对象
      * @return Token字符串，如果无效则返回null
      */
     @Override
     public String getValidToken(SysConfig config) {
-        Integer configId = config.getConfigId();
-        // 缓存配置信息
-        configCache.put(configId, config);
-        
-        // 如果Token不存在或即将过期，则刷新
-        if (!tokenCache.containsKey(configId) || isTokenExpiringSoon(configId)) {
-            return refreshToken(config);
+        TokenEntry entry = entry(config);
+        String token = entry.token;
+        long now = System.currentTimeMillis();
+        if (token != null && now < entry.expireAt) {
+            if (now >= entry.refreshAt) {
+                staleServes.increment();
+                refreshAsync(config);
+            }
+            return token;
         }
-        return tokenCache.get(configId);
+        expiredWaits.increment();
+        return await(refreshAsync(config), config.getConfigId());
     }
-    
+
     /**
-     * 刷新指定配置的Token
+     * 刷新指定配置的Token，已有刷新任务时共享其结果
      * @param config 配置对象
      * @return 刷新后的Token字符串
      */
     @Override
     public String refreshToken(SysConfig config) {
-        Integer configId = config.getConfigId();
-        // 获取该配置的锁
-        ReentrantLock lock = tokenLocks.computeIfAbsent(configId, k -> new ReentrantLock());
-        
-        // 尝试获取锁，避免并发刷新同一个Token
-        if (lock.tryLock()) {
-            try {
-                // 再次检查Token是否已经被其他线程刷新
-                if (tokenCache.containsKey(configId) && !isTokenExpiringSoon(configId)) {
-                    return tokenCache.get(configId);
-                }
-                
-                // 获取新Token
-                Map<String, String> tokenInfo = AliyunAccessToken.createToken(config.getAppId(), config.getApiSecret());
-                if (tokenInfo == null || !tokenInfo.containsKey("token")) {
-                    logger.error("获取配置ID: {} 的Token失败", configId);
-                    return null;
-                }
-                
-                String token = tokenInfo.get("token");
-                long expireTime = Long.parseLong(tokenInfo.get("expireTime"));
-                
-                // 更新缓存
-                tokenCache.put(configId, token);
-                expirationCache.put(configId, expireTime);
-                
-                return token;
-            } catch (Exception e) {
-                logger.error("刷新配置ID: {} 的Token时发生错误: {}", configId, e.getMessage(), e);
-                return null;
-            } finally {
-                lock.unlock();
-            }
-        } else {
-            // 如果无法获取锁，等待其他线程刷新完成
-            logger.info("配置ID: {} 的Token正在被其他线程刷新，等待完成", configId);
-            try {
-                // 等待一小段时间
-                Thread.sleep(100);
-                // 重新获取Token
-                return getValidToken(config);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.error("等待Token刷新时被中断", e);
-                return null;
+        return await(refreshAsync(config), config.getConfigId());
+    }
+
+    /**
+     * 异步刷新Token，同一配置同一时间只有一个刷新任务
+     * @param config 配置对象
+     * @return 刷新结果，失败时为null
+     */
+    public CompletableFuture<String> refreshAsync(SysConfig config) {
+        TokenEntry entry = entry(config);
+        synchronized (entry) {
+            if (entry.refreshing != null && !entry.refreshing.isDone()) {
+                return entry.refreshing;
             }
+            CompletableFuture<String> future = new CompletableFuture<>();
+            entry.refreshing = future;
+            fetchers.execute(() -> doRefresh(entry, future));
+            return future;
         }
     }
-    
+
     /**
      * 检查Token是否即将过期
      * @param configId 配置ID
-     * @return 如果Token即将过期返回true，否则返回false
+     * @return 如果Token已到续期时间点返回true，否则返回false
      */
     @Override
     public boolean isTokenExpiringSoon(Integer configId) {
-        if (!expirationCache.containsKey(configId)) {
-            return true;
+        TokenEntry entry = entries.get(configId);
+        return entry == null || entry.token == null || System.currentTimeMillis() >= entry.refreshAt;
+    }
+
+    private TokenEntry entry(SysConfig config) {
+        TokenEntry entry = entries.computeIfAbsent(config.getConfigId(), this::createEntry);
+        // 使用最新的配置续期
+        entry.config = config;
+        return entry;
+    }
+
+    private String await(CompletableFuture<String> future, Integer configId) {
+        try {
+            return future.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("等待Token刷新时被中断", e);
+        } catch (Exception e) {
+            logger.error("等待配置ID: {} 的Token刷新失败: {}", configId, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 在获取线程池中获取新Token并安排下次续期
+     */
+    private void doRefresh(TokenEntry entry, CompletableFuture<String> future) {
+        SysConfig config = entry.config;
+        Integer configId = config.getConfigId();
+        long start = System.nanoTime();
+        String token = null;
+        try {
+            Map<String, String> tokenInfo = tokenFetcher.apply(config);
+            if (tokenInfo != null && tokenInfo.containsKey("token")) {
+                long now = System.currentTimeMillis();
+                long expireAt = Long.parseLong(tokenInfo.get("expireTime")) * 1000;
+                token = tokenInfo.get("token");
+                entry.token = token;
+                entry.expireAt = expireAt;
+                entry.refreshAt = now + (long) ((expireAt - now) * refreshFraction);
+                entry.failures = 0;
+            } else {
+                logger.error("获取配置ID: {} 的Token失败", configId);
+            }
+        } catch (Exception e) {
+            logger.error("刷新配置ID: {} 的Token时发生错误: {}", configId, e.getMessage(), e);
+        }
+
+        long latencyNanos = System.nanoTime() - start;
+        (token != null ? refreshSuccess : refreshFailure).record(latencyNanos, TimeUnit.NANOSECONDS);
+        long latency = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+
+        long delay;
+        if (token != null) {
+            // 有效期过短时也保留最小间隔，避免连续刷新
+            delay = Math.max(MIN_RETRY_DELAY, entry.refreshAt - System.currentTimeMillis());
+            logger.info("配置ID: {} 的Token已刷新，耗时: {}ms，{}秒后续期", configId, latency, delay / 1000);
+        } else {
+            // 失败后退避重试，仍有旧Token时不晚于过期前
+            int failures = ++entry.failures;
+            delay = Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY << Math.min(failures - 1, 10));
+            if (entry.token != null) {
+                delay = Math.min(delay, Math.max(MIN_RETRY_DELAY, (entry.expireAt - System.currentTimeMillis()) / 2));
+            }
+        }
+        scheduleRenewal(entry, delay);
+        future.complete(token);
+    }
+
+    private void scheduleRenewal(TokenEntry entry, long delay) {
+        synchronized (entry) {
+            if (entry.renewal != null) {
+                entry.renewal.cancel(false);
+            }
+            entry.renewal = scheduler.schedule(() -> refreshAsync(entry.config), delay, TimeUnit.MILLISECONDS);
         }
-        
-        long expireTime = expirationCache.get(configId);
-        long currentTime = System.currentTimeMillis() / 1000; // 转换为秒
-        
-        // 如果Token将在REFRESH_BEFORE_EXPIRY时间内过期，则视为即将过期
-        return (expireTime - currentTime) * 1000 < REFRESH_BEFORE_EXPIRY;
-    }
-}
\ No newline at end of file
+    }
+
+    private TokenEntry createEntry(Integer configId) {
+        TokenEntry entry = new TokenEntry();
+        expiryGauges.add(Gauge.builder("xiaozhi.aliyun.token.expires.in", () -> {
+            long remaining = entry.token == null ? 0 : entry.expireAt - System.currentTimeMillis();
+            return Math.max(0, remaining) / 1000.0;
+        }).tag("config", String.valueOf(configId))
+                .baseUnit("seconds")
+                .description("Token的剩余有效时间")
+                .register(Metrics.globalRegistry));
+        return entry;
+    }
+
+    private static Timer refreshTimer(String result) {
+        return Timer.builder("xiaozhi.aliyun.token.refresh")
+                .tag("result", result)
+                .description("获取Token的耗时")
+                .publishPercentiles(0.5, 0.95)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    private static ThreadPoolExecutor createFetchers(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "aliyun-token-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * 单个配置的Token状态
+     */
+    private static class TokenEntry {
+        private volatile SysConfig config;
+        private volatile String token;
+        // 过期时间和续期时间点（毫秒时间戳）
+        private volatile long expireAt;
+        private volatile long refreshAt;
+        private volatile CompletableFuture<String> refreshing;
+        private ScheduledFuture<?> renewal;
+        private int failures;
+    }
+}
@@ -52,27 +52,30 @@ public class EdgeTtsService implements TtsService {
 
         TTS ttsEngine = new TTS(voiceObj, text);
         // 执行TTS转换获取音频文件
+        // Edge只提供mp3和webm/opus两种格式，这里使用opus，避免MP3的有损解码和ffmpeg重采样
         String audioFilePath = ttsEngine.findHeadHook()
                 .storage(outputPath)
                 .fileName(getAudioFileName().split("\\.")[0])
                 .isRateLimited(true)
                 .overwrite(false)
-                .formatMp3()
+                .formatOpus()
                 .trans();
 
         String fullPath = outputPath + audioFilePath;
 
-        // 1. 将MP3转换为PCM (已经设置为16kHz采样率和单声道)
-        byte[] pcmData = AudioUtils.mp3ToPcm(fullPath);
+        try {
+            // 1. Opus解码器直接输出16kHz单声道PCM
+            byte[] pcmData = AudioUtils.webmOpusToPcm(fullPath);
 
-        // 2. 将PCM转换回WAV (使用AudioUtils中的设置：16kHz, 单声道, 160kbps)
-        String resampledFileName = AudioUtils.saveAsWav(pcmData);
+            // 2. 保存为WAV，供播放和管理端回放使用
+            String wavFileName = AudioUtils.saveAsWav(pcmData);
 
-        // 3. 删除原始文件
-        Files.deleteIfExists(Paths.get(fullPath));
-
-        // 4. 返回重采样后的文件路径
-        return AudioUtils.AUDIO_PATH + resampledFileName;
+            // 3. 返回WAV文件路径
+            return AudioUtils.AUDIO_PATH + wavFileName;
+        } finally {
+            // 删除原始文件
+            Files.deleteIfExists(Paths.get(fullPath));
+        }
     }
 
     @Override
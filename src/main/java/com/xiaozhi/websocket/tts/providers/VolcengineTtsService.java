@@ -7,6 +7,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.websocket.http.HttpClientRegistry;
 import com.xiaozhi.websocket.tts.TtsService;
 
 import java.io.File;
@@ -40,10 +41,8 @@ public class VolcengineTtsService implements TtsService {
     private String appId;
     private String accessToken; // 对应 apiKey
 
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
+    private final OkHttpClient client = HttpClientRegistry.getClient(API_URL).newBuilder()
             .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
             .build();
 
     public VolcengineTtsService(SysConfig config, String voiceName, String outputPath) {
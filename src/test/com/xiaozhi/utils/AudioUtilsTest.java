@@ -0,0 +1,91 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.OpusApplication;
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 使用本地构造的WebM/Opus数据（模拟Edge返回的opus格式）验证解码
+ */
+public class AudioUtilsTest {
+
+    // Edge的opus输出为24kHz、20ms一帧
+    private static final int EDGE_SAMPLE_RATE = 24000;
+    private static final int EDGE_FRAME_SAMPLES = EDGE_SAMPLE_RATE / 50;
+
+    @Test
+    public void webmOpusDecodesTo16kPcm() throws Exception {
+        int frames = 25;
+        byte[] webm = cannedEdgeWebm(frames);
+
+        byte[] pcm = AudioUtils.webmOpusBytesToPcm(webm);
+
+        // 每帧20ms，16kHz下为320个采样点，每个采样2字节
+        assertEquals(frames * 320 * 2, pcm.length);
+    }
+
+    @Test
+    public void webmWithoutBlocksIsRejected() {
+        byte[] header = ebml(0x1A45DFA3, new byte[] { 0x42, (byte) 0x82, (byte) 0x84, 'w', 'e', 'b', 'm' });
+        assertThrows(java.io.IOException.class, () -> AudioUtils.webmOpusBytesToPcm(header));
+    }
+
+    /**
+     * 构造一个最小的WebM：EBML头 + 未知大小的Segment + Cluster(SimpleBlock...)
+     */
+    private static byte[] cannedEdgeWebm(int frames) throws Exception {
+        OpusEncoder encoder = new OpusEncoder(EDGE_SAMPLE_RATE, 1, OpusApplication.OPUS_APPLICATION_AUDIO);
+        short[] pcm = new short[EDGE_FRAME_SAMPLES];
+        byte[] packet = new byte[1275];
+
+        ByteArrayOutputStream cluster = new ByteArrayOutputStream();
+        cluster.write(ebml(0xE7, new byte[] { 0 })); // Timecode
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < pcm.length; i++) {
+                pcm[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * (f * pcm.length + i) / EDGE_SAMPLE_RATE));
+            }
+            int len = encoder.encode(pcm, 0, EDGE_FRAME_SAMPLES, packet, 0, packet.length);
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(0x81); // 音轨1
+            block.write(0);
+            block.write(f); // 时间码
+            block.write(0x80); // 关键帧，无lacing
+            block.write(packet, 0, len);
+            cluster.write(ebml(0xA3, block.toByteArray()));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ebml(0x1A45DFA3, new byte[] { 0x42, (byte) 0x82, (byte) 0x84, 'w', 'e', 'b', 'm' }));
+        // Segment使用未知大小，与流式返回的数据一致
+        out.write(new byte[] { 0x18, 0x53, (byte) 0x80, 0x67, 0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF });
+        out.write(ebml(0x1F43B675, cluster.toByteArray()));
+        return out.toByteArray();
+    }
+
+    private static byte[] ebml(int id, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ((id & 0xFF000000) != 0) {
+            out.write(id >>> 24);
+        }
+        if ((id & 0xFFFF0000) != 0) {
+            out.write((id >>> 16) & 0xFF);
+        }
+        if ((id & 0xFFFFFF00) != 0) {
+            out.write((id >>> 8) & 0xFF);
+        }
+        out.write(id & 0xFF);
+        // 4字节大小
+        out.write(0x10 | ((payload.length >>> 24) & 0x0F));
+        out.write((payload.length >>> 16) & 0xFF);
+        out.write((payload.length >>> 8) & 0xFF);
+        out.write(payload.length & 0xFF);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,177 @@
+package com.xiaozhi.websocket.llm;
+
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import com.xiaozhi.websocket.llm.api.LlmService;
+import com.xiaozhi.websocket.llm.api.StreamResponseListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LLM路由测试，用模拟的成员代替真实的LLM接口：慢成员一直不返回直到被取消，快成员在后台线程中输出
+ */
+public class LlmRouterTest {
+
+    private LlmRouter router;
+
+    // configId -> 该成员的请求是否被取消
+    private final Map<Integer, CancellationToken> tokens = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    public void setUp() {
+        router = new LlmRouter();
+        ReflectionTestUtils.setField(router, "configPools", "1,2");
+        ReflectionTestUtils.setField(router, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(router, "hedgePercentile", 90);
+        ReflectionTestUtils.setField(router, "hedgeMinDelay", 10L);
+        ReflectionTestUtils.setField(router, "hedgeDefaultDelay", 50L);
+        ReflectionTestUtils.setField(router, "alpha", 0.2);
+        ReflectionTestUtils.setField(router, "errorThreshold", 0.5);
+        router.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        router.destroy();
+    }
+
+    @Test
+    public void hedgesSlowMemberAndCancelsLoser() throws Exception {
+        // 让1排在前面
+        router.recordFirstToken(1, 100);
+        router.recordFirstToken(2, 200);
+        assertEquals(Arrays.asList(1, 2), router.route(1));
+
+        RecordingListener listener = new RecordingListener();
+        router.chatStream(1, (configId, token, member) -> {
+            tokens.put(configId, token);
+            if (configId == 2) {
+                reply(member, "来自2");
+            }
+        }, listener, new CancellationToken());
+
+        assertTrue(listener.done.await(2, TimeUnit.SECONDS));
+        assertEquals("来自2", listener.text.toString());
+        assertTrue(tokens.get(1).isCancelled());
+        assertFalse(tokens.get(2).isCancelled());
+        assertEquals(1L, router.getStats().get(2).get("wins"));
+    }
+
+    @Test
+    public void cancelledLoserIsNotCreditedWithSuccess() {
+        router.recordError(1);
+        double errorRate = (Double) router.getStats().get(1).get("errorRate");
+        router.recordFirstToken(1, 300);
+
+        // 下限低于当前估计时不改变耗时估计
+        router.recordCancelled(1, 100);
+        assertEquals(300L, router.getStats().get(1).get("ttftEwma"));
+        // 下限高于当前估计时往上拉
+        router.recordCancelled(1, 800);
+        assertEquals(400L, router.getStats().get(1).get("ttftEwma"));
+        // 被取消不影响错误率
+        assertEquals(errorRate * 0.8, (Double) router.getStats().get(1).get("errorRate"), 1e-9);
+        assertEquals(2L, router.getStats().get(1).get("cancelled"));
+    }
+
+    @Test
+    public void failsOverBeforeFirstToken() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        router.chatStream(1, (configId, token, member) -> {
+            if (configId == 1) {
+                member.onError(new IOException("429 Too Many Requests"));
+            } else {
+                reply(member, "来自" + configId);
+            }
+        }, listener, new CancellationToken());
+
+        assertTrue(listener.done.await(2, TimeUnit.SECONDS));
+        assertEquals("来自2", listener.text.toString());
+        assertEquals(null, listener.error);
+        // 出错的成员排到后面
+        router.recordError(1);
+        router.recordError(1);
+        router.recordError(1);
+        assertEquals(Arrays.asList(2, 1), router.route(1));
+    }
+
+    @Test
+    public void reportsErrorWhenAllMembersFail() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        router.chatStream(1, (configId, token, member) -> member.onError(new IOException("down " + configId)),
+                listener, new CancellationToken());
+
+        assertTrue(listener.done.await(2, TimeUnit.SECONDS));
+        assertTrue(listener.error instanceof IOException);
+        assertEquals("", listener.text.toString());
+    }
+
+    @Test
+    public void turnCancellationCancelsAllMembers() throws Exception {
+        CancellationToken turn = new CancellationToken();
+        router.chatStream(1, (configId, token, member) -> tokens.put(configId, token), new RecordingListener(), turn);
+        // 等待对冲请求发出
+        Thread.sleep(150);
+        turn.cancel();
+        assertTrue(tokens.get(1).isCancelled());
+        assertTrue(tokens.get(2).isCancelled());
+    }
+
+    @Test
+    public void unpooledConfigRoutesToItself() {
+        assertFalse(router.isPooled(3));
+        assertEquals(Arrays.asList(3), router.route(3));
+    }
+
+    private static void reply(StreamResponseListener member, String text) {
+        CompletableFuture.runAsync(() -> {
+            member.onStart();
+            member.onToken(text);
+            member.onComplete(text);
+        });
+    }
+
+    private static class RecordingListener implements StreamResponseListener {
+        private final StringBuilder text = new StringBuilder();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable error;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onToken(String token) {
+            text.append(token);
+        }
+
+        @Override
+        public void onComplete(String fullResponse) {
+            done.countDown();
+        }
+
+        @Override
+        public void onFinal(List<Map<String, Object>> allMessages, LlmService llmService) {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            done.countDown();
+        }
+    }
+}
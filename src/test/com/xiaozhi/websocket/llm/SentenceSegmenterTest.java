@@ -0,0 +1,119 @@
+package com.xiaozhi.websocket.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 断句语料测试，每条语料分别按整段、逐字符、固定长度三种token切分方式输入，结果应一致
+ */
+public class SentenceSegmenterTest {
+
+    private static final Object[][] CORPUS = {
+            // 不足最小长度的句子与下一句合并
+            { "你好呀！今天天气怎么样？我们出去走走吧。",
+                    Arrays.asList("你好呀！今天天气怎么样？", "我们出去走走吧。") },
+            { "第一行内容很长\n第二行内容也长\n",
+                    Arrays.asList("第一行内容很长", "第二行内容也长") },
+            // 停顿标点在句子够长时断句，太短时继续累积
+            { "好的，我明白了，马上帮你处理这个问题。",
+                    Arrays.asList("好的，我明白了，", "马上帮你处理这个问题。") },
+            // 小数点不断句
+            { "圆周率约等于3.14159，是个无理数。",
+                    Arrays.asList("圆周率约等于3.14159，", "是个无理数。") },
+            // 英文句点后跟空白时断句，缩写不断句
+            { "Hello there. Dr. Smith is here. Visit example.com today.",
+                    Arrays.asList("Hello there.", "Dr. Smith is here.", "Visit example.com today.") },
+            { "Use it, e.g. like this. Then stop...",
+                    Arrays.asList("Use it,", "e.g. like this.", "Then stop...") },
+            // 表情符号在句子够长时断句，末尾不足最小长度的内容不输出
+            { "今天真开心😊明天见",
+                    Arrays.asList("今天真开心😊") },
+            // 纯标点不输出
+            { "……。！", Arrays.asList() },
+    };
+
+    @Test
+    public void corpus() {
+        for (Object[] item : CORPUS) {
+            String text = (String) item[0];
+            @SuppressWarnings("unchecked")
+            List<String> expected = (List<String>) item[1];
+
+            assertEquals(expected, segment(text, text.length()), "整段输入: " + text);
+            assertEquals(expected, segment(text, 1), "逐字符输入: " + text);
+            assertEquals(expected, segment(text, 3), "三字符输入: " + text);
+        }
+    }
+
+    @Test
+    public void flushReturnsNullWithoutContent() {
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        segmenter.feed("嗯。");
+        assertNull(segmenter.flush());
+    }
+
+    @Test
+    public void firstChunkLengthBudget() {
+        SentenceSegmenter segmenter = new SentenceSegmenter(SentenceSegmenter.DEFAULT_MIN_SENTENCE_LENGTH, 8, 0);
+        // 首句超过8个字符后在非单词位置断句，不拆开英文单词
+        assertEquals(Arrays.asList("今天天气不错适合", "出去散步。"), segmenter.feed("今天天气不错适合出去散步。", 0));
+        segmenter.reset();
+
+        assertEquals(Arrays.asList("Hello world"), segmenter.feed("Hello world again", 0));
+    }
+
+    @Test
+    public void firstChunkTimeoutBudget() {
+        SentenceSegmenter segmenter = new SentenceSegmenter(SentenceSegmenter.DEFAULT_MIN_SENTENCE_LENGTH, 0, 500);
+        assertEquals(Arrays.asList(), segmenter.feed("我想一想", 1000));
+        // 超过等待时间后，在下一个token的末尾输出
+        assertEquals(Arrays.asList("我想一想这个"), segmenter.feed("这个", 1600));
+        // 后续句子停顿标点的断句长度变长
+        assertEquals(Arrays.asList(), segmenter.feed("问题，其实", 1700));
+        assertEquals(Arrays.asList("问题，其实很简单。"), segmenter.feed("很简单。", 1800));
+    }
+
+    @Test
+    public void firstChunkTimeoutWithoutNextToken() {
+        SentenceSegmenter segmenter = new SentenceSegmenter(SentenceSegmenter.DEFAULT_MIN_SENTENCE_LENGTH, 0, 500);
+        assertEquals(0, segmenter.getFirstChunkDeadline());
+        assertEquals(Arrays.asList(), segmenter.feed("我想一想这个", 1000));
+        assertEquals(1500, segmenter.getFirstChunkDeadline());
+        // 模型停顿，没有新的token，到期后由调用方取出已缓冲的内容
+        assertNull(segmenter.pollFirstChunk(1400));
+        assertEquals("我想一想这个", segmenter.pollFirstChunk(1500));
+        assertEquals(0, segmenter.getFirstChunkDeadline());
+        assertNull(segmenter.pollFirstChunk(1600));
+
+        // 停在英文单词中间时不断句
+        segmenter.reset();
+        segmenter.feed("Let me check", 1000);
+        assertNull(segmenter.pollFirstChunk(2000));
+    }
+
+    private static List<String> segment(String text, int tokenLength) {
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        List<String> sentences = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int end = Math.min(text.length(), i + tokenLength);
+            // 不拆开代理对
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            sentences.addAll(segmenter.feed(text.substring(i, end)));
+            i = end;
+        }
+        String rest = segmenter.flush();
+        if (rest != null) {
+            sentences.add(rest);
+        }
+        return sentences;
+    }
+}
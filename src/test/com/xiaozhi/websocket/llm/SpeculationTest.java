@@ -0,0 +1,96 @@
+package com.xiaozhi.websocket.llm;
+
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 推测请求测试：提交前输出不可见，提交后按顺序补发；放弃后不能再提交
+ */
+public class SpeculationTest {
+
+    @Test
+    public void buffersUntilCommitted() {
+        Speculation speculation = new Speculation("今天天气怎么样", new CancellationToken());
+        List<String> output = new ArrayList<>();
+        List<String> saved = new ArrayList<>();
+
+        speculation.acceptSentence("今天晴。", true, false);
+        speculation.runWhenCommitted(() -> saved.add("saved"));
+        assertTrue(output.isEmpty());
+        assertTrue(saved.isEmpty());
+
+        assertTrue(speculation.matches("今天天气怎么样？"));
+        assertTrue(speculation.commit((sentence, isFirst, isLast) -> output.add(sentence)));
+        speculation.acceptSentence("气温二十度。", false, true);
+
+        assertEquals(Arrays.asList("今天晴。", "气温二十度。"), output);
+        assertEquals(Arrays.asList("saved"), saved);
+        // 已提交后函数调用可以执行
+        assertTrue(speculation.proceedOrAbort());
+    }
+
+    @Test
+    public void sentencesArrivingDuringReplayKeepTheirOrder() throws Exception {
+        Speculation speculation = new Speculation("讲个故事", new CancellationToken());
+        List<String> output = new CopyOnWriteArrayList<>();
+        CountDownLatch replayStarted = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+
+        speculation.acceptSentence("从前有座山。", true, false);
+        speculation.acceptSentence("山里有座庙。", false, false);
+
+        // 补发第一句时阻塞，模拟处理函数较慢
+        CompletableFuture<Boolean> commit = CompletableFuture.supplyAsync(() -> speculation.commit(
+                (sentence, isFirst, isLast) -> {
+                    output.add(sentence);
+                    if (output.size() == 1) {
+                        replayStarted.countDown();
+                        try {
+                            resume.await(2, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }));
+        assertTrue(replayStarted.await(2, TimeUnit.SECONDS));
+
+        // LLM回调线程在补发期间输出新的句子，不能排到缓存的句子前面
+        speculation.acceptSentence("庙里有个老和尚。", false, true);
+        assertEquals(Arrays.asList("从前有座山。"), output);
+
+        resume.countDown();
+        assertTrue(commit.get(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("从前有座山。", "山里有座庙。", "庙里有个老和尚。"), output);
+
+        // 补发完成后直接交给处理函数
+        speculation.acceptSentence("完。", false, true);
+        assertEquals(4, output.size());
+    }
+
+    @Test
+    public void abortedSpeculationCannotCommit() {
+        CancellationToken token = new CancellationToken();
+        Speculation speculation = new Speculation("打开", token);
+        speculation.acceptSentence("好的。", true, true);
+
+        // 需要调用函数时放弃推测
+        assertFalse(speculation.proceedOrAbort());
+        assertTrue(token.isCancelled());
+        assertFalse(speculation.commit((sentence, isFirst, isLast) -> {
+            throw new AssertionError("不应输出");
+        }));
+        assertFalse(speculation.matches("打开灯"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.xiaozhi.websocket.llm.api;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式分片解析测试，响应流按整段和每次只返回几个字节两种方式读取，结果应一致
+ */
+public class StreamChunkParserTest {
+
+    @Test
+    public void contentAcrossReadBoundaries() throws IOException {
+        String body = ": keep-alive\n"
+                + "data: {\"id\":\"1\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"你好\"}}]}\r\n"
+                + "\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"\\\"引号\\\"\\n换行\\u4e16界😊\"}}],\"usage\":{\"total\":3}}\n"
+                + "data: [DONE]\n";
+        List<String> expected = Arrays.asList("你好", "\"引号\"\n换行世界😊");
+
+        for (int chunkSize : new int[] { Integer.MAX_VALUE, 1, 3, 7 }) {
+            StreamChunkParser parser = new StreamChunkParser();
+            BufferedSource source = source(body, chunkSize);
+            List<String> contents = new ArrayList<>();
+            int lines = 0;
+            while (parser.readLine(source)) {
+                lines++;
+                if (parser.parse() && parser.hasContent()) {
+                    contents.add(parser.getContent().toString());
+                }
+            }
+            assertEquals(expected, contents, "每次读取字节数: " + chunkSize);
+            assertEquals(5, lines, "每次读取字节数: " + chunkSize);
+        }
+    }
+
+    @Test
+    public void doneAndNonDataLinesAreSkipped() throws IOException {
+        StreamChunkParser parser = new StreamChunkParser();
+        BufferedSource source = source("event: message\ndata: [DONE]", 2);
+
+        assertTrue(parser.readLine(source));
+        assertFalse(parser.parse());
+        // 最后一行没有换行符
+        assertTrue(parser.readLine(source));
+        assertFalse(parser.parse());
+        assertFalse(parser.readLine(source));
+    }
+
+    @Test
+    public void toolCallsArrayForm() throws IOException {
+        StreamChunkParser parser = new StreamChunkParser();
+        BufferedSource source = source("data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,\"id\":\"call_1\","
+                + "\"function\":{\"name\":\"turn_on\",\"arguments\":\"{\\\"room\\\":\"}}]}}]}\n"
+                + "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,"
+                + "\"function\":{\"arguments\":\"\\\"客厅\\\"}\"}}]}}]}\n", 5);
+
+        assertTrue(parser.readLine(source));
+        assertTrue(parser.parse());
+        assertFalse(parser.hasContent());
+        assertEquals(1, parser.getToolCalls().size());
+        StreamChunkParser.ToolCallDelta first = parser.getToolCalls().get(0);
+        assertEquals(1, first.getIndex());
+        assertEquals("call_1", first.getId());
+        assertEquals("turn_on", first.getName());
+        assertEquals("{\"room\":", first.getArguments().toString());
+
+        // 片段对象在分片之间复用，上一分片的字段被清空
+        assertTrue(parser.readLine(source));
+        assertTrue(parser.parse());
+        StreamChunkParser.ToolCallDelta second = parser.getToolCalls().get(0);
+        assertEquals(1, second.getIndex());
+        assertNull(second.getId());
+        assertEquals("\"客厅\"}", second.getArguments().toString());
+    }
+
+    @Test
+    public void sparkToolCallsObjectForm() throws IOException {
+        StreamChunkParser parser = new StreamChunkParser();
+        BufferedSource source = source("data: {\"code\":0,\"choices\":[{\"delta\":{\"role\":\"assistant\",\"content\":\"\","
+                + "\"tool_calls\":{\"type\":\"function\",\"function\":{\"name\":\"play_music\","
+                + "\"arguments\":\"{\\\"song\\\":\\\"晴天\\\"}\"}}}}]}\n", 4);
+
+        assertTrue(parser.readLine(source));
+        assertTrue(parser.parse());
+        assertEquals(1, parser.getToolCalls().size());
+        StreamChunkParser.ToolCallDelta call = parser.getToolCalls().get(0);
+        assertEquals(0, call.getIndex());
+        assertEquals("play_music", call.getName());
+        assertEquals("{\"song\":\"晴天\"}", call.getArguments().toString());
+    }
+
+    @Test
+    public void ollamaMessageForm() throws IOException {
+        StreamChunkParser parser = new StreamChunkParser();
+        BufferedSource source = source("{\"model\":\"qwen\",\"message\":{\"role\":\"assistant\",\"content\":\"好的\"},\"done\":false}\n", 6);
+
+        assertTrue(parser.readLine(source));
+        assertTrue(parser.parse());
+        assertEquals("好的", parser.getContent().toString());
+    }
+
+    /**
+     * 每次最多返回chunkSize个字节的响应流，模拟网络分包
+     */
+    private static BufferedSource source(String body, int chunkSize) {
+        Buffer data = new Buffer().write(body.getBytes(StandardCharsets.UTF_8));
+        return Okio.buffer(new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                if (data.exhausted()) {
+                    return -1;
+                }
+                return data.read(sink, Math.min(byteCount, chunkSize));
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+}
@@ -0,0 +1,79 @@
+package com.xiaozhi.websocket.llm.memory;
+
+import com.xiaozhi.entity.SysMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConversationHistoryStoreTest {
+
+    @Test
+    public void loadsOnMissAndKeepsCapacity() {
+        ConversationHistoryStore store = new ConversationHistoryStore();
+        AtomicInteger loads = new AtomicInteger();
+
+        List<SysMessage> loaded = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            loaded.add(message("dev", 1, i % 2 == 0 ? "user" : "assistant", "db" + i));
+        }
+        assertEquals(4, store.get("dev", 1, () -> {
+            loads.incrementAndGet();
+            return loaded;
+        }).size());
+
+        // 容量10，追加后超出时从最旧的一问一答开始淘汰
+        for (int i = 0; i < 8; i++) {
+            store.append(message("dev", 1, i % 2 == 0 ? "user" : "assistant", "new" + i));
+        }
+        List<String> texts = store.get("dev", 1, null).stream()
+                .map(SysMessage::getMessage).collect(Collectors.toList());
+        assertEquals(Arrays.asList("db2", "db3", "new0", "new1", "new2", "new3", "new4", "new5", "new6", "new7"), texts);
+        assertEquals(1, loads.get());
+
+        // 不同角色是不同的对话
+        assertEquals(0, store.get("dev", 2, ArrayList::new).size());
+        store.evictDevice("dev");
+        assertEquals(0, store.get("dev", 1, ArrayList::new).size());
+    }
+
+    @Test
+    public void appendAfterEvictionDoesNotDuplicate() {
+        ConversationHistoryStore store = new ConversationHistoryStore();
+        ReflectionTestUtils.setField(store, "maxConversations", 1);
+        // 模拟数据库，消息先入库再追加到缓存
+        List<SysMessage> db = new ArrayList<>();
+        db.add(message("dev", 1, "user", "你好"));
+        db.add(message("dev", 1, "assistant", "你好呀"));
+        assertEquals(2, store.get("dev", 1, () -> new ArrayList<>(db)).size());
+
+        // 另一个对话挤掉了这个对话
+        store.get("other", 1, ArrayList::new);
+
+        SysMessage question = message("dev", 1, "user", "今天天气怎么样");
+        SysMessage answer = message("dev", 1, "assistant", "今天晴");
+        db.add(question);
+        db.add(answer);
+        store.append(question);
+        store.append(answer);
+
+        List<String> texts = store.get("dev", 1, () -> new ArrayList<>(db)).stream()
+                .map(SysMessage::getMessage).collect(Collectors.toList());
+        assertEquals(Arrays.asList("你好", "你好呀", "今天天气怎么样", "今天晴"), texts);
+    }
+
+    private static SysMessage message(String deviceId, Integer roleId, String sender, String text) {
+        SysMessage message = new SysMessage();
+        message.setDeviceId(deviceId);
+        message.setRoleId(roleId);
+        message.setSender(sender);
+        message.setMessage(text);
+        return message;
+    }
+}
@@ -0,0 +1,228 @@
+package com.xiaozhi.websocket.llm.providers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xiaozhi.websocket.llm.api.LlmService;
+import com.xiaozhi.websocket.llm.api.StreamResponseListener;
+import com.xiaozhi.websocket.llm.memory.ChatMemory;
+import com.xiaozhi.websocket.llm.memory.ModelContext;
+import com.xiaozhi.websocket.llm.tool.ActionType;
+import com.xiaozhi.websocket.llm.tool.ToolResponse;
+import com.xiaozhi.websocket.llm.tool.ToolType;
+import com.xiaozhi.websocket.llm.tool.function.FunctionSessionHolder;
+import com.xiaozhi.websocket.llm.tool.function.bean.FunctionCallTool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Coze流式接口测试，使用本地模拟的Coze服务：按请求路径返回预先设定的SSE事件，并记录收到的请求
+ */
+public class CozeServiceTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private CozeService service;
+
+    // 输出事件后保持连接的时间
+    private volatile long stallMillis;
+
+    // 请求路径 -> 返回的SSE事件
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+
+    // 收到的请求：路径和查询参数、请求体
+    private final List<String> requestUris = new CopyOnWriteArrayList<>();
+    private final List<String> requestBodies = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        service = new CozeService(baseUrl, null, null, "token", "bot_1");
+        ReflectionTestUtils.setField(service, "webClient", WebClient.create(baseUrl));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void streamsAnswerDeltas() throws Exception {
+        responses.put("/v3/chat", event("conversation.chat.created", "{\"id\":\"chat_1\"}")
+                + event("conversation.message.delta", "{\"type\":\"answer\",\"content\":\"你好，\"}")
+                // 非回答类型的消息不输出
+                + event("conversation.message.delta", "{\"type\":\"verbose\",\"content\":\"{}\"}")
+                + event("conversation.message.delta", "{\"type\":\"answer\",\"content\":\"今天天气不错。\"}")
+                + event("conversation.chat.completed", "{\"id\":\"chat_1\"}")
+                + event("done", "\"[DONE]\""));
+
+        RecordingListener listener = chat("今天天气怎么样", null);
+
+        assertNull(listener.error);
+        assertEquals("你好，今天天气不错。", listener.tokens.toString());
+        assertEquals("你好，今天天气不错。", listener.fullResponse);
+        assertTrue(requestBodies.get(0).contains("\"bot_id\":\"bot_1\""));
+        assertTrue(requestBodies.get(0).contains("今天天气怎么样"));
+    }
+
+    @Test
+    public void submitsToolOutputsAndStreamsSummary() throws Exception {
+        responses.put("/v3/chat", event("conversation.chat.requires_action",
+                "{\"id\":\"chat_1\",\"conversation_id\":\"conv_1\",\"required_action\":{\"submit_tool_outputs\":"
+                        + "{\"tool_calls\":[{\"id\":\"call_1\",\"function\":{\"name\":\"get_weather\","
+                        + "\"arguments\":\"{\\\"city\\\":\\\"北京\\\"}\"}}]}}}")
+                + event("done", "\"[DONE]\""));
+        responses.put("/v3/chat/submit_tool_outputs",
+                event("conversation.message.delta", "{\"type\":\"answer\",\"content\":\"北京今天晴。\"}")
+                        + event("conversation.chat.completed", "{\"id\":\"chat_1\"}"));
+
+        FunctionSessionHolder holder = new FunctionSessionHolder("s1", null);
+        List<Object> cities = new CopyOnWriteArrayList<>();
+        holder.registerFunction("get_weather", new FunctionCallTool("get_weather", ToolType.NONE, null, params -> {
+            cities.add(params.params.get("city"));
+            return new ToolResponse(ToolType.NONE, ActionType.REQLLM, "晴", "晴");
+        }));
+
+        RecordingListener listener = chat("北京天气", holder);
+
+        assertNull(listener.error);
+        assertEquals(1, cities.size());
+        assertEquals("北京", cities.get(0));
+        assertEquals("北京今天晴。", listener.fullResponse);
+        assertEquals(2, requestUris.size());
+        assertEquals("/v3/chat/submit_tool_outputs?conversation_id=conv_1&chat_id=chat_1", requestUris.get(1));
+        assertTrue(requestBodies.get(1).contains("\"tool_call_id\":\"call_1\""));
+    }
+
+    @Test
+    public void reportsFailedChat() throws Exception {
+        responses.put("/v3/chat", event("conversation.message.delta", "{\"type\":\"answer\",\"content\":\"好\"}")
+                + event("conversation.chat.failed",
+                        "{\"id\":\"chat_1\",\"last_error\":{\"code\":4011,\"msg\":\"余额不足\"}}")
+                + event("done", "\"[DONE]\""));
+
+        RecordingListener listener = chat("你好", null);
+
+        assertTrue(listener.error instanceof IOException);
+        assertTrue(listener.error.getMessage().contains("4011"));
+        assertTrue(listener.error.getMessage().contains("余额不足"));
+        assertNull(listener.fullResponse);
+    }
+
+    @Test
+    public void failsWhenStreamStalls() throws Exception {
+        ReflectionTestUtils.setField(service, "webClient",
+                CozeService.createClient(baseUrl, Duration.ofMillis(300)));
+        // 输出一段后停止输出，连接保持不关闭
+        stallMillis = 3000;
+        responses.put("/v3/chat", event("conversation.message.delta", "{\"type\":\"answer\",\"content\":\"好\"}"));
+
+        RecordingListener listener = chat("你好", null);
+
+        assertNotNull(listener.error);
+        assertEquals("好", listener.tokens.toString());
+        assertNull(listener.fullResponse);
+    }
+
+    private RecordingListener chat(String message, FunctionSessionHolder holder) throws Exception {
+        ModelContext modelContext = new ModelContext("aa:bb", "s1", 1, mock(ChatMemory.class), holder);
+        RecordingListener listener = new RecordingListener();
+        service.chatStream(message, modelContext, listener);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        return listener;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestUris.add(exchange.getRequestURI().toString());
+        requestBodies.add(read(exchange.getRequestBody()));
+        String body = responses.get(exchange.getRequestURI().getPath());
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (stallMillis > 0) {
+                Thread.sleep(stallMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String event(String name, String data) {
+        return "event:" + name + "\ndata:" + data + "\n\n";
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class RecordingListener implements StreamResponseListener {
+        private final StringBuilder tokens = new StringBuilder();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String fullResponse;
+        private volatile Throwable error;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onToken(String token) {
+            tokens.append(token);
+        }
+
+        @Override
+        public void onComplete(String fullResponse) {
+            this.fullResponse = fullResponse;
+            done.countDown();
+        }
+
+        @Override
+        public void onFinal(List<Map<String, Object>> allMessages, LlmService llmService) {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            done.countDown();
+        }
+    }
+}
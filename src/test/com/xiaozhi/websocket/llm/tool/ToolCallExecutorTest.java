@@ -0,0 +1,91 @@
+package com.xiaozhi.websocket.llm.tool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 工具调用执行器测试，线程池只有一个线程，第二个调用要排队等第一个执行完
+ */
+public class ToolCallExecutorTest {
+
+    private void configure(int threads, int queueSize, long timeoutMillis) {
+        ToolCallExecutor toolCallExecutor = new ToolCallExecutor();
+        ReflectionTestUtils.setField(toolCallExecutor, "threads", threads);
+        ReflectionTestUtils.setField(toolCallExecutor, "queueSize", queueSize);
+        ReflectionTestUtils.setField(toolCallExecutor, "configTimeoutMillis", timeoutMillis);
+        toolCallExecutor.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        configure(8, 256, 10000);
+    }
+
+    @Test
+    public void queuedCallGetsItsOwnTimeout() throws Exception {
+        configure(1, 4, 300);
+        List<Callable<ToolResponse>> calls = Arrays.asList(sleeping("第一个", 200), sleeping("第二个", 200));
+
+        long start = System.nanoTime();
+        CompletableFuture<List<ToolResponse>> future = ToolCallExecutor.invokeAll(calls);
+        // 调用方不等待函数执行
+        assertFalse(future.isDone());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+
+        // 第二个调用排队200ms，从开始执行算起没有超时
+        List<ToolResponse> responses = future.get(2, TimeUnit.SECONDS);
+        assertEquals("第一个", responses.get(0).getResponse());
+        assertEquals("第二个", responses.get(1).getResponse());
+    }
+
+    @Test
+    public void slowCallTimesOutAndIsInterrupted() throws Exception {
+        configure(2, 4, 100);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Callable<ToolResponse> slow = () -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return new ToolResponse(ToolType.NONE, ActionType.RESPONSE, null, "太慢了");
+        };
+
+        List<ToolResponse> responses = ToolCallExecutor.invokeAll(Arrays.asList(slow, sleeping("正常", 10)))
+                .get(2, TimeUnit.SECONDS);
+        assertEquals(ActionType.ERROR, responses.get(0).getActionType());
+        assertEquals("正常", responses.get(1).getResponse());
+        Thread.sleep(50);
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void rejectedCallBecomesError() throws Exception {
+        configure(1, 1, 1000);
+        List<ToolResponse> responses = ToolCallExecutor.invokeAll(
+                Arrays.asList(sleeping("第一个", 100), sleeping("第二个", 10), sleeping("第三个", 10)))
+                .get(2, TimeUnit.SECONDS);
+        assertEquals("第一个", responses.get(0).getResponse());
+        assertEquals("第二个", responses.get(1).getResponse());
+        assertEquals(ActionType.ERROR, responses.get(2).getActionType());
+    }
+
+    private static Callable<ToolResponse> sleeping(String response, long millis) {
+        return () -> {
+            Thread.sleep(millis);
+            return new ToolResponse(ToolType.NONE, ActionType.RESPONSE, null, response);
+        };
+    }
+}
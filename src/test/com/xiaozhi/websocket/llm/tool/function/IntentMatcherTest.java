@@ -0,0 +1,89 @@
+package com.xiaozhi.websocket.llm.tool.function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaozhi.websocket.iot.IotDescriptor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 本地意图匹配测试，设备描述取自ESP32固件上报的扬声器和灯
+ */
+public class IntentMatcherTest {
+
+    private static final String SPEAKER = "{\"properties\":{\"volume\":{\"description\":\"当前音量值\",\"type\":\"number\"}},"
+            + "\"methods\":{\"SetVolume\":{\"description\":\"设置音量\",\"parameters\":{\"volume\":"
+            + "{\"description\":\"0到100之间的整数\",\"type\":\"number\"}}}}}";
+
+    private static final String LAMP = "{\"properties\":{\"power\":{\"description\":\"灯是否打开\",\"type\":\"boolean\"}},"
+            + "\"methods\":{\"TurnOn\":{\"description\":\"打开灯\"},\"TurnOff\":{\"description\":\"关闭灯\"}}}";
+
+    private static IntentMatcher matcher() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        IntentMatcher matcher = new IntentMatcher();
+        JsonNode speaker = objectMapper.readTree(SPEAKER);
+        matcher.addIot(new IotDescriptor("Speaker", "扬声器", speaker.path("properties"), speaker.path("methods")));
+        JsonNode lamp = objectMapper.readTree(LAMP);
+        matcher.addIot(new IotDescriptor("Lamp", "一个测试用的灯", lamp.path("properties"), lamp.path("methods")));
+        return matcher;
+    }
+
+    @Test
+    public void methodWithoutParameter() throws Exception {
+        IntentMatcher matcher = matcher();
+        for (String text : new String[] { "打开灯", "开灯。", "请帮我把灯打开吧", "灯开一下", "开启灯" }) {
+            IntentMatcher.Match match = matcher.match(text);
+            assertNotNull(match, text);
+            assertEquals("TurnOn", match.getFunctionName(), text);
+        }
+        assertEquals("TurnOff", matcher.match("把灯关了").getFunctionName());
+        assertEquals("好的，已关闭灯", matcher.match("关灯").getParams().get("response_success"));
+    }
+
+    @Test
+    public void numberParameter() throws Exception {
+        IntentMatcher matcher = matcher();
+        Object[][] cases = {
+                { "音量调到50", 50 },
+                { "把音量设置为三十五", 35 },
+                { "音量调成百分之六十", 60 },
+                { "设置音量100", 100 },
+                { "音量十", 10 },
+        };
+        for (Object[] item : cases) {
+            IntentMatcher.Match match = matcher.match((String) item[0]);
+            assertNotNull(match, (String) item[0]);
+            assertEquals("SetVolume", match.getFunctionName());
+            assertEquals(item[1], match.getParams().get("volume"));
+        }
+        assertEquals("好的，已将音量调到50", matcher.match("音量调到50").getParams().get("response_success"));
+        // 超出参数描述中的范围
+        assertNull(matcher.match("音量调到200"));
+        // 多个数字
+        assertNull(matcher.match("音量调到20或者30"));
+    }
+
+    @Test
+    public void propertyQueryAndExit() throws Exception {
+        IntentMatcher matcher = matcher();
+        IntentMatcher.Match match = matcher.match("现在音量是多少？");
+        assertNotNull(match);
+        assertEquals("get_speaker_volume", match.getFunctionName());
+        assertEquals("当前音量是{value}", match.getParams().get("response_success"));
+
+        assertEquals(IntentMatcher.EXIT_FUNCTION, matcher.match("拜拜").getFunctionName());
+        assertEquals(IntentMatcher.EXIT_FUNCTION, matcher.match("不聊了").getFunctionName());
+    }
+
+    @Test
+    public void unmatchedFallsThrough() throws Exception {
+        IntentMatcher matcher = matcher();
+        assertNull(matcher.match("今天天气怎么样"));
+        assertNull(matcher.match("把灯打开然后讲个笑话"));
+        assertNull(matcher.match("音量大一点"));
+        assertNull(matcher.match(""));
+    }
+}
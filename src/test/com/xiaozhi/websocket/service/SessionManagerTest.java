@@ -0,0 +1,100 @@
+package com.xiaozhi.websocket.service;
+
+import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.websocket.llm.api.CancellationToken;
+import com.xiaozhi.websocket.stt.SttInputBuffer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 会话管理测试：关闭会话时一次释放会话上下文中的全部状态，轮次的令牌只由该轮次清除
+ */
+public class SessionManagerTest {
+
+    private SimpleMeterRegistry registry;
+    private SessionManager sessionManager;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        sessionManager = new SessionManager();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sessionManager.destroy();
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    public void closeSessionReleasesContextOnce() {
+        ReflectionTestUtils.setField(sessionManager, "inputBufferMs", 1000L);
+        ReflectionTestUtils.setField(sessionManager, "inputOverflowPolicy", SttInputBuffer.OverflowPolicy.DROP_OLDEST);
+        AtomicInteger closed = new AtomicInteger();
+        sessionManager.addCloseListener(context -> closed.incrementAndGet());
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.close()).thenReturn(Mono.empty());
+        SessionContext context = sessionManager.registerSession("s1", session);
+        sessionManager.registerDevice("s1", new SysDevice().setDeviceId("d1"));
+        sessionManager.setListeningState("s1", true);
+
+        SttInputBuffer sink = sessionManager.createAudioSink(context);
+        sink.emit(new byte[320]);
+        CancellationToken token = new CancellationToken();
+        context.replaceTurnToken(token);
+        CompletableFuture<String> audioFuture = new CompletableFuture<>();
+        context.replaceTurnAudioFuture(audioFuture);
+        assertEquals("s1", sessionManager.getSessionByDeviceId("d1"));
+        assertEquals(320, registry.get("xiaozhi.sessions.retained").gauge().value());
+        assertEquals(1, registry.get("xiaozhi.sessions.listening").gauge().value());
+
+        sessionManager.closeSession("s1");
+        sessionManager.closeSession("s1");
+
+        assertNull(sessionManager.getContext("s1"));
+        assertNull(sessionManager.getDeviceConfig("s1"));
+        assertTrue(token.isCancelled());
+        assertTrue(audioFuture.isDone());
+        assertEquals(1, sink.asFlux().collectList().block(Duration.ofSeconds(1)).size());
+        assertEquals(1, closed.get());
+        verify(session, times(1)).close();
+        assertNull(context.getTurnToken());
+        assertEquals(0, registry.get("xiaozhi.sessions").gauge().value());
+    }
+
+    @Test
+    public void finishedTurnDoesNotClearNewerTurnToken() {
+        SessionContext context = sessionManager.registerSession("s1", mock(WebSocketSession.class));
+        CancellationToken finished = new CancellationToken();
+        context.replaceTurnToken(finished);
+        // 上一轮最后一句发送期间开始了新一轮
+        CancellationToken current = new CancellationToken();
+        assertEquals(finished, context.replaceTurnToken(current));
+
+        assertFalse(context.clearTurnTokenIf(finished));
+        assertEquals(current, context.getTurnToken());
+        assertTrue(context.clearTurnTokenIf(current));
+        assertNull(context.getTurnToken());
+    }
+}
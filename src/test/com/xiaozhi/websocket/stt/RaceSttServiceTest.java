@@ -0,0 +1,121 @@
+package com.xiaozhi.websocket.stt;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 竞速识别测试，模拟的识别服务在音频结束后按设定的延迟输出结果
+ */
+public class RaceSttServiceTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    private static class FakeSttService implements SttService {
+        private final String name;
+        private final String text;
+        private final long delayMillis;
+        private final List<byte[]> received = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        FakeSttService(String name, String text, long delayMillis) {
+            this.name = name;
+            this.text = text;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public String getProviderName() {
+            return name;
+        }
+
+        @Override
+        public String recognition(byte[] audioData) {
+            return text;
+        }
+
+        @Override
+        public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
+            return audioStream
+                    .doOnNext(received::add)
+                    .then(Flux.just(text).delayElements(Duration.ofMillis(delayMillis)).next())
+                    .flux()
+                    .doOnCancel(() -> cancelled.set(true));
+        }
+    }
+
+    @Test
+    public void fasterProviderWinsAndLoserIsCancelled() {
+        FakeSttService primary = new FakeSttService("slow", "打开灯", 2000);
+        FakeSttService secondary = new FakeSttService("fast", "打开等", 10);
+        RaceSttService race = new RaceSttService(primary, secondary, 50);
+
+        byte[] frame = new byte[320];
+        List<String> results = race.streamRecognition(Flux.just(frame, frame))
+                .collectList().block(Duration.ofSeconds(1));
+
+        assertEquals(Arrays.asList("打开等"), results);
+        assertTrue(primary.cancelled.get());
+        // 两个服务收到的是同一个音频帧对象
+        assertEquals(2, primary.received.size());
+        assertSame(secondary.received.get(0), primary.received.get(0));
+        assertEquals(1, registry.get("xiaozhi.stt.race.wins").tag("provider", "fast").counter().count());
+        assertEquals(1, registry.get("xiaozhi.stt.race.cancelled").tag("provider", "slow").counter().count());
+        assertEquals(1, registry.get("xiaozhi.stt.race.latency").tag("provider", "fast").timer().count());
+    }
+
+    @Test
+    public void primaryWithinGraceWindowWins() {
+        FakeSttService primary = new FakeSttService("primary", "打开灯", 60);
+        FakeSttService secondary = new FakeSttService("secondary", "打开等", 10);
+        RaceSttService race = new RaceSttService(primary, secondary, 1000);
+
+        String result = race.streamRecognition(Flux.just(new byte[320]))
+                .last().block(Duration.ofSeconds(1));
+
+        assertEquals("打开灯", result);
+    }
+
+    @Test
+    public void primaryPartialIsNotTakenAsFinalWhenNobodyRecognizes() {
+        // 首选服务输出中间结果后失败，备选服务没有识别出内容
+        SttService primary = new FakeSttService("partial", "", 0) {
+            @Override
+            public Flux<String> streamRecognition(Flux<byte[]> audioStream) {
+                return audioStream.thenMany(Flux.concat(Flux.just("打开"),
+                        Flux.error(new IllegalStateException("连接断开"))));
+            }
+        };
+        FakeSttService secondary = new FakeSttService("empty", "", 10);
+        RaceSttService race = new RaceSttService(primary, secondary, 50);
+
+        List<String> results = race.streamRecognition(Flux.just(new byte[320]))
+                .collectList().block(Duration.ofSeconds(1));
+
+        assertEquals(Arrays.asList("打开", ""), results);
+    }
+}
@@ -0,0 +1,161 @@
+package com.xiaozhi.websocket.stt;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 识别输入缓冲区测试，10ms容量为320字节，每帧160字节，识别服务还没开始读取或读取跟不上时写满
+ */
+public class SttInputBufferTest {
+
+    private static byte[] frame(int value) {
+        byte[] data = new byte[160];
+        data[0] = (byte) value;
+        return data;
+    }
+
+    @Test
+    public void dropOldestKeepsNewestAudio() {
+        SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.emit(frame(i)));
+        }
+        buffer.complete();
+
+        List<Integer> received = buffer.asFlux().map(data -> (int) data[0]).collectList().block(Duration.ofSeconds(1));
+        assertEquals(Arrays.asList(2, 3), received);
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(320, buffer.getHighWaterBytes());
+    }
+
+    @Test
+    public void publishesDropsAndHighWater() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.DROP_OLDEST);
+            for (int i = 0; i < 4; i++) {
+                buffer.emit(frame(i));
+            }
+            buffer.complete();
+            // 重复结束只记录一次最高水位
+            buffer.complete();
+
+            assertEquals(4, registry.get("xiaozhi.stt.input.frames").counter().count());
+            assertEquals(2, registry.get("xiaozhi.stt.input.dropped").counter().count());
+            assertEquals(1, registry.get("xiaozhi.stt.input.high.water").summary().count());
+            assertEquals(320, registry.get("xiaozhi.stt.input.high.water").summary().max());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    public void failPolicyEndsRecognition() {
+        SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.FAIL);
+        assertTrue(buffer.emit(frame(0)));
+        assertTrue(buffer.emit(frame(1)));
+        assertFalse(buffer.emit(frame(2)));
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<byte[]> received = buffer.asFlux()
+                .doOnError(error::set)
+                .onErrorResume(e -> Flux.empty())
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        assertEquals(2, received.size());
+        assertTrue(error.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void blockPolicyWaitsThenDrops() {
+        SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.BLOCK);
+        assertTrue(buffer.emit(frame(0)));
+        assertTrue(buffer.emit(frame(1)));
+
+        long start = System.nanoTime();
+        assertFalse(buffer.emit(frame(2)));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(10).toNanos());
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void slowSenderLeavesAudioInBuffer() throws InterruptedException {
+        SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.DROP_OLDEST);
+        // 模拟网络发送：第一帧写出后连接一直不可写，直到恢复
+        List<Integer> sent = new CopyOnWriteArrayList<>();
+        AtomicBoolean networkUp = new AtomicBoolean(false);
+        CountDownLatch done = new CountDownLatch(1);
+        SttAudioSender.send(buffer.asFlux(), data -> sent.add((int) data[0]),
+                () -> sent.isEmpty() || networkUp.get(), e -> done.countDown(), done::countDown);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.emit(frame(i)));
+        }
+        // 只取走了一帧，其余留在缓冲区里按容量丢弃
+        assertEquals(Arrays.asList(0), sent);
+        assertEquals(320, buffer.getBufferedBytes());
+        assertEquals(2, buffer.getDroppedCount());
+
+        networkUp.set(true);
+        buffer.complete();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 3, 4), sent);
+    }
+
+    @Test
+    public void slowConsumerOnOtherThreadFillsBuffer() throws InterruptedException {
+        SttInputBuffer buffer = new SttInputBuffer("test", 10, SttInputBuffer.OverflowPolicy.DROP_OLDEST);
+        Scheduler worker = Schedulers.newSingle("slow-stt");
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            // 与推理通道一样切换线程处理，只预取两帧
+            buffer.asFlux()
+                    .publishOn(worker, 2)
+                    .doOnNext(data -> {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        received.add((int) data[0]);
+                    })
+                    .doFinally(signal -> done.countDown())
+                    .subscribe();
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(buffer.emit(frame(i)));
+            }
+            // 处理线程取走的帧之外最多缓冲两帧，其余被丢弃
+            assertEquals(320, buffer.getBufferedBytes());
+            assertTrue(buffer.getDroppedCount() >= 6);
+
+            release.countDown();
+            buffer.complete();
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertEquals(10, received.size() + buffer.getDroppedCount());
+            assertEquals(Arrays.asList(8, 9), received.subList(received.size() - 2, received.size()));
+        } finally {
+            worker.dispose();
+        }
+    }
+}
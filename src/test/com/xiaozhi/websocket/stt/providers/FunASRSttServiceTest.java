@@ -0,0 +1,156 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import com.alibaba.fastjson.JSON;
+import com.xiaozhi.entity.SysConfig;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * FunASR连接池测试，使用本地模拟的FunASR服务：统计收到的音频字节数，收到结束标记后返回is_final结果
+ */
+public class FunASRSttServiceTest {
+
+    private StandInServer server;
+    private FunASRSttService service;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new StandInServer(port);
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (service != null) {
+            service.shutdown();
+        }
+        server.stop(1000);
+    }
+
+    @Test
+    public void reusesConnectionAcrossUtterances() {
+        service = createService(0);
+
+        assertEquals("3200", recognize(3200));
+        assertEquals("6400", recognize(6400));
+        assertEquals(1, server.opened.get());
+    }
+
+    @Test
+    public void utteranceBorrowsWarmConnection() throws Exception {
+        service = createService(1);
+        // 等待预热连接建立
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.opened.get() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+
+        assertEquals("1600", recognize(1600));
+        assertEquals(1, server.opened.get());
+    }
+
+    @Test
+    public void stopsSendingBeforeConnectionIsReused() throws Exception {
+        service = createService(0);
+        // 服务端收到第一帧就返回最终结果，音频仍在持续输入
+        server.finalOnFirstFrame = true;
+        Flux<byte[]> endless = Flux.interval(Duration.ofMillis(1)).onBackpressureDrop().map(i -> new byte[320]);
+        assertEquals("320", service.streamRecognition(endless).blockLast(Duration.ofSeconds(5)));
+
+        // 结果返回前已在途的帧到达后，归还的连接上不再有音频
+        Thread.sleep(100);
+        int received = server.framesReceived.get();
+        Thread.sleep(200);
+        assertEquals(received, server.framesReceived.get());
+
+        // 复用同一个连接
+        server.finalOnFirstFrame = false;
+        assertEquals("3200", recognize(3200));
+        assertEquals(1, server.opened.get());
+    }
+
+    private FunASRSttService createService(int minIdle) {
+        SysConfig config = new SysConfig().setApiUrl("ws://127.0.0.1:" + server.getPort());
+        return new FunASRSttService(config, minIdle, 4, 60000, 30);
+    }
+
+    private String recognize(int bytes) {
+        Flux<byte[]> audio = Flux.range(0, bytes / 320).map(i -> new byte[320]);
+        return service.streamRecognition(audio).blockLast(Duration.ofSeconds(5));
+    }
+
+    private static class StandInServer extends WebSocketServer {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger opened = new AtomicInteger();
+        // 收到第一帧音频就返回最终结果
+        private volatile boolean finalOnFirstFrame = false;
+        private final AtomicInteger framesReceived = new AtomicInteger();
+
+        StandInServer(int port) {
+            super(new InetSocketAddress("127.0.0.1", port));
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            opened.incrementAndGet();
+            conn.setAttachment(new AtomicInteger());
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, ByteBuffer message) {
+            framesReceived.incrementAndGet();
+            int received = conn.<AtomicInteger>getAttachment().addAndGet(message.remaining());
+            if (finalOnFirstFrame && received == message.remaining()) {
+                conn.<AtomicInteger>getAttachment().set(0);
+                conn.send("{\"is_final\":true,\"text\":\"" + received + "\"}");
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            Boolean speaking = JSON.parseObject(message).getBoolean("is_speaking");
+            if (Boolean.TRUE.equals(speaking)) {
+                // 新的一句话从头计数
+                conn.<AtomicInteger>getAttachment().set(0);
+            } else if (Boolean.FALSE.equals(speaking)) {
+                int received = conn.<AtomicInteger>getAttachment().getAndSet(0);
+                conn.send("{\"is_final\":true,\"text\":\"" + received + "\"}");
+            }
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.xiaozhi.websocket.stt.providers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Vosk批量识别测试，不加载模型：识别器把每块音频的首字节当作识别出的字母，整块送满时算作一个完整分段
+ */
+public class VoskSttServiceTest {
+
+    // 与VoskSttService中每次送入识别器的字节数一致
+    private static final int CHUNK = 16000 * 2 * 2;
+
+    private VoskSttService service;
+    private VoskWorkers workers;
+    private VoskRecognizerPool recognizerPool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        service = new VoskSttService(2, 0, 0);
+        workers = new VoskWorkers(2);
+        recognizerPool = mock(VoskRecognizerPool.class);
+        when(recognizerPool.acquire()).thenAnswer(invocation -> fakeRecognizer());
+        ReflectionTestUtils.setField(service, "workers", workers);
+        ReflectionTestUtils.setField(service, "recognizerPool", recognizerPool);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        workers.close();
+    }
+
+    @Test
+    public void joinsAllSegmentsOfLongAudio() {
+        // 两个完整分段加一段不足一块的尾部
+        byte[] audio = new byte[CHUNK * 2 + 100];
+        audio[0] = 'a';
+        audio[CHUNK] = 'b';
+        audio[CHUNK * 2] = 'c';
+
+        assertEquals("abc", service.recognition(audio));
+        verify(recognizerPool).release(any(Recognizer.class), eq(true));
+    }
+
+    @Test
+    public void batchResultsFollowInputOrder() {
+        // 第一段识别最慢，结果仍排在第一位
+        List<String> results = service.batchRecognition(Arrays.asList(
+                audio('s', 300), audio('m', 100), audio('f', 0), audio('e', 0)));
+
+        assertEquals(Arrays.asList("s", "m", "f", "e"), results);
+    }
+
+    @Test
+    public void failedBufferBecomesEmptyResult() throws Exception {
+        when(recognizerPool.acquire())
+                .thenAnswer(invocation -> fakeRecognizer())
+                .thenThrow(new IOException("创建识别器失败"))
+                .thenAnswer(invocation -> fakeRecognizer());
+
+        List<String> results = service.batchRecognition(Arrays.asList(audio('x', 200), audio('y', 0)));
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.stream().filter(String::isEmpty).count());
+    }
+
+    /**
+     * 一段不足一块的音频，首字节为识别出的字母，第二个字节为识别耗时（十毫秒为单位）
+     */
+    private static byte[] audio(char letter, int delayMillis) {
+        byte[] audio = new byte[100];
+        audio[0] = (byte) letter;
+        audio[1] = (byte) (delayMillis / 10);
+        return audio;
+    }
+
+    private static Recognizer fakeRecognizer() throws Exception {
+        Recognizer recognizer = mock(Recognizer.class);
+        StringBuilder pending = new StringBuilder();
+        when(recognizer.acceptWaveForm(any(byte[].class), anyInt())).thenAnswer(invocation -> {
+            byte[] buffer = invocation.getArgument(0);
+            int length = invocation.getArgument(1);
+            Thread.sleep(buffer[1] * 10L);
+            pending.append((char) buffer[0]);
+            return length == CHUNK;
+        });
+        when(recognizer.getResult()).thenAnswer(invocation -> take(pending));
+        when(recognizer.getFinalResult()).thenAnswer(invocation -> take(pending));
+        return recognizer;
+    }
+
+    private static String take(StringBuilder pending) {
+        String json = "{\"text\":\"" + pending + "\"}";
+        pending.setLength(0);
+        return json;
+    }
+}
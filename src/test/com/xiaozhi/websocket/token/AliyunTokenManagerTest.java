@@ -0,0 +1,117 @@
+package com.xiaozhi.websocket.token;
+
+import com.xiaozhi.entity.SysConfig;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 阿里云Token管理测试，用计数的模拟接口代替真实的CreateToken请求
+ */
+public class AliyunTokenManagerTest {
+
+    private AliyunTokenManager manager;
+    private SimpleMeterRegistry registry;
+    private final AtomicInteger fetches = new AtomicInteger();
+    // 模拟接口返回的有效期（秒）
+    private volatile long ttlSeconds = 3600;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    // 只有该配置的请求等待gate，为null时所有配置都等待
+    private volatile Integer gatedConfigId;
+
+    private final SysConfig config = new SysConfig().setConfigId(1).setProvider("aliyun");
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        manager = new AliyunTokenManager();
+        Function<SysConfig, Map<String, String>> fetcher = c -> {
+            try {
+                if (gatedConfigId == null || gatedConfigId.equals(c.getConfigId())) {
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int n = fetches.incrementAndGet();
+            Map<String, String> tokenInfo = new HashMap<>();
+            tokenInfo.put("token", "token-" + n);
+            tokenInfo.put("expireTime", String.valueOf(System.currentTimeMillis() / 1000 + ttlSeconds));
+            return tokenInfo;
+        };
+        ReflectionTestUtils.setField(manager, "tokenFetcher", fetcher);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        manager.destroy();
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    public void concurrentCallersShareOneRefresh() throws Exception {
+        gate = new CountDownLatch(1);
+        List<CompletableFuture<String>> callers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            callers.add(CompletableFuture.supplyAsync(() -> manager.getValidToken(config)));
+        }
+        Thread.sleep(100);
+        gate.countDown();
+        for (CompletableFuture<String> caller : callers) {
+            assertEquals("token-1", caller.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void servesCurrentTokenWhileRenewing() throws Exception {
+        // 有效期10秒，立即到达续期时间点
+        ttlSeconds = 10;
+        ReflectionTestUtils.setField(manager, "refreshFraction", 0.0);
+        assertEquals("token-1", manager.getValidToken(config));
+
+        gate = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        assertEquals("token-1", manager.getValidToken(config));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        gate.countDown();
+        assertEquals("token-2", manager.refreshAsync(config).get(5, TimeUnit.SECONDS));
+        assertTrue(registry.get("xiaozhi.aliyun.token.stale.serves").counter().count() >= 1);
+        assertEquals(2, registry.get("xiaozhi.aliyun.token.refresh").tag("result", "success").timer().count());
+        assertTrue(registry.get("xiaozhi.aliyun.token.expires.in").tag("config", "1").gauge().value() > 0);
+    }
+
+    @Test
+    public void slowConfigDoesNotDelayOthers() throws Exception {
+        // 配置1的接口卡住，配置2仍然可以立即获取
+        gatedConfigId = 1;
+        gate = new CountDownLatch(1);
+        CompletableFuture<String> slow = manager.refreshAsync(config);
+
+        SysConfig other = new SysConfig().setConfigId(2).setProvider("aliyun");
+        long start = System.currentTimeMillis();
+        assertTrue(manager.getValidToken(other).startsWith("token-"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        gate.countDown();
+        assertTrue(slow.get(5, TimeUnit.SECONDS).startsWith("token-"));
+    }
+}
@@ -37,6 +37,7 @@ export default {
     query: "/api/message/query",
     update: "/api/message/update",
     delete: "/api/message/delete",
+    audio: "/api/message/audio",
     export: "/api/message/export"
   },
   config: {